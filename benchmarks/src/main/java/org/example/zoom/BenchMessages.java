@@ -0,0 +1,41 @@
+package org.example.zoom.websocket;
+
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Representative relay messages and fresh meeting ids for the benchmarks.
+ */
+final class BenchMessages {
+
+    private static final AtomicInteger NEXT_MEETING = new AtomicInteger(300000);
+
+    // About the size of a 320x240 JPEG camera frame
+    private static final int VIDEO_FRAME_BYTES = 12 * 1024;
+
+    private BenchMessages() {
+    }
+
+    /**
+     * A six-digit meeting id not used by any other trial in this JVM.
+     */
+    static String newMeetingId() {
+        return String.valueOf(NEXT_MEETING.incrementAndGet());
+    }
+
+    static String of(String type, String meetingId, String username) {
+        switch (type) {
+            case "CHAT":
+                return "CHAT|" + meetingId + "|" + username + "|Can everyone see the slides? I am on page 4 now.";
+            case "HEARTBEAT":
+                return "HEARTBEAT|" + meetingId + "|" + username + "|" + System.currentTimeMillis();
+            case "VIDEO_FRAME":
+                byte[] jpeg = new byte[VIDEO_FRAME_BYTES];
+                new Random(7).nextBytes(jpeg);
+                return "VIDEO_FRAME|" + meetingId + "|" + username + "|" + Base64.getEncoder().encodeToString(jpeg);
+            default:
+                throw new IllegalArgumentException("No sample message for " + type);
+        }
+    }
+}
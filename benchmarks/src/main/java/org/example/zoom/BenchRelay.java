@@ -0,0 +1,141 @@
+package org.example.zoom.websocket;
+
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.handshake.HandshakeImpl1Client;
+
+/**
+ * The relay driven by mock connections: {@link SimpleNativeWebSocketServer}
+ * attached to a transport that only counts what it is asked to write. Messages
+ * go through the same listener callbacks a real transport uses and are handled
+ * on the benchmark thread.
+ */
+final class BenchRelay {
+
+    static {
+        // Every mock connection is admitted at once
+        System.setProperty("zoom.admission.ipBurst", "1000000");
+        System.setProperty("zoom.admission.globalBurst", "1000000");
+        System.setProperty("zoom.admission.ipRate", "1000000");
+        System.setProperty("zoom.admission.globalRate", "1000000");
+    }
+
+    private static BenchRelay instance;
+
+    final SimpleNativeWebSocketServer server;
+    final RelayTransport.Listener listener;
+    final CountingTransport transport = new CountingTransport();
+    private int nextId;
+
+    private BenchRelay() {
+        server = SimpleNativeWebSocketServer.getInstance();
+        try {
+            // Not part of the relay's API, so it stays private there
+            Method attach = SimpleNativeWebSocketServer.class.getDeclaredMethod("attachTransport", RelayTransport.class);
+            attach.setAccessible(true);
+            listener = (RelayTransport.Listener) attach.invoke(server, transport);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot attach the benchmark transport", e);
+        }
+    }
+
+    static synchronized BenchRelay get() {
+        if (instance == null) {
+            instance = new BenchRelay();
+        }
+        return instance;
+    }
+
+    /**
+     * Open a connection the way a transport would after the handshake.
+     */
+    synchronized MockWebSocket connect(String username, boolean binaryMedia) {
+        MockWebSocket conn = new MockWebSocket(this, ++nextId);
+        HandshakeImpl1Client handshake = new HandshakeImpl1Client();
+        handshake.setResourceDescriptor("/");
+        handshake.put("Device-ID", username);
+        handshake.put("Device-Name", username);
+        if (binaryMedia) {
+            handshake.put(BinaryMediaFrame.HANDSHAKE_HEADER, BinaryMediaFrame.HANDSHAKE_VALUE);
+        }
+        listener.onOpen(conn, handshake);
+        return conn;
+    }
+
+    /**
+     * Connect {@code count} clients and join them all to one meeting.
+     */
+    List<MockWebSocket> connectMeeting(String meetingId, int count, boolean binaryMedia) {
+        List<MockWebSocket> members = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String username = "user" + i + "-" + meetingId;
+            MockWebSocket conn = connect(username, binaryMedia);
+            listener.onMessage(conn, "USER_JOINED|" + meetingId + "|" + username + "|joined the meeting");
+            members.add(conn);
+        }
+        return members;
+    }
+
+    void disconnectAll(List<MockWebSocket> connections) {
+        for (MockWebSocket conn : connections) {
+            conn.close(1000, "Benchmark finished");
+        }
+    }
+
+    void onClosed(MockWebSocket conn, int code, String reason) {
+        listener.onClose(conn, code, reason, false);
+    }
+
+    void onPong(MockWebSocket conn) {
+        listener.onPong(conn);
+    }
+
+    /**
+     * Takes every frame as written the moment it is queued, so outbound queues
+     * never back up and the benchmarks measure the relay rather than a socket.
+     */
+    static final class CountingTransport implements RelayTransport {
+        long frames;
+        long bytes;
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void stop(int timeoutMs) {
+        }
+
+        @Override
+        public int getPort() {
+            return 0;
+        }
+
+        @Override
+        public InetSocketAddress getAddress() {
+            return new InetSocketAddress("127.0.0.1", 0);
+        }
+
+        @Override
+        public void write(WebSocket conn, ByteBuffer frame) {
+            frames++;
+            bytes += frame.remaining();
+            frame.position(frame.limit());
+        }
+
+        @Override
+        public boolean usesDeflate(WebSocket conn) {
+            return false;
+        }
+
+        @Override
+        public String describe() {
+            return "counting";
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package org.example.zoom.websocket;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building and sending the DEVICE_LIST a client asks for with
+ * GET_DEVICE_LIST, with {@code devices} clients connected.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DeviceListBenchmark {
+
+    @Param({"10", "50", "200"})
+    public int devices;
+
+    private BenchRelay relay;
+    private final List<MockWebSocket> connections = new ArrayList<>();
+    private MockWebSocket requester;
+
+    @Setup
+    public void setUp() {
+        relay = BenchRelay.get();
+        for (int i = 0; i < devices; i++) {
+            connections.add(relay.connect("device" + i, false));
+        }
+        requester = connections.get(0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        relay.disconnectAll(connections);
+    }
+
+    @Benchmark
+    public void sendConnectedDevicesList() {
+        relay.listener.onMessage(requester, "GET_DEVICE_LIST|global|device0|");
+    }
+}
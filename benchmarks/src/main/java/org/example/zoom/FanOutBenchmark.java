@@ -0,0 +1,66 @@
+package org.example.zoom.websocket;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Meeting fan-out: one message encoded once and queued for every member.
+ * {@code broadcastToMeeting} is the relay's own entry point;
+ * {@code relayFromMember} adds the parse and routing of a message arriving
+ * from a member, which then goes to the other {@code recipients - 1}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class FanOutBenchmark {
+
+    @Param({"2", "10", "50", "200"})
+    public int recipients;
+
+    @Param({"CHAT", "VIDEO_FRAME"})
+    public String type;
+
+    private BenchRelay relay;
+    private List<MockWebSocket> members;
+    private String meetingId;
+    private String message;
+
+    @Setup
+    public void setUp() {
+        relay = BenchRelay.get();
+        meetingId = BenchMessages.newMeetingId();
+        members = relay.connectMeeting(meetingId, recipients, false);
+        message = BenchMessages.of(type, meetingId, "user0-" + meetingId);
+    }
+
+    @TearDown
+    public void tearDown() {
+        relay.disconnectAll(members);
+    }
+
+    @Benchmark
+    public void broadcastToMeeting() {
+        relay.server.broadcastToMeeting(meetingId, message);
+    }
+
+    @Benchmark
+    public void relayFromMember() {
+        relay.listener.onMessage(members.get(0), message);
+    }
+}
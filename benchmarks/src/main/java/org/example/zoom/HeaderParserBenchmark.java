@@ -0,0 +1,64 @@
+package org.example.zoom.websocket;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Routing a message on its header: {@code split("\\|", -1)}, which copies
+ * the payload into a new string, versus {@link MessageHeader}, which only
+ * reads the first three fields. Run with {@code -prof gc} to see the bytes
+ * allocated per routed message.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class HeaderParserBenchmark {
+
+    @Param({"CHAT", "HEARTBEAT", "VIDEO_FRAME"})
+    public String type;
+
+    private String message;
+    private final MessageHeader header = new MessageHeader();
+
+    @Setup
+    public void setUp() {
+        message = BenchMessages.of(type, "123456", "alice");
+    }
+
+    // What handleMessage did before routing on MessageHeader
+    @Benchmark
+    public int routeWithSplit() {
+        String[] parts = message.split("\\|", -1);
+        return parts.length >= 4 ? route(parts[0], parts[1], parts[2]) : 0;
+    }
+
+    @Benchmark
+    public int routeWithHeader() {
+        return header.parse(message) ? route(header.type(), header.meetingId(), header.username()) : 0;
+    }
+
+    private static int route(String type, String meetingId, String username) {
+        switch (type) {
+            case "VIDEO_FRAME":
+                return 1 + meetingId.length();
+            case "CHAT":
+                return 2 + username.length();
+            default:
+                return 3;
+        }
+    }
+}
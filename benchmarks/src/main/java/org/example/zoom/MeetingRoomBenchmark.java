@@ -0,0 +1,70 @@
+package org.example.zoom.websocket;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Meeting-room membership with {@code roomSize} members already in the room:
+ * the room table operations alone ({@code addToMeeting} / {@code removeFromMeeting}),
+ * and a full join and leave through USER_JOINED / USER_LEFT, which also
+ * announces both to the room.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MeetingRoomBenchmark {
+
+    @Param({"2", "10", "50", "200"})
+    public int roomSize;
+
+    private BenchRelay relay;
+    private List<MockWebSocket> members;
+    private MockWebSocket joiner;
+    private String meetingId;
+    private String joinMessage;
+    private String leaveMessage;
+
+    @Setup
+    public void setUp() {
+        relay = BenchRelay.get();
+        meetingId = BenchMessages.newMeetingId();
+        members = relay.connectMeeting(meetingId, roomSize, false);
+        joiner = relay.connect("joiner-" + meetingId, false);
+        joinMessage = "USER_JOINED|" + meetingId + "|joiner-" + meetingId + "|joined the meeting";
+        leaveMessage = "USER_LEFT|" + meetingId + "|joiner-" + meetingId + "|left the meeting";
+    }
+
+    @TearDown
+    public void tearDown() {
+        relay.disconnectAll(members);
+        joiner.close();
+    }
+
+    @Benchmark
+    public void addAndRemove() {
+        relay.server.addToMeeting(joiner, meetingId);
+        relay.server.removeFromMeeting(joiner, meetingId);
+    }
+
+    @Benchmark
+    public void joinAndLeave() {
+        relay.listener.onMessage(joiner, joinMessage);
+        relay.listener.onMessage(joiner, leaveMessage);
+    }
+}
@@ -0,0 +1,58 @@
+package org.example.zoom.websocket;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The whole of the relay's {@code handleMessage} for a sender alone in its
+ * meeting (so no fan-out). The header parse on its own, against the
+ * {@code split} it replaced, is in {@link HeaderParserBenchmark}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageParsingBenchmark {
+
+    @Param({"CHAT", "HEARTBEAT", "VIDEO_FRAME"})
+    public String type;
+
+    private BenchRelay relay;
+    private List<MockWebSocket> members;
+    private MockWebSocket sender;
+    private String message;
+
+    @Setup
+    public void setUp() {
+        relay = BenchRelay.get();
+        String meetingId = BenchMessages.newMeetingId();
+        members = relay.connectMeeting(meetingId, 1, false);
+        sender = members.get(0);
+        message = BenchMessages.of(type, meetingId, "user0-" + meetingId);
+    }
+
+    @TearDown
+    public void tearDown() {
+        relay.disconnectAll(members);
+    }
+
+    @Benchmark
+    public void handleMessage() {
+        relay.listener.onMessage(sender, message);
+    }
+}
@@ -0,0 +1,180 @@
+package org.example.zoom.websocket;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+
+import javax.net.ssl.SSLSession;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.enums.Opcode;
+import org.java_websocket.enums.ReadyState;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.protocols.IProtocol;
+
+/**
+ * A connection with no socket behind it. Sends are counted and dropped, and
+ * pings are answered right away so the relay's liveness wheel never expires
+ * a connection in the middle of a run.
+ */
+final class MockWebSocket implements WebSocket {
+
+    private final InetSocketAddress remote;
+    private final BenchRelay relay;
+    private volatile boolean open = true;
+    private Object attachment;
+
+    long textSends;
+    long binarySends;
+
+    MockWebSocket(BenchRelay relay, int id) {
+        this.relay = relay;
+        // One address per connection, as real clients would have
+        this.remote = new InetSocketAddress("10." + ((id >> 16) & 0xFF) + "." + ((id >> 8) & 0xFF) + "." + (id & 0xFF),
+                40000 + (id & 0x3FFF));
+    }
+
+    void markClosed() {
+        open = false;
+    }
+
+    @Override
+    public void close(int code, String message) {
+        if (open) {
+            open = false;
+            relay.onClosed(this, code, message);
+        }
+    }
+
+    @Override
+    public void close(int code) {
+        close(code, "");
+    }
+
+    @Override
+    public void close() {
+        close(1000, "");
+    }
+
+    @Override
+    public void closeConnection(int code, String message) {
+        close(code, message);
+    }
+
+    @Override
+    public void send(String text) {
+        textSends++;
+    }
+
+    @Override
+    public void send(ByteBuffer bytes) {
+        binarySends++;
+    }
+
+    @Override
+    public void send(byte[] bytes) {
+        binarySends++;
+    }
+
+    @Override
+    public void sendFrame(Framedata framedata) {
+        binarySends++;
+    }
+
+    @Override
+    public void sendFrame(Collection<Framedata> frames) {
+        binarySends += frames.size();
+    }
+
+    @Override
+    public void sendPing() {
+        relay.onPong(this);
+    }
+
+    @Override
+    public void sendFragmentedFrame(Opcode op, ByteBuffer buffer, boolean last) {
+        binarySends++;
+    }
+
+    @Override
+    public boolean hasBufferedData() {
+        return false;
+    }
+
+    @Override
+    public InetSocketAddress getRemoteSocketAddress() {
+        return remote;
+    }
+
+    @Override
+    public InetSocketAddress getLocalSocketAddress() {
+        return null;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public boolean isClosing() {
+        return false;
+    }
+
+    @Override
+    public boolean isFlushAndClose() {
+        return false;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return !open;
+    }
+
+    @Override
+    public Draft getDraft() {
+        return null;
+    }
+
+    @Override
+    public ReadyState getReadyState() {
+        return open ? ReadyState.OPEN : ReadyState.CLOSED;
+    }
+
+    @Override
+    public String getResourceDescriptor() {
+        return "/";
+    }
+
+    @Override
+    public <T> void setAttachment(T attachment) {
+        this.attachment = attachment;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T getAttachment() {
+        return (T) attachment;
+    }
+
+    @Override
+    public boolean hasSSLSupport() {
+        return false;
+    }
+
+    @Override
+    public SSLSession getSSLSession() {
+        throw new IllegalArgumentException("Mock connections do not use TLS");
+    }
+
+    @Override
+    public IProtocol getProtocol() {
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "MockWebSocket" + remote;
+    }
+}
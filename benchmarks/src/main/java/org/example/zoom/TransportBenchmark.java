@@ -0,0 +1,178 @@
+package org.example.zoom.websocket;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.handshake.ServerHandshake;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Side-by-side fan-out of the {@link RelayTransport} engines over loopback.
+ *
+ * A bare transport relays every binary message it receives to all connected
+ * clients as one {@link SharedFrame}, the way a meeting broadcast does; the
+ * relay logic above the transport is left out so only the engines differ.
+ * One operation is one message published by a client and received back by
+ * every client, so the sampled times are delivery latencies to the slowest
+ * member of the room.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TransportBenchmark {
+
+    private static final int BASE_PORT = 8980;
+    private static final AtomicInteger NEXT_PORT = new AtomicInteger(BASE_PORT);
+
+    @Param({RelayTransport.JAVA_WEBSOCKET, RelayTransport.NIO})
+    public String engine;
+
+    @Param({"10", "50"})
+    public int clients;
+
+    @Param({"1024", "16384"})
+    public int payloadSize;
+
+    private RelayTransport transport;
+    private final List<WebSocketClient> connections = new ArrayList<>();
+    private WebSocketClient publisher;
+    private ByteBuffer payload;
+    private volatile CountDownLatch delivered;
+
+    @Setup
+    public void setUp() throws Exception {
+        Set<WebSocket> room = ConcurrentHashMap.newKeySet();
+        CountDownLatch started = new CountDownLatch(1);
+        int port = NEXT_PORT.getAndIncrement();
+        int ioThreads = Runtime.getRuntime().availableProcessors();
+
+        transport = RelayTransport.create(engine, new InetSocketAddress("127.0.0.1", port), ioThreads,
+                new RelayTransport.Listener() {
+                    @Override
+                    public void onHandshake(ClientHandshake request, Map<String, String> responseHeaders) {
+                    }
+
+                    @Override
+                    public void onOpen(WebSocket conn, ClientHandshake handshake) {
+                        room.add(conn);
+                    }
+
+                    @Override
+                    public void onMessage(WebSocket conn, String message) {
+                    }
+
+                    @Override
+                    public void onMessage(WebSocket conn, ByteBuffer message) {
+                        SharedFrame frame = SharedFrame.binary(message);
+                        for (WebSocket member : room) {
+                            transport.write(member, frame.newView());
+                        }
+                    }
+
+                    @Override
+                    public void onPong(WebSocket conn) {
+                    }
+
+                    @Override
+                    public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+                        room.remove(conn);
+                    }
+
+                    @Override
+                    public void onError(WebSocket conn, Exception ex) {
+                        System.err.println(engine + " error: " + ex.getMessage());
+                    }
+
+                    @Override
+                    public void onStart() {
+                        started.countDown();
+                    }
+                });
+        transport.start();
+        if (!started.await(5, TimeUnit.SECONDS)) {
+            throw new IllegalStateException(engine + " did not start on port " + port);
+        }
+
+        for (int i = 0; i < clients; i++) {
+            WebSocketClient client = new WebSocketClient(new URI("ws://127.0.0.1:" + port)) {
+                @Override
+                public void onOpen(ServerHandshake handshake) {
+                }
+
+                @Override
+                public void onMessage(String message) {
+                }
+
+                @Override
+                public void onMessage(ByteBuffer bytes) {
+                    CountDownLatch latch = delivered;
+                    if (latch != null) {
+                        latch.countDown();
+                    }
+                }
+
+                @Override
+                public void onClose(int code, String reason, boolean remote) {
+                }
+
+                @Override
+                public void onError(Exception ex) {
+                    System.err.println("Client error: " + ex.getMessage());
+                }
+            };
+            client.setTcpNoDelay(true);
+            client.connectBlocking(5, TimeUnit.SECONDS);
+            connections.add(client);
+        }
+        while (room.size() < clients) {
+            Thread.sleep(10);
+        }
+        publisher = connections.get(0);
+        payload = ByteBuffer.allocate(payloadSize);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        for (WebSocketClient client : connections) {
+            client.closeBlocking();
+        }
+        connections.clear();
+        transport.stop(1000);
+    }
+
+    @Benchmark
+    public void publishToRoom() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(clients);
+        delivered = latch;
+        publisher.send(payload.duplicate());
+        if (!latch.await(10, TimeUnit.SECONDS)) {
+            throw new IllegalStateException(engine + ": " + latch.getCount() + " of " + clients + " clients missed a message");
+        }
+    }
+}
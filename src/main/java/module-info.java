@@ -7,6 +7,8 @@ module org.example.zoom {
     requires java.sql;
     requires javafx.media;
     requires java.net.http;
+    requires java.management;
+    requires jdk.httpserver;
 
     // Removed: requires org.json;
 
@@ -0,0 +1,349 @@
+package org.example.zoom.websocket;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.java_websocket.WebSocket;
+
+/**
+ * Rate limits new connections with token buckets, one per source IP and one
+ * for the whole server.
+ *
+ * Opening a connection is the expensive part of a client's life: it is
+ * announced to every other client and gets the full device list. When a
+ * classroom reconnects after a network blip, all of that arrives at once.
+ * A connection that finds no token is not refused; it waits in a FIFO queue
+ * and is admitted as the buckets refill, so a storm is spread out instead of
+ * turning into reconnect retries. Messages a queued client sends in the
+ * meantime are held and replayed in order once it is admitted.
+ *
+ * Only when the queue is full, or a connection waited longer than
+ * {@code maxWaitMs}, is it closed with 1013 (try again later).
+ */
+public class AdmissionControl {
+
+    public static final int CLOSE_TRY_AGAIN_LATER = 1013;
+
+    private static final long DRAIN_INTERVAL_MS = 20;
+    // Held messages per queued connection; a client that sends more before admission is closed
+    private static final int MAX_HELD_MESSAGES = 64;
+
+    public enum Decision { ADMITTED, QUEUED, REJECTED }
+
+    /**
+     * Classic token bucket; callers hold the controller's lock.
+     */
+    static final class TokenBucket {
+        private final double ratePerMs;
+        private final double burst;
+        private double tokens;
+        private long lastRefill;
+
+        TokenBucket(double ratePerSecond, double burst, long now) {
+            this.ratePerMs = ratePerSecond / 1000.0;
+            this.burst = burst;
+            this.tokens = burst;
+            this.lastRefill = now;
+        }
+
+        void refill(long now) {
+            if (now > lastRefill) {
+                tokens = Math.min(burst, tokens + (now - lastRefill) * ratePerMs);
+                lastRefill = now;
+            }
+        }
+
+        boolean hasToken() {
+            return tokens >= 1.0;
+        }
+
+        void take() {
+            tokens -= 1.0;
+        }
+
+        boolean isFull() {
+            return tokens >= burst;
+        }
+    }
+
+    /**
+     * A connection waiting for a token.
+     */
+    private static final class Pending {
+        final WebSocket conn;
+        final String ip;
+        final Runnable admit;
+        final long queuedAt;
+        final ArrayDeque<Runnable> held = new ArrayDeque<>();
+        boolean admitted;
+        boolean overflowed;
+
+        Pending(WebSocket conn, String ip, Runnable admit, long queuedAt) {
+            this.conn = conn;
+            this.ip = ip;
+            this.admit = admit;
+            this.queuedAt = queuedAt;
+        }
+    }
+
+    private final double perIpRate;
+    private final int perIpBurst;
+    private final TokenBucket global;
+    private final int maxQueued;
+    private final long maxWaitMs;
+
+    private final Map<String, TokenBucket> perIp = new ConcurrentHashMap<>();
+    private final ArrayDeque<Pending> queue = new ArrayDeque<>();
+    private final Map<WebSocket, Pending> pending = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService drainer;
+
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private volatile long maxQueueDepth;
+
+    /**
+     * @param perIpRate   Connections per second one IP may open once its burst is used
+     * @param perIpBurst  Connections one IP may open at once
+     * @param globalRate  Connections per second for the whole server
+     * @param globalBurst Connections the whole server admits at once
+     * @param maxQueued   Connections that may wait for a token
+     * @param maxWaitMs   Longest a connection waits before it is told to retry
+     */
+    public AdmissionControl(double perIpRate, int perIpBurst, double globalRate, int globalBurst,
+                            int maxQueued, long maxWaitMs) {
+        this.perIpRate = perIpRate;
+        this.perIpBurst = perIpBurst;
+        this.global = new TokenBucket(globalRate, globalBurst, System.currentTimeMillis());
+        this.maxQueued = maxQueued;
+        this.maxWaitMs = maxWaitMs;
+    }
+
+    /**
+     * Settings from {@code zoom.admission.*} system properties.
+     */
+    public static AdmissionControl fromSystemProperties() {
+        return new AdmissionControl(
+                Integer.getInteger("zoom.admission.ipRate", 20),
+                Integer.getInteger("zoom.admission.ipBurst", 20),
+                Integer.getInteger("zoom.admission.globalRate", 50),
+                Integer.getInteger("zoom.admission.globalBurst", 100),
+                Integer.getInteger("zoom.admission.maxQueued", 1000),
+                Integer.getInteger("zoom.admission.maxWaitMs", 30000));
+    }
+
+    public synchronized void start() {
+        if (drainer != null) {
+            return;
+        }
+        drainer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "WebSocketServer-Admission");
+            t.setDaemon(true);
+            return t;
+        });
+        drainer.scheduleWithFixedDelay(this::drain, DRAIN_INTERVAL_MS, DRAIN_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop admitting; connections still queued are dropped without being opened.
+     */
+    public synchronized void stop() {
+        if (drainer != null) {
+            drainer.shutdownNow();
+            drainer = null;
+        }
+        queue.clear();
+        pending.clear();
+        perIp.clear();
+    }
+
+    /**
+     * Admit a new connection now if both buckets have a token, otherwise queue it.
+     * @param admit Opens the connection for the relay; runs on the calling thread
+     *              when admitted now, on the admission thread when queued
+     */
+    public Decision offer(WebSocket conn, String ip, Runnable admit) {
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            // Nobody may overtake connections already waiting
+            if (queue.isEmpty() && tryTake(ip, now)) {
+                admitted.increment();
+            } else if (queue.size() >= maxQueued) {
+                rejected.increment();
+                conn.close(CLOSE_TRY_AGAIN_LATER, "Server busy, try again later");
+                return Decision.REJECTED;
+            } else {
+                Pending entry = new Pending(conn, ip, admit, now);
+                queue.add(entry);
+                pending.put(conn, entry);
+                queued.increment();
+                maxQueueDepth = Math.max(maxQueueDepth, queue.size());
+                return Decision.QUEUED;
+            }
+        }
+        admit.run();
+        return Decision.ADMITTED;
+    }
+
+    /**
+     * Hold a message from a connection that is still queued.
+     * @return false if the connection is not queued and the caller should handle the message itself
+     */
+    public boolean hold(WebSocket conn, Runnable message) {
+        Pending entry = pending.get(conn);
+        if (entry == null) {
+            return false;
+        }
+        synchronized (entry) {
+            if (entry.admitted) {
+                return false;
+            }
+            if (entry.held.size() < MAX_HELD_MESSAGES) {
+                entry.held.add(message);
+            } else {
+                entry.overflowed = true;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Forget a queued connection that closed before it was admitted.
+     * @return true if it was still queued (and so never opened for the relay)
+     */
+    public boolean cancel(WebSocket conn) {
+        Pending entry = pending.remove(conn);
+        if (entry == null) {
+            return false;
+        }
+        synchronized (this) {
+            queue.remove(entry);
+        }
+        return !entry.admitted;
+    }
+
+    public int getQueuedCount() {
+        return pending.size();
+    }
+
+    private boolean tryTake(String ip, long now) {
+        global.refill(now);
+        if (!global.hasToken()) {
+            return false;
+        }
+        TokenBucket bucket = perIp.computeIfAbsent(ip, k -> new TokenBucket(perIpRate, perIpBurst, now));
+        bucket.refill(now);
+        if (!bucket.hasToken()) {
+            return false;
+        }
+        global.take();
+        bucket.take();
+        return true;
+    }
+
+    /**
+     * Admit queued connections in arrival order while tokens last. An IP
+     * without tokens does not hold up the connections behind it.
+     */
+    private void drain() {
+        try {
+            List<Pending> toAdmit = new ArrayList<>();
+            List<Pending> toExpire = new ArrayList<>();
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                Iterator<Pending> it = queue.iterator();
+                while (it.hasNext()) {
+                    Pending entry = it.next();
+                    if (!entry.conn.isOpen() || now - entry.queuedAt > maxWaitMs) {
+                        it.remove();
+                        toExpire.add(entry);
+                    } else if (tryTake(entry.ip, now)) {
+                        it.remove();
+                        toAdmit.add(entry);
+                    } else if (!global.hasToken()) {
+                        break;
+                    }
+                }
+                // Buckets that refilled completely carry no state worth keeping
+                if (queue.isEmpty() && perIp.size() > 1024) {
+                    perIp.values().removeIf(bucket -> {
+                        bucket.refill(now);
+                        return bucket.isFull();
+                    });
+                }
+            }
+
+            for (Pending entry : toExpire) {
+                pending.remove(entry.conn);
+                if (entry.conn.isOpen()) {
+                    expired.increment();
+                    entry.conn.close(CLOSE_TRY_AGAIN_LATER, "Server busy, try again later");
+                }
+            }
+            for (Pending entry : toAdmit) {
+                admit(entry);
+            }
+        } catch (Exception e) {
+            System.err.println("Error admitting queued connections: " + e.getMessage());
+        }
+    }
+
+    private void admit(Pending entry) {
+        admitted.increment();
+        try {
+            entry.admit.run();
+        } catch (Exception e) {
+            System.err.println("Error opening admitted connection: " + e.getMessage());
+        }
+        // Replay under the entry's lock so messages arriving now queue up behind the held ones
+        synchronized (entry) {
+            if (entry.overflowed) {
+                entry.conn.close(CLOSE_TRY_AGAIN_LATER, "Too many messages before admission");
+            } else {
+                for (Runnable message : entry.held) {
+                    message.run();
+                }
+            }
+            entry.held.clear();
+            entry.admitted = true;
+        }
+        pending.remove(entry.conn);
+    }
+
+    public long getAdmittedCount() {
+        return admitted.sum();
+    }
+
+    public long getQueuedTotal() {
+        return queued.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public long getExpiredCount() {
+        return expired.sum();
+    }
+
+    public long getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("AdmissionControl[admitted=%d, queued=%d (now %d, max %d), rejected=%d, expired=%d]",
+                getAdmittedCount(), getQueuedTotal(), getQueuedCount(), maxQueueDepth,
+                getRejectedCount(), getExpiredCount());
+    }
+}
@@ -0,0 +1,335 @@
+package org.example.zoom.websocket;
+
+import java.io.PrintStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous logger for the relay and client hot paths.
+ *
+ * Producers claim a slot in a pre-allocated ring buffer with a single CAS and
+ * store the template and argument references; a background writer thread does
+ * the formatting and console I/O. When the ring is full the event is dropped and
+ * counted instead of blocking the caller.
+ *
+ * Cost control:
+ * <ul>
+ *   <li>Level filtering happens before anything else. With fixed-arity overloads
+ *       (no varargs) a disabled call allocates nothing.</li>
+ *   <li>{@link #sampled} keeps one event in N for a message type, e.g. one
+ *       VIDEO_FRAME log line in 100.</li>
+ *   <li>Long arguments (whole messages, Base64 frames) are truncated by the
+ *       writer thread, so callers pass them as-is without copying.</li>
+ * </ul>
+ *
+ * Configuration through system properties: {@code zoom.log.level} (default INFO),
+ * {@code zoom.log.maxPayload} (characters kept per argument, default 200).
+ */
+public final class AsyncLog {
+
+    public enum Level {
+        TRACE, DEBUG, INFO, WARN, ERROR, OFF
+    }
+
+    private static final int RING_SIZE = 8192;
+    private static final int MAX_ARGS = 4;
+
+    private static final AsyncLog INSTANCE = new AsyncLog();
+
+    private static final class Slot {
+        volatile long published = -1;
+        Level level;
+        String template;
+        final Object[] args = new Object[MAX_ARGS];
+        int argCount;
+        String thread;
+    }
+
+    private final Slot[] ring = new Slot[RING_SIZE];
+    private final int mask = RING_SIZE - 1;
+    private final AtomicLong claimed = new AtomicLong();
+    private volatile long consumed;
+    private final AtomicLong dropped = new AtomicLong();
+
+    private volatile Level level;
+    private volatile int maxPayloadChars;
+    private final ConcurrentHashMap<String, Integer> sampleRates = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, AtomicLong> sampleCounters = new ConcurrentHashMap<>();
+
+    private final PrintStream out = System.out;
+    private final PrintStream err = System.err;
+    private final StringBuilder line = new StringBuilder(256);
+    private final Thread writer;
+    // Set while the writer is parked with nothing to write; producers then wake it
+    private volatile boolean writerIdle;
+
+    private AsyncLog() {
+        for (int i = 0; i < RING_SIZE; i++) {
+            ring[i] = new Slot();
+        }
+
+        level = parseLevel(System.getProperty("zoom.log.level"), Level.INFO);
+        maxPayloadChars = Integer.getInteger("zoom.log.maxPayload", 200);
+
+        // Media and keep-alive traffic: one line per N messages
+        sampleRates.put("VIDEO_FRAME", 100);
+        sampleRates.put("HEARTBEAT", 50);
+        sampleRates.put("HEARTBEAT_ACK", 50);
+        sampleRates.put("PING", 50);
+        sampleRates.put("PONG", 50);
+
+        writer = new Thread(this::drainLoop, "AsyncLog-Writer");
+        writer.setDaemon(true);
+        writer.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "AsyncLog-Flush"));
+    }
+
+    public static AsyncLog getInstance() {
+        return INSTANCE;
+    }
+
+    // ---- configuration ----
+
+    public void setLevel(Level level) {
+        this.level = level;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    public boolean isEnabled(Level candidate) {
+        return candidate.ordinal() >= level.ordinal();
+    }
+
+    /**
+     * Keep one {@link #sampled} event in {@code oneIn} for the given message type.
+     * A rate of 1 logs every event.
+     */
+    public void setSampleRate(String messageType, int oneIn) {
+        sampleRates.put(messageType, Math.max(1, oneIn));
+    }
+
+    public void setMaxPayloadChars(int maxPayloadChars) {
+        this.maxPayloadChars = maxPayloadChars;
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    // ---- logging ----
+
+    public void trace(String template, Object a) {
+        log(Level.TRACE, template, a, null, null, null, 1);
+    }
+
+    public void trace(String template, Object a, Object b) {
+        log(Level.TRACE, template, a, b, null, null, 2);
+    }
+
+    public void trace(String template, Object a, Object b, Object c) {
+        log(Level.TRACE, template, a, b, c, null, 3);
+    }
+
+    public void debug(String template) {
+        log(Level.DEBUG, template, null, null, null, null, 0);
+    }
+
+    public void debug(String template, Object a) {
+        log(Level.DEBUG, template, a, null, null, null, 1);
+    }
+
+    public void debug(String template, Object a, Object b) {
+        log(Level.DEBUG, template, a, b, null, null, 2);
+    }
+
+    public void debug(String template, Object a, Object b, Object c) {
+        log(Level.DEBUG, template, a, b, c, null, 3);
+    }
+
+    public void debug(String template, Object a, Object b, Object c, Object d) {
+        log(Level.DEBUG, template, a, b, c, d, 4);
+    }
+
+    public void info(String template) {
+        log(Level.INFO, template, null, null, null, null, 0);
+    }
+
+    public void info(String template, Object a) {
+        log(Level.INFO, template, a, null, null, null, 1);
+    }
+
+    public void info(String template, Object a, Object b) {
+        log(Level.INFO, template, a, b, null, null, 2);
+    }
+
+    public void info(String template, Object a, Object b, Object c) {
+        log(Level.INFO, template, a, b, c, null, 3);
+    }
+
+    public void info(String template, Object a, Object b, Object c, Object d) {
+        log(Level.INFO, template, a, b, c, d, 4);
+    }
+
+    public void warn(String template, Object a) {
+        log(Level.WARN, template, a, null, null, null, 1);
+    }
+
+    public void warn(String template, Object a, Object b) {
+        log(Level.WARN, template, a, b, null, null, 2);
+    }
+
+    public void error(String template, Object a) {
+        log(Level.ERROR, template, a, null, null, null, 1);
+    }
+
+    public void error(String template, Object a, Object b) {
+        log(Level.ERROR, template, a, b, null, null, 2);
+    }
+
+    /**
+     * Log subject to the sample rate configured for {@code messageType}.
+     */
+    public void sampled(Level eventLevel, String messageType, String template, Object a, Object b, Object c) {
+        if (!isEnabled(eventLevel) || !sample(messageType)) {
+            return;
+        }
+        log(eventLevel, template, a, b, c, null, 3);
+    }
+
+    private boolean sample(String messageType) {
+        Integer rate = sampleRates.get(messageType);
+        if (rate == null || rate <= 1) {
+            return true;
+        }
+        AtomicLong counter = sampleCounters.get(messageType);
+        if (counter == null) {
+            counter = sampleCounters.computeIfAbsent(messageType, k -> new AtomicLong());
+        }
+        return counter.getAndIncrement() % rate == 0;
+    }
+
+    private void log(Level eventLevel, String template, Object a, Object b, Object c, Object d, int argCount) {
+        if (eventLevel.ordinal() < level.ordinal()) {
+            return;
+        }
+
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - consumed >= RING_SIZE) {
+                dropped.incrementAndGet();
+                return;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+
+        Slot slot = ring[(int) (sequence & mask)];
+        slot.level = eventLevel;
+        slot.template = template;
+        slot.args[0] = a;
+        slot.args[1] = b;
+        slot.args[2] = c;
+        slot.args[3] = d;
+        slot.argCount = argCount;
+        slot.thread = Thread.currentThread().getName();
+        slot.published = sequence;
+        if (writerIdle) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    // ---- writer ----
+
+    private void drainLoop() {
+        while (true) {
+            if (!drainAvailable()) {
+                writerIdle = true;
+                // An event published before the flag was seen set gets written here instead of waking us
+                if (ring[(int) (consumed & mask)].published != consumed) {
+                    LockSupport.park(this);
+                }
+                writerIdle = false;
+            }
+        }
+    }
+
+    /**
+     * Write every published event.
+     * @return true if at least one event was written
+     */
+    private synchronized boolean drainAvailable() {
+        boolean wrote = false;
+        long next = consumed;
+        while (true) {
+            Slot slot = ring[(int) (next & mask)];
+            if (slot.published != next) {
+                break;
+            }
+            write(slot);
+            slot.template = null;
+            slot.thread = null;
+            slot.args[0] = slot.args[1] = slot.args[2] = slot.args[3] = null;
+            next++;
+            consumed = next;
+            wrote = true;
+        }
+        if (wrote) {
+            out.flush();
+            err.flush();
+        }
+        return wrote;
+    }
+
+    /**
+     * Write out everything published so far from the calling thread.
+     */
+    public void flush() {
+        drainAvailable();
+    }
+
+    private void write(Slot slot) {
+        line.setLength(0);
+        line.append('[').append(slot.level).append("] [").append(slot.thread).append("] ");
+
+        String template = slot.template;
+        int argIndex = 0;
+        int start = 0;
+        int placeholder;
+        while ((placeholder = template.indexOf("{}", start)) >= 0) {
+            line.append(template, start, placeholder);
+            if (argIndex < slot.argCount) {
+                appendTruncated(slot.args[argIndex++]);
+            } else {
+                line.append("{}");
+            }
+            start = placeholder + 2;
+        }
+        line.append(template, start, template.length());
+
+        (slot.level.ordinal() >= Level.WARN.ordinal() ? err : out).println(line);
+    }
+
+    private void appendTruncated(Object value) {
+        String text = String.valueOf(value);
+        int limit = maxPayloadChars;
+        if (text.length() <= limit) {
+            line.append(text);
+        } else {
+            line.append(text, 0, limit).append("...(+").append(text.length() - limit).append(" chars)");
+        }
+    }
+
+    private static Level parseLevel(String value, Level fallback) {
+        if (value == null) {
+            return fallback;
+        }
+        try {
+            return Level.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return fallback;
+        }
+    }
+}
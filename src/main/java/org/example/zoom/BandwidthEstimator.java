@@ -0,0 +1,273 @@
+package org.example.zoom.websocket;
+
+/**
+ * Downstream bandwidth of one relay connection, estimated from how fast its
+ * {@link OutboundQueue} drains and from ping round trips.
+ *
+ * The relay samples the bytes the socket has actually written every few
+ * hundred milliseconds. A sample taken while frames were waiting for the
+ * socket measures the link: the estimate moves towards it. A sample taken
+ * while nothing was waiting only says the link took everything; the estimate
+ * then grows slowly, up to a little above what the connection actually
+ * carries. After a while without any backlog the capacity is forgotten and
+ * nothing is capped until the connection falls behind again, which is how a
+ * link that got faster is found. Until then the capacity is unknown.
+ *
+ * Data can also pile up past the outbound queue, in socket buffers or a slow
+ * proxy, where the drain rate no longer shows the link. WebSocket pings queue
+ * behind that data, so when a pong comes back every byte written before its
+ * ping has been delivered: bytes between two pings over the time between
+ * their pongs is the delivery rate. A round trip well above the smallest
+ * recent one marks such a backlog; the estimate then follows the delivery
+ * rate and is backed off a little so the backlog drains.
+ *
+ * Once a round trip is known, the estimate is published to the client as
+ * {@code BANDWIDTH|global|Server|estimateKbps|rttMs} (-1 while unknown) and
+ * drives video forwarding: simulcast layer choice and, through
+ * {@link #allowVideo}, frame decimation.
+ */
+public class BandwidthEstimator {
+
+    public static final long UNKNOWN = -1;
+
+    // Samples closer together than this are merged with the next one
+    private static final long MIN_SAMPLE_MS = 100;
+    // Weight of a backlogged drain sample
+    private static final double DRAIN_GAIN = 0.5;
+    // Growth per second while the connection keeps up with what it is sent, up to
+    // this multiple of the rate it carries
+    private static final double PROBE_GROWTH_PER_SECOND = 0.08;
+    private static final double PROBE_CEILING = 1.5;
+    // Capacity is forgotten after this long without a backlog
+    private static final long FORGET_MS = 30_000;
+    // Queueing delay above the smallest recent round trip that backs the estimate off
+    private static final long QUEUE_DELAY_LIMIT_MS = 150;
+    private static final double DELAY_BACKOFF = 0.85;
+    // Weight of a new round trip in the smoothed RTT, and how long the smallest one is kept
+    private static final double RTT_GAIN = 1.0 / 8;
+    private static final long MIN_RTT_WINDOW_MS = 30_000;
+    // Video may burst this much above the estimate
+    private static final long VIDEO_BURST_MS = 500;
+    // Share of the estimate video may use, leaving room for control, chat and files
+    private static final double VIDEO_SHARE = 0.9;
+    // The estimate is published again when it moved this much, or after the interval
+    private static final double PUBLISH_CHANGE = 0.2;
+    private static final long PUBLISH_INTERVAL_MS = 10_000;
+
+    private long lastSampleMs = -1;
+    private long lastWritten;
+    private double estimate = UNKNOWN;
+    private boolean capacityKnown;
+    private long lastLimitedMs;
+    private double observedPeak;
+
+    private long pingSentAt = -1;
+    private long pingWritten;
+    private long lastPongAt = -1;
+    private long lastPongWritten;
+    private long lastRtt = UNKNOWN;
+    private double smoothedRtt = UNKNOWN;
+    private long minRtt = UNKNOWN;
+    private long minRttAt;
+
+    private double videoTokens;
+    private long videoTokensAt;
+
+    private long publishedEstimate = UNKNOWN;
+    private long publishedAt;
+
+    private long samples;
+    private long limitedSamples;
+    private long backoffs;
+    private long decimated;
+
+    /**
+     * Take a drain sample.
+     * @param bytesWritten Total bytes the socket has written on this connection
+     * @param limited Whether frames had to wait for the socket since the last sample
+     */
+    public synchronized void sample(long bytesWritten, boolean limited, long nowMs) {
+        if (lastSampleMs < 0) {
+            lastSampleMs = nowMs;
+            lastWritten = bytesWritten;
+            return;
+        }
+        long elapsed = nowMs - lastSampleMs;
+        if (elapsed < MIN_SAMPLE_MS) {
+            return;
+        }
+        double rate = (bytesWritten - lastWritten) * 1000.0 / elapsed;
+        lastSampleMs = nowMs;
+        lastWritten = bytesWritten;
+        samples++;
+        observedPeak = Math.max(observedPeak, rate);
+
+        if (limited) {
+            limitedSamples++;
+            follow(rate, nowMs);
+        } else if (capacityKnown && !isDelayed()) {
+            if (nowMs - lastLimitedMs > FORGET_MS) {
+                capacityKnown = false;
+                estimate = UNKNOWN;
+                return;
+            }
+            double ceiling = rate * PROBE_CEILING;
+            if (estimate < ceiling) {
+                estimate = Math.min(ceiling, estimate * (1 + PROBE_GROWTH_PER_SECOND * elapsed / 1000.0));
+            }
+        }
+    }
+
+    private void follow(double rate, long nowMs) {
+        estimate = capacityKnown ? estimate + DRAIN_GAIN * (rate - estimate) : rate;
+        capacityKnown = true;
+        lastLimitedMs = nowMs;
+    }
+
+    /**
+     * A ping went out; only one is timed at a time.
+     * @param bytesWritten Total bytes the socket had written when the ping was sent
+     */
+    public synchronized void pingSent(long bytesWritten, long nowMs) {
+        if (pingSentAt < 0) {
+            pingSentAt = nowMs;
+            pingWritten = bytesWritten;
+        }
+    }
+
+    /**
+     * A pong came back: everything written before its ping has arrived.
+     */
+    public synchronized void pongReceived(long nowMs) {
+        if (pingSentAt < 0) {
+            return;
+        }
+        long rtt = Math.max(0, nowMs - pingSentAt);
+        pingSentAt = -1;
+        lastRtt = rtt;
+        smoothedRtt = smoothedRtt < 0 ? rtt : smoothedRtt + RTT_GAIN * (rtt - smoothedRtt);
+        if (minRtt < 0 || rtt <= minRtt || nowMs - minRttAt > MIN_RTT_WINDOW_MS) {
+            minRtt = rtt;
+            minRttAt = nowMs;
+        }
+
+        if (lastPongAt >= 0 && nowMs > lastPongAt && isDelayed()) {
+            double delivered = (pingWritten - lastPongWritten) * 1000.0 / (nowMs - lastPongAt);
+            limitedSamples++;
+            follow(delivered, nowMs);
+            estimate *= DELAY_BACKOFF;
+            backoffs++;
+        }
+        lastPongAt = nowMs;
+        lastPongWritten = pingWritten;
+    }
+
+    private boolean isDelayed() {
+        return lastRtt != UNKNOWN && minRtt != UNKNOWN && lastRtt - minRtt > QUEUE_DELAY_LIMIT_MS;
+    }
+
+    /**
+     * Whether a video frame fits the estimate. Frames are let through at the
+     * estimated rate with a short burst; the rest are decimated. Everything
+     * passes while the capacity is unknown.
+     */
+    public synchronized boolean allowVideo(int bytes, long nowMs) {
+        if (!capacityKnown) {
+            return true;
+        }
+        double rate = estimate * VIDEO_SHARE;
+        double burst = rate * VIDEO_BURST_MS / 1000.0;
+        videoTokens = Math.min(burst, videoTokens + rate * (nowMs - videoTokensAt) / 1000.0);
+        videoTokensAt = nowMs;
+        if (videoTokens < bytes && videoTokens < burst) {
+            decimated++;
+            return false;
+        }
+        videoTokens -= bytes;
+        return true;
+    }
+
+    /**
+     * The BANDWIDTH message to send the client, or null if the last one is
+     * still accurate enough.
+     */
+    public synchronized String publish(long nowMs) {
+        if (smoothedRtt < 0) {
+            // Nothing measured yet
+            return null;
+        }
+        long current = getEstimateBytesPerSecond();
+        boolean changed = current == UNKNOWN || publishedEstimate == UNKNOWN
+                ? current != publishedEstimate
+                : Math.abs(current - publishedEstimate) > publishedEstimate * PUBLISH_CHANGE;
+        if (!changed && nowMs - publishedAt < PUBLISH_INTERVAL_MS) {
+            return null;
+        }
+        publishedEstimate = current;
+        publishedAt = nowMs;
+        return "BANDWIDTH|global|Server|" + (current == UNKNOWN ? UNKNOWN : current * 8 / 1000) + "|" + getRttMs();
+    }
+
+    /**
+     * Estimated capacity in bytes per second, or {@link #UNKNOWN} if the
+     * connection has not been backlogged recently.
+     */
+    public synchronized long getEstimateBytesPerSecond() {
+        return capacityKnown ? Math.round(estimate) : UNKNOWN;
+    }
+
+    /**
+     * Video budget in bytes per second, or {@link #UNKNOWN} if not capped.
+     */
+    public synchronized long getVideoBudget() {
+        return capacityKnown ? Math.round(estimate * VIDEO_SHARE) : UNKNOWN;
+    }
+
+    public synchronized boolean isCapacityKnown() {
+        return capacityKnown;
+    }
+
+    /**
+     * Highest drain rate seen, a lower bound of the capacity.
+     */
+    public synchronized long getObservedPeak() {
+        return Math.round(observedPeak);
+    }
+
+    /**
+     * Smoothed ping round trip, or -1 before the first pong.
+     */
+    public synchronized long getRttMs() {
+        return smoothedRtt < 0 ? UNKNOWN : Math.round(smoothedRtt);
+    }
+
+    /**
+     * How much the smoothed round trip exceeds the smallest recent one.
+     */
+    public synchronized long getQueueDelayMs() {
+        return smoothedRtt < 0 || minRtt < 0 ? 0 : Math.max(0, Math.round(smoothedRtt) - minRtt);
+    }
+
+    public synchronized long getSampleCount() {
+        return samples;
+    }
+
+    public synchronized long getLimitedSampleCount() {
+        return limitedSamples;
+    }
+
+    public synchronized long getBackoffCount() {
+        return backoffs;
+    }
+
+    public synchronized long getDecimatedFrames() {
+        return decimated;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("BandwidthEstimator[estimate=%s rtt=%dms queueDelay=%dms samples=%d limited=%d]",
+                capacityKnown ? Math.round(estimate) + "B/s" : "unknown", getRttMs(), getQueueDelayMs(),
+                samples, limitedSamples);
+    }
+}
@@ -0,0 +1,329 @@
+package org.example.zoom.websocket;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Binary wire format for media frames sent as WebSocket binary messages.
+ *
+ * Layout (big-endian):
+ * <pre>
+ *   0  magic      1 byte  (0x5A)
+ *   1  version    1 byte
+ *   2  type       1 byte  (TYPE_VIDEO_FRAME, ...)
+ *   3  flags      1 byte  (FLAG_RELAY_CLOCK, FLAG_SIMULCAST, layer, top layer)
+ *   4  sequence   4 bytes (per sender, 0 if not traced)
+ *   8  timestamp  8 bytes (capture time, ms)
+ *  16  meetingLen 1 byte, meeting id (UTF-8)
+ *   .  senderLen  1 byte, sender id (UTF-8)
+ *   .  payload    raw encoded bytes (JPEG for video) up to the end of the message
+ * </pre>
+ *
+ * Parsing never copies the payload: the frame keeps a read-only view of the
+ * received buffer and records where the payload starts, so the relay can forward
+ * the original bytes untouched.
+ *
+ * The timestamp is on the relay's clock when FLAG_RELAY_CLOCK is set (see
+ * {@link MediaTrace}), otherwise it is the sender's wall clock. With
+ * FLAG_SIMULCAST the frame is one layer of a simulcast stream: bits 2-3 of the
+ * flags hold its layer and bits 4-5 the highest layer the publisher sends (see
+ * {@link SimulcastLayers}). Each layer has its own sequence numbers.
+ *
+ * The pipe-delimited text format ({@code VIDEO_FRAME|meeting|user|base64}) stays
+ * supported as a fallback for peers that did not negotiate binary frames.
+ */
+public final class BinaryMediaFrame {
+
+    public static final byte MAGIC = 0x5A;
+    public static final byte VERSION = 1;
+
+    public static final byte TYPE_VIDEO_FRAME = 1;
+
+    /** The timestamp is a capture time on the relay's monotonic clock. */
+    public static final byte FLAG_RELAY_CLOCK = 0x01;
+
+    /** The frame is one layer of a simulcast stream; see {@link #simulcastFlags}. */
+    public static final byte FLAG_SIMULCAST = 0x02;
+    private static final int LAYER_SHIFT = 2;
+    private static final int TOP_LAYER_SHIFT = 4;
+    private static final int LAYER_MASK = 0x03;
+
+    /** Handshake header used by both sides to advertise binary frame support. */
+    public static final String HANDSHAKE_HEADER = "X-Media-Frames";
+    public static final String HANDSHAKE_VALUE = Byte.toString(VERSION);
+
+    private static final int FIXED_HEADER_SIZE = 16;
+    private static final int MAX_ID_LENGTH = 255;
+
+    private final byte type;
+    private final byte flags;
+    private final int sequence;
+    private final long timestamp;
+    private final String meetingId;
+    private final String senderId;
+    private final ByteBuffer frame;
+    private final int payloadOffset;
+
+    private BinaryMediaFrame(byte type, byte flags, int sequence, long timestamp, String meetingId, String senderId,
+                             ByteBuffer frame, int payloadOffset) {
+        this.type = type;
+        this.flags = flags;
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.meetingId = meetingId;
+        this.senderId = senderId;
+        this.frame = frame;
+        this.payloadOffset = payloadOffset;
+    }
+
+    /**
+     * Check the magic byte and version without parsing the rest of the header.
+     */
+    public static boolean isMediaFrame(ByteBuffer buffer) {
+        int start = buffer.position();
+        return buffer.remaining() >= FIXED_HEADER_SIZE + 2
+                && buffer.get(start) == MAGIC
+                && buffer.get(start + 1) == VERSION;
+    }
+
+    /**
+     * Parse the header of a received frame. The buffer position is not modified.
+     * @return the parsed frame, or null if the buffer is not a valid media frame,
+     *         e.g. a simulcast layer above its top layer or beyond {@link SimulcastLayers#COUNT}
+     */
+    public static BinaryMediaFrame parse(ByteBuffer buffer) {
+        if (!isMediaFrame(buffer)) {
+            return null;
+        }
+
+        ByteBuffer view = buffer.slice().asReadOnlyBuffer();
+        int limit = view.limit();
+
+        byte type = view.get(2);
+        byte flags = view.get(3);
+        if ((flags & FLAG_SIMULCAST) != 0) {
+            int layer = (flags >> LAYER_SHIFT) & LAYER_MASK;
+            int topLayer = (flags >> TOP_LAYER_SHIFT) & LAYER_MASK;
+            if (layer > topLayer || topLayer >= SimulcastLayers.COUNT) {
+                return null;
+            }
+        }
+        int sequence = view.getInt(4);
+        long timestamp = view.getLong(8);
+
+        int offset = FIXED_HEADER_SIZE;
+        int meetingLength = view.get(offset) & 0xFF;
+        offset++;
+        if (offset + meetingLength + 1 > limit) {
+            return null;
+        }
+        String meetingId = decodeUtf8(view, offset, meetingLength);
+        offset += meetingLength;
+
+        int senderLength = view.get(offset) & 0xFF;
+        offset++;
+        if (offset + senderLength > limit) {
+            return null;
+        }
+        String senderId = decodeUtf8(view, offset, senderLength);
+        offset += senderLength;
+
+        return new BinaryMediaFrame(type, flags, sequence, timestamp, meetingId, senderId, view, offset);
+    }
+
+    /**
+     * Build a frame ready to be sent as a binary WebSocket message.
+     */
+    public static ByteBuffer encode(byte type, String meetingId, String senderId, int sequence,
+                                    long timestamp, byte[] payload) {
+        return encode(type, (byte) 0, meetingId, senderId, sequence, timestamp, payload);
+    }
+
+    public static ByteBuffer encode(byte type, byte flags, String meetingId, String senderId, int sequence,
+                                    long timestamp, byte[] payload) {
+        byte[] meetingBytes = truncate(meetingId.getBytes(StandardCharsets.UTF_8));
+        byte[] senderBytes = truncate(senderId.getBytes(StandardCharsets.UTF_8));
+
+        ByteBuffer buffer = ByteBuffer.allocate(FIXED_HEADER_SIZE + 2 + meetingBytes.length +
+                senderBytes.length + payload.length);
+        buffer.put(MAGIC)
+                .put(VERSION)
+                .put(type)
+                .put(flags)
+                .putInt(sequence)
+                .putLong(timestamp)
+                .put((byte) meetingBytes.length)
+                .put(meetingBytes)
+                .put((byte) senderBytes.length)
+                .put(senderBytes)
+                .put(payload);
+        buffer.flip();
+        return buffer;
+    }
+
+    public static ByteBuffer encodeVideoFrame(String meetingId, String senderId, int sequence, byte[] jpeg) {
+        return encode(TYPE_VIDEO_FRAME, meetingId, senderId, sequence, System.currentTimeMillis(), jpeg);
+    }
+
+    /**
+     * Encode a traced video frame.
+     * @param captureMs Capture time on the relay clock, or {@link MediaTrace#NO_CAPTURE}
+     */
+    public static ByteBuffer encodeVideoFrame(String meetingId, String senderId, int sequence, long captureMs,
+                                              byte[] jpeg) {
+        if (captureMs == MediaTrace.NO_CAPTURE) {
+            return encodeVideoFrame(meetingId, senderId, sequence, jpeg);
+        }
+        return encode(TYPE_VIDEO_FRAME, FLAG_RELAY_CLOCK, meetingId, senderId, sequence, captureMs, jpeg);
+    }
+
+    /**
+     * Encode one layer of a simulcast video frame.
+     * @param topLayer Highest layer the publisher sends of this stream
+     */
+    public static ByteBuffer encodeVideoFrame(String meetingId, String senderId, int sequence, long captureMs,
+                                              int layer, int topLayer, byte[] jpeg) {
+        byte flags = simulcastFlags(layer, topLayer);
+        if (captureMs == MediaTrace.NO_CAPTURE) {
+            return encode(TYPE_VIDEO_FRAME, flags, meetingId, senderId, sequence, System.currentTimeMillis(), jpeg);
+        }
+        return encode(TYPE_VIDEO_FRAME, (byte) (flags | FLAG_RELAY_CLOCK), meetingId, senderId, sequence,
+                captureMs, jpeg);
+    }
+
+    public static byte simulcastFlags(int layer, int topLayer) {
+        return (byte) (FLAG_SIMULCAST | (layer & LAYER_MASK) << LAYER_SHIFT | (topLayer & LAYER_MASK) << TOP_LAYER_SHIFT);
+    }
+
+    /**
+     * Convert a text VIDEO_FRAME payload into the binary format.
+     */
+    public static ByteBuffer fromText(String meetingId, String senderId, String base64Payload) {
+        return encodeVideoFrame(meetingId, senderId, 0, Base64.getDecoder().decode(base64Payload));
+    }
+
+    /**
+     * Render this frame in the text format for peers without binary support,
+     * keeping its trace stamp.
+     */
+    public String toText() {
+        return toText(true);
+    }
+
+    /**
+     * @param withTrace Put the sequence and capture time in a {@link MediaTrace}
+     *                  stamp; without it the result is the plain legacy message
+     */
+    public String toText(boolean withTrace) {
+        String stamp = withTrace && sequence != 0 ? MediaTrace.stamp(sequence, getCaptureMs()) : "";
+        return typeName() + "|" + meetingId + "|" + senderId + "|" + stamp +
+                Base64.getEncoder().encodeToString(getPayloadBytes());
+    }
+
+    private static String decodeUtf8(ByteBuffer buffer, int offset, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] truncate(byte[] bytes) {
+        if (bytes.length <= MAX_ID_LENGTH) {
+            return bytes;
+        }
+        byte[] truncated = new byte[MAX_ID_LENGTH];
+        System.arraycopy(bytes, 0, truncated, 0, MAX_ID_LENGTH);
+        return truncated;
+    }
+
+    public String typeName() {
+        return type == TYPE_VIDEO_FRAME ? "VIDEO_FRAME" : "MEDIA_" + type;
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    public int getSequence() {
+        return sequence;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public boolean hasRelayClock() {
+        return (flags & FLAG_RELAY_CLOCK) != 0;
+    }
+
+    /**
+     * Capture time on the relay clock, or {@link MediaTrace#NO_CAPTURE} if the
+     * timestamp is a wall-clock time.
+     */
+    public long getCaptureMs() {
+        return hasRelayClock() ? timestamp : MediaTrace.NO_CAPTURE;
+    }
+
+    public boolean isSimulcast() {
+        return (flags & FLAG_SIMULCAST) != 0;
+    }
+
+    /**
+     * Simulcast layer of this frame; 0 for frames that are not simulcast.
+     */
+    public int getLayer() {
+        return isSimulcast() ? (flags >> LAYER_SHIFT) & LAYER_MASK : 0;
+    }
+
+    /**
+     * Highest layer the publisher sends; 0 for frames that are not simulcast.
+     */
+    public int getTopLayer() {
+        return isSimulcast() ? (flags >> TOP_LAYER_SHIFT) & LAYER_MASK : 0;
+    }
+
+    public String getMeetingId() {
+        return meetingId;
+    }
+
+    public String getSenderId() {
+        return senderId;
+    }
+
+    public int getPayloadLength() {
+        return frame.limit() - payloadOffset;
+    }
+
+    /**
+     * The whole encoded frame (header and payload) as a read-only buffer positioned at 0.
+     */
+    public ByteBuffer getFrame() {
+        return frame.duplicate();
+    }
+
+    /**
+     * The payload as a read-only view; no bytes are copied.
+     */
+    public ByteBuffer getPayload() {
+        ByteBuffer payload = frame.duplicate();
+        payload.position(payloadOffset);
+        return payload.slice();
+    }
+
+    public byte[] getPayloadBytes() {
+        byte[] bytes = new byte[getPayloadLength()];
+        getPayload().get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Stream over the payload, suitable for {@code new javafx.scene.image.Image(InputStream)}.
+     */
+    public InputStream openPayloadStream() {
+        return new ByteArrayInputStream(getPayloadBytes());
+    }
+}
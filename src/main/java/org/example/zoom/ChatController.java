@@ -147,6 +147,11 @@ public class ChatController {
             }
         }
 
+        // A connection of its own only carries chat; the shared client may also feed a meeting window
+        if (webSocketClient != null && webSocketClient != globalClient) {
+            webSocketClient.unsubscribe("global", "VIDEO_FRAME");
+        }
+
         if (webSocketClient != null && !webSocketClient.isConnected()) {
             webSocketClient.connect();
         }
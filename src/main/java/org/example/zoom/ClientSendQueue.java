@@ -0,0 +1,262 @@
+package org.example.zoom.websocket;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Outbound scheduling for {@link SimpleWebSocketClient}, the client-side
+ * counterpart of the relay's {@link OutboundQueue}.
+ *
+ * Messages wait here, one queue per {@link MessageClass}, and a sender thread
+ * hands them to the socket in priority order: control, chat, video, bulk.
+ * Video and bulk are only handed over while the socket has less than
+ * {@code maxMediaBuffered} bytes left to write, so a mute-all or USER_LEFT
+ * sent while a file is uploading waits behind at most that much and one file
+ * chunk. Only the newest pending video frame of each simulcast layer is kept,
+ * and lower layers go first (see {@link SimulcastLayers}). Bulk senders are
+ * throttled: {@link #offer} blocks while {@code maxBulkPending} chunks wait.
+ */
+public class ClientSendQueue {
+
+    public static final long DEFAULT_MAX_BUFFERED = 256 * 1024;
+    public static final long DEFAULT_MAX_MEDIA_BUFFERED = 32 * 1024;
+    public static final int DEFAULT_MAX_BULK_PENDING = 4;
+
+    // How often a full socket is checked again
+    private static final long RETRY_MS = 2;
+
+    private final Consumer<Object> writer;
+    private final LongSupplier bufferedBytes;
+    private final long maxBuffered;
+    private final long maxMediaBuffered;
+    private final int maxBulkPending;
+
+    private final ArrayDeque<Object> control = new ArrayDeque<>();
+    private final ArrayDeque<Object> chat = new ArrayDeque<>();
+    private final ArrayDeque<Object> bulk = new ArrayDeque<>();
+    private final Object[] video = new Object[SimulcastLayers.COUNT];
+
+    private Thread sender;
+    private boolean running;
+    private long sent;
+    private long droppedVideo;
+
+    /**
+     * @param writer Puts a String or ByteBuffer message on the socket
+     * @param bufferedBytes Bytes the socket still has to write
+     */
+    public ClientSendQueue(Consumer<Object> writer, LongSupplier bufferedBytes) {
+        this(writer, bufferedBytes, DEFAULT_MAX_BUFFERED, DEFAULT_MAX_MEDIA_BUFFERED, DEFAULT_MAX_BULK_PENDING);
+    }
+
+    public ClientSendQueue(Consumer<Object> writer, LongSupplier bufferedBytes, long maxBuffered,
+                           long maxMediaBuffered, int maxBulkPending) {
+        this.writer = writer;
+        this.bufferedBytes = bufferedBytes;
+        this.maxBuffered = maxBuffered;
+        this.maxMediaBuffered = maxMediaBuffered;
+        this.maxBulkPending = maxBulkPending;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        sender = new Thread(this::run, "WebSocketClient-Sender");
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    /**
+     * Stop the sender thread and drop whatever has not been sent.
+     */
+    public synchronized void stop() {
+        running = false;
+        clear();
+        notifyAll();
+        sender = null;
+    }
+
+    /**
+     * Queue a message.
+     * @param message A String or a ByteBuffer
+     * @return false if the queue is stopped
+     */
+    public synchronized boolean offer(MessageClass messageClass, Object message) {
+        if (messageClass == MessageClass.BULK) {
+            while (running && bulk.size() >= maxBulkPending) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        if (!running) {
+            return false;
+        }
+        switch (messageClass) {
+            case VIDEO:
+                putVideo(SimulcastLayers.LOW, message);
+                break;
+            case CHAT:
+                chat.add(message);
+                break;
+            case BULK:
+                bulk.add(message);
+                break;
+            default:
+                control.add(message);
+                break;
+        }
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Queue one layer of a simulcast video frame; it replaces the pending frame
+     * of the same layer only.
+     * @return false if the queue is stopped
+     */
+    public synchronized boolean offerVideo(int layer, Object message) {
+        if (!running) {
+            return false;
+        }
+        putVideo(Math.max(SimulcastLayers.LOW, Math.min(SimulcastLayers.HIGH, layer)), message);
+        notifyAll();
+        return true;
+    }
+
+    private void putVideo(int layer, Object message) {
+        if (video[layer] != null) {
+            droppedVideo++;
+        }
+        video[layer] = message;
+    }
+
+    private Object pollVideo() {
+        for (int layer = 0; layer < video.length; layer++) {
+            Object next = video[layer];
+            if (next != null) {
+                video[layer] = null;
+                return next;
+            }
+        }
+        return null;
+    }
+
+    private int videoCount() {
+        int count = 0;
+        for (Object pending : video) {
+            if (pending != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void run() {
+        while (true) {
+            Object next;
+            synchronized (this) {
+                next = null;
+                while (running && next == null) {
+                    if (control.isEmpty() && chat.isEmpty() && videoCount() == 0 && bulk.isEmpty()) {
+                        waitQuietly(0);
+                        continue;
+                    }
+                    next = poll(bufferedBytes.getAsLong());
+                    if (next == null) {
+                        // Socket still busy; new control messages wake us up earlier
+                        waitQuietly(RETRY_MS);
+                    }
+                }
+                if (!running) {
+                    return;
+                }
+            }
+            try {
+                writer.accept(next);
+                synchronized (this) {
+                    sent++;
+                }
+            } catch (Exception e) {
+                System.err.println("Failed to send queued WebSocket message: " + e.getMessage());
+            }
+        }
+    }
+
+    private Object poll(long buffered) {
+        if (buffered >= maxBuffered) {
+            return null;
+        }
+        Object next = control.poll();
+        if (next == null) {
+            next = chat.poll();
+        }
+        if (next == null && buffered < maxMediaBuffered) {
+            next = pollVideo();
+            if (next == null) {
+                next = bulk.poll();
+                if (next != null) {
+                    // A bulk sender may be waiting for room
+                    notifyAll();
+                }
+            }
+        }
+        return next;
+    }
+
+    private void waitQuietly(long ms) {
+        try {
+            wait(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    public synchronized void clear() {
+        control.clear();
+        chat.clear();
+        bulk.clear();
+        Arrays.fill(video, null);
+    }
+
+    public synchronized int getQueuedCount(MessageClass messageClass) {
+        switch (messageClass) {
+            case VIDEO:
+                return videoCount();
+            case CHAT:
+                return chat.size();
+            case BULK:
+                return bulk.size();
+            default:
+                return control.size();
+        }
+    }
+
+    public synchronized long getSent() {
+        return sent;
+    }
+
+    public synchronized long getDroppedVideoFrames() {
+        return droppedVideo;
+    }
+
+    /**
+     * Bytes a Java-WebSocket connection has queued but not written yet.
+     */
+    static long bufferedBytes(Iterable<ByteBuffer> outQueue) {
+        long bytes = 0;
+        for (ByteBuffer buffer : outQueue) {
+            bytes += buffer.remaining();
+        }
+        return bytes;
+    }
+}
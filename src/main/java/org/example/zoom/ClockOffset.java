@@ -0,0 +1,84 @@
+package org.example.zoom.websocket;
+
+/**
+ * Offset between this client's monotonic clock and the relay's, estimated from
+ * PING/PONG round trips the way NTP does: assuming the PONG was stamped half
+ * way through the round trip, offset = relayTime - (sent + rtt / 2).
+ *
+ * Queuing delay makes round trips asymmetric, so of the last few samples the
+ * one with the shortest round trip is trusted; its error is at most half that
+ * round trip.
+ */
+public final class ClockOffset {
+
+    private static final int WINDOW = 8;
+
+    private final long[] rtts = new long[WINDOW];
+    private final long[] offsets = new long[WINDOW];
+    private int samples;
+    private int next;
+
+    /**
+     * Record one round trip.
+     * @param sentMs Local time the PING was sent
+     * @param relayMs Relay time stamped on the PONG
+     * @param receivedMs Local time the PONG arrived
+     */
+    public synchronized void addSample(long sentMs, long relayMs, long receivedMs) {
+        long rtt = receivedMs - sentMs;
+        if (rtt < 0) {
+            return;
+        }
+        rtts[next] = rtt;
+        offsets[next] = relayMs - (sentMs + rtt / 2);
+        next = (next + 1) % WINDOW;
+        samples = Math.min(samples + 1, WINDOW);
+    }
+
+    public synchronized boolean isSynchronized() {
+        return samples > 0;
+    }
+
+    /**
+     * Relay clock minus local clock, in milliseconds; 0 before the first sample.
+     */
+    public synchronized long getOffsetMs() {
+        int best = bestSample();
+        return best < 0 ? 0 : offsets[best];
+    }
+
+    /**
+     * Shortest round trip in the window, or -1 before the first sample.
+     */
+    public synchronized long getRttMs() {
+        int best = bestSample();
+        return best < 0 ? -1 : rtts[best];
+    }
+
+    /**
+     * A local {@link MediaTrace#monotonicMillis()} time on the relay's clock, or
+     * {@link MediaTrace#NO_CAPTURE} if there is no estimate yet.
+     */
+    public synchronized long toRelayClock(long localMs) {
+        int best = bestSample();
+        return best < 0 ? MediaTrace.NO_CAPTURE : localMs + offsets[best];
+    }
+
+    /**
+     * Forget all samples, e.g. after connecting to a different relay.
+     */
+    public synchronized void reset() {
+        samples = 0;
+        next = 0;
+    }
+
+    private int bestSample() {
+        int best = -1;
+        for (int i = 0; i < samples; i++) {
+            if (best < 0 || rtts[i] < rtts[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+}
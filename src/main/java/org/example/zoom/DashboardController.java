@@ -12,6 +12,7 @@ import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
 import org.example.zoom.websocket.SimpleWebSocketClient;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -41,6 +42,9 @@ public class DashboardController implements HelloApplication.ConnectionStatusLis
     private long lastConnectionChangeTime = 0;
     private static final long MIN_ALERT_INTERVAL = 3000;
 
+    // Row shown for each device, so a presence delta can replace just that row
+    private final Map<String, String> deviceRows = new HashMap<>();
+
     @FXML
     public void initialize() {
         // Configure scroll pane
@@ -160,6 +164,7 @@ public class DashboardController implements HelloApplication.ConnectionStatusLis
 
         Platform.runLater(() -> {
             devicesListView.getItems().clear();
+            deviceRows.clear();
 
             if (devices.isEmpty()) {
                 devicesListView.getItems().add("📡 No other devices connected");
@@ -167,19 +172,14 @@ public class DashboardController implements HelloApplication.ConnectionStatusLis
             }
 
             // Add header
-            devicesListView.getItems().add("=== Connected Devices (" + devices.size() + ") ===");
+            devicesListView.getItems().add(devicesHeader(devices.size()));
 
             // Add current device first
             String currentDeviceId = HelloApplication.getDeviceId();
-            String currentDeviceName = HelloApplication.getDeviceName();
 
             for (HelloApplication.DeviceInfo device : devices.values()) {
                 if (device.deviceId.equals(currentDeviceId)) {
-                    String status = device.isVideoOn ? "🎥" : "🎤";
-                    String audioStatus = device.isAudioMuted ? "🔇" : "🔊";
-                    String deviceEntry = String.format("  ▶ %s %s %s - %s (%s) [YOU]",
-                            status, audioStatus, device.deviceName, device.username, device.ipAddress);
-                    devicesListView.getItems().add(deviceEntry);
+                    addDeviceRow(device, currentDeviceId, devicesListView.getItems().size());
                     break;
                 }
             }
@@ -187,18 +187,78 @@ public class DashboardController implements HelloApplication.ConnectionStatusLis
             // Add other devices
             for (HelloApplication.DeviceInfo device : devices.values()) {
                 if (!device.deviceId.equals(currentDeviceId)) {
-                    String status = device.isVideoOn ? "🎥" : "🎤";
-                    String audioStatus = device.isAudioMuted ? "🔇" : "🔊";
-                    String deviceEntry = String.format("  ○ %s %s %s - %s (%s)",
-                            status, audioStatus, device.deviceName, device.username, device.ipAddress);
-                    devicesListView.getItems().add(deviceEntry);
+                    addDeviceRow(device, currentDeviceId, devicesListView.getItems().size());
                 }
             }
 
-            devicesListView.getItems().add("\nTotal: " + devices.size() + " device(s) connected");
+            devicesListView.getItems().add(devicesTotal(devices.size()));
         });
     }
 
+    /**
+     * Patch the list for one presence delta instead of rebuilding it, so the
+     * selection and scroll position survive other devices coming and going.
+     */
+    private void patchDevicesList(Map<String, HelloApplication.DeviceInfo> devices,
+                                  List<HelloApplication.DeviceInfo> upserted, List<String> removedDeviceIds) {
+        if (devicesListView == null) return;
+
+        List<String> items = devicesListView.getItems();
+        // Empty list placeholder, or the list is about to become one
+        if (deviceRows.isEmpty() || devices.isEmpty() || items.size() < 2) {
+            updateDevicesList(devices);
+            return;
+        }
+
+        for (String deviceId : removedDeviceIds) {
+            String row = deviceRows.remove(deviceId);
+            if (row != null) {
+                items.remove(row);
+            }
+        }
+
+        String currentDeviceId = HelloApplication.getDeviceId();
+        for (HelloApplication.DeviceInfo device : upserted) {
+            String oldRow = deviceRows.get(device.deviceId);
+            int index = oldRow != null ? items.indexOf(oldRow) : -1;
+            if (index >= 0) {
+                items.remove(index);
+            } else {
+                // New devices go last, just above the total
+                index = items.size() - 1;
+            }
+            addDeviceRow(device, currentDeviceId, index);
+        }
+
+        items.set(0, devicesHeader(devices.size()));
+        items.set(items.size() - 1, devicesTotal(devices.size()));
+    }
+
+    private void addDeviceRow(HelloApplication.DeviceInfo device, String currentDeviceId, int index) {
+        String row = formatDeviceRow(device, currentDeviceId);
+        deviceRows.put(device.deviceId, row);
+        devicesListView.getItems().add(index, row);
+    }
+
+    private String formatDeviceRow(HelloApplication.DeviceInfo device, String currentDeviceId) {
+        String status = device.isVideoOn ? "🎥" : "🎤";
+        String audioStatus = device.isAudioMuted ? "🔇" : "🔊";
+        if (device.deviceId.equals(currentDeviceId)) {
+            return String.format("  ▶ %s %s %s - %s (%s) [YOU]",
+                    status, audioStatus, device.deviceName, device.username, device.ipAddress);
+        }
+        return String.format("  ○ %s %s %s - %s (%s)",
+                status, audioStatus, device.deviceName, device.username, device.ipAddress);
+    }
+
+    private String devicesHeader(int count) {
+        return "=== Connected Devices (" + count + ") ===";
+    }
+
+    private String devicesTotal(int count) {
+        return "\nTotal: " + count + " device(s) connected";
+    }
+
     private void showDeviceDetails(String deviceInfo) {
         // Parse device info and show details dialog
         Alert alert = new Alert(Alert.AlertType.INFORMATION);
@@ -232,6 +292,20 @@ public class DashboardController implements HelloApplication.ConnectionStatusLis
         });
     }
 
+    @Override
+    public void onDevicesUpdated(Map<String, HelloApplication.DeviceInfo> devices,
+                                 List<HelloApplication.DeviceInfo> upserted, List<String> removedDeviceIds) {
+        Platform.runLater(() -> {
+            patchDevicesList(devices, upserted, removedDeviceIds);
+            updateDeviceCount();
+
+            if (devicesPanel != null && !devices.isEmpty() && !devicesPanel.isVisible()) {
+                devicesPanel.setVisible(true);
+                devicesPanel.setManaged(true);
+            }
+        });
+    }
+
     private void handleConnectionStateChange(boolean connected, String status) {
         long currentTime = System.currentTimeMillis();
 
@@ -0,0 +1,67 @@
+package org.example.zoom.websocket;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Pool of equally sized direct buffers.
+ *
+ * Direct buffers avoid the copy the JDK makes when a heap buffer is handed to
+ * a channel, but they are expensive to allocate and only freed by the garbage
+ * collector, so they are kept and reused. A pool is owned by one thread (each
+ * NIO I/O thread has its own) and therefore needs no locking.
+ */
+public class DirectBufferPool {
+
+    private final int bufferSize;
+    private final int maxPooled;
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+
+    private long allocated;
+    private long reused;
+
+    /**
+     * @param bufferSize Capacity of every buffer
+     * @param maxPooled  Free buffers kept; buffers released beyond that are left to the GC
+     */
+    public DirectBufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * A cleared buffer of {@link #getBufferSize()} bytes.
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = free.pollFirst();
+        if (buffer == null) {
+            allocated++;
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        reused++;
+        buffer.clear();
+        return buffer;
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer.isDirect() && buffer.capacity() == bufferSize && free.size() < maxPooled) {
+            free.addFirst(buffer);
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public int getFreeCount() {
+        return free.size();
+    }
+
+    public long getAllocated() {
+        return allocated;
+    }
+
+    public long getReused() {
+        return reused;
+    }
+}
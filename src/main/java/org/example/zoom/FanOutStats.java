@@ -0,0 +1,81 @@
+package org.example.zoom.websocket;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cost counters for relay broadcasts: how many frames were encoded, how many
+ * recipients they reached and how long encoding and queueing took.
+ */
+public class FanOutStats {
+
+    private final LongAdder broadcasts = new LongAdder();
+    private final LongAdder recipients = new LongAdder();
+    private final LongAdder encodeNanos = new LongAdder();
+    private final LongAdder queueNanos = new LongAdder();
+    private final LongAdder bytesEncoded = new LongAdder();
+    private final LongAdder bytesQueued = new LongAdder();
+    private volatile long lastBroadcastNanos;
+
+    public void record(int recipientCount, int frameSize, long encodeTime, long queueTime) {
+        broadcasts.increment();
+        recipients.add(recipientCount);
+        encodeNanos.add(encodeTime);
+        queueNanos.add(queueTime);
+        bytesEncoded.add(frameSize);
+        bytesQueued.add((long) frameSize * recipientCount);
+        lastBroadcastNanos = encodeTime + queueTime;
+    }
+
+    public long getBroadcasts() {
+        return broadcasts.sum();
+    }
+
+    public long getRecipients() {
+        return recipients.sum();
+    }
+
+    public long getBytesEncoded() {
+        return bytesEncoded.sum();
+    }
+
+    public long getBytesQueued() {
+        return bytesQueued.sum();
+    }
+
+    public long getLastBroadcastNanos() {
+        return lastBroadcastNanos;
+    }
+
+    /**
+     * Average encode + queue time per broadcast, in nanoseconds.
+     */
+    public double getAverageBroadcastNanos() {
+        long count = broadcasts.sum();
+        return count == 0 ? 0 : (double) (encodeNanos.sum() + queueNanos.sum()) / count;
+    }
+
+    /**
+     * Average queue time per recipient, in nanoseconds.
+     */
+    public double getAverageRecipientNanos() {
+        long count = recipients.sum();
+        return count == 0 ? 0 : (double) queueNanos.sum() / count;
+    }
+
+    public void reset() {
+        broadcasts.reset();
+        recipients.reset();
+        encodeNanos.reset();
+        queueNanos.reset();
+        bytesEncoded.reset();
+        bytesQueued.reset();
+        lastBroadcastNanos = 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("broadcasts=%d recipients=%d avgBroadcast=%.1fus avgPerRecipient=%.1fus encoded=%dB queued=%dB",
+                getBroadcasts(), getRecipients(), getAverageBroadcastNanos() / 1000.0,
+                getAverageRecipientNanos() / 1000.0, getBytesEncoded(), getBytesQueued());
+    }
+}
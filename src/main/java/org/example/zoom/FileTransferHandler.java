@@ -13,8 +13,8 @@ public class FileTransferHandler {
     private Map<String, FileTransfer> ongoingTransfers = new ConcurrentHashMap<>();
     private Map<String, FileTransfer> incomingTransfers = new ConcurrentHashMap<>();
 
-    // Transfer chunk size (64KB)
-    private static final int CHUNK_SIZE = 64 * 1024;
+    // Transfer chunk size (16KB); a control message never waits behind more than one chunk
+    private static final int CHUNK_SIZE = 16 * 1024;
 
     public FileTransferHandler(MeetingController controller) {
         this.meetingController = controller;
@@ -102,9 +102,6 @@ public class FileTransferHandler {
                             });
                         }
                     }
-
-                    // Small delay to avoid overwhelming the network
-                    Thread.sleep(10);
                 }
 
                 // Send completion message
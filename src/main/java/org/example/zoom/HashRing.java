@@ -0,0 +1,112 @@
+package org.example.zoom.websocket;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Consistent-hash ring placing meetings on relay nodes.
+ *
+ * Every node is put on the ring at {@code virtualNodes} points; a meeting
+ * belongs to the first node point at or after the meeting id's hash. When a node
+ * joins or leaves, only the meetings between its points and their predecessors
+ * change owner. Rings are immutable, a membership change builds a new one, so
+ * owner lookups are cached per ring without invalidation.
+ */
+public final class HashRing {
+
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+    private static final int MAX_CACHED_OWNERS = 100_000;
+
+    private final TreeMap<Long, String> points = new TreeMap<>();
+    private final TreeSet<String> nodes;
+    private final ConcurrentHashMap<String, String> ownerCache = new ConcurrentHashMap<>();
+
+    public HashRing(Collection<String> nodeIds) {
+        this(nodeIds, DEFAULT_VIRTUAL_NODES);
+    }
+
+    public HashRing(Collection<String> nodeIds, int virtualNodes) {
+        this.nodes = new TreeSet<>(nodeIds);
+        for (String node : nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                points.put(hash(node + "#" + i), node);
+            }
+        }
+    }
+
+    /**
+     * The node owning a meeting, or null if the ring is empty.
+     */
+    public String ownerOf(String meetingId) {
+        if (points.isEmpty()) {
+            return null;
+        }
+        String owner = ownerCache.get(meetingId);
+        if (owner == null) {
+            SortedMap<Long, String> tail = points.tailMap(hash(meetingId));
+            owner = tail.isEmpty() ? points.firstEntry().getValue() : tail.get(tail.firstKey());
+            if (ownerCache.size() >= MAX_CACHED_OWNERS) {
+                ownerCache.clear();
+            }
+            ownerCache.put(meetingId, owner);
+        }
+        return owner;
+    }
+
+    public Collection<String> getNodes() {
+        return Collections.unmodifiableSet(nodes);
+    }
+
+    public boolean contains(String nodeId) {
+        return nodes.contains(nodeId);
+    }
+
+    public int size() {
+        return nodes.size();
+    }
+
+    /**
+     * Share of the hash space owned by each node, for checking the balance.
+     */
+    public Map<String, Double> getOwnership() {
+        Map<String, Double> share = new TreeMap<>();
+        if (points.isEmpty()) {
+            return share;
+        }
+        long previous = points.lastKey() - (1L << 32);
+        for (Map.Entry<Long, String> point : points.entrySet()) {
+            share.merge(point.getValue(), (point.getKey() - previous) / (double) (1L << 32), Double::sum);
+            previous = point.getKey();
+        }
+        return share;
+    }
+
+    /**
+     * 32-bit FNV-1a over the UTF-8 bytes with a final avalanche, kept as an unsigned long.
+     * Stable across JVMs, which matters because every node must build the same ring.
+     */
+    static long hash(String key) {
+        int h = 0x811C9DC5;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= (b & 0xFF);
+            h *= 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h & 0xFFFFFFFFL;
+    }
+
+    @Override
+    public String toString() {
+        return "HashRing" + nodes;
+    }
+}
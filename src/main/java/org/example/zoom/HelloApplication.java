@@ -6,6 +6,9 @@ import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
 import org.example.zoom.webrtc.WebRTCManager;
+import org.example.zoom.websocket.AsyncLog;
+import org.example.zoom.websocket.MessageHeader;
+import org.example.zoom.websocket.PresenceState;
 import org.example.zoom.websocket.SimpleWebSocketClient;
 import javafx.scene.control.Alert;
 import javafx.scene.control.ButtonType;
@@ -41,6 +44,7 @@ public class HelloApplication extends Application {
     private static String activeMeetingId;
     private static final List<String> activeParticipants = new ArrayList<>();
     private static SimpleWebSocketClient webSocketClient;
+    private static final AsyncLog LOG = AsyncLog.getInstance();
 
     private static WebRTCManager webRTCManager;
     private static boolean webRTCEnabled = false;
@@ -82,6 +86,11 @@ public class HelloApplication extends Application {
     // Connected devices tracking
     private static final Map<String, DeviceInfo> connectedDevices = new HashMap<>();
 
+    // Versioned presence from the server: one snapshot, then deltas (see PresenceState)
+    private static final PresenceState presenceState = new PresenceState();
+    private static final long PRESENCE_RESYNC_BACKOFF_MS = 2000;
+    private static volatile long lastPresenceResync;
+
     // HTTP client for REST API calls
     private static HttpClient httpClient = HttpClient.newHttpClient();
 
@@ -118,6 +127,16 @@ public class HelloApplication extends Application {
     public interface ConnectionStatusListener {
         void onConnectionStatusChanged(boolean connected, String status);
         void onDeviceListChanged(Map<String, DeviceInfo> devices);
+
+        /**
+         * Devices added, changed or removed by one presence delta. Listeners
+         * that can patch their view override this; by default the whole list
+         * is handed to {@link #onDeviceListChanged}.
+         */
+        default void onDevicesUpdated(Map<String, DeviceInfo> devices, List<DeviceInfo> upserted,
+                                      List<String> removedDeviceIds) {
+            onDeviceListChanged(devices);
+        }
     }
 
     @Override
@@ -878,6 +897,7 @@ public class HelloApplication extends Application {
             // Add custom headers for device identification
             webSocketClient.addHeader("Device-ID", deviceId);
             webSocketClient.addHeader("Device-Name", deviceName);
+            webSocketClient.addHeader(PresenceState.HANDSHAKE_HEADER, PresenceState.HANDSHAKE_VALUE);
 
             connectionInitialized = true;
             stopMonitoring = false;
@@ -1485,33 +1505,54 @@ public class HelloApplication extends Application {
         }
     }
 
+    /**
+     * Send a JPEG-encoded frame. Goes out as a binary media frame when the server
+     * supports it, otherwise as the Base64 text message.
+     */
+    public static void sendVideoFrame(String meetingId, String username, byte[] jpegImage) {
+        if (webSocketClient == null || !webSocketClient.isConnected()) {
+            System.err.println("WebSocket not connected for video streaming");
+            return;
+        }
+
+        if (!webSocketClient.isBinaryFramesSupported()) {
+            sendVideoFrame(meetingId, username, java.util.Base64.getEncoder().encodeToString(jpegImage));
+            return;
+        }
+
+        webSocketClient.sendVideoFrame(meetingId, username, jpegImage);
+        videoFramesSent++;
+        if (videoFramesSent % 10 == 0) {
+            System.out.println("Sent " + videoFramesSent + " video frames from: " + username + " on device: " + deviceName);
+        }
+    }
+
     public static void sendVideoFrame(Image image) {
         if (!isWebSocketConnected() || getActiveMeetingId() == null || !isVideoOn()) {
             return;
         }
 
         try {
-            String base64Image = convertImageToBase64(image);
-            if (base64Image != null && !base64Image.isEmpty()) {
-                sendVideoFrame(getActiveMeetingId(), loggedInUser, base64Image);
+            byte[] jpegImage = convertImageToJpeg(image);
+            if (jpegImage != null && jpegImage.length > 0) {
+                sendVideoFrame(getActiveMeetingId(), loggedInUser, jpegImage);
             }
         } catch (Exception e) {
             System.err.println("Error sending video frame: " + e.getMessage());
         }
     }
 
-    private static String convertImageToBase64(Image image) {
+    static byte[] convertImageToJpeg(Image image) {
         try {
             java.awt.image.BufferedImage bufferedImage = convertToBufferedImage(image);
             if (bufferedImage == null) return null;
 
             java.io.ByteArrayOutputStream baos = new java.io.ByteArrayOutputStream();
             javax.imageio.ImageIO.write(bufferedImage, "jpg", baos);
-            byte[] imageBytes = baos.toByteArray();
-            return java.util.Base64.getEncoder().encodeToString(imageBytes);
+            return baos.toByteArray();
 
         } catch (Exception e) {
-            System.err.println("Error converting image to base64: " + e.getMessage());
+            System.err.println("Error converting image to JPEG: " + e.getMessage());
             return null;
         }
     }
@@ -1608,15 +1649,13 @@ public class HelloApplication extends Application {
     }
 
     private static void handleWebSocketMessage(String message) {
-        System.out.println("HelloApplication received WebSocket message on device: " + deviceName);
-        System.out.println("Full message: " + message);
+        MessageHeader header = new MessageHeader();
+        if (header.parse(message)) {
+            String type = header.type();
+            String meetingId = header.meetingId();
+            String username = header.username();
 
-        String[] parts = message.split("\\|", -1);
-        if (parts.length >= 4) {
-            String type = parts[0];
-            String meetingId = parts[1];
-            String username = parts[2];
-            String content = parts.length > 3 ? parts[3] : "";
+            LOG.sampled(AsyncLog.Level.DEBUG, type, "Received {} on device {}: {}", type, deviceName, message);
 
             // Handle VALIDATE_MEETING specially
             if (type.equals("VALIDATE_MEETING")) {
@@ -1625,37 +1664,51 @@ public class HelloApplication extends Application {
                     System.out.println("Ignoring validation request for invalid meeting ID: " + meetingId);
                     return;
                 }
-                handleMeetingValidation(meetingId, username, content);
+                handleMeetingValidation(meetingId, username, header.content());
                 return;
             }
 
             // Handle MEETING_CREATED
             if (type.equals("MEETING_CREATED")) {
-                handleMeetingCreatedFromServer(meetingId, username, content);
+                handleMeetingCreatedFromServer(meetingId, username, header.content());
                 return;
             }
 
             // Handle MEETING_AVAILABLE
             if (type.equals("MEETING_AVAILABLE")) {
-                handleMeetingAvailable(meetingId, username, content);
+                handleMeetingAvailable(meetingId, username, header.content());
                 return;
             }
 
             // Handle MEETING_VALIDATION_RESPONSE
             if (type.equals("MEETING_VALIDATION_RESPONSE")) {
-                handleMeetingValidationResponse(meetingId, content);
+                handleMeetingValidationResponse(meetingId, header.content());
                 return;
             }
 
             // Handle MEETING_LIST
             if (type.equals("MEETING_LIST")) {
-                handleMeetingListResponse(content);
+                handleMeetingListResponse(header.content());
                 return;
             }
 
             // Handle MEETING_SYNC
             if (type.equals("MEETING_SYNC")) {
-                handleMeetingSync(content);
+                handleMeetingSync(header.content());
+                return;
+            }
+
+            // Presence: a snapshot, then versioned deltas; DEVICE_LIST from servers without deltas
+            if (type.equals("PRESENCE_SNAPSHOT")) {
+                handlePresenceSnapshot(header.content(), header.field(4));
+                return;
+            }
+            if (type.equals("PRESENCE_DELTA")) {
+                handlePresenceDelta(header.content(), header.field(4));
+                return;
+            }
+            if (type.equals("DEVICE_LIST")) {
+                handleDeviceList(header.content());
                 return;
             }
 
@@ -1795,6 +1848,89 @@ public class HelloApplication extends Application {
         }
     }
 
+    private static void handlePresenceSnapshot(String version, String entries) {
+        long snapshotVersion;
+        try {
+            snapshotVersion = Long.parseLong(version);
+        } catch (NumberFormatException e) {
+            System.err.println("Ignoring presence snapshot with bad version: " + version);
+            return;
+        }
+        presenceState.applySnapshot(snapshotVersion, entries);
+        lastPresenceResync = 0;
+        handleDeviceList(entries != null ? entries : "");
+    }
+
+    /**
+     * Apply one presence delta to the device list, touching only the devices
+     * it names. A skipped version means updates were lost, so the whole list
+     * is requested again.
+     */
+    private static void handlePresenceDelta(String version, String ops) {
+        long deltaVersion;
+        try {
+            deltaVersion = Long.parseLong(version);
+        } catch (NumberFormatException e) {
+            System.err.println("Ignoring presence delta with bad version: " + version);
+            return;
+        }
+
+        List<PresenceState.Change> changes = new ArrayList<>();
+        PresenceState.Result result = presenceState.applyDelta(deltaVersion, ops, changes);
+        if (result == PresenceState.Result.GAP) {
+            requestPresenceResync();
+            return;
+        }
+        if (result == PresenceState.Result.STALE || changes.isEmpty()) {
+            return;
+        }
+
+        List<DeviceInfo> upserted = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        for (PresenceState.Change change : changes) {
+            PresenceState.Device device = change.getDevice();
+            if (change.isRemoved()) {
+                connectedDevices.remove(device.getDeviceId());
+                removed.add(device.getDeviceId());
+                continue;
+            }
+            DeviceInfo info = connectedDevices.get(device.getDeviceId());
+            if (info == null) {
+                info = new DeviceInfo(device.getDeviceId(), device.getUsername(), device.getUsername(),
+                        device.getIpAddress());
+                connectedDevices.put(device.getDeviceId(), info);
+            } else {
+                info.username = device.getUsername();
+                info.ipAddress = device.getIpAddress();
+            }
+            info.deviceType = device.getDeviceType();
+            info.lastSeen = device.getConnectTime();
+            upserted.add(info);
+        }
+
+        if (connectionStatusListener != null) {
+            Map<String, DeviceInfo> devices = new HashMap<>(connectedDevices);
+            Platform.runLater(() -> {
+                connectionStatusListener.onDevicesUpdated(devices, upserted, removed);
+            });
+        }
+    }
+
+    private static void requestPresenceResync() {
+        long now = System.currentTimeMillis();
+        // Deltas keep arriving until the snapshot does; ask once
+        if (now - lastPresenceResync < PRESENCE_RESYNC_BACKOFF_MS) {
+            return;
+        }
+        lastPresenceResync = now;
+        if (webSocketClient != null && webSocketClient.isConnected()) {
+            System.out.println("Missed a presence update, requesting the device list (version " +
+                    presenceState.getVersion() + ")");
+            webSocketClient.send("PRESENCE_SYNC|global|" + (loggedInUser != null ? loggedInUser : deviceName) +
+                    "|" + presenceState.getVersion());
+        }
+    }
+
     private static void handleDeviceConnected(String username, String deviceInfo) {
         String[] parts = deviceInfo.split("\\|");
         if (parts.length >= 2) {
@@ -2903,6 +3039,7 @@ public class HelloApplication extends Application {
                 }
 
                 webSocketClient = new SimpleWebSocketClient(serverUrl, HelloApplication::handleWebSocketMessage);
+                webSocketClient.addHeader(PresenceState.HANDSHAKE_HEADER, PresenceState.HANDSHAKE_VALUE);
 
                 if (loggedInUser != null) {
                     webSocketClient.setCurrentUser(loggedInUser);
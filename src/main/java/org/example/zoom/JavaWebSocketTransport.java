@@ -0,0 +1,132 @@
+package org.example.zoom.websocket;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.exceptions.InvalidDataException;
+import org.java_websocket.extensions.permessage_deflate.PerMessageDeflateExtension;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.handshake.ServerHandshakeBuilder;
+import org.java_websocket.server.WebSocketServer;
+
+/**
+ * {@link RelayTransport} on Java-WebSocket's {@link WebSocketServer}: one
+ * selector thread plus {@code decoderCount} decoder threads.
+ */
+public class JavaWebSocketTransport implements RelayTransport {
+
+    private final int decoderCount;
+    private final WebSocketServer server;
+
+    public JavaWebSocketTransport(InetSocketAddress address, int decoderCount, Listener listener) {
+        this.decoderCount = decoderCount;
+        this.server = new WebSocketServer(address, decoderCount, Collections.singletonList(
+                MessageCompressor.getInstance().isEnabled()
+                        ? new Draft_6455(SelectiveDeflateExtension.forServer())
+                        : new Draft_6455())) {
+            @Override
+            public ServerHandshakeBuilder onWebsocketHandshakeReceivedAsServer(
+                    WebSocket conn, Draft draft, ClientHandshake request) throws InvalidDataException {
+                ServerHandshakeBuilder response = super.onWebsocketHandshakeReceivedAsServer(conn, draft, request);
+                Map<String, String> extra = new LinkedHashMap<>();
+                listener.onHandshake(request, extra);
+                for (Map.Entry<String, String> header : extra.entrySet()) {
+                    response.put(header.getKey(), header.getValue());
+                }
+                return response;
+            }
+
+            @Override
+            public void onOpen(WebSocket conn, ClientHandshake handshake) {
+                listener.onOpen(conn, handshake);
+            }
+
+            @Override
+            public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+                listener.onClose(conn, code, reason, remote);
+            }
+
+            @Override
+            public void onMessage(WebSocket conn, String message) {
+                listener.onMessage(conn, message);
+            }
+
+            @Override
+            public void onMessage(WebSocket conn, ByteBuffer message) {
+                listener.onMessage(conn, message);
+            }
+
+            @Override
+            public void onWebsocketPong(WebSocket conn, Framedata f) {
+                listener.onPong(conn);
+            }
+
+            @Override
+            public void onError(WebSocket conn, Exception ex) {
+                listener.onError(conn, ex);
+            }
+
+            @Override
+            public void onStart() {
+                listener.onStart();
+            }
+        };
+
+        server.setReuseAddr(true);
+        server.setTcpNoDelay(true);
+        // Liveness is tracked by the relay; the library's own scan of all connections is off
+        server.setConnectionLostTimeout(0);
+        server.setMaxPendingConnections(200); // Increased for multiple devices
+    }
+
+    @Override
+    public void start() {
+        server.start();
+    }
+
+    @Override
+    public void stop(int timeoutMs) throws InterruptedException {
+        server.stop(timeoutMs);
+    }
+
+    @Override
+    public int getPort() {
+        return server.getPort();
+    }
+
+    @Override
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * The shared bytes go straight to the connection's output queue, skipping
+     * the per-recipient frame building done by {@code send()}.
+     */
+    @Override
+    public void write(WebSocket conn, ByteBuffer frame) {
+        // Every connection of a WebSocketServer is a WebSocketImpl
+        ((WebSocketImpl) conn).outQueue.add(frame);
+        server.onWriteDemand(conn);
+    }
+
+    @Override
+    public boolean usesDeflate(WebSocket conn) {
+        Draft draft = conn.getDraft();
+        return draft instanceof Draft_6455 &&
+                ((Draft_6455) draft).getExtension() instanceof PerMessageDeflateExtension;
+    }
+
+    @Override
+    public String describe() {
+        return JAVA_WEBSOCKET + " (decoder threads: " + decoderCount + ")";
+    }
+}
@@ -0,0 +1,254 @@
+package org.example.zoom.websocket;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Latest video frame of every publisher in every meeting, so a participant who
+ * joins can be shown each video tile right away instead of waiting for the
+ * publisher's next frame.
+ *
+ * Frames are kept in their encoded, shareable form. A frame that arrived as a
+ * binary media frame keeps its binary encoding and gets a text encoding only
+ * when a legacy client asks for it. The total size of all cached frames is
+ * bounded; when it is exceeded the least recently updated publishers are
+ * evicted first. Frames older than {@code maxAgeMs} are not served, since the
+ * publisher has most likely stopped its camera.
+ */
+public class LastFrameCache {
+
+    public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+    public static final long DEFAULT_MAX_AGE_MS = 5000;
+
+    /**
+     * A cached frame of one publisher.
+     */
+    public static final class Entry {
+        private final String meetingId;
+        private final String publisher;
+        private final SharedFrame binaryFrame;
+        private SharedFrame textFrame;
+        private final long storedAt;
+
+        private Entry(String meetingId, String publisher, SharedFrame binaryFrame, SharedFrame textFrame) {
+            this.meetingId = meetingId;
+            this.publisher = publisher;
+            this.binaryFrame = binaryFrame;
+            this.textFrame = textFrame;
+            this.storedAt = System.currentTimeMillis();
+        }
+
+        public String getPublisher() {
+            return publisher;
+        }
+
+        /**
+         * The frame to send to a client.
+         * @param binaryClient Whether the client negotiated binary media frames
+         */
+        public SharedFrame frameFor(boolean binaryClient) {
+            if (binaryClient && binaryFrame != null) {
+                return binaryFrame;
+            }
+            return textFrame;
+        }
+
+        private int size() {
+            return (binaryFrame != null ? binaryFrame.size() : 0) + (textFrame != null ? textFrame.size() : 0);
+        }
+    }
+
+    private final long maxBytes;
+    private final long maxAgeMs;
+
+    // Least recently updated first
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+    private final HashMap<String, Map<String, Entry>> byMeeting = new HashMap<>();
+    private long bytes;
+
+    private long stores;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expired;
+
+    public LastFrameCache() {
+        this(DEFAULT_MAX_BYTES, DEFAULT_MAX_AGE_MS);
+    }
+
+    public LastFrameCache(long maxBytes, long maxAgeMs) {
+        this.maxBytes = maxBytes;
+        this.maxAgeMs = maxAgeMs;
+    }
+
+    /**
+     * Remember a frame relayed as text.
+     */
+    public void putText(String meetingId, String publisher, SharedFrame textFrame) {
+        put(new Entry(meetingId, publisher, null, textFrame));
+    }
+
+    /**
+     * Remember a frame relayed as a binary media frame.
+     * @param textFrame Its text form if it was already built for legacy recipients, else null
+     */
+    public void putBinary(String meetingId, String publisher, SharedFrame binaryFrame, SharedFrame textFrame) {
+        put(new Entry(meetingId, publisher, binaryFrame, textFrame));
+    }
+
+    private synchronized void put(Entry entry) {
+        if (entry.size() > maxBytes) {
+            return;
+        }
+        remove(key(entry.meetingId, entry.publisher));
+
+        entries.put(key(entry.meetingId, entry.publisher), entry);
+        byMeeting.computeIfAbsent(entry.meetingId, k -> new HashMap<>()).put(entry.publisher, entry);
+        bytes += entry.size();
+        stores++;
+
+        Iterator<Entry> oldest = entries.values().iterator();
+        while (bytes > maxBytes && oldest.hasNext()) {
+            Entry evicted = oldest.next();
+            oldest.remove();
+            unlink(evicted);
+            evictions++;
+        }
+    }
+
+    /**
+     * Fresh frames of every publisher in a meeting except {@code exclude}.
+     * Counts one hit per frame returned, or one miss if there is none.
+     */
+    public synchronized List<Entry> framesFor(String meetingId, String exclude) {
+        List<Entry> result = new ArrayList<>();
+        Map<String, Entry> publishers = byMeeting.get(meetingId);
+        if (publishers != null) {
+            long oldestAllowed = System.currentTimeMillis() - maxAgeMs;
+            for (Entry entry : new ArrayList<>(publishers.values())) {
+                if (entry.storedAt < oldestAllowed) {
+                    remove(key(meetingId, entry.publisher));
+                    expired++;
+                } else if (!entry.publisher.equals(exclude)) {
+                    result.add(entry);
+                }
+            }
+        }
+
+        if (result.isEmpty()) {
+            misses++;
+        } else {
+            hits += result.size();
+        }
+        return result;
+    }
+
+    /**
+     * Build the text form of a binary-only entry, for clients without binary frames.
+     */
+    public SharedFrame textFrameFor(Entry entry) {
+        synchronized (this) {
+            if (entry.textFrame != null) {
+                return entry.textFrame;
+            }
+        }
+        BinaryMediaFrame parsed = BinaryMediaFrame.parse(entry.binaryFrame.payloadView());
+        if (parsed == null) {
+            return null;
+        }
+        SharedFrame text = SharedFrame.text(parsed.toText());
+        synchronized (this) {
+            if (entry.textFrame == null) {
+                entry.textFrame = text;
+                if (entries.get(key(entry.meetingId, entry.publisher)) == entry) {
+                    bytes += text.size();
+                }
+            }
+            return entry.textFrame;
+        }
+    }
+
+    public synchronized void removePublisher(String meetingId, String publisher) {
+        remove(key(meetingId, publisher));
+    }
+
+    public synchronized void removeMeeting(String meetingId) {
+        Map<String, Entry> publishers = byMeeting.remove(meetingId);
+        if (publishers != null) {
+            for (Entry entry : publishers.values()) {
+                entries.remove(key(meetingId, entry.publisher));
+                bytes -= entry.size();
+            }
+        }
+    }
+
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            unlink(entry);
+        }
+    }
+
+    private void unlink(Entry entry) {
+        bytes -= entry.size();
+        Map<String, Entry> publishers = byMeeting.get(entry.meetingId);
+        if (publishers != null && publishers.get(entry.publisher) == entry) {
+            publishers.remove(entry.publisher);
+            if (publishers.isEmpty()) {
+                byMeeting.remove(entry.meetingId);
+            }
+        }
+    }
+
+    private static String key(String meetingId, String publisher) {
+        return meetingId + '|' + publisher;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        byMeeting.clear();
+        bytes = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized long getStores() {
+        return stores;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getExpired() {
+        return expired;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("LastFrameCache[frames=%d bytes=%d/%d stores=%d hits=%d misses=%d evictions=%d expired=%d]",
+                entries.size(), bytes, maxBytes, stores, hits, misses, evictions, expired);
+    }
+}
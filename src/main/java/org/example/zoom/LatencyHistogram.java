@@ -0,0 +1,130 @@
+package org.example.zoom.websocket;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free log-linear histogram in the style of HdrHistogram.
+ *
+ * Values are grouped by their power of two and each power of two is split into
+ * {@link #SUB_BUCKETS} linear sub-buckets, so the relative error of any recorded
+ * value is at most 1/16 (about 6%) from one nanosecond up to many minutes.
+ * Recording is a couple of bit operations and one atomic increment; there are
+ * no locks and no allocation, so it can sit on the relay hot path.
+ *
+ * Reads are not atomic snapshots: a scrape running concurrently with recording
+ * may see a count that is a few values ahead of the sum, which is fine for
+ * monitoring.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Values up to 2^(MAX_SHIFT + 5) - 1, i.e. about 78 hours in nanoseconds
+    private static final int MAX_SHIFT = 43;
+    private static final int BUCKET_COUNT = (MAX_SHIFT + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(indexOf(value));
+        count.increment();
+        sum.add(value);
+
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+            currentMax = max.get();
+        }
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        // Shift that leaves the value in [SUB_BUCKETS, 2 * SUB_BUCKETS)
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        if (shift > MAX_SHIFT) {
+            return BUCKET_COUNT - 1;
+        }
+        int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Largest value that falls into a bucket.
+     */
+    static long upperBoundOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        int subBucket = index % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + subBucket + 1) << shift) - 1;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Value at the given quantile (0..1), accurate to the bucket width.
+     */
+    public long getValueAtQuantile(double quantile) {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Number of recorded values less than or equal to {@code bound}, for
+     * cumulative Prometheus buckets. Buckets straddling the bound are counted in.
+     */
+    public long getCountAtOrBelow(long bound) {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long lower = i == 0 ? 0 : upperBoundOf(i - 1) + 1;
+            if (lower > bound) {
+                break;
+            }
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+}
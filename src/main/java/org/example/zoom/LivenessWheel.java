@@ -0,0 +1,272 @@
+package org.example.zoom.websocket;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Session liveness on a hashed timing wheel.
+ *
+ * A session is placed in the wheel slot of the moment it would go idle. Refreshing
+ * a session only stores its activity time ({@link Session#touch()}), a single
+ * volatile write; nothing is moved in the wheel. When the slot comes due the
+ * session is checked: if it saw activity in the meantime it is re-inserted at
+ * its new idle time, otherwise it gets a ping, and if it stays silent until the
+ * timeout it expires. Each tick only looks at the sessions due in that slot, so
+ * the periodic cost no longer grows with the number of connections.
+ *
+ * Deadlines further away than one turn of the wheel keep a round counter, as in
+ * a classic hashed wheel.
+ */
+public class LivenessWheel {
+
+    /**
+     * What the wheel does with a session that went quiet.
+     */
+    public interface Handler {
+        /**
+         * No activity for the idle interval; usually sends a ping.
+         */
+        void onIdle(Session session);
+
+        /**
+         * No activity for the whole timeout; usually closes the connection.
+         */
+        void onExpired(Session session);
+    }
+
+    /**
+     * A tracked session. Obtained from {@link #register(Object)}.
+     */
+    public static final class Session {
+        private final Object owner;
+        private volatile long lastActivity;
+        private volatile boolean cancelled;
+
+        // Wheel state, only touched under the wheel's lock
+        private long remainingRounds;
+        private long pingSentAt = -1;
+
+        private Session(Object owner, long now) {
+            this.owner = owner;
+            this.lastActivity = now;
+        }
+
+        /**
+         * Record activity. Safe to call from any thread on every message.
+         */
+        public void touch() {
+            lastActivity = System.currentTimeMillis();
+        }
+
+        public long getLastActivity() {
+            return lastActivity;
+        }
+
+        public Object getOwner() {
+            return owner;
+        }
+
+        /**
+         * Stop tracking. The wheel drops the session when its slot comes due.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private final long tickMs;
+    private final long idleMs;
+    private final long timeoutMs;
+    private final Handler handler;
+
+    private final ArrayDeque<Session>[] slots;
+    private final int mask;
+    private long currentTick;
+
+    private ScheduledExecutorService ticker;
+
+    private final LongAdder registered = new LongAdder();
+    private final LongAdder pings = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder reinserted = new LongAdder();
+    private volatile int size;
+
+    /**
+     * @param tickMs    Wheel resolution; expiry happens at most one tick late
+     * @param slotCount Slots per turn, rounded up to a power of two
+     * @param idleMs    Quiet time before {@link Handler#onIdle}
+     * @param timeoutMs Quiet time before {@link Handler#onExpired}
+     */
+    @SuppressWarnings("unchecked")
+    public LivenessWheel(long tickMs, int slotCount, long idleMs, long timeoutMs, Handler handler) {
+        int slotsPow2 = Integer.highestOneBit(Math.max(2, slotCount - 1)) << 1;
+        this.tickMs = tickMs;
+        this.idleMs = idleMs;
+        this.timeoutMs = timeoutMs;
+        this.handler = handler;
+        this.slots = (ArrayDeque<Session>[]) new ArrayDeque<?>[slotsPow2];
+        for (int i = 0; i < slotsPow2; i++) {
+            slots[i] = new ArrayDeque<>();
+        }
+        this.mask = slotsPow2 - 1;
+        this.currentTick = System.currentTimeMillis() / tickMs;
+    }
+
+    public synchronized void start() {
+        if (ticker != null) {
+            return;
+        }
+        currentTick = System.currentTimeMillis() / tickMs;
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "WebSocketServer-Liveness");
+            t.setDaemon(true);
+            return t;
+        });
+        ticker.scheduleAtFixedRate(this::advance, tickMs, tickMs, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+            ticker = null;
+        }
+        for (ArrayDeque<Session> slot : slots) {
+            slot.clear();
+        }
+        size = 0;
+    }
+
+    /**
+     * Start tracking a session, considered active now.
+     */
+    public synchronized Session register(Object owner) {
+        long now = System.currentTimeMillis();
+        Session session = new Session(owner, now);
+        schedule(session, now + idleMs);
+        size++;
+        registered.increment();
+        return session;
+    }
+
+    private void schedule(Session session, long deadlineMs) {
+        // Round up so a session is never checked before its deadline
+        long deadlineTick = Math.max(currentTick + 1, (deadlineMs + tickMs - 1) / tickMs);
+        long ticksAway = deadlineTick - currentTick;
+        session.remainingRounds = (ticksAway - 1) / slots.length;
+        slots[(int) (deadlineTick & mask)].add(session);
+    }
+
+    /**
+     * Process every slot up to the current time.
+     */
+    private void advance() {
+        try {
+            long nowTick = System.currentTimeMillis() / tickMs;
+            while (true) {
+                ArrayDeque<Session> due;
+                synchronized (this) {
+                    if (currentTick >= nowTick) {
+                        return;
+                    }
+                    currentTick++;
+                    due = collectDue(slots[(int) (currentTick & mask)]);
+                }
+                // Handlers run outside the lock: closing a socket may call back into cancel()
+                for (Session session : due) {
+                    check(session);
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Error advancing liveness wheel: " + e.getMessage());
+        }
+    }
+
+    private ArrayDeque<Session> collectDue(ArrayDeque<Session> slot) {
+        ArrayDeque<Session> due = new ArrayDeque<>();
+        int count = slot.size();
+        for (int i = 0; i < count; i++) {
+            Session session = slot.poll();
+            if (session.cancelled) {
+                size--;
+            } else if (session.remainingRounds > 0) {
+                session.remainingRounds--;
+                slot.add(session);
+            } else {
+                due.add(session);
+            }
+        }
+        return due;
+    }
+
+    private void check(Session session) {
+        long now = System.currentTimeMillis();
+        long last = session.lastActivity;
+        long quiet = now - last;
+
+        if (quiet < idleMs) {
+            // Active since it was scheduled: move it to its new idle time
+            synchronized (this) {
+                session.pingSentAt = -1;
+                schedule(session, last + idleMs);
+            }
+            reinserted.increment();
+            return;
+        }
+
+        if (quiet >= timeoutMs) {
+            synchronized (this) {
+                size--;
+            }
+            session.cancelled = true;
+            expired.increment();
+            handler.onExpired(session);
+            return;
+        }
+
+        if (session.pingSentAt < last) {
+            session.pingSentAt = now;
+            pings.increment();
+            handler.onIdle(session);
+        }
+        synchronized (this) {
+            schedule(session, last + timeoutMs);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getRegisteredCount() {
+        return registered.sum();
+    }
+
+    public long getPingCount() {
+        return pings.sum();
+    }
+
+    public long getExpiredCount() {
+        return expired.sum();
+    }
+
+    public long getReinsertedCount() {
+        return reinserted.sum();
+    }
+
+    public long getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LivenessWheel[sessions=%d registered=%d pings=%d expired=%d reinserted=%d tick=%dms]",
+                size, getRegisteredCount(), getPingCount(), getExpiredCount(), getReinsertedCount(), tickMs);
+    }
+}
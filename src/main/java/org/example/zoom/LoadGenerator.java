@@ -0,0 +1,524 @@
+package org.example.zoom.websocket;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Headless load generator for the relay: thousands of synthetic clients on
+ * localhost, no JavaFX.
+ *
+ * The clients are bare WebSocket connections spread over a few
+ * {@link SyntheticClientLoop} selector threads. Each one connects, joins its
+ * meeting and then publishes on schedule: a few clients per meeting send
+ * VIDEO_FRAME at a fixed frame rate, every client sends CHAT and HEARTBEAT.
+ * Every video frame and chat message carries its send time
+ * ({@link System#nanoTime()}, so the relay has to run on the same machine),
+ * and receivers record the end-to-end delivery latency.
+ *
+ * Reported per message type: messages sent, deliveries expected (one per other
+ * member of the meeting) and received, p50/p99/p999 latency and delivered
+ * throughput. The relay's own drop counters (stale video frames replaced in
+ * outbound queues, rejected connections) are read from its metrics before and
+ * after the run.
+ *
+ * Clients use the delta-based presence protocol like the desktop client does;
+ * {@code --legacy-presence} makes them take DEVICE_LIST broadcasts instead.
+ *
+ * Without {@code --url} the relay runs in this JVM on {@code --port}; since all
+ * synthetic clients come from 127.0.0.1, its per-IP admission limit is raised
+ * to the ramp rate unless {@code zoom.admission.*} is set explicitly.
+ *
+ * Run with: java -cp target/classes org.example.zoom.websocket.LoadGenerator
+ *     [--url ws://127.0.0.1:8887] [--metrics-url http://127.0.0.1:9100/metrics]
+ *     [--port 8990] [--clients 1000] [--meetings 10] [--publishers 2] [--fps 15]
+ *     [--frame-bytes 8000] [--chat-per-minute 6] [--heartbeat-ms 5000] [--binary] [--legacy-presence]
+ *     [--threads N] [--connect-rate 200] [--warmup 5] [--duration 30]
+ */
+public class LoadGenerator {
+
+    private static final int FIRST_MEETING_ID = 100000;
+    private static final int CHAT_BYTES = 64;
+    // Video stamp block: send time and sequence, padded to a whole number of Base64 groups
+    private static final int STAMP_BYTES = 18;
+    private static final long DRAIN_MS = 2000;
+
+    private final int clientCount;
+    private final int meetingCount;
+    private final int publishersPerMeeting;
+    private final int frameBytes;
+    private final boolean binaryMedia;
+    private final boolean presenceDeltas;
+    private final int connectRate;
+    private final String path;
+    private final long videoIntervalNanos;
+    private final long chatIntervalNanos;
+    private final long heartbeatIntervalNanos;
+
+    private InetSocketAddress serverAddress;
+    private SyntheticClientLoop[] loops;
+
+    // Filler after the stamp, encoded once
+    private final byte[] videoFiller;
+    private final String videoFillerBase64;
+    private final String chatFiller;
+
+    private volatile long publishStart;
+    private volatile long measureStart;
+    private volatile long publishEnd;
+
+    private final AtomicIntegerArray membersPerMeeting;
+
+    private final LongAdder opened = new LongAdder();
+    private final LongAdder joined = new LongAdder();
+    private final LongAdder connectFailures = new LongAdder();
+    private final LongAdder closedEarly = new LongAdder();
+    private final Map<Integer, LongAdder> closeCodes = new TreeMap<>();
+
+    private final Traffic video = new Traffic();
+    private final Traffic chat = new Traffic();
+    private final LongAdder heartbeatsSent = new LongAdder();
+    private final LongAdder heartbeatAcks = new LongAdder();
+    private final LongAdder otherMessages = new LongAdder();
+    private final LongAdder otherBytes = new LongAdder();
+    private final LongAdder publisherBackedUp = new LongAdder();
+
+    /**
+     * Counters of one traffic type inside the measurement window.
+     */
+    private static final class Traffic {
+        final LongAdder sent = new LongAdder();
+        final LongAdder expected = new LongAdder();
+        final LongAdder delivered = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final LatencyHistogram latency = new LatencyHistogram();
+    }
+
+    LoadGenerator(Map<String, String> options) {
+        this.clientCount = intOption(options, "clients", 1000);
+        this.meetingCount = Math.max(1, intOption(options, "meetings", 10));
+        this.publishersPerMeeting = intOption(options, "publishers", 2);
+        this.frameBytes = Math.max(STAMP_BYTES, intOption(options, "frame-bytes", 8000));
+        this.binaryMedia = options.containsKey("binary");
+        this.presenceDeltas = !options.containsKey("legacy-presence");
+        this.connectRate = Math.max(1, intOption(options, "connect-rate", 200));
+        this.path = options.getOrDefault("path", "/");
+
+        int fps = intOption(options, "fps", 15);
+        int chatPerMinute = intOption(options, "chat-per-minute", 6);
+        int heartbeatMs = intOption(options, "heartbeat-ms", 5000);
+        this.videoIntervalNanos = fps > 0 ? 1_000_000_000L / fps : 0;
+        this.chatIntervalNanos = chatPerMinute > 0 ? 60_000_000_000L / chatPerMinute : 0;
+        this.heartbeatIntervalNanos = heartbeatMs > 0 ? heartbeatMs * 1_000_000L : 0;
+
+        // Filler is random so deflate or JPEG-like sizes are not flattered
+        this.videoFiller = new byte[frameBytes - STAMP_BYTES];
+        new Random(42).nextBytes(videoFiller);
+        this.videoFillerBase64 = Base64.getEncoder().encodeToString(videoFiller);
+        this.chatFiller = "x".repeat(CHAT_BYTES);
+        this.membersPerMeeting = new AtomicIntegerArray(meetingCount);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        LoadGenerator generator = new LoadGenerator(options);
+
+        SimpleNativeWebSocketServer server = null;
+        String metricsUrl = options.get("metrics-url");
+        if (options.containsKey("url")) {
+            URI uri = URI.create(options.get("url"));
+            generator.serverAddress = new InetSocketAddress(uri.getHost(), uri.getPort() > 0 ? uri.getPort() : 80);
+        } else {
+            String rate = String.valueOf(generator.connectRate);
+            setIfAbsent("zoom.admission.ipRate", rate);
+            setIfAbsent("zoom.admission.ipBurst", rate);
+            setIfAbsent("zoom.admission.globalRate", rate);
+            setIfAbsent("zoom.admission.globalBurst", rate);
+            server = SimpleNativeWebSocketServer.getInstance();
+            if (!server.start(intOption(options, "port", 8990))) {
+                System.err.println("Could not start the relay");
+                System.exit(1);
+            }
+            generator.serverAddress = new InetSocketAddress("127.0.0.1", server.getPort());
+        }
+
+        int threads = intOption(options, "threads", Runtime.getRuntime().availableProcessors());
+        int warmupSeconds = intOption(options, "warmup", 5);
+        int durationSeconds = intOption(options, "duration", 30);
+
+        Map<String, Double> dropsBefore;
+        Map<String, Double> dropsAfter;
+        try {
+            generator.connectAll(threads);
+            dropsBefore = readDropCounters(server, metricsUrl);
+            generator.runTraffic(warmupSeconds, durationSeconds);
+            dropsAfter = readDropCounters(server, metricsUrl);
+        } finally {
+            generator.shutdown();
+            if (server != null) {
+                server.stop();
+            }
+        }
+
+        generator.report(warmupSeconds, durationSeconds, dropsBefore, dropsAfter);
+        System.exit(0);
+    }
+
+    // ---- phases ----
+
+    private void connectAll(int threads) throws IOException, InterruptedException {
+        loops = new SyntheticClientLoop[Math.max(1, threads)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new SyntheticClientLoop(this, i);
+            loops[i].start();
+        }
+
+        System.out.printf("Connecting %d clients to %s at %d/s...%n", clientCount, serverAddress, connectRate);
+        long start = System.nanoTime();
+        long pauseNanos = 1_000_000_000L / connectRate;
+        for (int i = 0; i < clientCount; i++) {
+            int meeting = i % meetingCount;
+            boolean publisher = i / meetingCount < publishersPerMeeting;
+            loops[i % loops.length].connect(new SyntheticClient(i, String.valueOf(FIRST_MEETING_ID + meeting), publisher));
+            long due = start + (i + 1) * pauseNanos;
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+            }
+        }
+
+        // Queued admissions may take a while; stop waiting once nothing changes for long
+        long lastProgress = System.currentTimeMillis();
+        long lastCount = -1;
+        while (joined.sum() + connectFailures.sum() + closedEarly.sum() < clientCount) {
+            long count = joined.sum() + connectFailures.sum() + closedEarly.sum();
+            if (count != lastCount) {
+                lastCount = count;
+                lastProgress = System.currentTimeMillis();
+            } else if (System.currentTimeMillis() - lastProgress > 30000) {
+                System.err.println("Gave up waiting for " + (clientCount - count) + " clients");
+                break;
+            }
+            Thread.sleep(50);
+        }
+        System.out.printf("Joined %d/%d clients in %.1f s (failed %d, closed %d)%n",
+                joined.sum(), clientCount, (System.nanoTime() - start) / 1e9, connectFailures.sum(), closedEarly.sum());
+
+        // Let the USER_JOINED broadcasts drain before measuring anything
+        Thread.sleep(1000);
+    }
+
+    private void runTraffic(int warmupSeconds, int durationSeconds) throws InterruptedException {
+        long now = System.nanoTime();
+        measureStart = now + warmupSeconds * 1_000_000_000L;
+        publishEnd = measureStart + durationSeconds * 1_000_000_000L;
+        publishStart = now;
+        System.out.printf("Publishing: %d s warmup, %d s measured%n", warmupSeconds, durationSeconds);
+        Thread.sleep((publishEnd - now) / 1_000_000 + DRAIN_MS);
+    }
+
+    private void shutdown() throws InterruptedException {
+        if (loops == null) {
+            return;
+        }
+        for (SyntheticClientLoop loop : loops) {
+            loop.shutdown();
+        }
+        for (SyntheticClientLoop loop : loops) {
+            loop.join(2000);
+        }
+    }
+
+    // ---- traffic, called from the loops ----
+
+    InetSocketAddress getServerAddress() {
+        return serverAddress;
+    }
+
+    String getPath() {
+        return path;
+    }
+
+    boolean isBinaryMedia() {
+        return binaryMedia;
+    }
+
+    boolean usesPresenceDeltas() {
+        return presenceDeltas;
+    }
+
+    long getPublishStart() {
+        return publishStart;
+    }
+
+    long getPublishEnd() {
+        return publishEnd;
+    }
+
+    long getVideoIntervalNanos() {
+        return videoIntervalNanos;
+    }
+
+    long getChatIntervalNanos() {
+        return chatIntervalNanos;
+    }
+
+    long getHeartbeatIntervalNanos() {
+        return heartbeatIntervalNanos;
+    }
+
+    /**
+     * Video frame stamped with its send time: at the start of the binary
+     * payload, or as the first Base64 group of a text frame's image.
+     */
+    ByteBuffer videoFrame(SyntheticClient client, long now) {
+        int sequence = client.videoSequence++;
+        countSent(video, client, now);
+        ByteBuffer stamp = ByteBuffer.allocate(STAMP_BYTES);
+        stamp.putLong(now).putInt(sequence);
+
+        if (binaryMedia) {
+            byte[] payload = new byte[frameBytes];
+            System.arraycopy(stamp.array(), 0, payload, 0, STAMP_BYTES);
+            System.arraycopy(videoFiller, 0, payload, STAMP_BYTES, videoFiller.length);
+            return SyntheticClient.frame(SyntheticClient.OPCODE_BINARY, BinaryMediaFrame.encode(
+                    BinaryMediaFrame.TYPE_VIDEO_FRAME, client.meetingId, client.username, sequence,
+                    System.currentTimeMillis(), payload));
+        }
+        return SyntheticClient.textFrame("VIDEO_FRAME|" + client.meetingId + "|" + client.username + "|" +
+                Base64.getEncoder().encodeToString(stamp.array()) + videoFillerBase64);
+    }
+
+    ByteBuffer chatFrame(SyntheticClient client, long now) {
+        countSent(chat, client, now);
+        return SyntheticClient.textFrame("CHAT|" + client.meetingId + "|" + client.username + "|lg:" + now + ":" +
+                client.chatSequence++ + " " + chatFiller);
+    }
+
+    private void countSent(Traffic traffic, SyntheticClient client, long now) {
+        if (now >= measureStart) {
+            traffic.sent.increment();
+            int members = membersPerMeeting.get(Integer.parseInt(client.meetingId) - FIRST_MEETING_ID);
+            traffic.expected.add(Math.max(0, members - 1));
+        }
+    }
+
+    void onHeartbeatSent() {
+        heartbeatsSent.increment();
+    }
+
+    void onVideoDelivered(long sentAt, long receivedAt, int bytes) {
+        record(video, sentAt, receivedAt, bytes);
+    }
+
+    void onChatDelivered(long sentAt, long receivedAt, int bytes) {
+        record(chat, sentAt, receivedAt, bytes);
+    }
+
+    private void record(Traffic traffic, long sentAt, long receivedAt, int bytes) {
+        if (sentAt >= measureStart && sentAt < publishEnd) {
+            traffic.delivered.increment();
+            traffic.bytes.add(bytes);
+            traffic.latency.record(receivedAt - sentAt);
+        }
+    }
+
+    void onHeartbeatAck() {
+        heartbeatAcks.increment();
+    }
+
+    void onOtherDelivered(int bytes) {
+        otherMessages.increment();
+        otherBytes.add(bytes);
+    }
+
+    void onPublisherBackedUp() {
+        publisherBackedUp.increment();
+    }
+
+    void onOpen(SyntheticClient client) {
+        opened.increment();
+    }
+
+    void onJoined(SyntheticClient client) {
+        membersPerMeeting.incrementAndGet(Integer.parseInt(client.meetingId) - FIRST_MEETING_ID);
+        joined.increment();
+    }
+
+    void onConnectFailed(SyntheticClient client, IOException e) {
+        connectFailures.increment();
+        if (connectFailures.sum() <= 5) {
+            System.err.println("Connect failed for " + client + ": " + e.getMessage());
+        }
+    }
+
+    void onClosed(SyntheticClient client, boolean wasOpen, int code) {
+        if (client.joined) {
+            membersPerMeeting.decrementAndGet(Integer.parseInt(client.meetingId) - FIRST_MEETING_ID);
+        }
+        if (publishEnd == 0 || System.nanoTime() < publishEnd) {
+            if (wasOpen) {
+                closedEarly.increment();
+            }
+            synchronized (closeCodes) {
+                closeCodes.computeIfAbsent(code, k -> new LongAdder()).increment();
+            }
+        }
+    }
+
+    // ---- report ----
+
+    private void report(int warmupSeconds, int durationSeconds, Map<String, Double> dropsBefore,
+                        Map<String, Double> dropsAfter) {
+        System.out.println("=".repeat(104));
+        System.out.printf("Relay load: %d clients in %d meetings, %d video publishers/meeting at %s, %d B frames (%s),%n",
+                clientCount, meetingCount, publishersPerMeeting,
+                videoIntervalNanos > 0 ? (1_000_000_000L / videoIntervalNanos) + " fps" : "no video",
+                frameBytes, binaryMedia ? "binary" : "text");
+        System.out.printf("chat every %s, heartbeat every %s, %s presence; %d s measured after %d s warmup%n",
+                chatIntervalNanos > 0 ? (chatIntervalNanos / 1_000_000) + " ms" : "-",
+                heartbeatIntervalNanos > 0 ? (heartbeatIntervalNanos / 1_000_000) + " ms" : "-",
+                presenceDeltas ? "delta" : "legacy", durationSeconds, warmupSeconds);
+        System.out.println("=".repeat(104));
+        System.out.printf("%-6s %9s %11s %11s %7s %12s %8s %9s %9s %9s %9s%n",
+                "Type", "Sent", "Expected", "Delivered", "Lost %", "Deliveries/s", "MB/s",
+                "p50 ms", "p99 ms", "p999 ms", "Max ms");
+        System.out.println("-".repeat(104));
+        printTraffic("VIDEO", video, durationSeconds);
+        printTraffic("CHAT", chat, durationSeconds);
+        System.out.println("-".repeat(104));
+
+        System.out.printf("Heartbeats sent %d, acknowledged %d; other messages received %d (%.1f MB)%n",
+                heartbeatsSent.sum(), heartbeatAcks.sum(), otherMessages.sum(), otherBytes.sum() / 1e6);
+        System.out.printf("Clients: %d opened, %d failed to connect, %d closed during the run",
+                opened.sum(), connectFailures.sum(), closedEarly.sum());
+        synchronized (closeCodes) {
+            if (!closeCodes.isEmpty()) {
+                System.out.print(" (close codes:");
+                closeCodes.forEach((code, count) -> System.out.print(" " + code + "x" + count.sum()));
+                System.out.print(")");
+            }
+        }
+        System.out.println();
+        if (publisherBackedUp.sum() > 0) {
+            System.out.println("Video frames not sent because the publisher's socket was backed up: " +
+                    publisherBackedUp.sum());
+        }
+
+        if (dropsAfter.isEmpty()) {
+            System.out.println("Server drop counters: not available (pass --metrics-url for a remote relay)");
+        } else {
+            System.out.println("Server drop counters during the run:");
+            for (Map.Entry<String, Double> entry : dropsAfter.entrySet()) {
+                double delta = entry.getValue() - dropsBefore.getOrDefault(entry.getKey(), 0.0);
+                System.out.printf("  %-70s %12.0f%n", entry.getKey(), delta);
+            }
+        }
+        System.out.println("=".repeat(104));
+    }
+
+    private static void printTraffic(String label, Traffic traffic, int durationSeconds) {
+        long expected = traffic.expected.sum();
+        long delivered = traffic.delivered.sum();
+        LatencyHistogram latency = traffic.latency;
+        System.out.printf("%-6s %9d %11d %11d %7.2f %12.0f %8.2f %9.2f %9.2f %9.2f %9.2f%n",
+                label, traffic.sent.sum(), expected, delivered,
+                expected == 0 ? 0.0 : Math.max(0, expected - delivered) * 100.0 / expected,
+                delivered / (double) durationSeconds,
+                traffic.bytes.sum() / 1e6 / durationSeconds,
+                latency.getValueAtQuantile(0.5) / 1e6,
+                latency.getValueAtQuantile(0.99) / 1e6,
+                latency.getValueAtQuantile(0.999) / 1e6,
+                latency.getMax() / 1e6);
+    }
+
+    /**
+     * The relay's drop, rejection and expiry counters, from the server in this
+     * JVM or from its metrics endpoint.
+     */
+    private static Map<String, Double> readDropCounters(SimpleNativeWebSocketServer server, String metricsUrl) {
+        String text = null;
+        if (server != null) {
+            text = server.scrapeMetrics();
+        } else if (metricsUrl != null) {
+            try {
+                HttpResponse<String> response = HttpClient.newHttpClient().send(
+                        HttpRequest.newBuilder(URI.create(metricsUrl)).timeout(Duration.ofSeconds(5)).build(),
+                        HttpResponse.BodyHandlers.ofString());
+                text = response.body();
+            } catch (Exception e) {
+                System.err.println("Could not read relay metrics from " + metricsUrl + ": " + e.getMessage());
+            }
+        }
+
+        Map<String, Double> counters = new TreeMap<>();
+        if (text == null) {
+            return counters;
+        }
+        for (String line : text.split("\n")) {
+            if (line.startsWith("#") || !(line.contains("dropped") || line.contains("rejected") ||
+                    line.contains("expired"))) {
+                continue;
+            }
+            int space = line.lastIndexOf(' ');
+            if (space > 0) {
+                try {
+                    counters.put(line.substring(0, space), Double.parseDouble(line.substring(space + 1)));
+                } catch (NumberFormatException e) {
+                    // Not a sample line
+                }
+            }
+        }
+        return counters;
+    }
+
+    // ---- options ----
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                System.err.println("Ignoring argument: " + args[i]);
+                continue;
+            }
+            String name = args[i].substring(2);
+            if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                options.put(name, args[++i]);
+            } else {
+                options.put(name, "true");
+            }
+        }
+        return options;
+    }
+
+    private static int intOption(Map<String, String> options, String name, int defaultValue) {
+        String value = options.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid value for --" + name + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    private static void setIfAbsent(String property, String value) {
+        if (System.getProperty(property) == null) {
+            System.setProperty(property, value);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package org.example.zoom.websocket;
+
+/**
+ * Trace stamp carried by media and chat messages: a per-sender sequence number
+ * and the capture time on the relay's clock, so the relay and every receiver
+ * can measure one-way latency, loss and reordering per sender.
+ *
+ * Binary media frames carry the stamp in their header (see
+ * {@link BinaryMediaFrame#FLAG_RELAY_CLOCK}). Text messages carry it at the
+ * start of the content, between two record separator characters, which never
+ * occur in Base64 or typed chat text:
+ * <pre>
+ *   VIDEO_FRAME|meeting|alice|\u001E42:918273645\u001E/9j/4AAQ...
+ *   CHAT_MESSAGE|meeting|alice|\u001E7:\u001EHello
+ * </pre>
+ * The capture time is left out until the sender has a clock offset to the
+ * relay (see {@link ClockOffset}); sequence numbers start at 1 and 0 means
+ * "not traced". {@link SimpleWebSocketClient} adds the stamp on send and
+ * strips it on receive, so message handlers never see it.
+ *
+ * Instances are mutable parsers meant to be reused by one thread, like
+ * {@link MessageHeader}.
+ */
+public final class MediaTrace {
+
+    public static final char MARK = '\u001E';
+    public static final long NO_CAPTURE = -1;
+
+    public static final String STREAM_VIDEO = "VIDEO";
+    public static final String STREAM_CHAT = "CHAT";
+
+    private int sequence;
+    private long captureMs;
+    private int end;
+
+    /**
+     * The clock stamps are taken from: monotonic, in milliseconds, with an
+     * origin private to this JVM.
+     */
+    public static long monotonicMillis() {
+        return System.nanoTime() / 1_000_000L;
+    }
+
+    /**
+     * The sequence stream a message type is counted in, or null if the type is
+     * not traced.
+     */
+    public static String streamOf(String type) {
+        switch (type) {
+            case "VIDEO_FRAME":
+                return STREAM_VIDEO;
+            case "CHAT":
+            case "CHAT_MESSAGE":
+                return STREAM_CHAT;
+            default:
+                return null;
+        }
+    }
+
+    public static String stamp(int sequence, long captureMs) {
+        return MARK + Integer.toString(sequence) + ':' +
+                (captureMs == NO_CAPTURE ? "" : Long.toString(captureMs)) + MARK;
+    }
+
+    /**
+     * Insert a stamp in front of the content of a message.
+     * @param contentStart Offset of the content, see {@link MessageHeader#contentStart()}
+     */
+    public static String insert(String message, int contentStart, int sequence, long captureMs) {
+        return message.substring(0, contentStart) + stamp(sequence, captureMs) + message.substring(contentStart);
+    }
+
+    /**
+     * Read the stamp at the start of the content, if there is one.
+     * @return false if the content does not start with a well-formed stamp
+     */
+    public boolean parse(String message, int contentStart) {
+        sequence = 0;
+        captureMs = NO_CAPTURE;
+        end = contentStart;
+        if (contentStart >= message.length() || message.charAt(contentStart) != MARK) {
+            return false;
+        }
+
+        int colon = message.indexOf(':', contentStart + 1);
+        // A stamp is short; do not scan into a large content looking for its end
+        int close = colon < 0 ? -1 : message.indexOf(MARK, colon + 1);
+        if (colon < 0 || close < 0 || close - contentStart > 32) {
+            return false;
+        }
+        try {
+            int parsedSequence = Integer.parseInt(message, contentStart + 1, colon, 10);
+            long parsedCapture = colon + 1 == close ? NO_CAPTURE : Long.parseLong(message, colon + 1, close, 10);
+            sequence = parsedSequence;
+            captureMs = parsedCapture;
+            end = close + 1;
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    public int sequence() {
+        return sequence;
+    }
+
+    public long captureMs() {
+        return captureMs;
+    }
+
+    public boolean hasCapture() {
+        return captureMs != NO_CAPTURE;
+    }
+
+    /**
+     * Offset of the real content, just after the stamp.
+     */
+    public int end() {
+        return end;
+    }
+
+    /**
+     * The message without the stamp found by the last {@link #parse}.
+     */
+    public String strip(String message, int contentStart) {
+        return message.substring(0, contentStart) + message.substring(end);
+    }
+}
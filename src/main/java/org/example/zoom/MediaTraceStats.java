@@ -0,0 +1,214 @@
+package org.example.zoom.websocket;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-sender latency and loss of the traced messages a client receives (see
+ * {@link MediaTrace}). Loss is counted from gaps in each sender's sequence
+ * numbers; a message that turns up after its gap was counted moves from lost
+ * to late. Latency is arrival minus capture, both on the relay's clock.
+ */
+public class MediaTraceStats {
+
+    // Weight of a new latency sample in the moving average (as for RTP jitter)
+    private static final double LATENCY_GAIN = 1.0 / 16;
+
+    private final Map<String, SenderTrace> senders = new ConcurrentHashMap<>();
+
+    /**
+     * Record a received traced message.
+     * @param captureMs Capture time on the relay clock, or {@link MediaTrace#NO_CAPTURE}
+     * @param arrivalMs Arrival time on the relay clock, or {@link MediaTrace#NO_CAPTURE}
+     */
+    public void record(String sender, String stream, int sequence, long captureMs, long arrivalMs) {
+        if (sequence == 0) {
+            return;
+        }
+        SenderTrace trace = senders.computeIfAbsent(sender, key -> new SenderTrace());
+        trace.record(stream, sequence, captureMs, arrivalMs);
+    }
+
+    /**
+     * Trace of one sender, or null if nothing traced was received from it.
+     */
+    public SenderTrace get(String sender) {
+        return senders.get(sender);
+    }
+
+    /**
+     * Start a stream over for every sender, e.g. after resubscribing to video,
+     * so the frames skipped while unsubscribed are not counted as lost.
+     */
+    public void resetStream(String stream) {
+        for (SenderTrace trace : senders.values()) {
+            trace.resetStream(stream);
+        }
+    }
+
+    /**
+     * Start one stream of one sender over, e.g. when a simulcast subscriber is
+     * switched to another layer, whose sequence numbers continue elsewhere.
+     */
+    public void resetStream(String sender, String stream) {
+        SenderTrace trace = senders.get(sender);
+        if (trace != null) {
+            trace.resetStream(stream);
+        }
+    }
+
+    public void clear() {
+        senders.clear();
+    }
+
+    /**
+     * Received, lost and late messages of one sequence stream.
+     */
+    public static final class Stream {
+
+        // A sequence this far behind is a restarted sender, not a late message
+        private static final int RESTART_DISTANCE = 1000;
+
+        private boolean started;
+        private int highest;
+        private long received;
+        private long lost;
+        private long late;
+
+        /**
+         * Account for one sequence number.
+         * @return How many messages this arrival shows to be missing
+         */
+        public synchronized int observe(int sequence) {
+            if (!started) {
+                started = true;
+                highest = sequence;
+                received++;
+                return 0;
+            }
+            // Difference rather than comparison, so wrap-around is handled
+            int delta = sequence - highest;
+            if (delta > 0) {
+                highest = sequence;
+                received++;
+                lost += delta - 1;
+                return delta - 1;
+            }
+            if (delta == 0) {
+                // Repeated, e.g. the cached last frame on resubscribe
+                return 0;
+            }
+            if (delta < -RESTART_DISTANCE) {
+                highest = sequence;
+                received++;
+                return 0;
+            }
+            received++;
+            if (lost > 0) {
+                lost--;
+                late++;
+            }
+            return 0;
+        }
+
+        public synchronized void reset() {
+            started = false;
+        }
+
+        public synchronized long getReceived() {
+            return received;
+        }
+
+        public synchronized long getLost() {
+            return lost;
+        }
+
+        public synchronized long getLate() {
+            return late;
+        }
+
+        /**
+         * Lost messages as a percentage of all messages sent on the stream.
+         */
+        public synchronized double getLossPercent() {
+            long total = received + lost;
+            return total == 0 ? 0 : 100.0 * lost / total;
+        }
+    }
+
+    /**
+     * Everything traced from one sender.
+     */
+    public static final class SenderTrace {
+
+        private final Map<String, Stream> streams = new ConcurrentHashMap<>();
+        private double averageLatencyMs = -1;
+        private long lastLatencyMs = -1;
+        private long lastArrivalMs;
+
+        synchronized void record(String stream, int sequence, long captureMs, long arrivalMs) {
+            streams.computeIfAbsent(stream, key -> new Stream()).observe(sequence);
+            if (captureMs == MediaTrace.NO_CAPTURE || arrivalMs == MediaTrace.NO_CAPTURE) {
+                return;
+            }
+            // Offset estimates can be off by a few ms either way
+            long latency = Math.max(0, arrivalMs - captureMs);
+            lastLatencyMs = latency;
+            lastArrivalMs = arrivalMs;
+            averageLatencyMs = averageLatencyMs < 0 ? latency
+                    : averageLatencyMs + LATENCY_GAIN * (latency - averageLatencyMs);
+        }
+
+        void resetStream(String stream) {
+            Stream tracked = streams.get(stream);
+            if (tracked != null) {
+                tracked.reset();
+            }
+        }
+
+        /**
+         * Stream of this sender, or null if nothing was received on it.
+         */
+        public Stream getStream(String stream) {
+            return streams.get(stream);
+        }
+
+        /**
+         * Moving average of the one-way latency, or -1 if no message had a capture time.
+         */
+        public synchronized long getLatencyMs() {
+            return averageLatencyMs < 0 ? -1 : Math.round(averageLatencyMs);
+        }
+
+        public synchronized long getLastLatencyMs() {
+            return lastLatencyMs;
+        }
+
+        public synchronized long getLastArrivalMs() {
+            return lastArrivalMs;
+        }
+
+        /**
+         * Loss over all streams, as a percentage.
+         */
+        public double getLossPercent() {
+            long received = 0;
+            long lost = 0;
+            for (Stream stream : streams.values()) {
+                received += stream.getReceived();
+                lost += stream.getLost();
+            }
+            long total = received + lost;
+            return total == 0 ? 0 : 100.0 * lost / total;
+        }
+
+        /**
+         * Short form for the participants list, e.g. "42 ms, 0.5% loss".
+         */
+        public String summary() {
+            long latency = getLatencyMs();
+            return (latency < 0 ? "syncing" : latency + " ms") +
+                    String.format(", %.1f%% loss", getLossPercent());
+        }
+    }
+}
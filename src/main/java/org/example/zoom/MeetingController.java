@@ -41,6 +41,12 @@ import javafx.embed.swing.SwingFXUtils;
 
 import javax.imageio.ImageIO;
 import java.util.Base64;
+import org.example.zoom.websocket.AsyncLog;
+import org.example.zoom.websocket.BinaryMediaFrame;
+import org.example.zoom.websocket.MediaTrace;
+import org.example.zoom.websocket.MediaTraceStats;
+import org.example.zoom.websocket.MessageHeader;
+import org.example.zoom.websocket.SimulcastLayers;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
@@ -113,6 +119,8 @@ public class MeetingController {
     }
 
     private VideoQuality currentVideoQuality = VideoQuality.MEDIUM;
+    // Simulcast layer last asked of the relay for the video display, -1 before the first request
+    private int requestedViewLayer = -1;
 
     private boolean audioMuted = false;
     private boolean videoOn = false;
@@ -154,6 +162,7 @@ public class MeetingController {
     private int meetingSeconds = 0;
 
     private static MeetingController instance;
+    private static final AsyncLog LOG = AsyncLog.getInstance();
 
     private List<String> currentParticipants = new ArrayList<>();
     private List<String> activeVideoStreams = new ArrayList<>();
@@ -230,6 +239,7 @@ public class MeetingController {
 
         // Initialize chat WebSocket connection
         initializeChatWebSocketConnection();
+        setupVideoSubscription();
 
         // Create downloads folder
         createDownloadsFolder();
@@ -240,6 +250,41 @@ public class MeetingController {
         System.out.println("MeetingController initialized successfully");
     }
 
+    /**
+     * Stop receiving video while the meeting window is minimised and resume it
+     * when the window is restored.
+     */
+    private void setupVideoSubscription() {
+        if (titleBar == null) {
+            return;
+        }
+        titleBar.sceneProperty().addListener((sceneObs, oldScene, scene) -> {
+            if (scene == null) {
+                return;
+            }
+            scene.windowProperty().addListener((windowObs, oldWindow, window) -> {
+                if (window instanceof Stage) {
+                    ((Stage) window).iconifiedProperty().addListener(
+                            (iconifiedObs, wasIconified, iconified) -> updateVideoSubscription(iconified));
+                }
+            });
+        });
+    }
+
+    private void updateVideoSubscription(boolean minimized) {
+        if (webSocketClient == null) {
+            return;
+        }
+        String meetingId = HelloApplication.getActiveMeetingId();
+        if (minimized) {
+            webSocketClient.unsubscribe(meetingId, "VIDEO_FRAME");
+            System.out.println("Meeting window minimised, video paused");
+        } else {
+            webSocketClient.subscribe(meetingId, "VIDEO_FRAME");
+            System.out.println("Meeting window restored, video resumed");
+        }
+    }
+
     // Update the initializeChatWebSocketConnection method
     private void initializeChatWebSocketConnection() {
         // Get WebSocket client from HelloApplication
@@ -248,6 +293,7 @@ public class MeetingController {
         if (webSocketClient != null) {
             // Set message handler for chat messages
             webSocketClient.setMessageHandler(this::handleWebSocketMessage);
+            webSocketClient.setMediaFrameHandler(this::handleMediaFrame);
             System.out.println("Chat message handler set on WebSocket client");
 
             // Update chat UI status
@@ -266,6 +312,10 @@ public class MeetingController {
 
                 // Request current participants
                 webSocketClient.send("GET_DEVICE_LIST");
+
+                if (videoDisplay != null) {
+                    requestVideoView((int) Math.max(videoDisplay.getFitHeight(), 240), true);
+                }
             }
         } else {
             addSystemMessage("Chat not connected to server - messages will be local only");
@@ -1570,9 +1620,27 @@ public class MeetingController {
             videoDisplay.setFitHeight(newHeight);
 
             System.out.println("Video display resized to: " + newWidth + "x" + newHeight);
+            requestVideoView((int) newHeight, false);
         });
     }
 
+    /**
+     * Tell the relay how tall the video display is, so it forwards the
+     * simulcast layer of the other participants that fits it.
+     * @param force Send even if the fitting layer did not change, e.g. after joining
+     */
+    private void requestVideoView(int displayHeight, boolean force) {
+        int layer = SimulcastLayers.forTileHeight(displayHeight);
+        if (!force && layer == requestedViewLayer) {
+            return;
+        }
+        String meetingId = HelloApplication.getActiveMeetingId();
+        if (webSocketClient != null && webSocketClient.isConnected() && meetingId != null) {
+            requestedViewLayer = layer;
+            webSocketClient.requestVideoView(meetingId, displayHeight, null);
+        }
+    }
+
     private void setupWindowResizeHandling() {
         if (stage == null) return;
 
@@ -1921,10 +1989,26 @@ public class MeetingController {
             }
         }
 
+        renderParticipants();
+
+        int count = currentParticipants.size();
+        if (participantsCountLabel != null) {
+            participantsCountLabel.setText("Participants: " + count);
+        }
+
+        System.out.println("Updated participants list: " + currentParticipants);
+    }
+
+    /**
+     * Fill the participants list from {@code currentParticipants}, with the
+     * one-way latency and loss of each sender we have received media or chat from.
+     */
+    private void renderParticipants() {
         participantsList.getItems().clear();
 
         if (!currentParticipants.isEmpty()) {
             String hostUsername = HelloApplication.getLoggedInUser();
+            MediaTraceStats trace = webSocketClient != null ? webSocketClient.getMediaTrace() : null;
             for (String participant : currentParticipants) {
                 String displayName = participant;
                 if (participant.equals(hostUsername) && HelloApplication.isMeetingHost()) {
@@ -1934,16 +2018,18 @@ public class MeetingController {
                 } else {
                     displayName = participant;
                 }
+                MediaTraceStats.SenderTrace sender = trace != null && !participant.equals(hostUsername)
+                        ? trace.get(participant) : null;
+                if (sender != null) {
+                    displayName += "  ·  " + sender.summary();
+                }
+                if (participant.equals(currentUser) && webSocketClient != null &&
+                        webSocketClient.getDownstreamKbps() >= 0) {
+                    displayName += "  ·  ↓ " + webSocketClient.getDownstreamKbps() + " kbps";
+                }
                 participantsList.getItems().add(displayName);
             }
         }
-
-        int count = currentParticipants.size();
-        if (participantsCountLabel != null) {
-            participantsCountLabel.setText("Participants: " + count);
-        }
-
-        System.out.println("Updated participants list: " + currentParticipants);
     }
 
     public void addParticipant(String username) {
@@ -2275,6 +2361,8 @@ public class MeetingController {
                 int frameCount = 0;
                 long lastFrameTime = System.currentTimeMillis();
                 int frameInterval = 1000 / currentVideoQuality.fps;
+                // When each simulcast layer was last sent, so each keeps its own frame rate
+                long[] lastLayerSent = new long[VideoQuality.values().length];
 
                 while (cameraRunning && webcam.isOpen()) {
                     try {
@@ -2285,6 +2373,7 @@ public class MeetingController {
                             lastFrameTime = currentTime;
 
                             java.awt.image.BufferedImage awtImage = webcam.getImage();
+                            long capturedAt = MediaTrace.monotonicMillis();
                             if (awtImage != null) {
                                 Image fxImage = SwingFXUtils.toFXImage(awtImage, null);
 
@@ -2303,31 +2392,43 @@ public class MeetingController {
                                 if (streamingEnabled && HelloApplication.isWebSocketConnected() &&
                                         HelloApplication.getActiveMeetingId() != null) {
 
-                                    String base64Frame = compressAndConvertImage(awtImage);
-                                    if (base64Frame != null && !base64Frame.isEmpty()) {
-                                        String username = HelloApplication.getLoggedInUser();
-                                        String meetingId = HelloApplication.getActiveMeetingId();
-
-                                        // Use the WebSocket client directly
-                                        if (webSocketClient != null && webSocketClient.isConnected()) {
-                                            webSocketClient.sendMessage(
-                                                    "VIDEO_FRAME",
-                                                    meetingId,
-                                                    username,
-                                                    base64Frame
-                                            );
-
-                                            frameCount++;
-                                            framesSent.incrementAndGet();
-
-                                            if (frameCount % 10 == 0) {
-                                                System.out.println("Sent frame #" + frameCount +
-                                                        " to all participants (" +
-                                                        base64Frame.length() + " bytes)");
+                                    String username = HelloApplication.getLoggedInUser();
+                                    String meetingId = HelloApplication.getActiveMeetingId();
+
+                                    // Use the WebSocket client directly (binary frame, text fallback)
+                                    if (webSocketClient != null && webSocketClient.isConnected()) {
+                                        // Simulcast: every quality up to the selected one, each at its own
+                                        // frame rate; the relay forwards one of them to each participant
+                                        int topLayer = currentVideoQuality.ordinal();
+                                        int firstLayer = webSocketClient.isBinaryFramesSupported() ? 0 : topLayer;
+                                        for (int layer = firstLayer; layer <= topLayer; layer++) {
+                                            VideoQuality quality = VideoQuality.values()[layer];
+                                            long layerInterval = 1000 / quality.fps;
+                                            if (currentTime - lastLayerSent[layer] < layerInterval - frameInterval / 2) {
+                                                continue;
+                                            }
+                                            byte[] jpegFrame = compressImage(awtImage, quality.width, quality.height);
+                                            if (jpegFrame == null || jpegFrame.length == 0) {
+                                                continue;
+                                            }
+                                            lastLayerSent[layer] = currentTime;
+                                            webSocketClient.sendVideoFrame(meetingId, username, jpegFrame, capturedAt,
+                                                    layer, topLayer);
+
+                                            if (layer == topLayer) {
+                                                frameCount++;
+                                                framesSent.incrementAndGet();
+
+                                                if (frameCount % 10 == 0) {
+                                                    System.out.println("Sent frame #" + frameCount +
+                                                            " to all participants (" +
+                                                            jpegFrame.length + " bytes, " + (topLayer - firstLayer + 1) +
+                                                            " layers)");
+                                                }
                                             }
-                                        } else {
-                                            System.err.println("WebSocket client not connected, cannot send video frame");
                                         }
+                                    } else {
+                                        System.err.println("WebSocket client not connected, cannot send video frame");
                                     }
                                 }
                             }
@@ -2353,10 +2454,8 @@ public class MeetingController {
         }
     }
 
-    private String compressAndConvertImage(java.awt.image.BufferedImage awtImage) {
+    private byte[] compressImage(java.awt.image.BufferedImage awtImage, int targetWidth, int targetHeight) {
         try {
-            int targetWidth = currentVideoQuality.width;
-            int targetHeight = currentVideoQuality.height;
 
             java.awt.Image scaledImage = awtImage.getScaledInstance(
                     targetWidth, targetHeight, java.awt.Image.SCALE_SMOOTH);
@@ -2370,13 +2469,10 @@ public class MeetingController {
 
             java.io.ByteArrayOutputStream baos = new java.io.ByteArrayOutputStream();
             javax.imageio.ImageIO.write(bufferedScaledImage, "jpg", baos);
-            byte[] imageBytes = baos.toByteArray();
-
-            String base64 = java.util.Base64.getEncoder().encodeToString(imageBytes);
-            return base64;
+            return baos.toByteArray();
 
         } catch (Exception e) {
-            System.err.println("Error converting to base64: " + e.getMessage());
+            System.err.println("Error compressing video frame: " + e.getMessage());
             return null;
         }
     }
@@ -2384,8 +2480,8 @@ public class MeetingController {
     public void displayVideoFrame(String username, Image videoFrame) {
         Platform.runLater(() -> {
             try {
-                System.out.println("DISPLAY VIDEO FROM: " + username);
-                System.out.println("Frame size: " + videoFrame.getWidth() + "x" + videoFrame.getHeight());
+                LOG.sampled(AsyncLog.Level.DEBUG, "VIDEO_FRAME", "Displaying video from {}: {}x{}", username,
+                        (int) videoFrame.getWidth(), (int) videoFrame.getHeight());
 
                 if (videoDisplay != null) {
                     videoDisplay.setImage(videoFrame);
@@ -2394,13 +2490,10 @@ public class MeetingController {
                     videoDisplay.setFitHeight(480);
                     videoDisplay.setPreserveRatio(true);
                     videoDisplay.setSmooth(true);
-
-                    System.out.println("Updated video display with frame from " + username);
                 }
 
                 if (videoPlaceholder != null) {
                     videoPlaceholder.setVisible(false);
-                    System.out.println("Hid video placeholder");
                 }
 
                 // Update who we're displaying video from
@@ -2566,32 +2659,32 @@ public class MeetingController {
     // Update the handleWebSocketMessage method to be more robust
     public void handleWebSocketMessage(String message) {
         try {
-            System.out.println("=== MEETING CONTROLLER RECEIVED WEBSOCKET MESSAGE ===");
-            System.out.println("Full message: " + message);
-
-            String[] parts = message.split("\\|", -1); // -1 to keep empty strings
-            if (parts.length >= 4) {
-                String type = parts[0];
-                String meetingId = parts[1];
-                String username = parts[2];
-                String content = parts[3];
 
-                System.out.println("Parsed: Type=" + type + ", Meeting=" + meetingId + ", User=" + username);
+            // Parse only the header; the content is copied once the message is known to be ours
+            MessageHeader header = new MessageHeader();
+            if (header.parse(message)) {
+                String type = header.type();
 
                 // Check if this message is for our meeting
                 String currentMeetingId = HelloApplication.getActiveMeetingId();
-                if (!meetingId.equals(currentMeetingId) && !meetingId.equals("global")) {
-                    System.out.println("Ignoring - not our meeting. Current: " + currentMeetingId + ", Received: " + meetingId);
+                if (!header.isMeeting(currentMeetingId) && !header.isMeeting("global")) {
+                    System.out.println("Ignoring - not our meeting. Current: " + currentMeetingId + ", Received: " + header.meetingId());
                     return;
                 }
 
                 // Skip our own messages
-                if (username.equals(currentUser)) {
+                if (header.isUser(currentUser)) {
                     System.out.println("Skipping own message: " + type);
                     return;
                 }
 
-                final String finalMessage = message;
+                String meetingId = header.meetingId();
+                String username = header.username();
+                String content = header.content();
+                String extraField = type.startsWith("DEVICE_") ? header.field(4) : null;
+
+                LOG.sampled(AsyncLog.Level.DEBUG, type, "Meeting message {} from {}: {}", type, username, message);
+
                 Platform.runLater(() -> {
                     try {
                         switch (type) {
@@ -2631,14 +2724,14 @@ public class MeetingController {
                                 break;
 
                             case "DEVICE_CONNECTED":
-                                if (parts.length >= 5) {
-                                    handleDeviceConnected(username, parts[4]);
+                                if (extraField != null) {
+                                    handleDeviceConnected(username, extraField);
                                 }
                                 break;
 
                             case "DEVICE_DISCONNECTED":
-                                if (parts.length >= 5) {
-                                    handleDeviceDisconnected(username, parts[4]);
+                                if (extraField != null) {
+                                    handleDeviceDisconnected(username, extraField);
                                 }
                                 break;
 
@@ -2656,7 +2749,7 @@ public class MeetingController {
                     }
                 });
             } else {
-                System.err.println("Invalid message format. Parts: " + parts.length);
+                System.err.println("Invalid message format: fewer than 4 fields");
             }
         } catch (Exception e) {
             System.err.println("Error in handleWebSocketMessage: " + e.getMessage());
@@ -2744,7 +2837,6 @@ public class MeetingController {
 
     private void handleVideoFrameFromServer(String username, String base64Image) {
         try {
-            System.out.println("Processing video frame from: " + username);
 
             // Check if we should display this user's video
             // We display video from the current video host, or if there's no host, we display the first user with video
@@ -2764,13 +2856,31 @@ public class MeetingController {
         }
     }
 
+    // Binary VIDEO_FRAME path: the payload is raw JPEG, no Base64 decoding needed
+    private void handleMediaFrame(BinaryMediaFrame frame) {
+        if (frame.getType() != BinaryMediaFrame.TYPE_VIDEO_FRAME) {
+            return;
+        }
+
+        String username = frame.getSenderId();
+        if (!frame.getMeetingId().equals(HelloApplication.getActiveMeetingId()) || username.equals(currentUser)) {
+            return;
+        }
+
+        if (currentVideoHost == null || currentVideoHost.equals(username)) {
+            Image videoFrame = new Image(frame.openPayloadStream());
+            if (!videoFrame.isError()) {
+                displayVideoFrame(username, videoFrame);
+                lastVideoFrameTime = System.currentTimeMillis();
+            } else {
+                System.err.println("Failed to decode binary video frame from: " + username);
+            }
+        }
+    }
+
     private Image convertBase64ToImageSimple(String base64) {
         try {
-            System.out.println("Converting Base64 to Image...");
-            System.out.println("Base64 length: " + base64.length());
-
             byte[] bytes = java.util.Base64.getDecoder().decode(base64);
-            System.out.println("Decoded bytes: " + bytes.length);
 
             java.io.ByteArrayInputStream bis = new java.io.ByteArrayInputStream(bytes);
             Image image = new Image(bis);
@@ -2784,7 +2894,6 @@ public class MeetingController {
                 return null;
             }
 
-            System.out.println("Created image: " + image.getWidth() + "x" + image.getHeight());
             return image;
 
         } catch (Exception e) {
@@ -3190,6 +3299,12 @@ public class MeetingController {
 
     private void updateTimer() {
         meetingSeconds++;
+
+        // Latency and loss change continuously; refresh them without going to the database
+        if (meetingSeconds % 2 == 0 && participantsList != null) {
+            renderParticipants();
+        }
+
         int hours = meetingSeconds / 3600;
         int minutes = (meetingSeconds % 3600) / 60;
         int seconds = meetingSeconds % 60;
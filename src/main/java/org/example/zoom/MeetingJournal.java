@@ -0,0 +1,273 @@
+package org.example.zoom.websocket;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Recent non-media messages of every meeting, numbered, so a client that lost
+ * its connection can be sent just the messages it missed when it resumes.
+ *
+ * Clients opt in with the {@link #HANDSHAKE_HEADER} handshake header. They get
+ * each journaled message wrapped with its sequence number, and a resume token
+ * when they connect:
+ * <pre>
+ *   RESUME_TOKEN|global|Server|token
+ *   EVENT|meeting|Server|seq|CHAT_MESSAGE|meeting|alice|Hello
+ *   RESUME|meeting|username|token,lastSeq                (client, after reconnecting)
+ *   RESUMED|meeting|Server|replayedCount|lastSeq          (after the missed EVENTs)
+ *   MEETING_SNAPSHOT|meeting|Server|lastSeq|user;user;... (if the gap is no longer journaled)
+ * </pre>
+ * Each meeting keeps a bounded ring of entries, limited by count, total size
+ * and age. A journal lives as long as its meeting room; the epoch tells a
+ * recreated meeting apart from the one a client was in, since sequence numbers
+ * start over with it.
+ *
+ * Video frames, file transfer chunks and WebRTC signalling are not journaled:
+ * they are either too large or stale by the time a client is back.
+ */
+public class MeetingJournal {
+
+    public static final String HANDSHAKE_HEADER = "X-Resume";
+    public static final String HANDSHAKE_VALUE = "1";
+
+    public static final int DEFAULT_MAX_ENTRIES = 512;
+    public static final long DEFAULT_MAX_BYTES = 1024L * 1024;
+    public static final long DEFAULT_MAX_AGE_MS = 120_000;
+
+    /**
+     * A journaled message in its wrapped, shareable form.
+     */
+    public static final class Entry {
+        private final long sequence;
+        private final String type;
+        private final String sender;
+        private final MessageClass messageClass;
+        private final SharedFrame frame;
+        private final long storedAt;
+
+        private Entry(long sequence, String type, String sender, MessageClass messageClass, SharedFrame frame) {
+            this.sequence = sequence;
+            this.type = type;
+            this.sender = sender;
+            this.messageClass = messageClass;
+            this.frame = frame;
+            this.storedAt = System.currentTimeMillis();
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getSender() {
+            return sender;
+        }
+
+        public MessageClass getMessageClass() {
+            return messageClass;
+        }
+
+        /**
+         * The EVENT message wrapping the original one.
+         */
+        public SharedFrame getFrame() {
+            return frame;
+        }
+    }
+
+    private static final class Journal {
+        final long epoch;
+        final ArrayDeque<Entry> entries = new ArrayDeque<>();
+        long lastSequence;
+        long bytes;
+
+        Journal(long epoch) {
+            this.epoch = epoch;
+        }
+    }
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long maxAgeMs;
+
+    private final ConcurrentHashMap<String, Journal> journals = new ConcurrentHashMap<>();
+    private final AtomicLong epochs = new AtomicLong();
+
+    private final LongAdder appended = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+
+    public MeetingJournal() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES, DEFAULT_MAX_AGE_MS);
+    }
+
+    public MeetingJournal(int maxEntries, long maxBytes, long maxAgeMs) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.maxAgeMs = maxAgeMs;
+    }
+
+    public static MeetingJournal fromSystemProperties() {
+        return new MeetingJournal(
+                Integer.getInteger("zoom.resume.journalEntries", DEFAULT_MAX_ENTRIES),
+                Long.getLong("zoom.resume.journalBytes", DEFAULT_MAX_BYTES),
+                Long.getLong("zoom.resume.journalAgeMs", DEFAULT_MAX_AGE_MS));
+    }
+
+    /**
+     * Whether messages of this type are journaled and replayed.
+     */
+    public static boolean isJournaled(String type) {
+        switch (type) {
+            case "VIDEO_FRAME":
+            case "FILE_TRANSFER":
+            case "WEBRTC_SIGNAL":
+            case "PING":
+            case "PONG":
+            case "HEARTBEAT":
+            case "HEARTBEAT_ACK":
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Start a journal for a meeting room, if it has none.
+     */
+    public void open(String meetingId) {
+        journals.computeIfAbsent(meetingId, key -> new Journal(epochs.incrementAndGet()));
+    }
+
+    /**
+     * Drop the journal of a meeting whose room is gone.
+     */
+    public void remove(String meetingId) {
+        journals.remove(meetingId);
+    }
+
+    /**
+     * Number and store a message.
+     * @return The entry, or null if the meeting has no journal
+     */
+    public Entry append(String meetingId, String type, String sender, MessageClass messageClass, String message) {
+        Journal journal = journals.get(meetingId);
+        if (journal == null) {
+            return null;
+        }
+        synchronized (journal) {
+            long sequence = journal.lastSequence + 1;
+            Entry entry = new Entry(sequence, type, sender, messageClass,
+                    SharedFrame.text("EVENT|" + meetingId + "|Server|" + sequence + "|" + message));
+            journal.lastSequence = sequence;
+            journal.entries.addLast(entry);
+            journal.bytes += entry.frame.size();
+            while (journal.entries.size() > maxEntries ||
+                    (journal.bytes > maxBytes && journal.entries.size() > 1)) {
+                journal.bytes -= journal.entries.removeFirst().frame.size();
+                evicted.increment();
+            }
+            appended.increment();
+            return entry;
+        }
+    }
+
+    /**
+     * Epoch of a meeting's journal, or 0 if it has none.
+     */
+    public long epochOf(String meetingId) {
+        Journal journal = journals.get(meetingId);
+        return journal != null ? journal.epoch : 0;
+    }
+
+    /**
+     * Sequence number of the last message journaled for a meeting, or 0.
+     */
+    public long lastSequenceOf(String meetingId) {
+        Journal journal = journals.get(meetingId);
+        if (journal == null) {
+            return 0;
+        }
+        synchronized (journal) {
+            return journal.lastSequence;
+        }
+    }
+
+    /**
+     * Collect the messages after a sequence number.
+     * @param epoch Epoch of the journal the client last saw
+     * @param afterSequence Last sequence number the client saw
+     * @param skipSender Messages of this sender are left out, as they are when relayed live
+     * @param missed Receives the entries to send, oldest first
+     * @return false if the gap cannot be filled: the meeting was recreated, or
+     *         messages after {@code afterSequence} were already evicted
+     */
+    public boolean replay(String meetingId, long epoch, long afterSequence, String skipSender, List<Entry> missed) {
+        Journal journal = journals.get(meetingId);
+        if (journal == null || journal.epoch != epoch) {
+            return false;
+        }
+        long oldestAllowed = System.currentTimeMillis() - maxAgeMs;
+        synchronized (journal) {
+            if (afterSequence > journal.lastSequence) {
+                return false;
+            }
+            expire(journal, oldestAllowed);
+            Entry oldest = journal.entries.peekFirst();
+            long firstKept = oldest != null ? oldest.sequence : journal.lastSequence + 1;
+            if (afterSequence + 1 < firstKept) {
+                return false;
+            }
+            for (Entry entry : journal.entries) {
+                if (entry.sequence > afterSequence && !entry.sender.equals(skipSender)) {
+                    missed.add(entry);
+                }
+            }
+            return true;
+        }
+    }
+
+    private void expire(Journal journal, long oldestAllowed) {
+        Iterator<Entry> it = journal.entries.iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.storedAt >= oldestAllowed) {
+                break;
+            }
+            it.remove();
+            journal.bytes -= entry.frame.size();
+            evicted.increment();
+        }
+    }
+
+    public int getMeetingCount() {
+        return journals.size();
+    }
+
+    public long getAppendedCount() {
+        return appended.sum();
+    }
+
+    public long getEvictedCount() {
+        return evicted.sum();
+    }
+
+    /**
+     * Total size of the journaled frames.
+     */
+    public long getBytes() {
+        long total = 0;
+        for (Journal journal : journals.values()) {
+            synchronized (journal) {
+                total += journal.bytes;
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,256 @@
+package org.example.zoom.websocket;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Single-threaded execution lanes for relay work.
+ *
+ * Every task is submitted with a key (normally the meeting id) and the key's
+ * hash picks one lane. A lane runs its tasks one at a time in submission order,
+ * so messages of one meeting are handled in the order they arrived while
+ * different meetings spread over all lanes and therefore all cores.
+ *
+ * Each lane tracks its queue depth, the time tasks waited in the queue and the
+ * time they took to run.
+ */
+public class MeetingLanes {
+
+    private static final class Task {
+        final Runnable work;
+        final long enqueuedNanos;
+
+        Task(Runnable work, long enqueuedNanos) {
+            this.work = work;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
+
+    /**
+     * One worker thread and its queue.
+     */
+    public static final class Lane {
+        private final MeetingLanes owner;
+        private final int index;
+        private final LinkedBlockingQueue<Task> queue = new LinkedBlockingQueue<>();
+        private final Thread worker;
+        private volatile boolean running = true;
+
+        private final LongAdder processed = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder serviceNanos = new LongAdder();
+        private final LongAdder waitNanos = new LongAdder();
+        private final AtomicLong maxServiceNanos = new AtomicLong();
+        private volatile int maxQueueDepth;
+
+        private Lane(MeetingLanes owner, int index, String namePrefix) {
+            this.owner = owner;
+            this.index = index;
+            this.worker = new Thread(this::runLoop, namePrefix + "-" + index);
+            this.worker.setDaemon(true);
+        }
+
+        private void submit(Runnable work) {
+            queue.add(new Task(work, System.nanoTime()));
+            int depth = queue.size();
+            if (depth > maxQueueDepth) {
+                maxQueueDepth = depth;
+            }
+        }
+
+        private void runLoop() {
+            while (running || !queue.isEmpty()) {
+                Task task;
+                try {
+                    task = queue.poll(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    if (!running) {
+                        break;
+                    }
+                    continue;
+                }
+                if (task == null) {
+                    continue;
+                }
+
+                long start = System.nanoTime();
+                long waited = start - task.enqueuedNanos;
+                waitNanos.add(waited);
+                LatencyHistogram histogram = owner.waitHistogram;
+                if (histogram != null) {
+                    histogram.record(waited);
+                }
+                try {
+                    task.work.run();
+                } catch (Exception e) {
+                    failed.increment();
+                    System.err.println("Error in " + worker.getName() + ": " + e.getMessage());
+                }
+                long serviceTime = System.nanoTime() - start;
+                serviceNanos.add(serviceTime);
+                processed.increment();
+                maxServiceNanos.accumulateAndGet(serviceTime, Math::max);
+            }
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public int getQueueDepth() {
+            return queue.size();
+        }
+
+        public int getMaxQueueDepth() {
+            return maxQueueDepth;
+        }
+
+        /**
+         * How long the task at the head of the queue has been waiting; grows
+         * even while the lane is stuck and nothing completes.
+         */
+        public long getOldestWaitNanos() {
+            Task head = queue.peek();
+            return head == null ? 0 : Math.max(0, System.nanoTime() - head.enqueuedNanos);
+        }
+
+        public long getProcessed() {
+            return processed.sum();
+        }
+
+        public long getFailed() {
+            return failed.sum();
+        }
+
+        /**
+         * Average time a task spent running, in nanoseconds.
+         */
+        public double getAverageServiceNanos() {
+            long count = processed.sum();
+            return count == 0 ? 0 : (double) serviceNanos.sum() / count;
+        }
+
+        public long getMaxServiceNanos() {
+            return maxServiceNanos.get();
+        }
+
+        /**
+         * Average time a task waited in the queue before running, in nanoseconds.
+         */
+        public double getAverageWaitNanos() {
+            long count = processed.sum();
+            return count == 0 ? 0 : (double) waitNanos.sum() / count;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("lane %d: depth=%d maxDepth=%d processed=%d failed=%d avgService=%.1fus maxService=%.1fus avgWait=%.1fus",
+                    index, getQueueDepth(), maxQueueDepth, getProcessed(), getFailed(),
+                    getAverageServiceNanos() / 1000.0, getMaxServiceNanos() / 1000.0,
+                    getAverageWaitNanos() / 1000.0);
+        }
+    }
+
+    private final Lane[] lanes;
+    private volatile LatencyHistogram waitHistogram;
+
+    /**
+     * @param laneCount  Number of lanes (worker threads), at least 1
+     * @param namePrefix Thread name prefix; lane threads are named prefix-index
+     */
+    public MeetingLanes(int laneCount, String namePrefix) {
+        lanes = new Lane[Math.max(1, laneCount)];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane(this, i, namePrefix);
+            lanes[i].worker.start();
+        }
+    }
+
+    /**
+     * Run a task on the lane owning the given key.
+     */
+    public void submit(String key, Runnable work) {
+        laneFor(key == null ? 0 : key.hashCode()).submit(work);
+    }
+
+    /**
+     * Run a task on the lane owning the given key hash, e.g. one computed with
+     * {@link MessageHeader#meetingIdHash()} without copying the meeting id.
+     */
+    public void submit(int keyHash, Runnable work) {
+        laneFor(keyHash).submit(work);
+    }
+
+    public Lane laneFor(int keyHash) {
+        // Spread the hash so ids that differ only in low digits still use all lanes
+        int h = keyHash ^ (keyHash >>> 16);
+        return lanes[(h & 0x7fffffff) % lanes.length];
+    }
+
+    /**
+     * Also record every task's queue wait into a shared histogram.
+     */
+    public void setWaitHistogram(LatencyHistogram waitHistogram) {
+        this.waitHistogram = waitHistogram;
+    }
+
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    public Lane getLane(int index) {
+        return lanes[index];
+    }
+
+    public int getTotalQueueDepth() {
+        int depth = 0;
+        for (Lane lane : lanes) {
+            depth += lane.getQueueDepth();
+        }
+        return depth;
+    }
+
+    /**
+     * Longest any queued task has been waiting, over all lanes.
+     */
+    public long getOldestWaitNanos() {
+        long oldest = 0;
+        for (Lane lane : lanes) {
+            oldest = Math.max(oldest, lane.getOldestWaitNanos());
+        }
+        return oldest;
+    }
+
+    /**
+     * Stop accepting work once the queued tasks have run.
+     * @param timeoutMs How long to wait for the queues to empty
+     */
+    public void shutdown(long timeoutMs) {
+        for (Lane lane : lanes) {
+            lane.running = false;
+        }
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        for (Lane lane : lanes) {
+            try {
+                lane.worker.join(Math.max(1, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (lane.worker.isAlive()) {
+                lane.worker.interrupt();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("MeetingLanes[").append(lanes.length).append("]");
+        for (Lane lane : lanes) {
+            sb.append("\n  ").append(lane);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,54 @@
+package org.example.zoom.websocket;
+
+/**
+ * Delivery class of a relayed message. Decides which outbound queue a message
+ * goes to and whether it may be dropped when a connection falls behind.
+ * Declared in priority order: control beats chat, chat beats video, and video
+ * beats bulk file data.
+ */
+public enum MessageClass {
+    CONTROL(false),
+    CHAT(false),
+    VIDEO(true),
+    BULK(false);
+
+    private final boolean droppable;
+
+    MessageClass(boolean droppable) {
+        this.droppable = droppable;
+    }
+
+    public boolean isDroppable() {
+        return droppable;
+    }
+
+    public static MessageClass forType(String type) {
+        switch (type) {
+            case "VIDEO_FRAME":
+                return VIDEO;
+            case "FILE_TRANSFER":
+                return BULK;
+            case "CHAT":
+            case "CHAT_MESSAGE":
+            case "FILE_SHARE":
+                return CHAT;
+            default:
+                return CONTROL;
+        }
+    }
+
+    /**
+     * Classify a pipe-delimited message by its type field without splitting it.
+     */
+    public static MessageClass forMessage(String message) {
+        return forType(typeOf(message));
+    }
+
+    /**
+     * The type field of a pipe-delimited message.
+     */
+    public static String typeOf(String message) {
+        int end = message.indexOf('|');
+        return end < 0 ? message : message.substring(0, end);
+    }
+}
@@ -0,0 +1,353 @@
+package org.example.zoom.websocket;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * permessage-deflate (RFC 7692) for relay messages, applied per message.
+ *
+ * Chat, device lists, MEETING_SYNC and the other control messages are short,
+ * repetitive text and shrink well. Video frames (JPEG, Base64 or binary) and
+ * file chunks are already compressed, so deflating them only costs CPU; they
+ * are always sent as they are. Messages below {@code zoom.deflate.minBytes}
+ * (default 256) are skipped too, and so is any message deflate does not make
+ * smaller.
+ *
+ * Outgoing messages are compressed without context takeover
+ * ({@code server_no_context_takeover}): every message is self-contained, so a
+ * broadcast is compressed once and the same bytes go to every recipient. The
+ * zlib state itself is reused: each thread keeps one {@link Deflater} that is
+ * reset between messages. Incoming messages keep the client's context, so each
+ * connection owns an {@link Inflating} for its lifetime.
+ *
+ * Compression count, bytes before and after and CPU time are recorded per
+ * message type and exported with the relay metrics.
+ */
+public final class MessageCompressor {
+
+    public static final String EXTENSION_NAME = "permessage-deflate";
+
+    private static final byte[] TAIL = {0, 0, (byte) 0xFF, (byte) 0xFF};
+    private static final int RSV1 = 0x40;
+
+    private static final String[] TYPES = MessageHeader.KNOWN_TYPES;
+    private static final int OTHER = TYPES.length;
+    private static final int BINARY = TYPES.length + 1;
+    private static final Map<String, Integer> TYPE_INDEX = new HashMap<>();
+
+    static {
+        for (int i = 0; i < TYPES.length; i++) {
+            TYPE_INDEX.put(TYPES[i], i);
+        }
+    }
+
+    // Created after the type tables it sizes its counters from
+    private static final MessageCompressor INSTANCE = new MessageCompressor();
+
+    private final boolean enabled = !Boolean.getBoolean("zoom.deflate.disabled");
+    private final int minBytes = Integer.getInteger("zoom.deflate.minBytes", 256);
+    private final int level = Integer.getInteger("zoom.deflate.level", Deflater.BEST_SPEED);
+
+    private final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(level, true));
+    private final ThreadLocal<byte[]> scratch = ThreadLocal.withInitial(() -> new byte[16 * 1024]);
+
+    private final LongAdder[] compressed = newAdders();
+    private final LongAdder[] skipped = newAdders();
+    private final LongAdder[] rawBytes = newAdders();
+    private final LongAdder[] deflatedBytes = newAdders();
+    private final LongAdder[] deflateNanos = newAdders();
+
+    private MessageCompressor() {
+    }
+
+    public static MessageCompressor getInstance() {
+        return INSTANCE;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Whether messages of this type are worth deflating at all.
+     */
+    public static boolean isCompressibleType(String type) {
+        switch (type) {
+            case "VIDEO_FRAME":
+            case "FILE_TRANSFER":
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    // ---- compression ----
+
+    /**
+     * Deflate one message payload.
+     * @param type Message type, for the policy and the statistics
+     * @return The compressed payload without the trailing {@code 00 00 FF FF},
+     *         or null if the message should go out uncompressed
+     */
+    public byte[] deflate(String type, ByteBuffer payload) {
+        return deflate(indexOf(type), isCompressibleType(type), payload);
+    }
+
+    private byte[] deflate(int index, boolean compressible, ByteBuffer payload) {
+        int length = payload.remaining();
+        if (!enabled || !compressible || length < minBytes) {
+            skipped[index].increment();
+            return null;
+        }
+
+        long start = System.nanoTime();
+        Deflater deflater = deflaters.get();
+        byte[] out = scratch.get();
+        int written = 0;
+        try {
+            deflater.setInput(payload.duplicate());
+            while (true) {
+                written += deflater.deflate(out, written, out.length - written, Deflater.SYNC_FLUSH);
+                if (written < out.length) {
+                    break;
+                }
+                out = Arrays.copyOf(out, out.length * 2);
+                scratch.set(out);
+            }
+        } finally {
+            deflater.reset();
+        }
+        if (written >= 4 && endsWithTail(out, written)) {
+            written -= 4;
+        }
+        long nanos = System.nanoTime() - start;
+
+        if (written >= length) {
+            deflateNanos[index].add(nanos);
+            skipped[index].increment();
+            return null;
+        }
+        record(index, length, written, nanos);
+        return Arrays.copyOf(out, written);
+    }
+
+    private void record(int index, int before, int after, long nanos) {
+        compressed[index].increment();
+        rawBytes[index].add(before);
+        deflatedBytes[index].add(after);
+        deflateNanos[index].add(nanos);
+    }
+
+    /**
+     * Count a message compressed elsewhere (by {@link SelectiveDeflateExtension}).
+     */
+    public void recordCompressed(String type, int before, int after, long nanos) {
+        record(indexOf(type), before, after, nanos);
+    }
+
+    /**
+     * Count a message sent uncompressed elsewhere.
+     * @param type Message type, or null for a binary message
+     */
+    public void recordSkipped(String type) {
+        skipped[type == null ? BINARY : indexOf(type)].increment();
+    }
+
+    /**
+     * A complete server frame (FIN and RSV1 set) carrying the compressed
+     * payload, or null if the message should go out uncompressed. Binary
+     * frames are media and never compressed.
+     */
+    public ByteBuffer deflateFrame(byte opcode, ByteBuffer payload) {
+        if (opcode != SharedFrame.OPCODE_TEXT) {
+            skipped[BINARY].increment();
+            return null;
+        }
+        String type = typeOf(payload);
+        byte[] deflated = deflate(indexOf(type), isCompressibleType(type), payload);
+        if (deflated == null) {
+            return null;
+        }
+        ByteBuffer frame = ByteBuffer.allocate(SharedFrame.headerSize(deflated.length) + deflated.length);
+        frame.put((byte) (0x80 | RSV1 | opcode));
+        if (deflated.length < 126) {
+            frame.put((byte) deflated.length);
+        } else if (deflated.length <= 0xFFFF) {
+            frame.put((byte) 126);
+            frame.putShort((short) deflated.length);
+        } else {
+            frame.put((byte) 127);
+            frame.putLong(deflated.length);
+        }
+        frame.put(deflated);
+        frame.flip();
+        return frame.asReadOnlyBuffer();
+    }
+
+    private static boolean endsWithTail(byte[] data, int length) {
+        for (int i = 0; i < 4; i++) {
+            if (data[length - 4 + i] != TAIL[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Type field of a UTF-8 {@code TYPE|...} payload, resolved to the shared
+     * constant of a well-known type without allocating.
+     */
+    static String typeOf(ByteBuffer payload) {
+        int start = payload.position();
+        int limit = Math.min(payload.limit(), start + 40);
+        int end = start;
+        while (end < limit && payload.get(end) != '|') {
+            end++;
+        }
+        int length = end - start;
+        for (String known : TYPES) {
+            if (known.length() == length && matches(payload, start, known)) {
+                return known;
+            }
+        }
+        return "OTHER";
+    }
+
+    private static boolean matches(ByteBuffer payload, int start, String known) {
+        for (int i = 0; i < known.length(); i++) {
+            if (payload.get(start + i) != known.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(String type) {
+        Integer index = TYPE_INDEX.get(type);
+        return index != null ? index : OTHER;
+    }
+
+    // ---- decompression ----
+
+    /**
+     * Inflates one connection's incoming compressed messages, keeping the
+     * sliding window between messages (client context takeover).
+     */
+    public static final class Inflating {
+        private final Inflater inflater = new Inflater(true);
+        private final int maxBytes;
+
+        public Inflating(int maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        /**
+         * @param data The compressed message as received (without the trailing {@code 00 00 FF FF})
+         * @return The message, or null if it inflates to more than {@code maxBytes}
+         * @throws DataFormatException If the data is not valid deflate output
+         */
+        public byte[] inflate(byte[] data) throws DataFormatException {
+            byte[] out = new byte[Math.max(256, data.length * 4)];
+            int written = 0;
+            for (byte[] input : new byte[][] {data, TAIL}) {
+                inflater.setInput(input);
+                while (true) {
+                    if (written == out.length) {
+                        if (out.length >= maxBytes) {
+                            return null;
+                        }
+                        out = Arrays.copyOf(out, (int) Math.min(maxBytes, out.length * 2L));
+                    }
+                    int inflated = inflater.inflate(out, written, out.length - written);
+                    written += inflated;
+                    // A full buffer may hide pending output, so only stop with room to spare
+                    if (written < out.length && (inflater.needsInput() || inflated == 0)) {
+                        break;
+                    }
+                }
+            }
+            return Arrays.copyOf(out, written);
+        }
+
+        public void end() {
+            inflater.end();
+        }
+    }
+
+    // ---- statistics ----
+
+    private static LongAdder[] newAdders() {
+        LongAdder[] adders = new LongAdder[TYPES.length + 2];
+        for (int i = 0; i < adders.length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    private static String typeLabel(int index) {
+        if (index == OTHER) {
+            return "OTHER";
+        }
+        return index == BINARY ? "BINARY" : TYPES[index];
+    }
+
+    /**
+     * Compressed size over original size for a type, or 1 if nothing was compressed.
+     */
+    public double getRatio(String type) {
+        int index = indexOf(type);
+        long raw = rawBytes[index].sum();
+        return raw == 0 ? 1.0 : (double) deflatedBytes[index].sum() / raw;
+    }
+
+    /**
+     * Append the compression counters in the Prometheus text format.
+     */
+    public void writeTo(StringBuilder out) {
+        writePerType(out, "zoom_relay_deflate_messages_total", "Messages sent compressed", compressed);
+        writePerType(out, "zoom_relay_deflate_skipped_total",
+                "Messages sent uncompressed (media, small or incompressible)", skipped);
+        writePerType(out, "zoom_relay_deflate_input_bytes_total", "Bytes before compression", rawBytes);
+        writePerType(out, "zoom_relay_deflate_output_bytes_total", "Bytes after compression", deflatedBytes);
+        writePerType(out, "zoom_relay_deflate_cpu_nanoseconds_total", "CPU time spent compressing", deflateNanos);
+
+        RelayMetrics.header(out, "zoom_relay_deflate_ratio", "Compressed size over original size", "gauge");
+        for (int i = 0; i < rawBytes.length; i++) {
+            long raw = rawBytes[i].sum();
+            if (raw != 0) {
+                out.append("zoom_relay_deflate_ratio{type=\"").append(typeLabel(i)).append("\"} ")
+                        .append((double) deflatedBytes[i].sum() / raw).append('\n');
+            }
+        }
+    }
+
+    private static void writePerType(StringBuilder out, String name, String help, LongAdder[] adders) {
+        RelayMetrics.header(out, name, help, "counter");
+        for (int i = 0; i < adders.length; i++) {
+            long value = adders[i].sum();
+            if (value != 0) {
+                RelayMetrics.sample(out, name, "type=\"" + typeLabel(i) + "\"", value);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("MessageCompressor[");
+        for (int i = 0; i < rawBytes.length; i++) {
+            long count = compressed[i].sum();
+            if (count != 0) {
+                sb.append(String.format(" %s: %d msgs ratio=%.2f cpu=%.1fus/msg", typeLabel(i), count,
+                        (double) deflatedBytes[i].sum() / rawBytes[i].sum(),
+                        deflateNanos[i].sum() / 1000.0 / count));
+            }
+        }
+        return sb.append(" ]").toString();
+    }
+}
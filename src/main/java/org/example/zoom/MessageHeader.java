@@ -0,0 +1,175 @@
+package org.example.zoom.websocket;
+
+/**
+ * Header view over a pipe-delimited message ({@code TYPE|MEETING_ID|USERNAME|CONTENT|...}).
+ *
+ * The parser records offsets instead of splitting, so routing a message never
+ * copies its content (for VIDEO_FRAME that is the whole Base64 body). Parsing
+ * stops at the delimiter that opens the content; the fourth delimiter is only
+ * searched for when the content or a later field is asked for. Well-known types
+ * resolve to shared constants, so reading the type allocates nothing either.
+ *
+ * Instances are mutable and meant to be reused by one thread:
+ * <pre>
+ *   MessageHeader header = new MessageHeader();
+ *   if (header.parse(message)) {
+ *       switch (header.type()) { ... }
+ *   }
+ * </pre>
+ */
+public final class MessageHeader {
+
+    private static final char DELIMITER = '|';
+
+    // Also the bit positions of Subscriptions; append new types at the end
+    static final String[] KNOWN_TYPES = {
+            "VIDEO_FRAME", "CHAT", "CHAT_MESSAGE", "HEARTBEAT", "PING", "PONG",
+            "VIDEO_STATUS", "AUDIO_STATUS", "AUDIO_CONTROL", "VIDEO_CONTROL",
+            "USER_JOINED", "USER_LEFT", "MEETING_CREATED", "MEETING_ENDED", "FILE_SHARE",
+            "FILE_TRANSFER", "WEBRTC_SIGNAL", "GET_DEVICES", "GET_DEVICE_LIST", "DEVICE_INFO",
+            "DEVICE_LIST", "DEVICE_CONNECTED", "DEVICE_DISCONNECTED", "SYSTEM",
+            "VALIDATE_MEETING", "MEETING_VALIDATION_RESPONSE", "MEETING_AVAILABLE",
+            "MEETING_LIST", "MEETING_SYNC", "HEARTBEAT_ACK", "CONNECTED", "DEVICE_INFO_UPDATE",
+            "REDIRECT", "SUBSCRIBE", "UNSUBSCRIBE", "PRESENCE_SNAPSHOT", "PRESENCE_DELTA", "PRESENCE_SYNC",
+            "EVENT", "RESUME", "RESUME_TOKEN", "RESUMED", "MEETING_SNAPSHOT", "VIDEO_VIEW", "BANDWIDTH",
+            "RECORDING"
+    };
+
+    private String message;
+    private int typeEnd;
+    private int meetingEnd;
+    private int userEnd;
+    private int contentEnd;
+    private String type;
+
+    /**
+     * Locate the header fields of a message.
+     * @return false if the message has fewer than four fields
+     */
+    public boolean parse(String message) {
+        this.message = message;
+        this.type = null;
+
+        typeEnd = message.indexOf(DELIMITER);
+        if (typeEnd < 0) {
+            return false;
+        }
+        meetingEnd = message.indexOf(DELIMITER, typeEnd + 1);
+        if (meetingEnd < 0) {
+            return false;
+        }
+        userEnd = message.indexOf(DELIMITER, meetingEnd + 1);
+        if (userEnd < 0) {
+            return false;
+        }
+        contentEnd = -1;
+        return true;
+    }
+
+    private int contentEnd() {
+        if (contentEnd < 0) {
+            int end = message.indexOf(DELIMITER, userEnd + 1);
+            contentEnd = end < 0 ? message.length() : end;
+        }
+        return contentEnd;
+    }
+
+    public String type() {
+        if (type == null) {
+            type = resolveType();
+        }
+        return type;
+    }
+
+    private String resolveType() {
+        for (String known : KNOWN_TYPES) {
+            if (known.length() == typeEnd && message.regionMatches(0, known, 0, typeEnd)) {
+                return known;
+            }
+        }
+        return message.substring(0, typeEnd);
+    }
+
+    public boolean isType(String expected) {
+        return expected.length() == typeEnd && message.regionMatches(0, expected, 0, typeEnd);
+    }
+
+    public String meetingId() {
+        return message.substring(typeEnd + 1, meetingEnd);
+    }
+
+    public boolean isMeeting(String meetingId) {
+        int length = meetingEnd - typeEnd - 1;
+        return meetingId != null && meetingId.length() == length &&
+                message.regionMatches(typeEnd + 1, meetingId, 0, length);
+    }
+
+    /**
+     * Same value as {@code meetingId().hashCode()}, computed without copying the id.
+     */
+    public int meetingIdHash() {
+        int h = 0;
+        for (int i = typeEnd + 1; i < meetingEnd; i++) {
+            h = 31 * h + message.charAt(i);
+        }
+        return h;
+    }
+
+    public boolean isGlobalOrEmpty() {
+        return meetingEnd == typeEnd + 1 || isMeeting("global");
+    }
+
+    public String username() {
+        return message.substring(meetingEnd + 1, userEnd);
+    }
+
+    public boolean isUser(String username) {
+        int length = userEnd - meetingEnd - 1;
+        return username != null && username.length() == length &&
+                message.regionMatches(meetingEnd + 1, username, 0, length);
+    }
+
+    /**
+     * The fourth field. This is the only accessor that copies the payload.
+     */
+    public String content() {
+        return message.substring(userEnd + 1, contentEnd());
+    }
+
+    public int contentLength() {
+        return contentEnd() - userEnd - 1;
+    }
+
+    public int contentStart() {
+        return userEnd + 1;
+    }
+
+    /**
+     * A field after the content (index 4 and up), or null if absent.
+     * Scans past the content, so only use it on small control messages.
+     */
+    public String field(int index) {
+        if (index < 4) {
+            throw new IllegalArgumentException("Use the named accessors for header fields");
+        }
+        int start = contentEnd();
+        for (int i = 4; i <= index; i++) {
+            if (start >= message.length()) {
+                return null;
+            }
+            int end = message.indexOf(DELIMITER, start + 1);
+            if (end < 0) {
+                end = message.length();
+            }
+            if (i == index) {
+                return message.substring(start + 1, end);
+            }
+            start = end;
+        }
+        return null;
+    }
+
+    public String message() {
+        return message;
+    }
+}
@@ -0,0 +1,85 @@
+package org.example.zoom.websocket;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the relay metrics at {@code http://host:port/metrics} in the
+ * Prometheus text format, using the JDK's built-in HTTP server.
+ */
+public class MetricsHttpServer {
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final int port;
+    private final Supplier<String> scrape;
+    private HttpServer httpServer;
+    private ExecutorService executor;
+
+    /**
+     * @param scrape Produces the full exposition text on every request
+     */
+    public MetricsHttpServer(int port, Supplier<String> scrape) {
+        this.port = port;
+        this.scrape = scrape;
+    }
+
+    public synchronized void start() throws IOException {
+        if (httpServer != null) {
+            return;
+        }
+        httpServer = HttpServer.create(new InetSocketAddress(port), 0);
+        httpServer.createContext("/metrics", this::handle);
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "WebSocketServer-Metrics");
+            t.setDaemon(true);
+            return t;
+        });
+        httpServer.setExecutor(executor);
+        httpServer.start();
+        System.out.println("Metrics endpoint: http://0.0.0.0:" + port + "/metrics");
+    }
+
+    public synchronized void stop() {
+        if (httpServer != null) {
+            httpServer.stop(0);
+            httpServer = null;
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = scrape.get().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } catch (Exception e) {
+            System.err.println("Error serving metrics: " + e.getMessage());
+            exchange.sendResponseHeaders(500, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    public int getPort() {
+        return port;
+    }
+}
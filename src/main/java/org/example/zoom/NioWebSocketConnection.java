@@ -0,0 +1,866 @@
+package org.example.zoom.websocket;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.DataFormatException;
+
+import javax.net.ssl.SSLSession;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.enums.Opcode;
+import org.java_websocket.enums.ReadyState;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.handshake.HandshakeImpl1Client;
+import org.java_websocket.protocols.IProtocol;
+
+/**
+ * One server-side WebSocket connection of {@link NioWebSocketTransport}.
+ *
+ * Reading, decoding and socket writes happen on the connection's I/O thread.
+ * Other threads only append encoded frames to the output queue; the first
+ * append after a flush asks the I/O thread for another flush, so a broadcast
+ * that queues many frames costs one wake-up and one gathering write.
+ *
+ * Partial input is kept in a buffer borrowed from the I/O thread's
+ * {@link DirectBufferPool} (or on the heap for frames larger than a pooled
+ * buffer) and returned as soon as it is consumed, so idle connections hold no
+ * read buffer at all.
+ *
+ * Implements Java-WebSocket's {@link WebSocket} so the relay can treat both
+ * engines' connections alike. There is no {@link Draft}, protocol or TLS.
+ */
+public final class NioWebSocketConnection implements WebSocket {
+
+    private static final String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final int MAX_HANDSHAKE_BYTES = 8192;
+    static final int MAX_MESSAGE_BYTES = 16 * 1024 * 1024;
+    private static final long CLOSE_TIMEOUT_MS = 2000;
+
+    private static final int OP_CONTINUATION = 0x0;
+    private static final int OP_TEXT = 0x1;
+    private static final int OP_BINARY = 0x2;
+    private static final int OP_CLOSE = 0x8;
+    private static final int OP_PING = 0x9;
+    private static final int OP_PONG = 0xA;
+    private static final int MAX_CONTROL_PAYLOAD = 125;
+
+    private final NioWebSocketTransport.IoThread ioThread;
+    private final SocketChannel channel;
+    private final RelayTransport.Listener listener;
+    private final InetSocketAddress remoteAddress;
+    private final InetSocketAddress localAddress;
+
+    private SelectionKey key;
+    private volatile ReadyState readyState = ReadyState.NOT_YET_CONNECTED;
+    private HandshakeImpl1Client handshake;
+
+    // Unconsumed input, kept in write mode between reads (I/O thread only)
+    private ByteBuffer pending;
+    private int fragmentOpcode = -1;
+    private boolean fragmentCompressed;
+    private ByteArrayOutputStream fragments;
+
+    // permessage-deflate, negotiated in the handshake
+    private volatile boolean deflate;
+    private MessageCompressor.Inflating inflating;
+    private CharsetDecoder utf8;
+
+    // Encoded frames not yet fully written (guarded by this)
+    private final ArrayDeque<ByteBuffer> outQueue = new ArrayDeque<>();
+    private boolean flushScheduled;
+    private boolean closeAfterFlush;
+
+    private volatile long closeDeadline;
+    private volatile int closeCode = CloseFrame.ABNORMAL_CLOSE;
+    private volatile String closeReason = "";
+    private volatile boolean closeRemote;
+    private final AtomicBoolean closeReported = new AtomicBoolean(false);
+
+    private volatile Object attachment;
+
+    NioWebSocketConnection(NioWebSocketTransport.IoThread ioThread, SocketChannel channel,
+                           RelayTransport.Listener listener) throws IOException {
+        this.ioThread = ioThread;
+        this.channel = channel;
+        this.listener = listener;
+        this.remoteAddress = (InetSocketAddress) channel.getRemoteAddress();
+        this.localAddress = (InetSocketAddress) channel.getLocalAddress();
+    }
+
+    SocketChannel channel() {
+        return channel;
+    }
+
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    long getCloseDeadline() {
+        return closeDeadline;
+    }
+
+    // ---- input (I/O thread) ----
+
+    /**
+     * Read what the socket has and handle every complete handshake or frame.
+     */
+    void read(ByteBuffer readBuffer) {
+        readBuffer.clear();
+        int read;
+        try {
+            read = channel.read(readBuffer);
+        } catch (IOException e) {
+            terminate(CloseFrame.ABNORMAL_CLOSE, e.getMessage(), true);
+            return;
+        }
+        if (read < 0) {
+            terminate(readyState == ReadyState.CLOSING ? closeCode : CloseFrame.ABNORMAL_CLOSE, closeReason, true);
+            return;
+        }
+        if (read == 0) {
+            return;
+        }
+        readBuffer.flip();
+
+        ByteBuffer in;
+        if (pending == null) {
+            in = readBuffer;
+        } else {
+            ensurePending(pending.position() + readBuffer.remaining());
+            pending.put(readBuffer);
+            pending.flip();
+            in = pending;
+        }
+
+        int needed;
+        try {
+            needed = process(in);
+        } catch (ProtocolException e) {
+            fail(e.code, e.getMessage());
+            return;
+        } catch (RuntimeException e) {
+            listener.onError(this, e);
+            fail(CloseFrame.UNEXPECTED_CONDITION, e.getMessage());
+            return;
+        }
+        if (readyState == ReadyState.CLOSED) {
+            return;
+        }
+
+        if (!in.hasRemaining()) {
+            releasePending();
+        } else if (in == pending) {
+            pending.compact();
+            ensurePending(needed);
+        } else {
+            // Leftover of the shared read buffer: keep a private copy
+            ByteBuffer leftover = allocate(Math.max(needed, in.remaining()));
+            leftover.put(in);
+            pending = leftover;
+        }
+    }
+
+    /**
+     * @return Total bytes the next unit (frame or handshake) needs, or 0 if not known yet
+     */
+    private int process(ByteBuffer in) throws ProtocolException {
+        if (readyState == ReadyState.NOT_YET_CONNECTED) {
+            if (!readHandshake(in)) {
+                return 0;
+            }
+        }
+        while (in.hasRemaining() && readyState != ReadyState.CLOSED) {
+            int needed = readFrame(in);
+            if (needed > 0) {
+                return needed;
+            }
+        }
+        return 0;
+    }
+
+    private boolean readHandshake(ByteBuffer in) throws ProtocolException {
+        int start = in.position();
+        int end = -1;
+        for (int i = start; i + 3 < in.limit(); i++) {
+            if (in.get(i) == '\r' && in.get(i + 1) == '\n' && in.get(i + 2) == '\r' && in.get(i + 3) == '\n') {
+                end = i + 4;
+                break;
+            }
+        }
+        if (end < 0) {
+            if (in.remaining() > MAX_HANDSHAKE_BYTES) {
+                in.position(in.limit());
+                rejectHandshake("Handshake too large");
+            }
+            return false;
+        }
+
+        byte[] raw = new byte[end - start];
+        in.get(raw);
+        String[] lines = new String(raw, StandardCharsets.ISO_8859_1).split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        if (requestLine.length < 3 || !"GET".equals(requestLine[0])) {
+            rejectHandshake("Not a GET request");
+            return false;
+        }
+
+        HandshakeImpl1Client request = new HandshakeImpl1Client();
+        request.setResourceDescriptor(requestLine[1]);
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon > 0) {
+                request.put(lines[i].substring(0, colon).trim(), lines[i].substring(colon + 1).trim());
+            }
+        }
+
+        String key = request.getFieldValue("Sec-WebSocket-Key");
+        if (!request.getFieldValue("Upgrade").equalsIgnoreCase("websocket") || key.isEmpty() ||
+                !"13".equals(request.getFieldValue("Sec-WebSocket-Version"))) {
+            rejectHandshake("Not a WebSocket upgrade");
+            return false;
+        }
+
+        Map<String, String> extra = new LinkedHashMap<>();
+        if (MessageCompressor.getInstance().isEnabled() &&
+                acceptsDeflateOffer(request.getFieldValue("Sec-WebSocket-Extensions"))) {
+            // Every outgoing message is self-contained, so broadcasts can share one compressed frame
+            deflate = true;
+            extra.put("Sec-WebSocket-Extensions", MessageCompressor.EXTENSION_NAME + "; server_no_context_takeover");
+        }
+        listener.onHandshake(request, extra);
+
+        StringBuilder response = new StringBuilder(256)
+                .append("HTTP/1.1 101 Switching Protocols\r\n")
+                .append("Upgrade: websocket\r\n")
+                .append("Connection: Upgrade\r\n")
+                .append("Sec-WebSocket-Accept: ").append(acceptKey(key)).append("\r\n");
+        for (Map.Entry<String, String> header : extra.entrySet()) {
+            response.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        response.append("\r\n");
+
+        handshake = request;
+        readyState = ReadyState.OPEN;
+        enqueue(ByteBuffer.wrap(response.toString().getBytes(StandardCharsets.ISO_8859_1)));
+        listener.onOpen(this, request);
+        return true;
+    }
+
+    private void rejectHandshake(String reason) {
+        System.err.println("Rejected handshake from " + remoteAddress + ": " + reason);
+        readyState = ReadyState.CLOSING;
+        synchronized (this) {
+            closeAfterFlush = true;
+        }
+        enqueue(ByteBuffer.wrap("HTTP/1.1 400 Bad Request\r\nConnection: close\r\nContent-Length: 0\r\n\r\n"
+                .getBytes(StandardCharsets.ISO_8859_1)));
+    }
+
+    /**
+     * Whether one of the offered extensions is a permessage-deflate we can
+     * honour: any parameters except a server window below the default 15 bits.
+     */
+    static boolean acceptsDeflateOffer(String header) {
+        for (String offer : header.split(",")) {
+            String[] parts = offer.split(";");
+            if (!parts[0].trim().equalsIgnoreCase(MessageCompressor.EXTENSION_NAME)) {
+                continue;
+            }
+            boolean acceptable = true;
+            for (int i = 1; i < parts.length && acceptable; i++) {
+                String[] param = parts[i].trim().split("=", 2);
+                switch (param[0].trim().toLowerCase()) {
+                    case "server_no_context_takeover":
+                    case "client_no_context_takeover":
+                    case "client_max_window_bits":
+                        break;
+                    case "server_max_window_bits":
+                        acceptable = param.length == 2 && "15".equals(param[1].trim().replace("\"", ""));
+                        break;
+                    default:
+                        acceptable = false;
+                        break;
+                }
+            }
+            if (acceptable) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean usesDeflate() {
+        return deflate;
+    }
+
+    static String acceptKey(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] digest = sha1.digest((key + ACCEPT_GUID).getBytes(StandardCharsets.ISO_8859_1));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not available", e);
+        }
+    }
+
+    /**
+     * Handle one frame if it is complete.
+     * @return 0 if a frame was consumed, otherwise the bytes needed for it (or 2 if the header is incomplete)
+     */
+    private int readFrame(ByteBuffer in) throws ProtocolException {
+        int available = in.remaining();
+        if (available < 2) {
+            return 2;
+        }
+        int p = in.position();
+        int b0 = in.get(p) & 0xFF;
+        int b1 = in.get(p + 1) & 0xFF;
+        boolean fin = (b0 & 0x80) != 0;
+        boolean compressed = (b0 & 0x40) != 0;
+        int opcode = b0 & 0x0F;
+        if ((b0 & 0x30) != 0 || compressed && (!deflate || (opcode != OP_TEXT && opcode != OP_BINARY))) {
+            throw new ProtocolException(CloseFrame.PROTOCOL_ERROR, "Reserved bits set");
+        }
+        if ((b1 & 0x80) == 0) {
+            throw new ProtocolException(CloseFrame.PROTOCOL_ERROR, "Client frames must be masked");
+        }
+
+        int length7 = b1 & 0x7F;
+        int headerSize = 2 + (length7 == 126 ? 2 : length7 == 127 ? 8 : 0) + 4;
+        if (available < headerSize) {
+            return headerSize;
+        }
+        long length;
+        if (length7 == 126) {
+            length = in.getShort(p + 2) & 0xFFFF;
+        } else if (length7 == 127) {
+            length = in.getLong(p + 2);
+        } else {
+            length = length7;
+        }
+        if (length < 0 || length > MAX_MESSAGE_BYTES) {
+            throw new ProtocolException(CloseFrame.TOOBIG, "Frame of " + length + " bytes");
+        }
+        if (opcode >= OP_CLOSE && (!fin || length > MAX_CONTROL_PAYLOAD)) {
+            throw new ProtocolException(CloseFrame.PROTOCOL_ERROR, "Fragmented or oversized control frame");
+        }
+        int frameSize = headerSize + (int) length;
+        if (available < frameSize) {
+            return frameSize;
+        }
+
+        int maskAt = p + headerSize - 4;
+        byte[] payload = new byte[(int) length];
+        in.position(p + headerSize);
+        in.get(payload);
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] ^= in.get(maskAt + (i & 3));
+        }
+
+        handleFrame(fin, opcode, compressed, payload);
+        return 0;
+    }
+
+    private void handleFrame(boolean fin, int opcode, boolean compressed, byte[] payload) throws ProtocolException {
+        switch (opcode) {
+            case OP_TEXT:
+            case OP_BINARY:
+                if (fragmentOpcode >= 0) {
+                    throw new ProtocolException(CloseFrame.PROTOCOL_ERROR, "New message inside a fragmented one");
+                }
+                if (fin) {
+                    deliver(opcode, compressed, payload);
+                } else {
+                    fragmentOpcode = opcode;
+                    fragmentCompressed = compressed;
+                    fragments = new ByteArrayOutputStream(payload.length * 2);
+                    fragments.write(payload, 0, payload.length);
+                }
+                break;
+            case OP_CONTINUATION:
+                if (fragmentOpcode < 0) {
+                    throw new ProtocolException(CloseFrame.PROTOCOL_ERROR, "Continuation without a message");
+                }
+                if (fragments.size() + payload.length > MAX_MESSAGE_BYTES) {
+                    throw new ProtocolException(CloseFrame.TOOBIG, "Fragmented message too large");
+                }
+                fragments.write(payload, 0, payload.length);
+                if (fin) {
+                    int messageOpcode = fragmentOpcode;
+                    byte[] message = fragments.toByteArray();
+                    fragmentOpcode = -1;
+                    fragments = null;
+                    deliver(messageOpcode, fragmentCompressed, message);
+                }
+                break;
+            case OP_PING:
+                enqueue(encodeFrame(OP_PONG, true, ByteBuffer.wrap(payload)));
+                break;
+            case OP_PONG:
+                listener.onPong(this);
+                break;
+            case OP_CLOSE:
+                handleClose(payload);
+                break;
+            default:
+                throw new ProtocolException(CloseFrame.PROTOCOL_ERROR, "Unknown opcode " + opcode);
+        }
+    }
+
+    private void deliver(int opcode, boolean compressed, byte[] payload) throws ProtocolException {
+        if (readyState != ReadyState.OPEN) {
+            return;
+        }
+        if (compressed) {
+            if (inflating == null) {
+                inflating = new MessageCompressor.Inflating(MAX_MESSAGE_BYTES);
+            }
+            try {
+                payload = inflating.inflate(payload);
+            } catch (DataFormatException e) {
+                throw new ProtocolException(CloseFrame.PROTOCOL_ERROR, "Bad compressed data: " + e.getMessage());
+            }
+            if (payload == null) {
+                throw new ProtocolException(CloseFrame.TOOBIG, "Inflated message exceeds " + MAX_MESSAGE_BYTES + " bytes");
+            }
+        }
+        if (opcode == OP_TEXT) {
+            listener.onMessage(this, decodeText(payload));
+        } else {
+            listener.onMessage(this, ByteBuffer.wrap(payload));
+        }
+    }
+
+    /**
+     * Text messages must be valid UTF-8; new String() would quietly replace bad bytes.
+     */
+    private String decodeText(byte[] payload) throws ProtocolException {
+        if (utf8 == null) {
+            utf8 = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT);
+        }
+        try {
+            return utf8.decode(ByteBuffer.wrap(payload)).toString();
+        } catch (CharacterCodingException e) {
+            throw new ProtocolException(CloseFrame.NO_UTF8, "Invalid UTF-8 in text message");
+        }
+    }
+
+    private void handleClose(byte[] payload) {
+        int code = CloseFrame.NOCODE;
+        String reason = "";
+        if (payload.length >= 2) {
+            code = ((payload[0] & 0xFF) << 8) | (payload[1] & 0xFF);
+            reason = new String(payload, 2, payload.length - 2, StandardCharsets.UTF_8);
+        }
+        if (readyState == ReadyState.CLOSING) {
+            // Answer to our own close frame
+            terminate(closeCode, closeReason, false);
+            return;
+        }
+        closeCode = code;
+        closeReason = reason;
+        readyState = ReadyState.CLOSING;
+        synchronized (this) {
+            closeAfterFlush = true;
+        }
+        closeRemote = true;
+        enqueue(closeFrame(code == CloseFrame.NOCODE ? CloseFrame.NORMAL : code, ""));
+    }
+
+    private void fail(int code, String reason) {
+        if (readyState == ReadyState.OPEN) {
+            closeCode = code;
+            closeReason = reason != null ? reason : "";
+            readyState = ReadyState.CLOSING;
+            synchronized (this) {
+                closeAfterFlush = true;
+            }
+            enqueue(closeFrame(code, ""));
+        } else {
+            terminate(code, reason, false);
+        }
+    }
+
+    // ---- output ----
+
+    /**
+     * Append an encoded frame; the I/O thread writes it. The buffer's position
+     * advances as its bytes reach the socket.
+     */
+    void enqueue(ByteBuffer frame) {
+        boolean schedule;
+        synchronized (this) {
+            if (readyState == ReadyState.CLOSED) {
+                frame.position(frame.limit());
+                return;
+            }
+            outQueue.addLast(frame);
+            schedule = !flushScheduled;
+            flushScheduled = true;
+        }
+        if (schedule) {
+            ioThread.requestFlush(this);
+        }
+    }
+
+    /**
+     * Write as much of the output queue as the socket takes, in gathering
+     * writes of up to {@code gather.length} frames (I/O thread only).
+     */
+    void flush(ByteBuffer[] gather) {
+        if (readyState == ReadyState.CLOSED) {
+            return;
+        }
+        IOException failure = null;
+        boolean closeNow = false;
+        synchronized (this) {
+            try {
+                while (!outQueue.isEmpty()) {
+                    int count = 0;
+                    for (ByteBuffer frame : outQueue) {
+                        if (count == gather.length) {
+                            break;
+                        }
+                        gather[count++] = frame;
+                    }
+                    long written = channel.write(gather, 0, count);
+                    while (!outQueue.isEmpty() && !outQueue.peekFirst().hasRemaining()) {
+                        outQueue.pollFirst();
+                    }
+                    if (written == 0 && !outQueue.isEmpty()) {
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+            Arrays.fill(gather, null);
+
+            if (failure == null) {
+                if (outQueue.isEmpty()) {
+                    flushScheduled = false;
+                    setInterest(SelectionKey.OP_READ);
+                    closeNow = closeAfterFlush;
+                } else {
+                    // Socket is full: the selector reports when it drains
+                    setInterest(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                }
+            }
+        }
+        if (failure != null) {
+            terminate(CloseFrame.ABNORMAL_CLOSE, failure.getMessage(), true);
+        } else if (closeNow) {
+            terminate(closeCode, closeReason, closeRemote);
+        }
+    }
+
+    private void setInterest(int ops) {
+        if (key != null && key.isValid() && key.interestOps() != ops) {
+            key.interestOps(ops);
+        }
+    }
+
+    /**
+     * A complete server frame (unmasked) around the remaining bytes of the payload.
+     */
+    static ByteBuffer encodeFrame(int opcode, boolean fin, ByteBuffer payload) {
+        int length = payload.remaining();
+        ByteBuffer frame = ByteBuffer.allocate(SharedFrame.headerSize(length) + length);
+        frame.put((byte) ((fin ? 0x80 : 0) | opcode));
+        if (length < 126) {
+            frame.put((byte) length);
+        } else if (length <= 0xFFFF) {
+            frame.put((byte) 126);
+            frame.putShort((short) length);
+        } else {
+            frame.put((byte) 127);
+            frame.putLong(length);
+        }
+        frame.put(payload.duplicate());
+        frame.flip();
+        return frame;
+    }
+
+    private static ByteBuffer closeFrame(int code, String reason) {
+        byte[] text = reason == null ? new byte[0] : reason.getBytes(StandardCharsets.UTF_8);
+        int textLength = Math.min(text.length, 123);
+        ByteBuffer payload = ByteBuffer.allocate(2 + textLength);
+        payload.putShort((short) code);
+        payload.put(text, 0, textLength);
+        payload.flip();
+        return encodeFrame(OP_CLOSE, true, payload);
+    }
+
+    // ---- teardown ----
+
+    /**
+     * Close the socket and report the close once (I/O thread only).
+     */
+    void terminate(int code, String reason, boolean remote) {
+        boolean wasOpen = handshake != null && readyState != ReadyState.CLOSED;
+        readyState = ReadyState.CLOSED;
+        synchronized (this) {
+            for (ByteBuffer frame : outQueue) {
+                frame.position(frame.limit());
+            }
+            outQueue.clear();
+        }
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+        releasePending();
+        fragments = null;
+        if (inflating != null) {
+            inflating.end();
+            inflating = null;
+        }
+        ioThread.removeConnection(this);
+
+        if (wasOpen && closeReported.compareAndSet(false, true)) {
+            listener.onClose(this, code, reason != null ? reason : "", remote);
+        }
+    }
+
+    private void ensurePending(int capacity) {
+        if (pending.capacity() >= capacity) {
+            return;
+        }
+        ByteBuffer larger = allocate(Math.max(capacity, pending.capacity() * 2));
+        pending.flip();
+        larger.put(pending);
+        ioThread.getBufferPool().release(pending);
+        pending = larger;
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        DirectBufferPool pool = ioThread.getBufferPool();
+        return capacity <= pool.getBufferSize() ? pool.acquire() : ByteBuffer.allocate(capacity);
+    }
+
+    private void releasePending() {
+        if (pending != null) {
+            ioThread.getBufferPool().release(pending);
+            pending = null;
+        }
+    }
+
+    private static final class ProtocolException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final int code;
+
+        ProtocolException(int code, String message) {
+            super(message);
+            this.code = code;
+        }
+    }
+
+    // ---- WebSocket ----
+
+    @Override
+    public void close(int code, String reason) {
+        synchronized (this) {
+            if (readyState != ReadyState.OPEN) {
+                return;
+            }
+            readyState = ReadyState.CLOSING;
+        }
+        closeCode = code;
+        closeReason = reason != null ? reason : "";
+        closeDeadline = System.currentTimeMillis() + CLOSE_TIMEOUT_MS;
+        closeRemote = false;
+        enqueue(closeFrame(code, reason));
+    }
+
+    @Override
+    public void close(int code) {
+        close(code, "");
+    }
+
+    @Override
+    public void close() {
+        close(CloseFrame.NORMAL);
+    }
+
+    @Override
+    public void closeConnection(int code, String message) {
+        ioThread.execute(() -> terminate(code, message, false));
+    }
+
+    @Override
+    public void send(String text) {
+        checkOpen();
+        ByteBuffer payload = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+        ByteBuffer compressed = deflate
+                ? MessageCompressor.getInstance().deflateFrame(SharedFrame.OPCODE_TEXT, payload)
+                : null;
+        enqueue(compressed != null ? compressed : encodeFrame(OP_TEXT, true, payload));
+    }
+
+    @Override
+    public void send(ByteBuffer bytes) {
+        checkOpen();
+        enqueue(encodeFrame(OP_BINARY, true, bytes));
+    }
+
+    @Override
+    public void send(byte[] bytes) {
+        send(ByteBuffer.wrap(bytes));
+    }
+
+    @Override
+    public void sendFrame(Framedata framedata) {
+        checkOpen();
+        enqueue(encodeFrame(opcodeOf(framedata.getOpcode()), framedata.isFin(), framedata.getPayloadData()));
+    }
+
+    @Override
+    public void sendFrame(Collection<Framedata> frames) {
+        for (Framedata frame : frames) {
+            sendFrame(frame);
+        }
+    }
+
+    @Override
+    public void sendPing() {
+        checkOpen();
+        enqueue(encodeFrame(OP_PING, true, ByteBuffer.allocate(0)));
+    }
+
+    @Override
+    public void sendFragmentedFrame(Opcode op, ByteBuffer buffer, boolean last) {
+        checkOpen();
+        enqueue(encodeFrame(opcodeOf(op), last, buffer));
+    }
+
+    private static int opcodeOf(Opcode opcode) {
+        switch (opcode) {
+            case CONTINUOUS:
+                return OP_CONTINUATION;
+            case TEXT:
+                return OP_TEXT;
+            case BINARY:
+                return OP_BINARY;
+            case PING:
+                return OP_PING;
+            case PONG:
+                return OP_PONG;
+            default:
+                return OP_CLOSE;
+        }
+    }
+
+    private void checkOpen() {
+        if (readyState != ReadyState.OPEN) {
+            throw new WebsocketNotConnectedException();
+        }
+    }
+
+    @Override
+    public synchronized boolean hasBufferedData() {
+        return !outQueue.isEmpty();
+    }
+
+    @Override
+    public InetSocketAddress getRemoteSocketAddress() {
+        return remoteAddress;
+    }
+
+    @Override
+    public InetSocketAddress getLocalSocketAddress() {
+        return localAddress;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return readyState == ReadyState.OPEN;
+    }
+
+    @Override
+    public boolean isClosing() {
+        return readyState == ReadyState.CLOSING;
+    }
+
+    @Override
+    public boolean isFlushAndClose() {
+        return readyState == ReadyState.CLOSING;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return readyState == ReadyState.CLOSED;
+    }
+
+    @Override
+    public Draft getDraft() {
+        return null;
+    }
+
+    @Override
+    public ReadyState getReadyState() {
+        return readyState;
+    }
+
+    @Override
+    public String getResourceDescriptor() {
+        return handshake != null ? handshake.getResourceDescriptor() : null;
+    }
+
+    @Override
+    public <T> void setAttachment(T attachment) {
+        this.attachment = attachment;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T getAttachment() {
+        return (T) attachment;
+    }
+
+    @Override
+    public boolean hasSSLSupport() {
+        return false;
+    }
+
+    @Override
+    public SSLSession getSSLSession() {
+        throw new IllegalArgumentException("This connection does not use TLS");
+    }
+
+    @Override
+    public IProtocol getProtocol() {
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "NioWebSocketConnection[" + remoteAddress + ", " + readyState + "]";
+    }
+}
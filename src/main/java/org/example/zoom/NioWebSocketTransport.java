@@ -0,0 +1,332 @@
+package org.example.zoom.websocket;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.framing.CloseFrame;
+
+/**
+ * {@link RelayTransport} written directly on {@code java.nio} selectors.
+ *
+ * One acceptor thread hands new sockets round-robin to {@code ioThreads}
+ * selector threads. A connection stays on its I/O thread for life: that thread
+ * reads, decodes and writes it, so per-connection state needs no locks apart
+ * from the output queue other threads append to.
+ *
+ * Every I/O thread reads into one pooled direct buffer and keeps its own
+ * {@link DirectBufferPool} for partial frames. Writes are gathering writes of
+ * the queued frame buffers themselves, so a frame shared by a whole meeting is
+ * never copied per recipient on the Java side.
+ *
+ * Settings: {@code -Dzoom.server.transport=nio}, {@code -Dzoom.nio.ioThreads}
+ * (default: available processors) and {@code -Dzoom.nio.bufferSize} (pooled
+ * buffer size, default 64 KB).
+ */
+public class NioWebSocketTransport implements RelayTransport {
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 256;
+    private static final int GATHER_LIMIT = 64;
+    private static final long SELECT_TIMEOUT_MS = 500;
+    private static final int ACCEPT_BACKLOG = 200;
+
+    private final InetSocketAddress address;
+    private final Listener listener;
+    private final IoThread[] ioThreads;
+    private final int bufferSize = Integer.getInteger("zoom.nio.bufferSize", DEFAULT_BUFFER_SIZE);
+
+    private ServerSocketChannel serverChannel;
+    private Thread acceptor;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private int nextIoThread;
+
+    public NioWebSocketTransport(InetSocketAddress address, int ioThreadCount, Listener listener) {
+        this.address = address;
+        this.listener = listener;
+        this.ioThreads = new IoThread[Math.max(1, Integer.getInteger("zoom.nio.ioThreads", ioThreadCount))];
+    }
+
+    @Override
+    public void start() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            serverChannel.bind(address, ACCEPT_BACKLOG);
+        } catch (IOException e) {
+            running.set(false);
+            closeQuietly(serverChannel);
+            listener.onError(null, e);
+            return;
+        }
+
+        try {
+            for (int i = 0; i < ioThreads.length; i++) {
+                ioThreads[i] = new IoThread(i);
+                ioThreads[i].start();
+            }
+        } catch (IOException e) {
+            running.set(false);
+            closeQuietly(serverChannel);
+            listener.onError(null, e);
+            return;
+        }
+
+        acceptor = new Thread(this::acceptLoop, "WebSocketServer-NioAccept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        listener.onStart();
+    }
+
+    private void acceptLoop() {
+        while (running.get()) {
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                if (running.get()) {
+                    listener.onError(null, e);
+                }
+                continue;
+            }
+            try {
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                channel.configureBlocking(false);
+                IoThread ioThread = ioThreads[nextIoThread];
+                nextIoThread = (nextIoThread + 1) % ioThreads.length;
+                ioThread.addConnection(new NioWebSocketConnection(ioThread, channel, listener));
+            } catch (IOException e) {
+                System.err.println("Failed to set up accepted connection: " + e.getMessage());
+                closeQuietly(channel);
+            }
+        }
+    }
+
+    @Override
+    public void stop(int timeoutMs) throws InterruptedException {
+        if (!running.compareAndSet(true, false)) {
+            return;
+        }
+        closeQuietly(serverChannel);
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        for (IoThread ioThread : ioThreads) {
+            if (ioThread != null) {
+                ioThread.selector.wakeup();
+                ioThread.join(Math.max(1, deadline - System.currentTimeMillis()));
+            }
+        }
+        if (acceptor != null) {
+            acceptor.join(Math.max(1, deadline - System.currentTimeMillis()));
+        }
+    }
+
+    @Override
+    public int getPort() {
+        if (serverChannel != null && serverChannel.isOpen()) {
+            try {
+                return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+            } catch (IOException e) {
+                // Fall through to the configured port
+            }
+        }
+        return address.getPort();
+    }
+
+    @Override
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    @Override
+    public void write(WebSocket conn, ByteBuffer frame) {
+        ((NioWebSocketConnection) conn).enqueue(frame);
+    }
+
+    @Override
+    public boolean usesDeflate(WebSocket conn) {
+        return ((NioWebSocketConnection) conn).usesDeflate();
+    }
+
+    @Override
+    public String describe() {
+        return NIO + " (I/O threads: " + ioThreads.length + ", buffer size: " + bufferSize / 1024 + " KB)";
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+    /**
+     * A selector thread and the connections it owns.
+     */
+    final class IoThread extends Thread {
+        private final Selector selector;
+        private final DirectBufferPool bufferPool = new DirectBufferPool(bufferSize, MAX_POOLED_BUFFERS);
+        private final ByteBuffer readBuffer;
+        private final ByteBuffer[] gather = new ByteBuffer[GATHER_LIMIT];
+
+        private final ConcurrentLinkedQueue<NioWebSocketConnection> newConnections = new ConcurrentLinkedQueue<>();
+        private final ConcurrentLinkedQueue<NioWebSocketConnection> flushRequests = new ConcurrentLinkedQueue<>();
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final Set<NioWebSocketConnection> connections = new HashSet<>();
+        private final AtomicBoolean wakeupPending = new AtomicBoolean(false);
+
+        IoThread(int index) throws IOException {
+            super("WebSocketServer-NioIO-" + index);
+            setDaemon(true);
+            selector = Selector.open();
+            readBuffer = bufferPool.acquire();
+        }
+
+        DirectBufferPool getBufferPool() {
+            return bufferPool;
+        }
+
+        void addConnection(NioWebSocketConnection conn) {
+            newConnections.add(conn);
+            wakeup();
+        }
+
+        /**
+         * Called by the connection when it goes from an empty to a non-empty output queue.
+         */
+        void requestFlush(NioWebSocketConnection conn) {
+            flushRequests.add(conn);
+            if (Thread.currentThread() != this) {
+                wakeup();
+            }
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            wakeup();
+        }
+
+        void removeConnection(NioWebSocketConnection conn) {
+            connections.remove(conn);
+        }
+
+        // Many frames queued in a burst only need one wake-up
+        private void wakeup() {
+            if (wakeupPending.compareAndSet(false, true)) {
+                selector.wakeup();
+            }
+        }
+
+        @Override
+        public void run() {
+            long nextCloseCheck = System.currentTimeMillis() + SELECT_TIMEOUT_MS;
+            while (running.get()) {
+                try {
+                    selector.select(SELECT_TIMEOUT_MS);
+                    wakeupPending.set(false);
+
+                    registerNewConnections();
+                    runTasks();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        NioWebSocketConnection conn = (NioWebSocketConnection) key.attachment();
+                        if (key.isValid() && key.isReadable()) {
+                            conn.read(readBuffer);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            conn.flush(gather);
+                        }
+                    }
+
+                    // Frames queued by this thread's own callbacks and by other threads
+                    NioWebSocketConnection conn;
+                    while ((conn = flushRequests.poll()) != null) {
+                        conn.flush(gather);
+                    }
+
+                    long now = System.currentTimeMillis();
+                    if (now >= nextCloseCheck) {
+                        expireClosingConnections(now);
+                        nextCloseCheck = now + SELECT_TIMEOUT_MS;
+                    }
+                } catch (IOException e) {
+                    listener.onError(null, e);
+                } catch (RuntimeException e) {
+                    System.err.println("Error in " + getName() + ": " + e.getMessage());
+                }
+            }
+
+            for (NioWebSocketConnection conn : new ArrayList<>(connections)) {
+                conn.terminate(CloseFrame.GOING_AWAY, "Server shutting down", false);
+            }
+            NioWebSocketConnection conn;
+            while ((conn = newConnections.poll()) != null) {
+                conn.terminate(CloseFrame.GOING_AWAY, "Server shutting down", false);
+            }
+            closeQuietly(selector);
+        }
+
+        private void registerNewConnections() {
+            NioWebSocketConnection conn;
+            while ((conn = newConnections.poll()) != null) {
+                try {
+                    conn.setKey(conn.channel().register(selector, SelectionKey.OP_READ, conn));
+                    connections.add(conn);
+                } catch (ClosedChannelException e) {
+                    conn.terminate(CloseFrame.ABNORMAL_CLOSE, e.getMessage(), true);
+                }
+            }
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+
+        // Connections we asked to close that never answered with a close frame
+        private void expireClosingConnections(long now) {
+            List<NioWebSocketConnection> expired = null;
+            for (NioWebSocketConnection conn : connections) {
+                long deadline = conn.getCloseDeadline();
+                if (deadline > 0 && now >= deadline && conn.isClosing()) {
+                    if (expired == null) {
+                        expired = new ArrayList<>();
+                    }
+                    expired.add(conn);
+                }
+            }
+            if (expired != null) {
+                for (NioWebSocketConnection conn : expired) {
+                    conn.terminate(CloseFrame.NORMAL, "Close handshake timed out", false);
+                }
+            }
+        }
+    }
+}
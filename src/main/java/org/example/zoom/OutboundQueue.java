@@ -0,0 +1,307 @@
+package org.example.zoom.websocket;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per-connection outbound queues, one per {@link MessageClass}.
+ *
+ * Frames are only handed to the socket while the bytes still waiting to be
+ * written stay below {@code maxBytesInFlight}; everything else waits here.
+ * Video keeps at most one pending frame per publisher: a newer frame replaces
+ * the stale one, which is counted as a drop. Control, chat and bulk frames are
+ * never replaced, so the control and chat queues each hold at most
+ * {@code maxQueuedBytes} and the bulk queue {@code maxQueuedBulkBytes}; a frame
+ * that would go past its cap is refused with {@link Offer#OVERFLOW} and the
+ * caller decides what to do with a reader that far behind. A slow reader
+ * therefore costs a bounded amount of heap instead of growing the socket's
+ * output queue without limit.
+ *
+ * A frame handed to the socket cannot be overtaken, and WebSocket does not
+ * allow a message to be sent between the fragments of another, so video and
+ * bulk frames are only handed over while less than {@code maxMediaInFlight}
+ * bytes are waiting. A control message then has at most that much plus one
+ * large frame ahead of it, however much video and file data is queued.
+ */
+public class OutboundQueue {
+
+    /**
+     * Receives frames that are ready to go on the wire.
+     */
+    public interface Sink {
+        /**
+         * @param frame The queued frame
+         * @param view  A private view of its bytes; the socket writer consumes it
+         */
+        void write(SharedFrame frame, ByteBuffer view);
+    }
+
+    /**
+     * What became of an offered frame.
+     */
+    public enum Offer {
+        /** Queued, and nothing is waiting after the push */
+        SENT,
+        /** Queued, and frames are still waiting for the socket */
+        QUEUED,
+        /** Refused: its class already holds as many bytes as it may */
+        OVERFLOW
+    }
+
+    public static final int DEFAULT_MAX_BYTES_IN_FLIGHT = 256 * 1024;
+    public static final int DEFAULT_MAX_MEDIA_IN_FLIGHT = 32 * 1024;
+    public static final long DEFAULT_MAX_QUEUED_BYTES = 8L << 20;
+    public static final long DEFAULT_MAX_QUEUED_BULK_BYTES = 4L << 20;
+
+    private final Sink sink;
+    private final int maxBytesInFlight;
+    private final int maxMediaInFlight;
+    private final long maxQueuedBytes;
+    private final long maxQueuedBulkBytes;
+    private volatile boolean deflate;
+
+    private final ArrayDeque<SharedFrame> control = new ArrayDeque<>();
+    private final ArrayDeque<SharedFrame> chat = new ArrayDeque<>();
+    private final LinkedHashMap<String, SharedFrame> video = new LinkedHashMap<>();
+    private final ArrayDeque<SharedFrame> bulk = new ArrayDeque<>();
+    // Bytes waiting per class, and frames refused per class for going past maxQueuedBytes
+    private final long[] queuedBytes = new long[MessageClass.values().length];
+    private final long[] overflowed = new long[MessageClass.values().length];
+
+    // Views handed to the socket that may not be fully written yet
+    private final ArrayDeque<ByteBuffer> inFlight = new ArrayDeque<>();
+
+    private long enqueued;
+    private long sent;
+    private long droppedVideo;
+    private long bytesSent;
+    // Frames had to wait for the socket since takeLimited() was last called
+    private boolean limited;
+
+    public OutboundQueue(Sink sink) {
+        this(sink, DEFAULT_MAX_BYTES_IN_FLIGHT);
+    }
+
+    public OutboundQueue(Sink sink, int maxBytesInFlight) {
+        this(sink, maxBytesInFlight, Math.min(DEFAULT_MAX_MEDIA_IN_FLIGHT, maxBytesInFlight));
+    }
+
+    public OutboundQueue(Sink sink, int maxBytesInFlight, int maxMediaInFlight) {
+        this(sink, maxBytesInFlight, maxMediaInFlight, DEFAULT_MAX_QUEUED_BYTES, DEFAULT_MAX_QUEUED_BULK_BYTES);
+    }
+
+    /**
+     * @param maxMediaInFlight   Video and bulk frames wait while this many bytes are in flight
+     * @param maxQueuedBytes     Most bytes the control or chat queue holds
+     * @param maxQueuedBulkBytes Most bytes the bulk queue holds
+     */
+    public OutboundQueue(Sink sink, int maxBytesInFlight, int maxMediaInFlight, long maxQueuedBytes,
+                         long maxQueuedBulkBytes) {
+        this.sink = sink;
+        this.maxBytesInFlight = maxBytesInFlight;
+        this.maxMediaInFlight = maxMediaInFlight;
+        this.maxQueuedBytes = maxQueuedBytes;
+        this.maxQueuedBulkBytes = maxQueuedBulkBytes;
+    }
+
+    /**
+     * Queue a frame and push as much as the connection can take.
+     * @param publisher Sender of a video frame, used to replace its stale frames
+     * @return {@link Offer#OVERFLOW} if the frame's class is full and the frame
+     *         was not queued, else whether frames are still waiting after the push
+     */
+    public synchronized Offer offer(MessageClass messageClass, String publisher, SharedFrame frame) {
+        int cls = messageClass.ordinal();
+        long cap = messageClass == MessageClass.BULK ? maxQueuedBulkBytes : maxQueuedBytes;
+        if (messageClass != MessageClass.VIDEO && queuedBytes[cls] + frame.size() > cap) {
+            overflowed[cls]++;
+            drain();
+            return Offer.OVERFLOW;
+        }
+        enqueued++;
+        switch (messageClass) {
+            case VIDEO:
+                SharedFrame stale = video.remove(publisher);
+                if (stale != null) {
+                    queuedBytes[cls] -= stale.size();
+                    droppedVideo++;
+                }
+                video.put(publisher, frame);
+                break;
+            case CHAT:
+                chat.add(frame);
+                break;
+            case BULK:
+                bulk.add(frame);
+                break;
+            default:
+                control.add(frame);
+                break;
+        }
+        queuedBytes[cls] += frame.size();
+        return drain() ? Offer.QUEUED : Offer.SENT;
+    }
+
+    /**
+     * Move queued frames to the socket while it is below the in-flight limit.
+     * Control goes first, then chat, then video, then bulk.
+     * @return true if frames are still waiting
+     */
+    public synchronized boolean drain() {
+        long inFlightBytes = pruneInFlight();
+
+        while (inFlightBytes < maxBytesInFlight) {
+            MessageClass from = MessageClass.CONTROL;
+            SharedFrame next = control.poll();
+            if (next == null) {
+                from = MessageClass.CHAT;
+                next = chat.poll();
+            }
+            if (next == null && inFlightBytes < maxMediaInFlight) {
+                from = MessageClass.VIDEO;
+                next = pollVideo();
+                if (next == null) {
+                    from = MessageClass.BULK;
+                    next = bulk.poll();
+                }
+            }
+            if (next == null) {
+                break;
+            }
+            queuedBytes[from.ordinal()] -= next.size();
+
+            ByteBuffer view = deflate ? next.newDeflatedView() : next.newView();
+            int size = view.remaining();
+            inFlight.add(view);
+            sink.write(next, view);
+            inFlightBytes += size;
+            bytesSent += size;
+            sent++;
+        }
+
+        boolean pending = hasPending();
+        if (pending) {
+            limited = true;
+        }
+        return pending;
+    }
+
+    private SharedFrame pollVideo() {
+        Iterator<Map.Entry<String, SharedFrame>> it = video.entrySet().iterator();
+        if (!it.hasNext()) {
+            return null;
+        }
+        SharedFrame frame = it.next().getValue();
+        it.remove();
+        return frame;
+    }
+
+    private long pruneInFlight() {
+        while (!inFlight.isEmpty() && !inFlight.peek().hasRemaining()) {
+            inFlight.poll();
+        }
+        long bytes = 0;
+        for (ByteBuffer view : inFlight) {
+            bytes += view.remaining();
+        }
+        return bytes;
+    }
+
+    /**
+     * Send compressed frames where worthwhile; for connections that negotiated permessage-deflate.
+     */
+    public void setDeflate(boolean deflate) {
+        this.deflate = deflate;
+    }
+
+    public boolean isDeflate() {
+        return deflate;
+    }
+
+    public synchronized boolean hasPending() {
+        return !control.isEmpty() || !chat.isEmpty() || !video.isEmpty() || !bulk.isEmpty();
+    }
+
+    public synchronized int getQueuedCount(MessageClass messageClass) {
+        switch (messageClass) {
+            case VIDEO:
+                return video.size();
+            case CHAT:
+                return chat.size();
+            case BULK:
+                return bulk.size();
+            default:
+                return control.size();
+        }
+    }
+
+    /**
+     * Bytes of one class waiting to be handed to the socket.
+     */
+    public synchronized long getQueuedBytes(MessageClass messageClass) {
+        return queuedBytes[messageClass.ordinal()];
+    }
+
+    /**
+     * Frames of one class refused because its queue was full.
+     */
+    public synchronized long getOverflowedFrames(MessageClass messageClass) {
+        return overflowed[messageClass.ordinal()];
+    }
+
+    public synchronized long getBytesInFlight() {
+        return pruneInFlight();
+    }
+
+    public synchronized long getEnqueued() {
+        return enqueued;
+    }
+
+    public synchronized long getSent() {
+        return sent;
+    }
+
+    public synchronized long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * Bytes the socket has actually written: handed over and no longer in flight.
+     */
+    public synchronized long getBytesWritten() {
+        return bytesSent - pruneInFlight();
+    }
+
+    /**
+     * Whether frames had to wait for the socket since the last call, i.e. the
+     * connection, not the sender, set the pace (see {@link BandwidthEstimator}).
+     */
+    public synchronized boolean takeLimited() {
+        boolean wasLimited = limited || hasPending();
+        limited = false;
+        return wasLimited;
+    }
+
+    public synchronized long getDroppedVideoFrames() {
+        return droppedVideo;
+    }
+
+    public synchronized void clear() {
+        control.clear();
+        chat.clear();
+        video.clear();
+        bulk.clear();
+        inFlight.clear();
+        Arrays.fill(queuedBytes, 0);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("queued[control=%d chat=%d video=%d bulk=%d] inFlight=%dB sent=%d droppedVideo=%d",
+                control.size(), chat.size(), video.size(), bulk.size(), pruneInFlight(), sent, droppedVideo);
+    }
+}
@@ -0,0 +1,288 @@
+package org.example.zoom.websocket;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sheds relay load in steps when the relay falls behind, so chat, mute and
+ * joins stay usable while video gives way.
+ *
+ * The relay samples four signals a few times a second: event-loop lag (the
+ * oldest task waiting on a meeting lane, or the sampler itself running late),
+ * heap occupancy after the last collection, meeting lane queue depth, and
+ * bytes waiting in outbound queues. Each signal has a threshold per level;
+ * the highest level any signal reaches is where the relay should be.
+ *
+ * <ol>
+ *   <li>{@link Level#DECIMATE_VIDEO}: every other video frame of each
+ *       publisher and layer is dropped before fan-out.</li>
+ *   <li>{@link Level#SPEAKER_VIDEO_ONLY}: in addition, only participants
+ *       with their microphone on have their video relayed.</li>
+ *   <li>{@link Level#PAUSE_BULK}: in addition, FILE_TRANSFER chunks are
+ *       parked and relayed in order once the relay recovers.</li>
+ * </ol>
+ * Control messages and chat are never shed.
+ *
+ * The level rises one step at a time, at most every {@code ESCALATE_MS}, and
+ * falls one step after the signals stayed below it for {@code RECOVER_MS},
+ * so a short spike does not flip video off and on.
+ */
+public class OverloadController {
+
+    public enum Level { NORMAL, DECIMATE_VIDEO, SPEAKER_VIDEO_ONLY, PAUSE_BULK }
+
+    private static final Level[] LEVELS = Level.values();
+
+    private static final long ESCALATE_MS = 500;
+    private static final long RECOVER_MS = 5000;
+    // One in this many video frames is relayed while decimating
+    private static final int DECIMATION = 2;
+
+    private final boolean enabled;
+    // Thresholds of each signal for DECIMATE_VIDEO, SPEAKER_VIDEO_ONLY and PAUSE_BULK
+    private final long[] lagMs;
+    private final double[] heap;
+    private final long[] laneDepth;
+    private final long[] outboundBytes;
+
+    private volatile Level level = Level.NORMAL;
+    private long lastChange;
+    private long calmSince = -1;
+
+    private volatile long lastLagMs;
+    private volatile double lastHeap;
+    private volatile long lastLaneDepth;
+    private volatile long lastOutboundBytes;
+
+    private final LongAdder transitions = new LongAdder();
+    private final LongAdder escalations = new LongAdder();
+    private final LongAdder videoShed = new LongAdder();
+    private final LongAdder[] timeAtLevel = {new LongAdder(), new LongAdder(), new LongAdder(), new LongAdder()};
+    private long lastUpdate = -1;
+
+    public OverloadController(boolean enabled, long[] lagMs, double[] heap, long[] laneDepth, long[] outboundBytes) {
+        this.enabled = enabled;
+        this.lagMs = lagMs;
+        this.heap = heap;
+        this.laneDepth = laneDepth;
+        this.outboundBytes = outboundBytes;
+    }
+
+    /**
+     * Settings from {@code zoom.overload.*} system properties; each threshold
+     * property lists the three levels, e.g. {@code -Dzoom.overload.lagMs=50,200,500}.
+     */
+    public static OverloadController fromSystemProperties() {
+        return new OverloadController(
+                Boolean.parseBoolean(System.getProperty("zoom.overload.enabled", "true")),
+                longs("zoom.overload.lagMs", new long[]{50, 200, 500}),
+                doubles("zoom.overload.heap", new double[]{0.80, 0.88, 0.94}),
+                longs("zoom.overload.laneDepth", new long[]{2_000, 10_000, 50_000}),
+                longs("zoom.overload.outboundBytes", new long[]{64L << 20, 256L << 20, 512L << 20}));
+    }
+
+    private static long[] longs(String property, long[] defaults) {
+        String value = System.getProperty(property);
+        if (value == null) {
+            return defaults;
+        }
+        String[] parts = value.split(",");
+        long[] result = defaults.clone();
+        try {
+            for (int i = 0; i < Math.min(parts.length, result.length); i++) {
+                result[i] = Long.parseLong(parts[i].trim());
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid " + property + ": " + value + ", using defaults");
+            return defaults;
+        }
+        return result;
+    }
+
+    private static double[] doubles(String property, double[] defaults) {
+        String value = System.getProperty(property);
+        if (value == null) {
+            return defaults;
+        }
+        String[] parts = value.split(",");
+        double[] result = defaults.clone();
+        try {
+            for (int i = 0; i < Math.min(parts.length, result.length); i++) {
+                result[i] = Double.parseDouble(parts[i].trim());
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid " + property + ": " + value + ", using defaults");
+            return defaults;
+        }
+        return result;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Take a sample of the signals and move the level.
+     * @return The level before, if this sample changed it, else null
+     */
+    public synchronized Level update(long lagMs, double heapOccupancy, long laneDepth, long outboundBytes,
+                                     long nowMs) {
+        lastLagMs = lagMs;
+        lastHeap = heapOccupancy;
+        lastLaneDepth = laneDepth;
+        lastOutboundBytes = outboundBytes;
+        if (lastUpdate >= 0) {
+            timeAtLevel[level.ordinal()].add(nowMs - lastUpdate);
+        }
+        lastUpdate = nowMs;
+        if (!enabled) {
+            return null;
+        }
+
+        int target = Math.max(Math.max(reached(lagMs, this.lagMs), reached(heapOccupancy, heap)),
+                Math.max(reached(laneDepth, this.laneDepth), reached(outboundBytes, this.outboundBytes)));
+        int current = level.ordinal();
+        Level before = level;
+        if (target > current) {
+            calmSince = -1;
+            if (nowMs - lastChange < ESCALATE_MS && current > 0) {
+                return null;
+            }
+            level = LEVELS[current + 1];
+            escalations.increment();
+        } else if (target < current) {
+            if (calmSince < 0) {
+                calmSince = nowMs;
+            }
+            if (nowMs - calmSince < RECOVER_MS) {
+                return null;
+            }
+            level = LEVELS[current - 1];
+            // The next step down needs its own quiet period
+            calmSince = nowMs;
+        } else {
+            calmSince = -1;
+            return null;
+        }
+        lastChange = nowMs;
+        transitions.increment();
+        System.out.println("Overload level " + before + " -> " + level + " (" + describeSignals() + ")");
+        return before;
+    }
+
+    private static int reached(long value, long[] thresholds) {
+        int reached = 0;
+        while (reached < thresholds.length && value >= thresholds[reached]) {
+            reached++;
+        }
+        return reached;
+    }
+
+    private static int reached(double value, double[] thresholds) {
+        int reached = 0;
+        while (reached < thresholds.length && value >= thresholds[reached]) {
+            reached++;
+        }
+        return reached;
+    }
+
+    /**
+     * Whether to relay a video frame of a publisher.
+     * @param speaker Whether the publisher has its microphone on
+     * @param frameNumber Frames of this publisher and layer seen so far
+     */
+    public boolean admitVideo(boolean speaker, long frameNumber) {
+        Level current = level;
+        if (current == Level.NORMAL) {
+            return true;
+        }
+        if ((current.compareTo(Level.SPEAKER_VIDEO_ONLY) >= 0 && !speaker) || frameNumber % DECIMATION != 0) {
+            videoShed.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Whether FILE_TRANSFER relaying is paused.
+     */
+    public boolean pausesBulk() {
+        return level == Level.PAUSE_BULK;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    /**
+     * Heap occupancy after the last collection, as a share of the heap
+     * limit; live data rather than garbage waiting to be collected.
+     * Falls back to the whole heap where pools do not report it.
+     */
+    public static double heapOccupancy() {
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP) {
+                continue;
+            }
+            MemoryUsage afterGc = pool.getCollectionUsage();
+            if (afterGc != null) {
+                used += afterGc.getUsed();
+            }
+        }
+        Runtime runtime = Runtime.getRuntime();
+        long max = runtime.maxMemory();
+        if (used == 0) {
+            used = runtime.totalMemory() - runtime.freeMemory();
+        }
+        return max > 0 ? (double) used / max : 0;
+    }
+
+    public long getLastLagMs() {
+        return lastLagMs;
+    }
+
+    public double getLastHeapOccupancy() {
+        return lastHeap;
+    }
+
+    public long getLastLaneDepth() {
+        return lastLaneDepth;
+    }
+
+    public long getLastOutboundBytes() {
+        return lastOutboundBytes;
+    }
+
+    public long getTransitionCount() {
+        return transitions.sum();
+    }
+
+    public long getEscalationCount() {
+        return escalations.sum();
+    }
+
+    public long getVideoShedCount() {
+        return videoShed.sum();
+    }
+
+    /**
+     * Milliseconds spent at a level since the relay started.
+     */
+    public long getTimeAtLevelMs(Level atLevel) {
+        return timeAtLevel[atLevel.ordinal()].sum();
+    }
+
+    private String describeSignals() {
+        return String.format("lag %d ms, heap %.0f%%, lane queue %d, outbound %d KB",
+                lastLagMs, lastHeap * 100, lastLaneDepth, lastOutboundBytes / 1024);
+    }
+
+    @Override
+    public String toString() {
+        return "OverloadController[" + level + ", " + describeSignals() + "]";
+    }
+}
@@ -0,0 +1,273 @@
+package org.example.zoom.websocket;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.java_websocket.WebSocket;
+
+/**
+ * Coalesces device connect and disconnect notifications into one presence
+ * update every {@code intervalMs}.
+ *
+ * Announcing each connection to every client and sending each newcomer the
+ * whole device list costs O(n) messages per connection, so n reconnecting
+ * clients cost O(n²). Here events are collected for one interval and then
+ * published together: a connect and a disconnect of the same device within
+ * the interval cancel out, all newcomers share one encoded device list, and
+ * a batch larger than {@code snapshotThreshold} is replaced by a single
+ * DEVICE_LIST snapshot for everyone.
+ *
+ * A device may be connected more than once for a while: a client that
+ * reconnects or resumes its session keeps its Device-ID, and the old socket
+ * can close after the new one opened. Connections are counted per device, and
+ * a device is only announced as gone when its last connection closed.
+ *
+ * Each batch with events is also one version of the delta-based presence
+ * protocol (see {@link PresenceState}), so events carry the device entry the
+ * delta needs. Clients on that protocol get the delta even for large batches;
+ * the DEVICE_LIST snapshot is only for older clients.
+ */
+public class PresenceBatcher {
+
+    /**
+     * A connect, disconnect or change of details of one device.
+     */
+    public static final class Event {
+        final boolean connected;
+        final boolean updated;
+        final String username;
+        final String deviceId;
+        final String entry;
+
+        Event(boolean connected, boolean updated, String username, String deviceId, String entry) {
+            this.connected = connected;
+            this.updated = updated;
+            this.username = username;
+            this.deviceId = deviceId;
+            this.entry = entry;
+        }
+
+        /**
+         * True for a connect, false for a disconnect; an update is of a connected device.
+         */
+        public boolean isConnected() {
+            return connected;
+        }
+
+        /**
+         * The device was already announced and only its details changed.
+         */
+        public boolean isUpdated() {
+            return updated;
+        }
+
+        /**
+         * The device in the DEVICE_LIST entry format, or null for a disconnect.
+         */
+        public String getEntry() {
+            return entry;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public String getDeviceId() {
+            return deviceId;
+        }
+    }
+
+    /**
+     * Publishes one batch; runs on the presence thread.
+     */
+    public interface Publisher {
+        /**
+         * @param events     Net connects and disconnects since the last batch, in order
+         * @param newcomers  Connections opened since the last batch, which still need the device list
+         * @param snapshot   True if the batch is large enough that everyone should get the device list instead of events
+         */
+        void publish(List<Event> events, List<WebSocket> newcomers, boolean snapshot);
+    }
+
+    private final long intervalMs;
+    private final int snapshotThreshold;
+    private final Publisher publisher;
+
+    // Keyed by device so opposite events of one device cancel out
+    private final Map<String, Event> events = new LinkedHashMap<>();
+    private final List<WebSocket> newcomers = new ArrayList<>();
+    // Open connections per device
+    private final Map<String, Integer> connections = new HashMap<>();
+
+    private ScheduledExecutorService flusher;
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder snapshots = new LongAdder();
+    private final LongAdder eventsIn = new LongAdder();
+    private final LongAdder eventsCoalesced = new LongAdder();
+
+    /**
+     * @param intervalMs        Time between presence updates
+     * @param snapshotThreshold Events per batch above which a DEVICE_LIST snapshot is sent instead
+     */
+    public PresenceBatcher(long intervalMs, int snapshotThreshold, Publisher publisher) {
+        this.intervalMs = intervalMs;
+        this.snapshotThreshold = snapshotThreshold;
+        this.publisher = publisher;
+    }
+
+    public synchronized void start() {
+        if (flusher != null) {
+            return;
+        }
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "WebSocketServer-Presence");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (flusher != null) {
+            flusher.shutdownNow();
+            flusher = null;
+        }
+        events.clear();
+        newcomers.clear();
+        connections.clear();
+    }
+
+    /**
+     * A device connected; {@code conn} gets the device list with the next batch.
+     * @param entry The device in the DEVICE_LIST entry format
+     */
+    public synchronized void connected(WebSocket conn, String username, String deviceId, String entry) {
+        connections.merge(deviceId, 1, Integer::sum);
+        add(new Event(true, false, username, deviceId, entry));
+        newcomers.add(conn);
+    }
+
+    /**
+     * Details of a connected device changed, e.g. its username or type.
+     */
+    public synchronized void updated(String username, String deviceId, String entry) {
+        add(new Event(true, true, username, deviceId, entry));
+    }
+
+    /**
+     * A connection of a device closed. The device is announced as gone only
+     * if no other connection of it is open.
+     */
+    public synchronized void disconnected(WebSocket conn, String username, String deviceId) {
+        newcomers.remove(conn);
+        Integer open = connections.get(deviceId);
+        if (open != null && open > 1) {
+            connections.put(deviceId, open - 1);
+            return;
+        }
+        connections.remove(deviceId);
+        add(new Event(false, false, username, deviceId, null));
+    }
+
+    /**
+     * Whether a connection of the device is open.
+     */
+    public synchronized boolean isConnected(String deviceId) {
+        return connections.containsKey(deviceId);
+    }
+
+    private void add(Event event) {
+        eventsIn.increment();
+        Event previous = events.remove(event.deviceId);
+        if (previous != null && event.updated) {
+            // A change of details folds into whatever is pending for the device
+            eventsCoalesced.increment();
+            if (!previous.connected) {
+                events.put(previous.deviceId, previous);
+            } else {
+                events.put(event.deviceId, new Event(true, previous.updated, event.username, event.deviceId,
+                        event.entry));
+            }
+            return;
+        }
+        if (previous != null && previous.updated && !event.connected) {
+            // Changed and then gone: only the disconnect matters
+            eventsCoalesced.increment();
+            events.put(event.deviceId, event);
+            return;
+        }
+        if (previous != null && !previous.connected && event.connected) {
+            // Gone and back within one interval: still connected, possibly with new details
+            eventsCoalesced.add(2);
+            events.put(event.deviceId, new Event(true, true, event.username, event.deviceId, event.entry));
+            return;
+        }
+        if (previous != null && previous.connected != event.connected) {
+            // Connected and gone within one interval: nothing to announce
+            eventsCoalesced.add(2);
+            return;
+        }
+        if (previous != null) {
+            eventsCoalesced.increment();
+        }
+        events.put(event.deviceId, event);
+    }
+
+    /**
+     * Publish what accumulated since the last batch.
+     */
+    public void flush() {
+        List<Event> batch;
+        List<WebSocket> joined;
+        synchronized (this) {
+            if (events.isEmpty() && newcomers.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<>(events.values());
+            joined = new ArrayList<>(newcomers);
+            events.clear();
+            newcomers.clear();
+        }
+
+        boolean snapshot = batch.size() > snapshotThreshold;
+        batches.increment();
+        if (snapshot) {
+            snapshots.increment();
+        }
+        try {
+            publisher.publish(batch, joined, snapshot);
+        } catch (Exception e) {
+            System.err.println("Error publishing presence update: " + e.getMessage());
+        }
+    }
+
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    public long getSnapshotCount() {
+        return snapshots.sum();
+    }
+
+    public long getEventCount() {
+        return eventsIn.sum();
+    }
+
+    public long getCoalescedCount() {
+        return eventsCoalesced.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PresenceBatcher[interval=%dms, batches=%d, snapshots=%d, events=%d, coalesced=%d]",
+                intervalMs, getBatchCount(), getSnapshotCount(), getEventCount(), getCoalescedCount());
+    }
+}
@@ -0,0 +1,254 @@
+package org.example.zoom.websocket;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Versioned view of the connected devices, kept in step with the relay by one
+ * snapshot followed by small deltas.
+ *
+ * Wire format (clients opt in with the {@link #HANDSHAKE_HEADER} handshake
+ * header; others keep getting DEVICE_LIST / DEVICE_CONNECTED / DEVICE_DISCONNECTED):
+ * <pre>
+ *   PRESENCE_SNAPSHOT|global|Server|version|device;device;...
+ *   PRESENCE_DELTA|global|Server|version|+device;-username,deviceId;~device
+ *   PRESENCE_SYNC|global|username|lastVersion          (client asks for a snapshot)
+ * </pre>
+ * where {@code device} is {@code username,deviceId,ip,deviceType,connectTime}
+ * as in DEVICE_LIST. Each delta carries the next version; {@code +} adds a
+ * device, {@code -} removes one and {@code ~} replaces its details. Adds and
+ * removes are idempotent, so a snapshot taken while a delta is in flight
+ * converges once the delta is applied.
+ *
+ * A delta older than the current version is ignored. One that skips a version
+ * means updates were missed; the client should send PRESENCE_SYNC and wait
+ * for the snapshot.
+ */
+public final class PresenceState {
+
+    public static final String HANDSHAKE_HEADER = "X-Presence";
+    public static final String HANDSHAKE_VALUE = "1";
+
+    public enum Result {
+        APPLIED,
+        STALE,
+        GAP
+    }
+
+    /**
+     * One connected device.
+     */
+    public static final class Device {
+        private final String username;
+        private final String deviceId;
+        private final String ipAddress;
+        private final String deviceType;
+        private final long connectTime;
+
+        public Device(String username, String deviceId, String ipAddress, String deviceType, long connectTime) {
+            this.username = username;
+            this.deviceId = deviceId;
+            this.ipAddress = ipAddress;
+            this.deviceType = deviceType;
+            this.connectTime = connectTime;
+        }
+
+        /**
+         * @return the device, or null if the entry has fewer than five fields
+         */
+        static Device parse(String entry) {
+            String[] parts = entry.split(",");
+            if (parts.length < 5) {
+                return null;
+            }
+            try {
+                return new Device(parts[0], parts[1], parts[2], parts[3], Long.parseLong(parts[4]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        public String encode() {
+            return encode(username, deviceId, ipAddress, deviceType, connectTime);
+        }
+
+        public static String encode(String username, String deviceId, String ipAddress, String deviceType,
+                                    long connectTime) {
+            return username + "," + deviceId + "," + ipAddress + "," + deviceType + "," + connectTime;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public String getDeviceId() {
+            return deviceId;
+        }
+
+        public String getIpAddress() {
+            return ipAddress;
+        }
+
+        public String getDeviceType() {
+            return deviceType;
+        }
+
+        public long getConnectTime() {
+            return connectTime;
+        }
+    }
+
+    /**
+     * A device added, removed or updated by a delta. Removals carry only the
+     * username and device id.
+     */
+    public static final class Change {
+        private final char op;
+        private final Device device;
+
+        Change(char op, Device device) {
+            this.op = op;
+            this.device = device;
+        }
+
+        public boolean isAdded() {
+            return op == '+';
+        }
+
+        public boolean isRemoved() {
+            return op == '-';
+        }
+
+        public boolean isUpdated() {
+            return op == '~';
+        }
+
+        public Device getDevice() {
+            return device;
+        }
+    }
+
+    private final Map<String, Device> devices = new LinkedHashMap<>();
+    private long version = -1;
+
+    // ---- encoding (relay side) ----
+
+    public static String snapshotMessage(long version, String entries) {
+        return "PRESENCE_SNAPSHOT|global|Server|" + version + "|" + entries;
+    }
+
+    /**
+     * Append one operation to the ops list of a delta.
+     */
+    public static void appendAdded(StringBuilder ops, String entry) {
+        appendOp(ops, '+', entry);
+    }
+
+    public static void appendUpdated(StringBuilder ops, String entry) {
+        appendOp(ops, '~', entry);
+    }
+
+    public static void appendRemoved(StringBuilder ops, String username, String deviceId) {
+        appendOp(ops, '-', username + "," + deviceId);
+    }
+
+    private static void appendOp(StringBuilder ops, char op, String entry) {
+        if (ops.length() > 0) {
+            ops.append(';');
+        }
+        ops.append(op).append(entry);
+    }
+
+    public static String deltaMessage(long version, CharSequence ops) {
+        return "PRESENCE_DELTA|global|Server|" + version + "|" + ops;
+    }
+
+    // ---- applying (client side) ----
+
+    /**
+     * Replace the whole view.
+     * @param entries The device list field of PRESENCE_SNAPSHOT
+     */
+    public synchronized void applySnapshot(long snapshotVersion, String entries) {
+        devices.clear();
+        if (entries != null && !entries.isEmpty()) {
+            for (String entry : entries.split(";")) {
+                Device device = Device.parse(entry);
+                if (device != null) {
+                    devices.put(device.deviceId, device);
+                }
+            }
+        }
+        version = snapshotVersion;
+    }
+
+    /**
+     * Apply a delta if it is the next version.
+     * @param changes Receives the changes that were applied
+     * @return STALE if already covered by the current version, GAP if a version
+     *         was missed (nothing is applied), APPLIED otherwise
+     */
+    public synchronized Result applyDelta(long deltaVersion, String ops, List<Change> changes) {
+        if (version < 0) {
+            return Result.GAP;
+        }
+        if (deltaVersion <= version) {
+            return Result.STALE;
+        }
+        if (deltaVersion != version + 1) {
+            return Result.GAP;
+        }
+
+        if (ops != null && !ops.isEmpty()) {
+            for (String op : ops.split(";")) {
+                if (op.length() < 2) {
+                    continue;
+                }
+                char kind = op.charAt(0);
+                String entry = op.substring(1);
+                if (kind == '-') {
+                    int comma = entry.indexOf(',');
+                    String deviceId = comma < 0 ? entry : entry.substring(comma + 1);
+                    Device removed = devices.remove(deviceId);
+                    if (removed == null) {
+                        removed = new Device(comma < 0 ? "" : entry.substring(0, comma), deviceId, "", "unknown", 0);
+                    }
+                    changes.add(new Change(kind, removed));
+                } else if (kind == '+' || kind == '~') {
+                    Device device = Device.parse(entry);
+                    if (device != null) {
+                        devices.put(device.deviceId, device);
+                        changes.add(new Change(kind, device));
+                    }
+                }
+            }
+        }
+        version = deltaVersion;
+        return Result.APPLIED;
+    }
+
+    /**
+     * Current version, or -1 before the first snapshot.
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Forget everything, e.g. after reconnecting; the next snapshot starts over.
+     */
+    public synchronized void reset() {
+        devices.clear();
+        version = -1;
+    }
+
+    public synchronized List<Device> getDevices() {
+        return new ArrayList<>(devices.values());
+    }
+
+    public synchronized int size() {
+        return devices.size();
+    }
+}
@@ -0,0 +1,216 @@
+package org.example.zoom.websocket;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Plays back one segment written by {@link RecordingTap}: seek to a time
+ * through the offset index, then read records in order.
+ *
+ * A segment that is still being written, or whose relay stopped mid-write,
+ * may end in a partial record; reading simply stops there.
+ */
+public class RecordingReader implements Closeable {
+
+    /**
+     * One recorded message.
+     */
+    public static final class Record {
+        private final long timestamp;
+        private final byte opcode;
+        private final ByteBuffer payload;
+
+        Record(long timestamp, byte opcode, ByteBuffer payload) {
+            this.timestamp = timestamp;
+            this.opcode = opcode;
+            this.payload = payload;
+        }
+
+        /**
+         * When the relay forwarded the message, wall clock ms.
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public boolean isText() {
+            return opcode == SharedFrame.OPCODE_TEXT;
+        }
+
+        /**
+         * The message bytes; a {@link BinaryMediaFrame} if not text.
+         */
+        public ByteBuffer getPayload() {
+            return payload.duplicate();
+        }
+
+        public String getText() {
+            return StandardCharsets.UTF_8.decode(payload.duplicate()).toString();
+        }
+    }
+
+    private final Path segment;
+    private final FileChannel channel;
+    private final long startMs;
+    private final ByteBuffer header = ByteBuffer.allocate(RecordingTap.RECORD_HEADER_SIZE);
+    private long position = RecordingTap.SEGMENT_HEADER_SIZE;
+
+    public RecordingReader(Path segment) throws IOException {
+        this.segment = segment;
+        this.channel = FileChannel.open(segment, StandardOpenOption.READ);
+        ByteBuffer fileHeader = ByteBuffer.allocate(RecordingTap.SEGMENT_HEADER_SIZE);
+        if (!readFully(fileHeader, 0) || fileHeader.getInt(0) != RecordingTap.MAGIC) {
+            channel.close();
+            throw new IOException("Not a recording segment: " + segment);
+        }
+        if (fileHeader.get(4) != RecordingTap.VERSION) {
+            channel.close();
+            throw new IOException("Unsupported recording version " + fileHeader.get(4) + ": " + segment);
+        }
+        this.startMs = fileHeader.getLong(8);
+    }
+
+    /**
+     * Segments of a meeting, oldest first.
+     * @param meetingDir The meeting's directory under the recording directory
+     */
+    public static List<Path> segments(Path meetingDir) throws IOException {
+        List<Path> found = new ArrayList<>();
+        if (!Files.isDirectory(meetingDir)) {
+            return found;
+        }
+        try (Stream<Path> files = Files.list(meetingDir)) {
+            files.filter(path -> path.getFileName().toString().endsWith(RecordingTap.SEGMENT_SUFFIX))
+                    .forEach(found::add);
+        }
+        found.sort((a, b) -> Long.compare(startOf(a), startOf(b)));
+        return found;
+    }
+
+    /**
+     * The segment holding a point in time: the last one started at or before it.
+     * @return null if the meeting has no segment that early
+     */
+    public static Path segmentFor(Path meetingDir, long timestampMs) throws IOException {
+        Path match = null;
+        for (Path path : segments(meetingDir)) {
+            if (startOf(path) > timestampMs) {
+                break;
+            }
+            match = path;
+        }
+        return match;
+    }
+
+    private static long startOf(Path segment) {
+        String name = segment.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - RecordingTap.SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Position the reader on the first record at or after a time. The index
+     * gives the closest offset before it; at most one index interval is read.
+     */
+    public void seek(long timestampMs) throws IOException {
+        position = indexedOffset(timestampMs);
+        while (true) {
+            long before = position;
+            Record record = next();
+            if (record == null || record.getTimestamp() >= timestampMs) {
+                position = before;
+                return;
+            }
+        }
+    }
+
+    private long indexedOffset(long timestampMs) throws IOException {
+        String name = segment.getFileName().toString();
+        Path indexPath = segment.resolveSibling(
+                name.substring(0, name.length() - RecordingTap.SEGMENT_SUFFIX.length()) + RecordingTap.INDEX_SUFFIX);
+        if (!Files.exists(indexPath)) {
+            return RecordingTap.SEGMENT_HEADER_SIZE;
+        }
+        ByteBuffer index = ByteBuffer.wrap(Files.readAllBytes(indexPath));
+        int entries = index.remaining() / RecordingTap.INDEX_ENTRY_SIZE;
+
+        // Last entry at or before the time
+        int low = 0;
+        int high = entries - 1;
+        long offset = RecordingTap.SEGMENT_HEADER_SIZE;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long time = index.getLong(mid * RecordingTap.INDEX_ENTRY_SIZE);
+            if (time <= timestampMs) {
+                offset = index.getLong(mid * RecordingTap.INDEX_ENTRY_SIZE + 8);
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * The next record, or null at the end of what has been written.
+     */
+    public Record next() throws IOException {
+        header.clear();
+        if (!readFully(header, position)) {
+            return null;
+        }
+        int length = header.getInt(0);
+        long timestamp = header.getLong(4);
+        byte opcode = header.get(12);
+        if (length < 0) {
+            return null;
+        }
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        if (!readFully(payload, position + RecordingTap.RECORD_HEADER_SIZE)) {
+            return null;
+        }
+        position += RecordingTap.RECORD_HEADER_SIZE + length;
+        payload.flip();
+        return new Record(timestamp, opcode, payload);
+    }
+
+    private boolean readFully(ByteBuffer buffer, long offset) throws IOException {
+        long at = offset;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, at);
+            if (read < 0) {
+                return false;
+            }
+            at += read;
+        }
+        return true;
+    }
+
+    public long getStartMs() {
+        return startMs;
+    }
+
+    /**
+     * Offset of the next record in the segment.
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
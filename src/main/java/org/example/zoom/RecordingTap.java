@@ -0,0 +1,541 @@
+package org.example.zoom.websocket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Server-side meeting recording: the relay hands every video and chat frame
+ * of a recorded meeting to this tap, and a dedicated writer thread appends
+ * them to segment files. Fan-out only queues a reference to the shared frame;
+ * when the writer falls behind by more than {@code maxQueuedBytes}, frames are
+ * dropped and counted instead of holding up the relay.
+ *
+ * Recording is off unless {@code zoom.recording.dir} is set. Meetings are then
+ * recorded on request ({@code RECORDING|meeting|user|START} / {@code STOP}),
+ * or all of them with {@code zoom.recording.all=true}.
+ *
+ * Files, one directory per meeting, named by the time the segment starts:
+ * <pre>
+ *   dir/meetingId/1700000000000.seg   segment: header, then records
+ *   dir/meetingId/1700000000000.idx   offset index of the segment
+ *
+ *   segment header  magic "ZREC" (4) | version (1) | reserved (3) | start ms (8)
+ *   record          payload length (4) | relay time ms (8) | opcode (1) | payload
+ *   index entry     relay time ms (8) | segment offset (8)
+ * </pre>
+ * The payload is the WebSocket message as relayed, text or binary (see
+ * {@link SharedFrame#getOpcode()}). A segment is rolled once it reaches
+ * {@code zoom.recording.segmentBytes} or {@code zoom.recording.segmentMs}.
+ * Files are only ever appended to. The index gets an entry for the first
+ * record and then one at least every {@link #INDEX_INTERVAL_BYTES}, so
+ * {@link RecordingReader#seek} reads at most that much to find a time.
+ *
+ * All recordings together take at most {@code zoom.recording.maxTotalBytes}
+ * on disk. Past that, the oldest closed segments of any meeting are deleted to
+ * make room; if only open segments are left, new frames are dropped until a
+ * segment closes.
+ */
+public class RecordingTap {
+
+    public static final int MAGIC = 0x5A524543;
+    public static final byte VERSION = 1;
+    public static final int SEGMENT_HEADER_SIZE = 16;
+    public static final int RECORD_HEADER_SIZE = 13;
+    public static final int INDEX_ENTRY_SIZE = 16;
+    public static final int INDEX_INTERVAL_BYTES = 64 * 1024;
+    public static final String SEGMENT_SUFFIX = ".seg";
+    public static final String INDEX_SUFFIX = ".idx";
+
+    public static final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+    public static final long DEFAULT_SEGMENT_MS = 10 * 60 * 1000;
+    public static final long DEFAULT_MAX_QUEUED_BYTES = 32L * 1024 * 1024;
+    public static final long DEFAULT_MAX_TOTAL_BYTES = 10L * 1024 * 1024 * 1024;
+
+    // Written data is forced to disk this often
+    private static final long SYNC_INTERVAL_MS = 1000;
+    private static final int BATCH_SIZE = 256;
+
+    /**
+     * A queued frame, or with a null frame, an instruction to close the
+     * meeting's segment (or every segment, with a null meeting).
+     */
+    private static final class Pending {
+        final String meetingId;
+        final long timestamp;
+        final SharedFrame frame;
+
+        Pending(String meetingId, long timestamp, SharedFrame frame) {
+            this.meetingId = meetingId;
+            this.timestamp = timestamp;
+            this.frame = frame;
+        }
+    }
+
+    /**
+     * The open segment of one meeting. Only used by the writer thread.
+     */
+    private final class Segment {
+        final Path path;
+        final long startMs;
+        final FileChannel data;
+        final FileChannel index;
+        long size;
+        long lastIndexed = -1;
+        boolean dirty;
+
+        Segment(Path meetingDir, long startMs) throws IOException {
+            Files.createDirectories(meetingDir);
+            long start = startMs;
+            Path dataPath;
+            FileChannel dataChannel;
+            while (true) {
+                dataPath = meetingDir.resolve(start + SEGMENT_SUFFIX);
+                try {
+                    dataChannel = FileChannel.open(dataPath,
+                            StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                    break;
+                } catch (FileAlreadyExistsException e) {
+                    // Rolled twice within a millisecond
+                    start++;
+                }
+            }
+            this.path = dataPath;
+            this.startMs = start;
+            this.data = dataChannel;
+            this.index = FileChannel.open(meetingDir.resolve(start + INDEX_SUFFIX),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+
+            ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+            header.putInt(MAGIC).put(VERSION).put((byte) 0).putShort((short) 0).putLong(start).flip();
+            writeFully(data, header);
+            size = SEGMENT_HEADER_SIZE;
+            diskBytes.addAndGet(SEGMENT_HEADER_SIZE);
+            segmentsOpened.incrementAndGet();
+        }
+
+        void append(long timestamp, SharedFrame frame) throws IOException {
+            long offset = size;
+            if (lastIndexed < 0 || offset - lastIndexed >= INDEX_INTERVAL_BYTES) {
+                indexEntry.clear();
+                indexEntry.putLong(timestamp).putLong(offset).flip();
+                writeFully(index, indexEntry);
+                diskBytes.addAndGet(INDEX_ENTRY_SIZE);
+                lastIndexed = offset;
+            }
+            ByteBuffer payload = frame.payloadView();
+            recordHeader.clear();
+            recordHeader.putInt(payload.remaining()).putLong(timestamp).put(frame.getOpcode()).flip();
+            writeParts[0] = recordHeader;
+            writeParts[1] = payload;
+            long written = 0;
+            while (recordHeader.hasRemaining() || payload.hasRemaining()) {
+                written += data.write(writeParts);
+            }
+            size += written;
+            diskBytes.addAndGet(written);
+            dirty = true;
+        }
+
+        void sync() throws IOException {
+            if (dirty) {
+                data.force(false);
+                index.force(false);
+                dirty = false;
+            }
+        }
+
+        void close() {
+            try {
+                sync();
+            } catch (IOException e) {
+                System.err.println("Failed to sync recording segment: " + e.getMessage());
+            }
+            try {
+                data.close();
+                index.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close recording segment: " + e.getMessage());
+            }
+        }
+    }
+
+    private final Path dir;
+    private final boolean recordAll;
+    private final long segmentBytes;
+    private final long segmentMs;
+    private final long maxQueuedBytes;
+    private final long maxTotalBytes;
+
+    private final Set<String> recordedMeetings = ConcurrentHashMap.newKeySet();
+    private final LinkedBlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private volatile Thread writer;
+
+    // Writer thread only
+    private final Map<String, Segment> segments = new HashMap<>();
+    private final ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+    private final ByteBuffer indexEntry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+    private final ByteBuffer[] writeParts = new ByteBuffer[2];
+    private long lastSync;
+
+    private final LongAdder records = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder writeErrors = new LongAdder();
+    private final AtomicLong segmentsOpened = new AtomicLong();
+    // Bytes of every segment and index under dir, counted by the writer thread
+    private final AtomicLong diskBytes = new AtomicLong();
+    private final LongAdder segmentsDeleted = new LongAdder();
+
+    /**
+     * @param dir Where to write recordings, or null to disable recording
+     */
+    public RecordingTap(Path dir, boolean recordAll, long segmentBytes, long segmentMs, long maxQueuedBytes,
+                        long maxTotalBytes) {
+        this.dir = dir;
+        this.recordAll = recordAll;
+        this.segmentBytes = segmentBytes;
+        this.segmentMs = segmentMs;
+        this.maxQueuedBytes = maxQueuedBytes;
+        this.maxTotalBytes = maxTotalBytes;
+    }
+
+    public static RecordingTap fromSystemProperties() {
+        String dir = System.getProperty("zoom.recording.dir");
+        return new RecordingTap(
+                dir == null || dir.isEmpty() ? null : Paths.get(dir),
+                Boolean.getBoolean("zoom.recording.all"),
+                Long.getLong("zoom.recording.segmentBytes", DEFAULT_SEGMENT_BYTES),
+                Long.getLong("zoom.recording.segmentMs", DEFAULT_SEGMENT_MS),
+                Long.getLong("zoom.recording.maxQueuedBytes", DEFAULT_MAX_QUEUED_BYTES),
+                Long.getLong("zoom.recording.maxTotalBytes", DEFAULT_MAX_TOTAL_BYTES));
+    }
+
+    public boolean isEnabled() {
+        return dir != null;
+    }
+
+    public synchronized void start() {
+        if (dir == null || writer != null) {
+            return;
+        }
+        Thread thread = new Thread(this::run, "WebSocketServer-Recorder");
+        thread.setDaemon(true);
+        writer = thread;
+        thread.start();
+        System.out.println("Recording tap writing to " + dir.toAbsolutePath() +
+                (recordAll ? " (all meetings)" : ""));
+    }
+
+    /**
+     * Start recording a meeting.
+     * @return false if recording is disabled
+     */
+    public boolean startRecording(String meetingId) {
+        if (dir == null) {
+            return false;
+        }
+        recordedMeetings.add(meetingId);
+        return true;
+    }
+
+    /**
+     * Stop recording a meeting; frames already queued are still written.
+     */
+    public void stopRecording(String meetingId) {
+        if (recordedMeetings.remove(meetingId)) {
+            closeSegment(meetingId);
+        }
+    }
+
+    /**
+     * The meeting room is gone: close its segment. A meeting started on
+     * request has to be started again if it is recreated.
+     */
+    public void meetingEnded(String meetingId) {
+        if (isRecording(meetingId)) {
+            recordedMeetings.remove(meetingId);
+            closeSegment(meetingId);
+        }
+    }
+
+    public boolean isRecording(String meetingId) {
+        return dir != null && (recordAll || recordedMeetings.contains(meetingId));
+    }
+
+    /**
+     * Queue a relayed frame of a meeting, if it is being recorded. Never blocks.
+     */
+    public void append(String meetingId, SharedFrame frame) {
+        if (!isRecording(meetingId) || writer == null) {
+            return;
+        }
+        int size = frame.getPayloadLength() + RECORD_HEADER_SIZE;
+        if (queuedBytes.addAndGet(size) > maxQueuedBytes) {
+            queuedBytes.addAndGet(-size);
+            dropped.increment();
+            return;
+        }
+        queue.add(new Pending(meetingId, System.currentTimeMillis(), frame));
+    }
+
+    private void closeSegment(String meetingId) {
+        if (writer != null) {
+            queue.add(new Pending(meetingId, 0, null));
+        }
+    }
+
+    /**
+     * Write out what is queued and close every segment, e.g. when the relay stops.
+     */
+    public void closeAll() {
+        if (writer != null) {
+            queue.add(new Pending(null, 0, null));
+        }
+    }
+
+    private void run() {
+        diskBytes.set(recordedBytesOnDisk());
+        List<Pending> batch = new ArrayList<>(BATCH_SIZE);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Pending first = queue.poll(SYNC_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, BATCH_SIZE - 1);
+                    for (Pending pending : batch) {
+                        write(pending);
+                    }
+                    batch.clear();
+                }
+                long now = System.currentTimeMillis();
+                if (now - lastSync >= SYNC_INTERVAL_MS) {
+                    lastSync = now;
+                    for (Segment segment : segments.values()) {
+                        segment.sync();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                writeErrors.increment();
+                System.err.println("Recording tap error: " + e.getMessage());
+            }
+        }
+        for (Segment segment : segments.values()) {
+            segment.close();
+        }
+        segments.clear();
+    }
+
+    private void write(Pending pending) {
+        if (pending.frame == null) {
+            if (pending.meetingId == null) {
+                for (Segment segment : segments.values()) {
+                    segment.close();
+                }
+                segments.clear();
+            } else {
+                Segment segment = segments.remove(pending.meetingId);
+                if (segment != null) {
+                    segment.close();
+                }
+            }
+            return;
+        }
+
+        int size = pending.frame.getPayloadLength() + RECORD_HEADER_SIZE;
+        queuedBytes.addAndGet(-size);
+        // Room for the record, and a new segment's header and first index entry
+        long needed = size + SEGMENT_HEADER_SIZE + INDEX_ENTRY_SIZE;
+        if (diskBytes.get() + needed > maxTotalBytes && !deleteOldestSegments(needed)) {
+            dropped.increment();
+            return;
+        }
+        try {
+            Segment segment = segments.get(pending.meetingId);
+            if (segment != null && (segment.size + size > segmentBytes ||
+                    pending.timestamp - segment.startMs >= segmentMs)) {
+                segment.close();
+                segments.remove(pending.meetingId);
+                segment = null;
+            }
+            if (segment == null) {
+                segment = new Segment(dir.resolve(safeName(pending.meetingId)), pending.timestamp);
+                segments.put(pending.meetingId, segment);
+            }
+            segment.append(pending.timestamp, pending.frame);
+            records.increment();
+            bytes.add(size);
+        } catch (IOException e) {
+            writeErrors.increment();
+            dropped.increment();
+            System.err.println("Failed to record frame of meeting " + pending.meetingId + ": " + e.getMessage());
+            Segment broken = segments.remove(pending.meetingId);
+            if (broken != null) {
+                broken.close();
+            }
+        }
+    }
+
+    /**
+     * Delete closed segments, oldest first, until {@code needed} more bytes fit
+     * under {@code maxTotalBytes}.
+     * @return false if they still do not fit
+     */
+    private boolean deleteOldestSegments(long needed) {
+        List<Path> closed = new ArrayList<>();
+        Set<Path> open = new HashSet<>();
+        for (Segment segment : segments.values()) {
+            open.add(segment.path);
+        }
+        try (DirectoryStream<Path> meetings = Files.newDirectoryStream(dir)) {
+            for (Path meetingDir : meetings) {
+                if (!Files.isDirectory(meetingDir)) {
+                    continue;
+                }
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(meetingDir, "*" + SEGMENT_SUFFIX)) {
+                    for (Path file : files) {
+                        if (!open.contains(file)) {
+                            closed.add(file);
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to list recordings: " + e.getMessage());
+            return false;
+        }
+        closed.sort(Comparator.comparingLong(RecordingTap::startOf));
+
+        for (Path segment : closed) {
+            if (diskBytes.get() + needed <= maxTotalBytes) {
+                break;
+            }
+            String name = segment.getFileName().toString();
+            Path index = segment.resolveSibling(name.substring(0, name.length() - SEGMENT_SUFFIX.length()) + INDEX_SUFFIX);
+            try {
+                long freed = Files.size(segment) + (Files.exists(index) ? Files.size(index) : 0);
+                Files.delete(segment);
+                Files.deleteIfExists(index);
+                diskBytes.addAndGet(-freed);
+                segmentsDeleted.increment();
+                System.out.println("Deleted recording segment " + dir.relativize(segment) + " to stay under "
+                        + maxTotalBytes + " bytes");
+            } catch (IOException e) {
+                System.err.println("Failed to delete recording segment " + segment + ": " + e.getMessage());
+            }
+        }
+        return diskBytes.get() + needed <= maxTotalBytes;
+    }
+
+    // Start time a segment file is named after, or 0 if the name is not a number
+    private static long startOf(Path segment) {
+        String name = segment.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private long recordedBytesOnDisk() {
+        if (!Files.isDirectory(dir)) {
+            return 0;
+        }
+        try (Stream<Path> files = Files.walk(dir, 2)) {
+            return files.filter(file -> {
+                String name = file.getFileName().toString();
+                return name.endsWith(SEGMENT_SUFFIX) || name.endsWith(INDEX_SUFFIX);
+            }).mapToLong(file -> {
+                try {
+                    return Files.size(file);
+                } catch (IOException e) {
+                    return 0;
+                }
+            }).sum();
+        } catch (IOException e) {
+            System.err.println("Failed to size recordings: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Directory name for a meeting id; anything but letters, digits, '-' and '_' is replaced.
+     */
+    public static String safeName(String meetingId) {
+        return meetingId.replaceAll("[^A-Za-z0-9_-]", "_");
+    }
+
+    public Path getDirectory() {
+        return dir;
+    }
+
+    public int getRecordedMeetingCount() {
+        return recordedMeetings.size();
+    }
+
+    public long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    public long getRecordCount() {
+        return records.sum();
+    }
+
+    public long getBytesWritten() {
+        return bytes.sum();
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    public long getWriteErrorCount() {
+        return writeErrors.sum();
+    }
+
+    public long getSegmentCount() {
+        return segmentsOpened.get();
+    }
+
+    /**
+     * Bytes all recordings take on disk, including those of earlier runs.
+     */
+    public long getDiskBytes() {
+        return diskBytes.get();
+    }
+
+    /**
+     * Segments deleted to stay under {@code zoom.recording.maxTotalBytes}.
+     */
+    public long getDeletedSegmentCount() {
+        return segmentsDeleted.sum();
+    }
+}
@@ -0,0 +1,464 @@
+package org.example.zoom.websocket;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Membership and meeting placement for a cluster of relay nodes.
+ *
+ * Nodes talk over a small line-based TCP link, separate from the WebSocket port.
+ * Once a second every node sends each node it knows a HELLO carrying its id, its
+ * WebSocket URL and the ids of the nodes it knows of, and gets the same back.
+ * A node that has not been heard from for {@link #FAILURE_TIMEOUT_MS} drops out;
+ * a node that stops cleanly sends LEAVE so the others react at once.
+ *
+ * The live members form a {@link HashRing}. Every membership change builds a new
+ * ring and reports it to the {@link Listener}, which moves meetings the local
+ * node no longer owns.
+ *
+ * Node ids are the link address, {@code host:clusterPort}. The link listens
+ * on {@code host} only.
+ *
+ * A HELLO makes its node a REDIRECT target for clients and a LEAVE takes one
+ * out, so peers are checked. With a shared secret every line carries a
+ * timestamp and an HMAC-SHA256 of the line under the secret, and only lines
+ * with a valid MAC and a timestamp within {@link #MAX_CLOCK_SKEW_MS} count;
+ * nodes may then learn of each other through gossip. Without a secret only
+ * the configured seeds are members, each only from its own address, so every
+ * node has to list all the others.
+ */
+public class RelayCluster {
+
+    public static final long GOSSIP_INTERVAL_MS = 1000;
+    public static final long FAILURE_TIMEOUT_MS = 3500;
+    private static final int LINK_TIMEOUT_MS = 500;
+    private static final int MAX_FAILED_CONTACTS = 5;
+    public static final long MAX_CLOCK_SKEW_MS = 30_000;
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    /**
+     * Notified on the gossip thread when the set of live nodes changes.
+     */
+    public interface Listener {
+        void onRingChanged(HashRing previous, HashRing current);
+    }
+
+    private static final class Member {
+        final String wsUrl;
+        volatile long lastSeen;
+
+        Member(String wsUrl, long lastSeen) {
+            this.wsUrl = wsUrl;
+            this.lastSeen = lastSeen;
+        }
+    }
+
+    private final String selfId;
+    private final String selfWsUrl;
+    private final String host;
+    private final int clusterPort;
+    // Null without a shared secret: only seeds are accepted then
+    private final SecretKeySpec secret;
+    private final Set<String> seeds;
+    private final Listener listener;
+
+    private final ConcurrentHashMap<String, Member> members = new ConcurrentHashMap<>();
+    // Nodes heard of through other nodes but not reached yet, with failed attempts
+    private final ConcurrentHashMap<String, Integer> candidates = new ConcurrentHashMap<>();
+
+    private volatile HashRing ring;
+    private ServerSocket linkSocket;
+    private Thread acceptThread;
+    private ScheduledExecutorService gossip;
+    private volatile boolean running;
+
+    /**
+     * @param host        Address other nodes use to reach this one
+     * @param clusterPort Port of the inter-node link
+     * @param wsUrl       WebSocket URL clients are redirected to for meetings owned here
+     * @param seeds       Link addresses ({@code host:port}) of nodes to contact at start
+     */
+    public RelayCluster(String host, int clusterPort, String wsUrl, Collection<String> seeds, Listener listener) {
+        this(host, clusterPort, wsUrl, seeds, null, listener);
+    }
+
+    /**
+     * @param secret Shared by all nodes to authenticate the link, or null to accept only the seeds
+     */
+    public RelayCluster(String host, int clusterPort, String wsUrl, Collection<String> seeds, String secret,
+                        Listener listener) {
+        this.selfId = host + ":" + clusterPort;
+        this.selfWsUrl = wsUrl;
+        this.host = host;
+        this.clusterPort = clusterPort;
+        this.secret = secret != null && !secret.isEmpty()
+                ? new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), MAC_ALGORITHM) : null;
+        this.seeds = new LinkedHashSet<>(seeds);
+        this.seeds.remove(selfId);
+        this.listener = listener;
+        this.ring = new HashRing(List.of(selfId));
+    }
+
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        linkSocket = new ServerSocket();
+        linkSocket.setReuseAddress(true);
+        linkSocket.bind(new InetSocketAddress(host, clusterPort));
+        running = true;
+
+        acceptThread = new Thread(this::acceptLoop, "WebSocketServer-ClusterLink");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+
+        gossip = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "WebSocketServer-ClusterGossip");
+            t.setDaemon(true);
+            return t;
+        });
+        gossip.scheduleWithFixedDelay(this::gossipRound, 0, GOSSIP_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+        System.out.println("Relay cluster node " + selfId + " started (seeds: " + seeds
+                + (secret != null ? ", authenticated" : ", seeds only") + ")");
+    }
+
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+
+        if (gossip != null) {
+            gossip.shutdownNow();
+            gossip = null;
+        }
+        for (String node : new ArrayList<>(members.keySet())) {
+            exchange(node, sign("LEAVE|" + selfId), false);
+        }
+        try {
+            linkSocket.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+        members.clear();
+        candidates.clear();
+        ring = new HashRing(List.of(selfId));
+        System.out.println("Relay cluster node " + selfId + " stopped");
+    }
+
+    // ---- placement ----
+
+    public boolean isLocal(String meetingId) {
+        return selfId.equals(ring.ownerOf(meetingId));
+    }
+
+    public String ownerOf(String meetingId) {
+        return ring.ownerOf(meetingId);
+    }
+
+    /**
+     * WebSocket URL of the node owning a meeting.
+     */
+    public String urlForMeeting(String meetingId) {
+        return urlOf(ring.ownerOf(meetingId));
+    }
+
+    public String urlOf(String nodeId) {
+        if (selfId.equals(nodeId)) {
+            return selfWsUrl;
+        }
+        Member member = members.get(nodeId);
+        return member != null ? member.wsUrl : null;
+    }
+
+    /**
+     * The ring the other nodes will use once this node has left, for handing
+     * meetings over on a clean shutdown. Empty if this node is alone.
+     */
+    public HashRing getRingWithoutSelf() {
+        return new HashRing(new ArrayList<>(members.keySet()));
+    }
+
+    public HashRing getRing() {
+        return ring;
+    }
+
+    public String getSelfId() {
+        return selfId;
+    }
+
+    /**
+     * Live nodes with their WebSocket URLs, this node included.
+     */
+    public Map<String, String> getMembers() {
+        Map<String, String> result = new HashMap<>();
+        result.put(selfId, selfWsUrl);
+        members.forEach((id, member) -> result.put(id, member.wsUrl));
+        return result;
+    }
+
+    // ---- inter-node link ----
+
+    private void acceptLoop() {
+        while (running) {
+            try (Socket socket = linkSocket.accept()) {
+                socket.setSoTimeout(LINK_TIMEOUT_MS);
+                BufferedReader in = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                String line = verify(in.readLine());
+                if (line == null) {
+                    continue;
+                }
+                if (line.startsWith("HELLO|")) {
+                    if (!accepts(nodeIdOf(line), socket.getInetAddress())) {
+                        continue;
+                    }
+                    OutputStream out = socket.getOutputStream();
+                    out.write((sign(helloLine()) + "\n").getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                    onHello(line);
+                } else if (line.startsWith("LEAVE|")) {
+                    String nodeId = line.substring("LEAVE|".length());
+                    if (accepts(nodeId, socket.getInetAddress())) {
+                        onLeave(nodeId);
+                    }
+                }
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Cluster link error: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Send one line to a node and optionally read its one-line reply.
+     * @return The reply, or null on failure or when no reply was expected
+     */
+    private String exchange(String nodeId, String line, boolean expectReply) {
+        int colon = nodeId.lastIndexOf(':');
+        if (colon < 0) {
+            return null;
+        }
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(nodeId.substring(0, colon),
+                    Integer.parseInt(nodeId.substring(colon + 1))), LINK_TIMEOUT_MS);
+            socket.setSoTimeout(LINK_TIMEOUT_MS);
+            OutputStream out = socket.getOutputStream();
+            out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            if (!expectReply) {
+                return null;
+            }
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            return in.readLine();
+        } catch (IOException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Append a timestamp and MAC to an outgoing line; unchanged without a secret.
+     */
+    private String sign(String line) {
+        if (secret == null) {
+            return line;
+        }
+        String stamped = line + "|" + System.currentTimeMillis();
+        return stamped + "|" + HexFormat.of().formatHex(mac(stamped));
+    }
+
+    /**
+     * Check the timestamp and MAC of an incoming line.
+     * @return The line without them, or null if it is not authentic
+     */
+    private String verify(String line) {
+        if (line == null || secret == null) {
+            return line;
+        }
+        int macStart = line.lastIndexOf('|');
+        int stampStart = macStart > 0 ? line.lastIndexOf('|', macStart - 1) : -1;
+        if (stampStart < 0) {
+            return null;
+        }
+        try {
+            byte[] expected = mac(line.substring(0, macStart));
+            byte[] actual = HexFormat.of().parseHex(line.substring(macStart + 1));
+            long stamp = Long.parseLong(line.substring(stampStart + 1, macStart));
+            if (!MessageDigest.isEqual(expected, actual)
+                    || Math.abs(System.currentTimeMillis() - stamp) > MAX_CLOCK_SKEW_MS) {
+                return null;
+            }
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return line.substring(0, stampStart);
+    }
+
+    private byte[] mac(String line) {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(secret);
+            return mac.doFinal(line.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot compute " + MAC_ALGORITHM, e);
+        }
+    }
+
+    /**
+     * Whether a node may join or leave through a line that came from {@code from}.
+     * With a secret the MAC already vouched for it; without one it has to be a
+     * seed, sending from the seed's address.
+     */
+    private boolean accepts(String nodeId, InetAddress from) {
+        if (secret != null) {
+            return true;
+        }
+        int colon = nodeId.lastIndexOf(':');
+        if (!seeds.contains(nodeId) || colon < 0) {
+            return false;
+        }
+        try {
+            for (InetAddress address : InetAddress.getAllByName(nodeId.substring(0, colon))) {
+                if (address.equals(from)) {
+                    return true;
+                }
+            }
+        } catch (IOException e) {
+            // Unresolvable seed
+        }
+        return false;
+    }
+
+    private static String nodeIdOf(String hello) {
+        String[] parts = hello.split("\\|", 4);
+        return parts.length > 1 ? parts[1] : "";
+    }
+
+    // HELLO|nodeId|wsUrl|known1,known2,...
+    private String helloLine() {
+        return "HELLO|" + selfId + "|" + selfWsUrl + "|" + String.join(",", members.keySet());
+    }
+
+    private void onHello(String line) {
+        String[] parts = line.split("\\|", 4);
+        if (parts.length < 3 || parts[1].equals(selfId)) {
+            return;
+        }
+        String nodeId = parts[1];
+        boolean joined = members.put(nodeId, new Member(parts[2], System.currentTimeMillis())) == null;
+        candidates.remove(nodeId);
+
+        if (parts.length == 4 && !parts[3].isEmpty()) {
+            for (String known : parts[3].split(",")) {
+                // Without a secret only seeds are members, and those are contacted anyway
+                if (secret != null && !known.equals(selfId) && !members.containsKey(known)) {
+                    candidates.putIfAbsent(known, 0);
+                }
+            }
+        }
+
+        if (joined) {
+            System.out.println("Relay node joined: " + nodeId + " (" + parts[2] + ")");
+            rebuildRing();
+        }
+    }
+
+    private void onLeave(String nodeId) {
+        if (members.remove(nodeId) != null) {
+            System.out.println("Relay node left: " + nodeId);
+            rebuildRing();
+        }
+    }
+
+    private void gossipRound() {
+        try {
+            Set<String> targets = new LinkedHashSet<>(seeds);
+            targets.addAll(members.keySet());
+            targets.addAll(candidates.keySet());
+            targets.remove(selfId);
+
+            String hello = sign(helloLine());
+            for (String target : targets) {
+                String reply = verify(exchange(target, hello, true));
+                // Without a secret a reply only counts from a seed
+                if (reply != null && reply.startsWith("HELLO|")
+                        && (secret != null || seeds.contains(nodeIdOf(reply)))) {
+                    onHello(reply);
+                } else if (candidates.containsKey(target)) {
+                    int failures = candidates.merge(target, 1, Integer::sum);
+                    if (failures >= MAX_FAILED_CONTACTS) {
+                        candidates.remove(target);
+                    }
+                }
+            }
+
+            long oldestAllowed = System.currentTimeMillis() - FAILURE_TIMEOUT_MS;
+            boolean lost = false;
+            for (Map.Entry<String, Member> entry : members.entrySet()) {
+                if (entry.getValue().lastSeen < oldestAllowed) {
+                    members.remove(entry.getKey());
+                    System.out.println("Relay node timed out: " + entry.getKey());
+                    lost = true;
+                }
+            }
+            if (lost) {
+                rebuildRing();
+            }
+        } catch (Exception e) {
+            System.err.println("Error in cluster gossip: " + e.getMessage());
+        }
+    }
+
+    private synchronized void rebuildRing() {
+        Set<String> nodes = new HashSet<>(members.keySet());
+        nodes.add(selfId);
+        HashRing previous = ring;
+        if (previous.getNodes().equals(nodes)) {
+            return;
+        }
+        HashRing current = new HashRing(nodes);
+        ring = current;
+        System.out.println("Relay ring is now " + current.getNodes());
+
+        if (listener != null) {
+            try {
+                listener.onRingChanged(previous, current);
+            } catch (Exception e) {
+                System.err.println("Error rebalancing meetings: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RelayCluster[" + selfId + " ring=" + ring.getNodes() + "]";
+    }
+}
@@ -0,0 +1,85 @@
+package org.example.zoom.websocket;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Headless relay node for cluster mode. Start several in separate JVMs, e.g.:
+ * <pre>
+ *   java -cp target/classes org.example.zoom.websocket.RelayClusterNode --port 8887 --cluster-port 9887
+ *   java -cp target/classes org.example.zoom.websocket.RelayClusterNode --port 8888 --cluster-port 9888 --seeds 127.0.0.1:9887
+ *   java -cp target/classes org.example.zoom.websocket.RelayClusterNode --port 8889 --cluster-port 9889 --seeds 127.0.0.1:9887
+ * </pre>
+ * Add {@code --metrics-port 9100} to serve Prometheus metrics.
+ * Each node prints the ring and its meetings every few seconds. Stopping a node
+ * moves its meetings to the remaining ones.
+ */
+public class RelayClusterNode {
+
+    private static final long STATUS_INTERVAL_MS = 5000;
+
+    public static void main(String[] args) throws InterruptedException {
+        int port = 8887;
+        int clusterPort = -1;
+        String host = "127.0.0.1";
+        int metricsPort = -1;
+        List<String> seeds = new ArrayList<>();
+
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--port":
+                    port = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--cluster-port":
+                    clusterPort = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--metrics-port":
+                    metricsPort = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--host":
+                    host = args[i + 1];
+                    break;
+                case "--seeds":
+                    for (String seed : args[i + 1].split(",")) {
+                        if (!seed.isEmpty()) {
+                            seeds.add(seed);
+                        }
+                    }
+                    break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    break;
+            }
+        }
+        if (clusterPort <= 0) {
+            clusterPort = port + 1000;
+        }
+
+        SimpleNativeWebSocketServer server = SimpleNativeWebSocketServer.getInstance();
+        server.setClusterHost(host);
+        server.enableCluster(clusterPort, seeds);
+        if (metricsPort > 0) {
+            server.setMetricsPort(metricsPort);
+        }
+        if (!server.start(port)) {
+            System.err.println("Failed to start relay node on port " + port);
+            System.exit(1);
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop, "RelayClusterNode-Shutdown"));
+
+        while (true) {
+            Thread.sleep(STATUS_INTERVAL_MS);
+            RelayCluster cluster = server.getCluster();
+            if (cluster == null) {
+                continue;
+            }
+            System.out.println("\n" + cluster + " clients=" + server.getClientCount() +
+                    " meetings=" + server.getActiveMeetings() + " redirects=" + server.getRedirectCount());
+            for (Map.Entry<String, Double> share : cluster.getRing().getOwnership().entrySet()) {
+                System.out.printf("   %-22s owns %5.1f%% of meeting ids%n", share.getKey(), share.getValue() * 100);
+            }
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package org.example.zoom.websocket;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Relay traffic counters and latency histograms, rendered in the Prometheus
+ * text format.
+ *
+ * Per-type counters live in fixed arrays indexed by the well-known message
+ * types ({@link MessageHeader#KNOWN_TYPES}); any other type is counted as
+ * OTHER, so clients cannot grow the label set. Likewise only meetings hosted
+ * on this relay, opened with {@link #openMeeting} once a client joined their
+ * room and dropped with {@link #removeMeeting}, get per-meeting counters;
+ * traffic for "global", redirected meetings and ids nobody joined is counted
+ * under meeting="OTHER". All recording goes through
+ * {@link LongAdder} and {@link LatencyHistogram}, neither of which locks.
+ */
+public class RelayMetrics {
+
+    private static final String[] TYPES = MessageHeader.KNOWN_TYPES;
+    private static final int OTHER = TYPES.length;
+    private static final Map<String, Integer> TYPE_INDEX = new HashMap<>();
+
+    static {
+        for (int i = 0; i < TYPES.length; i++) {
+            TYPE_INDEX.put(TYPES[i], i);
+        }
+    }
+
+    // Cumulative bucket bounds for the exported histograms, in seconds
+    private static final double[] LATENCY_BOUNDS_SECONDS = {
+            0.00001, 0.000025, 0.00005, 0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005,
+            0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5
+    };
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private static final class MeetingTraffic {
+        final LongAdder bytesIn = new LongAdder();
+        final LongAdder bytesOut = new LongAdder();
+    }
+
+    private final LongAdder[] messagesIn = newAdders();
+    private final LongAdder[] messagesOut = newAdders();
+    private final LongAdder[] bytesIn = newAdders();
+    private final LongAdder[] bytesOut = newAdders();
+    private final ConcurrentHashMap<String, MeetingTraffic> meetings = new ConcurrentHashMap<>();
+    private final MeetingTraffic otherMeetings = new MeetingTraffic();
+
+    private final LatencyHistogram fanOutLatency = new LatencyHistogram();
+    private final LatencyHistogram laneWait = new LatencyHistogram();
+    private final LatencyHistogram uplinkLatency = new LatencyHistogram();
+
+    private static LongAdder[] newAdders() {
+        LongAdder[] adders = new LongAdder[TYPES.length + 1];
+        for (int i = 0; i < adders.length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    private static int indexOf(String type) {
+        Integer index = TYPE_INDEX.get(type);
+        return index != null ? index : OTHER;
+    }
+
+    private static String typeLabel(int index) {
+        return index == OTHER ? "OTHER" : TYPES[index];
+    }
+
+    // ---- recording ----
+
+    /**
+     * A message received from a client.
+     */
+    public void recordIn(String type, String meetingId, int bytes) {
+        int index = indexOf(type);
+        messagesIn[index].increment();
+        bytesIn[index].add(bytes);
+        traffic(meetingId).bytesIn.add(bytes);
+    }
+
+    /**
+     * A message relayed to {@code recipients} connections.
+     * @param frameBytes Encoded size of the frame each recipient gets
+     */
+    public void recordOut(String type, String meetingId, int recipients, int frameBytes) {
+        if (recipients == 0) {
+            return;
+        }
+        int index = indexOf(type);
+        long total = (long) recipients * frameBytes;
+        messagesOut[index].add(recipients);
+        bytesOut[index].add(total);
+        traffic(meetingId).bytesOut.add(total);
+    }
+
+    /**
+     * Time to encode a broadcast once and queue it for every recipient.
+     */
+    public void recordFanOut(long nanos) {
+        fanOutLatency.record(nanos);
+    }
+
+    /**
+     * Time a message waited on its meeting lane before being handled.
+     */
+    public void recordLaneWait(long nanos) {
+        laneWait.record(nanos);
+    }
+
+    /**
+     * Time from capture on a sender to arrival at the relay, for traced media
+     * and chat messages (see {@link MediaTrace}).
+     */
+    public void recordUplink(long nanos) {
+        uplinkLatency.record(nanos);
+    }
+
+    private MeetingTraffic traffic(String meetingId) {
+        MeetingTraffic traffic = meetingId != null ? meetings.get(meetingId) : null;
+        return traffic != null ? traffic : otherMeetings;
+    }
+
+    /**
+     * Count a meeting on its own from now on; for meetings whose room is on this relay.
+     */
+    public void openMeeting(String meetingId) {
+        meetings.computeIfAbsent(meetingId, k -> new MeetingTraffic());
+    }
+
+    /**
+     * Forget an ended meeting so the label set does not grow without bound.
+     */
+    public void removeMeeting(String meetingId) {
+        meetings.remove(meetingId);
+    }
+
+    public LatencyHistogram getFanOutLatency() {
+        return fanOutLatency;
+    }
+
+    public LatencyHistogram getLaneWait() {
+        return laneWait;
+    }
+
+    public LatencyHistogram getUplinkLatency() {
+        return uplinkLatency;
+    }
+
+    public long getMessagesIn(String type) {
+        return messagesIn[indexOf(type)].sum();
+    }
+
+    public long getMessagesOut(String type) {
+        return messagesOut[indexOf(type)].sum();
+    }
+
+    // ---- Prometheus text format ----
+
+    /**
+     * Append the traffic counters and histograms.
+     */
+    public void writeTo(StringBuilder out) {
+        writePerType(out, "zoom_relay_messages_in_total", "Messages received from clients", messagesIn);
+        writePerType(out, "zoom_relay_messages_out_total", "Message deliveries to clients", messagesOut);
+        writePerType(out, "zoom_relay_bytes_in_total", "Bytes received from clients", bytesIn);
+        writePerType(out, "zoom_relay_bytes_out_total", "Bytes queued to clients", bytesOut);
+
+        header(out, "zoom_relay_meeting_bytes_in_total", "Bytes received per meeting", "counter");
+        meetings.forEach((meetingId, traffic) -> sample(out, "zoom_relay_meeting_bytes_in_total",
+                "meeting=\"" + escape(meetingId) + "\"", traffic.bytesIn.sum()));
+        sample(out, "zoom_relay_meeting_bytes_in_total", "meeting=\"OTHER\"", otherMeetings.bytesIn.sum());
+        header(out, "zoom_relay_meeting_bytes_out_total", "Bytes queued per meeting", "counter");
+        meetings.forEach((meetingId, traffic) -> sample(out, "zoom_relay_meeting_bytes_out_total",
+                "meeting=\"" + escape(meetingId) + "\"", traffic.bytesOut.sum()));
+        sample(out, "zoom_relay_meeting_bytes_out_total", "meeting=\"OTHER\"", otherMeetings.bytesOut.sum());
+
+        writeHistogram(out, "zoom_relay_fanout_latency_seconds",
+                "Time to encode a broadcast and queue it for all recipients", fanOutLatency);
+        writeHistogram(out, "zoom_relay_lane_wait_seconds",
+                "Time messages waited on their meeting lane", laneWait);
+        writeHistogram(out, "zoom_relay_media_uplink_latency_seconds",
+                "Capture-to-relay latency of traced media and chat messages", uplinkLatency);
+    }
+
+    private static void writePerType(StringBuilder out, String name, String help, LongAdder[] adders) {
+        header(out, name, help, "counter");
+        for (int i = 0; i < adders.length; i++) {
+            long value = adders[i].sum();
+            if (value != 0) {
+                sample(out, name, "type=\"" + typeLabel(i) + "\"", value);
+            }
+        }
+    }
+
+    /**
+     * A nanosecond histogram as a Prometheus histogram in seconds, plus a
+     * {@code <name>_quantile} gauge with p50/p90/p99/p999.
+     */
+    public static void writeHistogram(StringBuilder out, String name, String help, LatencyHistogram histogram) {
+        header(out, name, help, "histogram");
+        for (double bound : LATENCY_BOUNDS_SECONDS) {
+            sample(out, name + "_bucket", "le=\"" + bound + "\"",
+                    histogram.getCountAtOrBelow((long) (bound * 1_000_000_000L)));
+        }
+        long count = histogram.getCount();
+        sample(out, name + "_bucket", "le=\"+Inf\"", count);
+        out.append(name).append("_sum ").append(histogram.getSum() / 1e9).append('\n');
+        out.append(name).append("_count ").append(count).append('\n');
+
+        header(out, name + "_quantile", help + " (quantiles)", "gauge");
+        for (double quantile : QUANTILES) {
+            out.append(name).append("_quantile{quantile=\"").append(quantile).append("\"} ")
+                    .append(histogram.getValueAtQuantile(quantile) / 1e9).append('\n');
+        }
+    }
+
+    public static void writeCounter(StringBuilder out, String name, String help, long value) {
+        header(out, name, help, "counter");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    public static void writeGauge(StringBuilder out, String name, String help, double value) {
+        header(out, name, help, "gauge");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    public static void header(StringBuilder out, String name, String help, String kind) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(kind).append('\n');
+    }
+
+    public static void sample(StringBuilder out, String name, String labels, long value) {
+        out.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
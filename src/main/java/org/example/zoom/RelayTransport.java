@@ -0,0 +1,103 @@
+package org.example.zoom.websocket;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.handshake.ClientHandshake;
+
+/**
+ * The socket engine under {@link SimpleNativeWebSocketServer}.
+ *
+ * A transport accepts connections, runs the WebSocket handshake, decodes
+ * frames and writes pre-encoded frames. Everything above that (clients,
+ * meetings, queues) lives in the server and only sees {@link WebSocket}
+ * connections and the {@link Listener} callbacks, so engines can be swapped
+ * without touching the relay logic.
+ *
+ * Engines are picked with {@code -Dzoom.server.transport}, see {@link #create}.
+ */
+public interface RelayTransport {
+
+    String JAVA_WEBSOCKET = "java-websocket";
+    String NIO = "nio";
+
+    /**
+     * Connection events. Callbacks run on the transport's I/O threads and must not block.
+     */
+    interface Listener {
+        /**
+         * The handshake request is valid; add any extra response headers.
+         */
+        void onHandshake(ClientHandshake request, Map<String, String> responseHeaders);
+
+        void onOpen(WebSocket conn, ClientHandshake handshake);
+
+        void onMessage(WebSocket conn, String message);
+
+        /**
+         * @param message The whole binary message; the buffer belongs to the listener
+         */
+        void onMessage(WebSocket conn, ByteBuffer message);
+
+        void onPong(WebSocket conn);
+
+        void onClose(WebSocket conn, int code, String reason, boolean remote);
+
+        /**
+         * @param conn The failing connection, or null for errors of the transport itself
+         */
+        void onError(WebSocket conn, Exception ex);
+
+        /**
+         * The transport is bound and accepting connections.
+         */
+        void onStart();
+    }
+
+    /**
+     * Bind and start accepting in the background. {@link Listener#onStart()}
+     * reports success, {@link Listener#onError} with a null connection failure.
+     */
+    void start();
+
+    void stop(int timeoutMs) throws InterruptedException;
+
+    int getPort();
+
+    InetSocketAddress getAddress();
+
+    /**
+     * Queue one complete, already encoded frame. The transport consumes the
+     * buffer (advances its position) as the bytes reach the socket.
+     */
+    void write(WebSocket conn, ByteBuffer frame);
+
+    /**
+     * Whether the connection negotiated permessage-deflate (without server
+     * context takeover), so it accepts frames from {@link SharedFrame#newDeflatedView()}.
+     */
+    boolean usesDeflate(WebSocket conn);
+
+    /**
+     * Engine name and settings, for the startup banner.
+     */
+    String describe();
+
+    /**
+     * The engine with the given name; unknown names get the default,
+     * {@value #JAVA_WEBSOCKET}. {@value #NIO} is opt-in; TransportBenchmark in
+     * the benchmarks module compares the two.
+     * @param ioThreads Decoder threads for Java-WebSocket, selector threads for NIO
+     */
+    static RelayTransport create(String name, InetSocketAddress address, int ioThreads, Listener listener) {
+        if (NIO.equalsIgnoreCase(name)) {
+            return new NioWebSocketTransport(address, ioThreads, listener);
+        }
+        if (!JAVA_WEBSOCKET.equalsIgnoreCase(name)) {
+            System.err.println("Unknown transport '" + name + "', using " + JAVA_WEBSOCKET);
+        }
+        return new JavaWebSocketTransport(address, ioThreads, listener);
+    }
+}
@@ -0,0 +1,359 @@
+package org.example.zoom.websocket;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Meeting rooms of the relay, with meetings and sessions interned to int
+ * handles.
+ *
+ * A session is a connected client, registered once it is admitted. Its handle
+ * indexes the session table, so fan-out resolves a member with an array read.
+ * A room is created when its first session joins and has a handle of its own.
+ * Handles are reused once released.
+ *
+ * The members of a room are an int[] of session handles, replaced as a whole
+ * on every change (copy-on-write): broadcasts read it without locking, in the
+ * order sessions joined. Joins and leaves are rare next to broadcasts and take
+ * the table's lock.
+ *
+ * Every session also keeps the handles of the rooms it is in, so a closed
+ * session leaves exactly those rooms, whatever meetings it sent messages to.
+ * Its handle is released once it has left the last of them; until then no
+ * other session can get it.
+ *
+ * @param <S> What the relay keeps about a session
+ */
+public final class RoomTable<S> {
+
+    private static final int[] NONE = new int[0];
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Sessions in one meeting.
+     */
+    public static final class Room {
+        private final int handle;
+        private final String meetingId;
+        private volatile int[] members = NONE;
+
+        Room(int handle, String meetingId) {
+            this.handle = handle;
+            this.meetingId = meetingId;
+        }
+
+        public int getHandle() {
+            return handle;
+        }
+
+        public String getMeetingId() {
+            return meetingId;
+        }
+
+        /**
+         * Session handles of the members; the array is never changed, so it
+         * may be iterated while sessions join and leave.
+         */
+        public int[] members() {
+            return members;
+        }
+
+        public int size() {
+            return members.length;
+        }
+    }
+
+    /**
+     * A registered session. Operations on a session that was released are
+     * ignored, so late work for a closed client cannot touch whichever
+     * session got its handle next.
+     */
+    public static final class Session<T> {
+        private final int handle;
+        private final T value;
+        // Handles of the rooms this session is in
+        private volatile int[] rooms = NONE;
+        private boolean closed;
+        private boolean released;
+
+        Session(int handle, T value) {
+            this.handle = handle;
+            this.value = value;
+        }
+
+        public int getHandle() {
+            return handle;
+        }
+
+        public T getValue() {
+            return value;
+        }
+
+        /**
+         * Number of rooms this session is in.
+         */
+        public int roomCount() {
+            return rooms.length;
+        }
+    }
+
+    /**
+     * Handles in use are below {@code next}; released ones are taken again first.
+     */
+    private static final class Handles {
+        private int next;
+        private int[] free = new int[16];
+        private int freeCount;
+
+        int take() {
+            return freeCount > 0 ? free[--freeCount] : next++;
+        }
+
+        void release(int handle) {
+            if (freeCount == free.length) {
+                free = Arrays.copyOf(free, freeCount * 2);
+            }
+            free[freeCount++] = handle;
+        }
+
+        void clear() {
+            next = 0;
+            freeCount = 0;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Room> roomsById = new ConcurrentHashMap<>();
+    private volatile Room[] roomsByHandle = new Room[INITIAL_CAPACITY];
+    private final Handles roomHandles = new Handles();
+
+    @SuppressWarnings("unchecked")
+    private volatile Session<S>[] sessions = (Session<S>[]) new Session<?>[INITIAL_CAPACITY];
+    private final Handles sessionHandles = new Handles();
+    private int sessionCount;
+
+    /**
+     * Register a session; it is in no room yet.
+     */
+    public synchronized Session<S> register(S value) {
+        int handle = sessionHandles.take();
+        Session<S>[] table = sessions;
+        if (handle >= table.length) {
+            table = Arrays.copyOf(table, table.length * 2);
+        }
+        Session<S> session = new Session<>(handle, value);
+        table[handle] = session;
+        sessions = table;
+        sessionCount++;
+        return session;
+    }
+
+    /**
+     * The room of a meeting, or null if nobody is in it.
+     */
+    public Room room(String meetingId) {
+        return roomsById.get(meetingId);
+    }
+
+    /**
+     * The session behind a handle read from a room's members, or null if it
+     * is no longer in that room.
+     */
+    public S member(Room room, int handle) {
+        Session<S>[] table = sessions;
+        Session<S> session = handle < table.length ? table[handle] : null;
+        if (session == null) {
+            return null;
+        }
+        for (int joined : session.rooms) {
+            if (joined == room.handle) {
+                // The handle may belong to a newer room by now
+                return roomsByHandle[joined] == room ? session.value : null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Put a session in a meeting's room, creating the room if needed.
+     * @return false if it already was in the room, or is closed
+     */
+    public boolean join(Session<S> session, String meetingId) {
+        // Every message of a member comes through here; those need no lock
+        Room room = roomsById.get(meetingId);
+        if (room != null && contains(session.rooms, room.handle) && roomsByHandle[room.handle] == room) {
+            return false;
+        }
+        synchronized (this) {
+            if (session.closed || session.released) {
+                return false;
+            }
+            room = roomsById.get(meetingId);
+            if (room == null) {
+                room = new Room(roomHandles.take(), meetingId);
+                Room[] table = roomsByHandle;
+                if (room.handle >= table.length) {
+                    table = Arrays.copyOf(table, table.length * 2);
+                }
+                table[room.handle] = room;
+                roomsByHandle = table;
+                roomsById.put(meetingId, room);
+            } else if (contains(session.rooms, room.handle)) {
+                return false;
+            }
+            // The session's side first: broadcasts only look it up once they see it in the room
+            session.rooms = append(session.rooms, room.handle);
+            room.members = append(room.members, session.handle);
+            return true;
+        }
+    }
+
+    /**
+     * Take a session out of a meeting's room. A room left empty is removed.
+     * @return How many sessions are left in the room, or -1 if the session was not in it
+     */
+    public synchronized int leave(Session<S> session, String meetingId) {
+        Room room = roomsById.get(meetingId);
+        if (room == null || session.released || !contains(session.rooms, room.handle)) {
+            return -1;
+        }
+        room.members = remove(room.members, session.handle);
+        session.rooms = remove(session.rooms, room.handle);
+        if (room.members.length == 0) {
+            dropRoom(room);
+        }
+        if (session.closed && session.rooms.length == 0) {
+            release(session);
+        }
+        return room.members.length;
+    }
+
+    /**
+     * Remove a meeting's room with everyone in it, e.g. when the meeting moves
+     * to another relay.
+     * @return The sessions that were in it, or null if there was no room
+     */
+    public synchronized List<S> removeRoom(String meetingId) {
+        Room room = roomsById.get(meetingId);
+        if (room == null) {
+            return null;
+        }
+        List<S> removed = new ArrayList<>(room.members.length);
+        Session<S>[] table = sessions;
+        for (int handle : room.members) {
+            Session<S> session = table[handle];
+            if (session != null) {
+                removed.add(session.value);
+                session.rooms = remove(session.rooms, room.handle);
+                if (session.closed && session.rooms.length == 0) {
+                    release(session);
+                }
+            }
+        }
+        room.members = NONE;
+        dropRoom(room);
+        return removed;
+    }
+
+    /**
+     * Mark a session closed: it joins no more rooms, and its handle is
+     * released when it has left the rooms it is in.
+     * @return The meetings it still has to leave
+     */
+    public synchronized List<String> close(Session<S> session) {
+        List<String> meetings = new ArrayList<>();
+        if (session.closed || session.released) {
+            return meetings;
+        }
+        session.closed = true;
+        Room[] table = roomsByHandle;
+        for (int handle : session.rooms) {
+            meetings.add(table[handle].meetingId);
+        }
+        if (meetings.isEmpty()) {
+            release(session);
+        }
+        return meetings;
+    }
+
+    private void dropRoom(Room room) {
+        roomsById.remove(room.meetingId);
+        roomsByHandle[room.handle] = null;
+        roomHandles.release(room.handle);
+    }
+
+    private void release(Session<S> session) {
+        session.released = true;
+        sessions[session.handle] = null;
+        sessionHandles.release(session.handle);
+        sessionCount--;
+    }
+
+    public int getRoomCount() {
+        return roomsById.size();
+    }
+
+    public Set<String> getMeetingIds() {
+        return new HashSet<>(roomsById.keySet());
+    }
+
+    /**
+     * Sessions registered and not yet released.
+     */
+    public synchronized int getSessionCount() {
+        return sessionCount;
+    }
+
+    public synchronized void clear() {
+        for (Session<S> session : sessions) {
+            if (session != null) {
+                session.released = true;
+                session.rooms = NONE;
+            }
+        }
+        for (Room room : roomsByHandle) {
+            if (room != null) {
+                room.members = NONE;
+            }
+        }
+        roomsById.clear();
+        Arrays.fill(roomsByHandle, null);
+        Arrays.fill(sessions, null);
+        roomHandles.clear();
+        sessionHandles.clear();
+        sessionCount = 0;
+    }
+
+    private static boolean contains(int[] handles, int handle) {
+        for (int h : handles) {
+            if (h == handle) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int[] append(int[] handles, int handle) {
+        int[] result = Arrays.copyOf(handles, handles.length + 1);
+        result[handles.length] = handle;
+        return result;
+    }
+
+    private static int[] remove(int[] handles, int handle) {
+        for (int i = 0; i < handles.length; i++) {
+            if (handles[i] == handle) {
+                if (handles.length == 1) {
+                    return NONE;
+                }
+                int[] result = new int[handles.length - 1];
+                System.arraycopy(handles, 0, result, 0, i);
+                System.arraycopy(handles, i + 1, result, i, handles.length - i - 1);
+                return result;
+            }
+        }
+        return handles;
+    }
+}
@@ -0,0 +1,82 @@
+package org.example.zoom.websocket;
+
+import org.java_websocket.enums.Opcode;
+import org.java_websocket.extensions.IExtension;
+import org.java_websocket.extensions.permessage_deflate.PerMessageDeflateExtension;
+import org.java_websocket.framing.Framedata;
+
+/**
+ * Java-WebSocket's permessage-deflate with the relay's per-message policy:
+ * binary frames, video frames and file chunks are sent uncompressed (see
+ * {@link MessageCompressor#isCompressibleType}). Used by
+ * {@link SimpleWebSocketClient} and by {@link JavaWebSocketTransport}.
+ *
+ * The library keeps one deflater and one inflater per connection, so the
+ * compression contexts live as long as the connection.
+ */
+public class SelectiveDeflateExtension extends PerMessageDeflateExtension {
+
+    private static final int THRESHOLD = Integer.getInteger("zoom.deflate.minBytes", 256);
+
+    // A fragmented message whose first frame went out uncompressed
+    private boolean skippingContinuation;
+
+    public SelectiveDeflateExtension() {
+        setThreshold(THRESHOLD);
+    }
+
+    /**
+     * Server side: compress every message without context takeover, so frames
+     * the relay compressed once for a whole meeting can be interleaved with the
+     * library's own.
+     */
+    public static SelectiveDeflateExtension forServer() {
+        SelectiveDeflateExtension extension = new SelectiveDeflateExtension();
+        extension.setServerNoContextTakeover(true);
+        return extension;
+    }
+
+    @Override
+    public void encodeFrame(Framedata frame) {
+        Opcode opcode = frame.getOpcode();
+        if (opcode == Opcode.CONTINUOUS) {
+            if (skippingContinuation) {
+                skippingContinuation = !frame.isFin();
+                return;
+            }
+            super.encodeFrame(frame);
+            return;
+        }
+        if (opcode != Opcode.TEXT && opcode != Opcode.BINARY) {
+            super.encodeFrame(frame);
+            return;
+        }
+
+        MessageCompressor compressor = MessageCompressor.getInstance();
+        String type = opcode == Opcode.TEXT ? MessageCompressor.typeOf(frame.getPayloadData()) : null;
+        if (type == null || !MessageCompressor.isCompressibleType(type) || !compressor.isEnabled()) {
+            compressor.recordSkipped(type);
+            skippingContinuation = !frame.isFin();
+            return;
+        }
+
+        int before = frame.getPayloadData().remaining();
+        long start = System.nanoTime();
+        super.encodeFrame(frame);
+        long nanos = System.nanoTime() - start;
+        if (frame.isRSV1()) {
+            compressor.recordCompressed(type, before, frame.getPayloadData().remaining(), nanos);
+        } else {
+            compressor.recordSkipped(type);
+        }
+    }
+
+    @Override
+    public IExtension copyInstance() {
+        SelectiveDeflateExtension copy = new SelectiveDeflateExtension();
+        copy.setThreshold(getThreshold());
+        copy.setServerNoContextTakeover(isServerNoContextTakeover());
+        copy.setClientNoContextTakeover(isClientNoContextTakeover());
+        return copy;
+    }
+}
@@ -0,0 +1,134 @@
+package org.example.zoom.websocket;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.java_websocket.WebSocket;
+
+/**
+ * A WebSocket frame encoded once and shared by every recipient of a broadcast.
+ *
+ * The frame is built as a complete, unmasked RFC 6455 server frame (FIN set, no
+ * extensions) in a single read-only buffer. Each recipient gets its own
+ * {@link ByteBuffer#duplicate()} view, which shares the bytes but keeps an
+ * independent position, so the socket writer can consume it without affecting
+ * the other connections.
+ */
+public final class SharedFrame {
+
+    public static final byte OPCODE_TEXT = 0x1;
+    public static final byte OPCODE_BINARY = 0x2;
+
+    private final byte opcode;
+    private final ByteBuffer encoded;
+    private final int payloadLength;
+    // Frame for permessage-deflate recipients, built on first use; the plain frame if not worth compressing
+    private volatile ByteBuffer deflated;
+
+    private SharedFrame(byte opcode, ByteBuffer encoded, int payloadLength) {
+        this.opcode = opcode;
+        this.encoded = encoded;
+        this.payloadLength = payloadLength;
+    }
+
+    public static SharedFrame text(String message) {
+        return encode(OPCODE_TEXT, ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    public static SharedFrame binary(ByteBuffer payload) {
+        return encode(OPCODE_BINARY, payload);
+    }
+
+    /**
+     * Encode a single final frame around the remaining bytes of the payload.
+     * The payload buffer position is not modified.
+     */
+    public static SharedFrame encode(byte opcode, ByteBuffer payload) {
+        int length = payload.remaining();
+        ByteBuffer frame = ByteBuffer.allocate(headerSize(length) + length);
+
+        frame.put((byte) (0x80 | opcode));
+        if (length < 126) {
+            frame.put((byte) length);
+        } else if (length <= 0xFFFF) {
+            frame.put((byte) 126);
+            frame.putShort((short) length);
+        } else {
+            frame.put((byte) 127);
+            frame.putLong(length);
+        }
+        frame.put(payload.duplicate());
+        frame.flip();
+
+        return new SharedFrame(opcode, frame.asReadOnlyBuffer(), length);
+    }
+
+    static int headerSize(int payloadLength) {
+        if (payloadLength < 126) {
+            return 2;
+        }
+        return payloadLength <= 0xFFFF ? 4 : 10;
+    }
+
+    /**
+     * A fresh view over the encoded frame for one recipient.
+     */
+    public ByteBuffer newView() {
+        return encoded.duplicate();
+    }
+
+    /**
+     * A view for a recipient that negotiated permessage-deflate: the
+     * compressed frame if {@link MessageCompressor} finds the message worth
+     * compressing, otherwise the plain one. The message is compressed once and
+     * the result shared like the plain frame.
+     */
+    public ByteBuffer newDeflatedView() {
+        ByteBuffer frame = deflated;
+        if (frame == null) {
+            frame = MessageCompressor.getInstance().deflateFrame(opcode, payloadView());
+            if (frame == null) {
+                frame = encoded;
+            }
+            deflated = frame;
+        }
+        return frame.duplicate();
+    }
+
+    /**
+     * A read-only view over the payload only, without the frame header.
+     */
+    public ByteBuffer payloadView() {
+        ByteBuffer payload = encoded.duplicate();
+        payload.position(headerSize(payloadLength));
+        return payload.slice();
+    }
+
+    /**
+     * Send through the regular per-connection path, for sockets that do not
+     * expose a raw output queue.
+     */
+    public void sendUnshared(WebSocket conn) {
+        ByteBuffer payload = payloadView();
+        if (opcode == OPCODE_TEXT) {
+            conn.send(StandardCharsets.UTF_8.decode(payload).toString());
+        } else {
+            conn.send(payload);
+        }
+    }
+
+    public byte getOpcode() {
+        return opcode;
+    }
+
+    public int getPayloadLength() {
+        return payloadLength;
+    }
+
+    /**
+     * Size on the wire, header included.
+     */
+    public int size() {
+        return encoded.limit();
+    }
+}
@@ -4,23 +4,35 @@ import java.io.IOException;
 import java.net.BindException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.java_websocket.WebSocket;
 import org.java_websocket.handshake.ClientHandshake;
-import org.java_websocket.server.WebSocketServer;
 
 public class SimpleNativeWebSocketServer {
 
+    private static final AsyncLog LOG = AsyncLog.getInstance();
+
     private static SimpleNativeWebSocketServer instance;
-    private WebSocketServer webSocketServer;
+    private RelayTransport transport;
     private ExecutorService executorService;
     private int port = 8887;
     private volatile boolean isRunning = false;
@@ -35,18 +47,194 @@ public class SimpleNativeWebSocketServer {
 
     // Enhanced client tracking
     private final ConcurrentHashMap<WebSocket, ClientInfo> clients = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, Set<WebSocket>> meetingRooms = new ConcurrentHashMap<>();
+    // Meeting rooms, with clients and meetings interned to int handles (see RoomTable)
+    private final RoomTable<ClientInfo> rooms = new RoomTable<>();
     private final ConcurrentHashMap<String, Set<ClientInfo>> deviceGroups = new ConcurrentHashMap<>();
     private final Set<String> registeredDevices = Collections.synchronizedSet(new HashSet<>());
 
+    // Broadcast cost (frames are encoded once and shared by all recipients)
+    private final FanOutStats fanOutStats = new FanOutStats();
+
+    // Prometheus metrics, served over HTTP when a metrics port is set
+    private final RelayMetrics metrics = new RelayMetrics();
+    private int metricsPort = Integer.getInteger("zoom.metrics.port", -1);
+    private MetricsHttpServer metricsServer;
+
+    private static final long VIDEO_FRAME_BIT = Subscriptions.bitOf("VIDEO_FRAME");
+
+    private static final ThreadLocal<MessageHeader> HEADER_PARSER = ThreadLocal.withInitial(MessageHeader::new);
+    private static final ThreadLocal<MediaTrace> TRACE_PARSER = ThreadLocal.withInitial(MediaTrace::new);
+
+    // Connection storms: new connections are rate limited per IP and globally,
+    // and connects/disconnects are announced in batches instead of one by one
+    private final AdmissionControl admission = AdmissionControl.fromSystemProperties();
+    private final PresenceBatcher presence = new PresenceBatcher(
+            Integer.getInteger("zoom.presence.batchMs", 250),
+            Integer.getInteger("zoom.presence.snapshotThreshold", 8),
+            this::publishPresence);
+    // Version of the delta-based presence protocol; one per published batch with events (see PresenceState)
+    private final AtomicLong presenceVersion = new AtomicLong();
+    private final LongAdder presenceDeltas = new LongAdder();
+    private final LongAdder presenceResyncs = new LongAdder();
+
+    // Session resumption: recent non-media messages per meeting, and the sessions of
+    // dropped clients that may still come back with their resume token (see MeetingJournal)
+    private final MeetingJournal journal = MeetingJournal.fromSystemProperties();
+    private final ConcurrentHashMap<String, DetachedSession> detachedSessions = new ConcurrentHashMap<>();
+    private final long resumeGraceMs = Long.getLong("zoom.resume.graceMs", 60000);
+    private final SecureRandom tokenRandom = new SecureRandom();
+    private volatile long lastDetachedPrune;
+    private final LongAdder resumes = new LongAdder();
+    private final LongAdder resumeReplayed = new LongAdder();
+    private final LongAdder resumeSnapshots = new LongAdder();
+
+    // Load shedding when lanes fall behind or the heap fills up (see OverloadController)
+    private final OverloadController overload = OverloadController.fromSystemProperties();
+    private final long overloadSampleMs = Long.getLong("zoom.overload.sampleMs", 250);
+    private long lastOverloadSample;
+    private ScheduledExecutorService overloadSampler;
+    // FILE_TRANSFER chunks held per meeting while bulk relaying is paused; only touched on the meeting's lane
+    private final ConcurrentHashMap<String, ArrayDeque<ParkedMessage>> parkedBulk = new ConcurrentHashMap<>();
+    private final long maxParkedBulkBytes = Long.getLong("zoom.overload.parkedBulkBytes", 16L << 20);
+    private final AtomicLong parkedBulkBytes = new AtomicLong();
+    private final LongAdder bulkParked = new LongAdder();
+    private final LongAdder bulkDropped = new LongAdder();
+    // Files per meeting that failed for want of parking room; their later chunks are dropped
+    private final ConcurrentHashMap<String, Set<String>> failedBulk = new ConcurrentHashMap<>();
+    private final LongAdder bulkTransfersFailed = new LongAdder();
+
+    // Video and chat of recorded meetings, appended to segment files off the fan-out path (see RecordingTap)
+    private final RecordingTap recordingTap = RecordingTap.fromSystemProperties();
+    // The session whose join created each meeting's room, the only member allowed to record it
+    private final ConcurrentHashMap<String, ClientInfo> meetingHosts = new ConcurrentHashMap<>();
+
+    // Outbound queues holding frames their socket could not take yet
+    private static final long OUTBOUND_PUMP_INTERVAL_MS = 5;
+    // Video and file data only go to a socket with less than this waiting, so control stays responsive
+    private final int mediaInFlightBytes = Integer.getInteger("zoom.server.mediaInFlightBytes",
+            OutboundQueue.DEFAULT_MAX_MEDIA_IN_FLIGHT);
+    private final Set<OutboundQueue> backloggedQueues = ConcurrentHashMap.newKeySet();
+    private ScheduledExecutorService outboundPump;
+    // A connection with this much control, chat or file data waiting is closed as a slow consumer
+    private final long maxQueuedBytes = Long.getLong("zoom.server.maxQueuedBytes",
+            OutboundQueue.DEFAULT_MAX_QUEUED_BYTES);
+    private final LongAdder slowConsumerCloses = new LongAdder();
+    // A recipient with this much file data waiting gets no more of the file it overflowed on
+    private final long maxQueuedBulkBytes = Long.getLong("zoom.server.maxQueuedBulkBytes",
+            OutboundQueue.DEFAULT_MAX_QUEUED_BULK_BYTES);
+    private final LongAdder fileTransfersAborted = new LongAdder();
+
+    // Downstream bandwidth of each connection: drain samples and timed pings (see BandwidthEstimator)
+    private final long bandwidthSampleMs = Long.getLong("zoom.bandwidth.sampleMs", 250);
+    private final long bandwidthProbeMs = Long.getLong("zoom.bandwidth.probeMs", 1000);
+    private long lastBandwidthProbe;
+    private final LongAdder bandwidthPublished = new LongAdder();
+    private ScheduledExecutorService bandwidthSampler;
+
+    // Message handling runs on per-meeting lanes instead of the socket decoder threads
+    private int laneCount = Integer.getInteger("zoom.server.lanes", Runtime.getRuntime().availableProcessors());
+    private int decoderCount = Integer.getInteger("zoom.server.decoders", Runtime.getRuntime().availableProcessors());
+    private volatile MeetingLanes meetingLanes;
+
+    // Socket engine, see RelayTransport
+    private String transportName = System.getProperty("zoom.server.transport", RelayTransport.JAVA_WEBSOCKET);
+
+    // Latest video frame per publisher, pushed to clients as they join a meeting
+    private final LastFrameCache lastFrameCache = new LastFrameCache(
+            Long.getLong("zoom.server.frameCacheBytes", LastFrameCache.DEFAULT_MAX_BYTES),
+            LastFrameCache.DEFAULT_MAX_AGE_MS);
+
+    // Cluster mode: meetings are placed on relay nodes by consistent hashing (off unless a cluster port is set)
+    private int clusterPort = Integer.getInteger("zoom.cluster.port", -1);
+    private String clusterHost = System.getProperty("zoom.cluster.host", "127.0.0.1");
+    private List<String> clusterSeeds = parseSeeds(System.getProperty("zoom.cluster.seeds", ""));
+    // Shared by the nodes to authenticate the cluster link; without it only seeds are accepted
+    private final String clusterSecret = System.getProperty("zoom.cluster.secret");
+    private volatile RelayCluster cluster;
+    private final LongAdder redirects = new LongAdder();
+
+    // Deliveries skipped because the recipient is not subscribed to the message type
+    private final LongAdder subscriptionSkips = new LongAdder();
+    private final LongAdder subscriptionSkippedBytes = new LongAdder();
+
+    // Gaps and late arrivals in the sequence numbers of traced messages from senders
+    private final LongAdder uplinkLost = new LongAdder();
+    private final LongAdder uplinkLate = new LongAdder();
+
+    // Simulcast layers not forwarded because the subscriber gets another layer of the publisher
+    private final LongAdder simulcastSkips = new LongAdder();
+    private final LongAdder simulcastViews = new LongAdder();
+
+    // Clients are pinged after 15 s without traffic and closed after 30 s
+    private static final long LIVENESS_TICK_MS = 250;
+    private static final int LIVENESS_SLOTS = 256;
+    private static final long IDLE_PING_MS = 15000;
+    private static final long HEARTBEAT_TIMEOUT_MS = 30000;
+    private final LivenessWheel livenessWheel = new LivenessWheel(
+            LIVENESS_TICK_MS, LIVENESS_SLOTS, IDLE_PING_MS, HEARTBEAT_TIMEOUT_MS, new LivenessWheel.Handler() {
+                @Override
+                public void onIdle(LivenessWheel.Session session) {
+                    WebSocket conn = (WebSocket) session.getOwner();
+                    if (conn.isOpen()) {
+                        conn.sendPing();
+                    }
+                }
+
+                @Override
+                public void onExpired(LivenessWheel.Session session) {
+                    WebSocket conn = (WebSocket) session.getOwner();
+                    if (conn.isOpen()) {
+                        System.out.println("Client " + clients.get(conn) + " heartbeat timeout, closing connection");
+                        conn.close(1000, "Heartbeat timeout");
+                    }
+                }
+            });
+
     public static class ClientInfo {
+        private static final AtomicLong DEVICE_SEQUENCE = new AtomicLong();
+
+        WebSocket conn;
+        // Handle in the room table, and the rooms this client is in
+        RoomTable.Session<ClientInfo> session;
         String username;
         String meetingId;
         long connectTime;
         String ipAddress;
         String deviceId;
         String deviceType;
-        long lastHeartbeat;
+        LivenessWheel.Session liveness;
+        boolean binaryMediaFrames;
+        // Gets PRESENCE_SNAPSHOT/PRESENCE_DELTA instead of DEVICE_LIST/DEVICE_CONNECTED/DEVICE_DISCONNECTED
+        boolean presenceDeltas;
+        OutboundQueue outbound;
+        // Closed for not reading its control or chat messages fast enough
+        volatile boolean slowConsumer;
+        // FILE_TRANSFERs aborted for this client because its bulk queue was full; their later chunks are skipped
+        final Set<String> abortedFiles = ConcurrentHashMap.newKeySet();
+        // Meeting this client was last redirected away from, so the redirect is sent once
+        String redirectedMeeting;
+        // Message types this client wants (see Subscriptions)
+        volatile long subscriptions = Subscriptions.ALL;
+        // Sequence numbers of the traced messages this client sends (see MediaTrace)
+        final MediaTraceStats.Stream videoTrace = new MediaTraceStats.Stream();
+        final MediaTraceStats.Stream chatTrace = new MediaTraceStats.Stream();
+        // Gets journaled messages as EVENTs and may resume after a drop (see MeetingJournal)
+        boolean resumable;
+        String resumeToken;
+        // Journal sequence of the meeting when this client joined it; nothing older is replayed to it
+        long joinedSequence;
+        // Taken over by a resumed connection; closing this one is not a leave
+        volatile boolean resumed;
+        // Simulcast layer forwarded of each publisher (see SimulcastLayers)
+        final SimulcastLayers.Subscriber simulcast = new SimulcastLayers.Subscriber();
+        // What each simulcast layer this client publishes takes
+        final SimulcastLayers.Rates layerRates = new SimulcastLayers.Rates();
+        // Downstream bandwidth, from outbound drain rates and ping round trips
+        final BandwidthEstimator bandwidth = new BandwidthEstimator();
+        // Microphone on, from AUDIO_STATUS; under heavy load only these keep their video
+        volatile boolean speaking;
+        // Video frames this client published, per simulcast layer, for decimation under load
+        final long[] videoFramesIn = new long[SimulcastLayers.COUNT];
 
         public ClientInfo(String username, String meetingId, String ipAddress) {
             this.username = username;
@@ -55,11 +243,11 @@ public class SimpleNativeWebSocketServer {
             this.ipAddress = ipAddress;
             this.deviceId = generateDeviceId(ipAddress, username);
             this.deviceType = "unknown";
-            this.lastHeartbeat = System.currentTimeMillis();
         }
 
-        private String generateDeviceId(String ip, String user) {
-            return ip + "_" + user + "_" + System.currentTimeMillis();
+        private static String generateDeviceId(String ip, String user) {
+            // Connections from one address within a millisecond would otherwise share an id
+            return ip + "_" + user + "_" + System.currentTimeMillis() + "_" + DEVICE_SEQUENCE.incrementAndGet();
         }
 
         public String getDeviceId() {
@@ -67,11 +255,19 @@ public class SimpleNativeWebSocketServer {
         }
 
         public void updateHeartbeat() {
-            this.lastHeartbeat = System.currentTimeMillis();
+            LivenessWheel.Session session = liveness;
+            if (session != null) {
+                session.touch();
+            }
+        }
+
+        public long getLastHeartbeat() {
+            LivenessWheel.Session session = liveness;
+            return session != null ? session.getLastActivity() : connectTime;
         }
 
         public boolean isAlive(long timeoutMs) {
-            return (System.currentTimeMillis() - lastHeartbeat) < timeoutMs;
+            return (System.currentTimeMillis() - getLastHeartbeat()) < timeoutMs;
         }
 
         public String getUsername() {
@@ -85,6 +281,56 @@ public class SimpleNativeWebSocketServer {
         public long getConnectTime() {
             return connectTime;
         }
+
+        @Override
+        public String toString() {
+            return username + "@" + ipAddress;
+        }
+
+        public boolean supportsBinaryMediaFrames() {
+            return binaryMediaFrames;
+        }
+
+        public OutboundQueue getOutboundQueue() {
+            return outbound;
+        }
+
+        public long getSubscriptions() {
+            return subscriptions;
+        }
+    }
+
+    /**
+     * What is kept of a resumable client after its connection closed, until
+     * it resumes or the grace period ends.
+     */
+    private static final class DetachedSession {
+        final String username;
+        final String meetingId;
+        final long epoch;
+        final long joinedSequence;
+        final long detachedAt;
+
+        DetachedSession(String username, String meetingId, long epoch, long joinedSequence) {
+            this.username = username;
+            this.meetingId = meetingId;
+            this.epoch = epoch;
+            this.joinedSequence = joinedSequence;
+            this.detachedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * A FILE_TRANSFER chunk waiting for bulk relaying to resume.
+     */
+    private static final class ParkedMessage {
+        final String message;
+        final WebSocket sender;
+
+        ParkedMessage(String message, WebSocket sender) {
+            this.message = message;
+            this.sender = sender;
+        }
     }
 
     private SimpleNativeWebSocketServer() {
@@ -94,8 +340,13 @@ public class SimpleNativeWebSocketServer {
             return t;
         });
 
-        // Start heartbeat checker
-        startHeartbeatChecker();
+        livenessWheel.start();
+        admission.start();
+        presence.start();
+        startOutboundPump();
+        startBandwidthEstimation();
+        startOverloadControl();
+        recordingTap.start();
     }
 
     public static synchronized SimpleNativeWebSocketServer getInstance() {
@@ -105,18 +356,267 @@ public class SimpleNativeWebSocketServer {
         return instance;
     }
 
-    private void startHeartbeatChecker() {
-        Executors.newSingleThreadScheduledExecutor().scheduleAtFixedRate(() -> {
+    private synchronized void startOutboundPump() {
+        if (outboundPump != null) {
+            return;
+        }
+        outboundPump = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "WebSocketServer-OutboundPump");
+            t.setDaemon(true);
+            return t;
+        });
+        outboundPump.scheduleWithFixedDelay(() -> {
+            for (OutboundQueue queue : backloggedQueues) {
+                try {
+                    if (!queue.drain()) {
+                        backloggedQueues.remove(queue);
+                        // A frame may have been offered between drain() and remove()
+                        if (queue.hasPending()) {
+                            backloggedQueues.add(queue);
+                        }
+                    }
+                } catch (Exception e) {
+                    System.err.println("Error draining outbound queue: " + e.getMessage());
+                    backloggedQueues.remove(queue);
+                }
+            }
+        }, OUTBOUND_PUMP_INTERVAL_MS, OUTBOUND_PUMP_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void startBandwidthEstimation() {
+        if (bandwidthSampler != null) {
+            return;
+        }
+        bandwidthSampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "WebSocketServer-Bandwidth");
+            t.setDaemon(true);
+            return t;
+        });
+        bandwidthSampler.scheduleWithFixedDelay(this::sampleBandwidth, bandwidthSampleMs, bandwidthSampleMs,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void startOverloadControl() {
+        if (!overload.isEnabled() || overloadSampler != null) {
+            return;
+        }
+        lastOverloadSample = System.currentTimeMillis();
+        overloadSampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "WebSocketServer-Overload");
+            t.setDaemon(true);
+            return t;
+        });
+        overloadSampler.scheduleAtFixedRate(this::sampleOverload, overloadSampleMs, overloadSampleMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sample the load signals and apply the new overload level. The sampler
+     * running late counts as lag too: a starved CPU or a GC pause delays it
+     * as much as the lanes.
+     */
+    private void sampleOverload() {
+        try {
             long now = System.currentTimeMillis();
-            long timeout = 30000; // 30 seconds timeout
+            long lagMs = Math.max(0, now - lastOverloadSample - overloadSampleMs);
+            lastOverloadSample = now;
+            MeetingLanes lanes = meetingLanes;
+            long laneDepth = 0;
+            if (lanes != null) {
+                lagMs = Math.max(lagMs, TimeUnit.NANOSECONDS.toMillis(lanes.getOldestWaitNanos()));
+                laneDepth = lanes.getTotalQueueDepth();
+            }
+            long outboundBytes = 0;
+            for (OutboundQueue queue : backloggedQueues) {
+                outboundBytes += queue.getBytesInFlight();
+            }
 
-            clients.forEach((conn, info) -> {
-                if (!info.isAlive(timeout) && conn.isOpen()) {
-                    System.out.println("Client " + info.username + " heartbeat timeout, closing connection");
-                    conn.close(1000, "Heartbeat timeout");
+            OverloadController.Level before = overload.update(lagMs, OverloadController.heapOccupancy(),
+                    laneDepth, outboundBytes, now);
+            if (before == OverloadController.Level.PAUSE_BULK) {
+                resumeParkedBulk();
+            }
+        } catch (Exception e) {
+            System.err.println("Error sampling overload signals: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Whether to drop a video frame before fan-out because the relay is
+     * overloaded. Counts the publisher's frames, so decimation is even per layer.
+     */
+    private boolean shedVideo(ClientInfo publisher, int layer) {
+        long frameNumber = publisher.videoFramesIn[layer]++;
+        return !overload.admitVideo(publisher.speaking, frameNumber);
+    }
+
+    /**
+     * Relay a FILE_TRANSFER chunk, or park it while bulk relaying is paused.
+     * Runs on the meeting's lane; once a meeting has parked chunks, newer
+     * ones queue behind them so a file arrives in order. A chunk that does
+     * not fit in {@code zoom.overload.parkedBulkBytes} fails its whole file
+     * (see failParkedTransfer) rather than leave a gap in it.
+     */
+    private void relayBulk(String meetingId, String message, WebSocket sender) {
+        Set<String> failed = failedBulk.get(meetingId);
+        if (failed != null) {
+            String fileId = fieldOf(message, 4);
+            if (fileId != null && failed.contains(fileId)) {
+                // The sender's own COMPLETE, ERROR or CANCEL ends the transfer; recipients already had ERROR
+                if (!"DATA".equals(fieldOf(message, 3))) {
+                    failed.remove(fileId);
                 }
-            });
-        }, 30, 30, TimeUnit.SECONDS);
+                bulkDropped.increment();
+                return;
+            }
+        }
+        ArrayDeque<ParkedMessage> parked = parkedBulk.get(meetingId);
+        if (!overload.pausesBulk() && parked == null) {
+            broadcastToMeeting(meetingId, message, sender);
+            return;
+        }
+        if (parkedBulkBytes.get() + message.length() > maxParkedBulkBytes) {
+            failParkedTransfer(meetingId, message, sender);
+            return;
+        }
+        if (parked == null) {
+            parked = new ArrayDeque<>();
+            parkedBulk.put(meetingId, parked);
+        }
+        parked.add(new ParkedMessage(message, sender));
+        parkedBulkBytes.addAndGet(message.length());
+        bulkParked.increment();
+    }
+
+    private void resumeParkedBulk() {
+        for (String meetingId : parkedBulk.keySet()) {
+            runOnLane(meetingId, () -> flushParkedBulk(meetingId));
+        }
+    }
+
+    /**
+     * Relay the chunks parked for a meeting, unless bulk relaying was paused
+     * again meanwhile. Runs on the meeting's lane.
+     */
+    private void flushParkedBulk(String meetingId) {
+        ArrayDeque<ParkedMessage> parked = parkedBulk.get(meetingId);
+        if (parked == null) {
+            return;
+        }
+        int relayed = 0;
+        while (!parked.isEmpty() && !overload.pausesBulk()) {
+            ParkedMessage next = parked.poll();
+            parkedBulkBytes.addAndGet(-next.message.length());
+            broadcastToMeeting(meetingId, next.message, next.sender);
+            relayed++;
+        }
+        if (parked.isEmpty()) {
+            parkedBulk.remove(meetingId);
+        }
+        if (relayed > 0) {
+            System.out.println("Relayed " + relayed + " parked FILE_TRANSFER chunk(s) in meeting " + meetingId);
+        }
+    }
+
+    /**
+     * Give up on a file whose chunk found no parking room: its parked chunks
+     * are dropped, and the sender and the other members get a FILE_TRANSFER
+     * ERROR for it, so nobody keeps a file with chunks missing. Runs on the
+     * meeting's lane.
+     */
+    private void failParkedTransfer(String meetingId, String message, WebSocket sender) {
+        String fileId = fieldOf(message, 4);
+        bulkDropped.increment();
+        if (fileId == null) {
+            return;
+        }
+        int dropped = 1;
+        ArrayDeque<ParkedMessage> parked = parkedBulk.get(meetingId);
+        if (parked != null) {
+            for (Iterator<ParkedMessage> it = parked.iterator(); it.hasNext(); ) {
+                ParkedMessage next = it.next();
+                if (fileId.equals(fieldOf(next.message, 4))) {
+                    it.remove();
+                    parkedBulkBytes.addAndGet(-next.message.length());
+                    bulkDropped.increment();
+                    dropped++;
+                }
+            }
+            if (parked.isEmpty()) {
+                parkedBulk.remove(meetingId);
+            }
+        }
+        // A final chunk ends the transfer anyway; only DATA has more chunks to come
+        if ("DATA".equals(fieldOf(message, 3))) {
+            failedBulk.computeIfAbsent(meetingId, k -> ConcurrentHashMap.newKeySet()).add(fileId);
+        }
+        bulkTransfersFailed.increment();
+
+        String error = "FILE_TRANSFER|" + meetingId + "|" + senderOf(message) + "|ERROR|" + fileId + "|"
+                + fieldOf(message, 5) + "|";
+        SharedFrame notice = SharedFrame.text(error + "Relay stopped the transfer: server overloaded");
+        RoomTable.Room room = rooms.room(meetingId);
+        if (room != null) {
+            for (int member : room.members()) {
+                ClientInfo info = rooms.member(room, member);
+                if (info != null && info.conn != sender && info.conn.isOpen()) {
+                    sendShared(info.conn, info, MessageClass.CONTROL, null, notice);
+                }
+            }
+        }
+        ClientInfo senderInfo = sender != null ? clients.get(sender) : null;
+        if (senderInfo != null && sender.isOpen()) {
+            sendShared(sender, senderInfo, MessageClass.CONTROL, null,
+                    SharedFrame.text(error + "Not delivered: server overloaded, send the file again later"));
+        }
+        System.out.println("Failed FILE_TRANSFER " + fileId + " in meeting " + meetingId + ": dropped " + dropped
+                + " chunk(s), " + parkedBulkBytes.get() + " bytes parked");
+    }
+
+    private void discardParkedBulk(String meetingId) {
+        failedBulk.remove(meetingId);
+        ArrayDeque<ParkedMessage> parked = parkedBulk.remove(meetingId);
+        if (parked != null) {
+            for (ParkedMessage message : parked) {
+                parkedBulkBytes.addAndGet(-message.message.length());
+            }
+            bulkDropped.add(parked.size());
+        }
+    }
+
+    /**
+     * Feed every connection's estimator a drain sample, time a ping now and
+     * then, and tell clients whose estimate moved.
+     */
+    private void sampleBandwidth() {
+        long now = System.currentTimeMillis();
+        boolean probe = now - lastBandwidthProbe >= bandwidthProbeMs;
+        if (probe) {
+            lastBandwidthProbe = now;
+        }
+        for (Map.Entry<WebSocket, ClientInfo> entry : clients.entrySet()) {
+            WebSocket conn = entry.getKey();
+            ClientInfo info = entry.getValue();
+            OutboundQueue queue = info.outbound;
+            if (queue == null || !conn.isOpen()) {
+                continue;
+            }
+            try {
+                long written = queue.getBytesWritten();
+                info.bandwidth.sample(written, queue.takeLimited(), now);
+                if (probe) {
+                    // Pings queue behind the data in flight, so the round trip includes its drain time
+                    info.bandwidth.pingSent(written, now);
+                    conn.sendPing();
+                }
+                String update = info.bandwidth.publish(now);
+                if (update != null) {
+                    sendShared(conn, info, MessageClass.CONTROL, null, SharedFrame.text(update));
+                    bandwidthPublished.increment();
+                }
+            } catch (Exception e) {
+                System.err.println("Error estimating bandwidth for " + info + ": " + e.getMessage());
+            }
+        }
     }
 
     public boolean start() {
@@ -190,140 +690,25 @@ public class SimpleNativeWebSocketServer {
                 return false;
             }
 
-            webSocketServer = new WebSocketServer(new InetSocketAddress(bindAddress, port)) {
-                @Override
-                public void onOpen(WebSocket conn, ClientHandshake handshake) {
-                    String clientAddress = conn.getRemoteSocketAddress().toString();
-                    String clientIp = conn.getRemoteSocketAddress().getAddress().getHostAddress();
-
-                    // Extract device info from handshake if available
-                    String deviceId = handshake.getFieldValue("Device-ID");
-                    String deviceName = handshake.getFieldValue("Device-Name");
-
-                    System.out.println("New client connected: " + clientAddress +
-                            " (Device: " + (deviceName != null ? deviceName : "Unknown") + ")");
-
-                    ClientInfo clientInfo = new ClientInfo(
-                            deviceName != null ? deviceName : "Unknown",
-                            "global",
-                            clientIp
-                    );
-
-                    if (deviceId != null && !deviceId.isEmpty()) {
-                        clientInfo.deviceId = deviceId;
-                        registeredDevices.add(deviceId);
-                    }
-
-                    clients.put(conn, clientInfo);
-
-                    // Send welcome message with server info
-                    String welcomeMsg = String.format(
-                            "CONNECTED|global|Server|Welcome to Zoom WebSocket Server|%d|%s|%s",
-                            getPort(),
-                            clientInfo.deviceId,
-                            getActiveClientsCount()
-                    );
-                    conn.send(welcomeMsg);
-
-                    System.out.println("Sent welcome to: " + clientAddress);
-
-                    // Broadcast new device connection to all clients
-                    broadcast(String.format(
-                            "DEVICE_CONNECTED|global|Server|New device connected: %s|%s",
-                            clientInfo.username,
-                            clientInfo.deviceId
-                    ));
-
-                    // Send list of connected devices to the new client
-                    sendConnectedDevicesList(conn);
-                }
-
-                @Override
-                public void onClose(WebSocket conn, int code, String reason, boolean remote) {
-                    String clientAddress = conn.getRemoteSocketAddress() != null ?
-                            conn.getRemoteSocketAddress().toString() : "unknown";
-                    ClientInfo info = clients.remove(conn);
-
-                    if (info != null) {
-                        String username = info.username;
-                        String meetingId = info.meetingId;
-                        String deviceId = info.deviceId;
-
-                        System.out.println("Client disconnected: " + username + " from " + clientAddress +
-                                " (Code: " + code + ", Reason: " + reason + ")");
-
-                        registeredDevices.remove(deviceId);
-
-                        if (meetingId != null && !meetingId.equals("global")) {
-                            removeFromMeeting(conn, meetingId);
-                            broadcastToMeeting(meetingId,
-                                    String.format("USER_LEFT|%s|%s|left the meeting|%s",
-                                            meetingId, username, deviceId), null);
-                        }
-
-                        broadcast(String.format(
-                                "DEVICE_DISCONNECTED|global|Server|Device disconnected: %s|%s",
-                                username, deviceId
-                        ));
-                    } else {
-                        System.out.println("Unknown client disconnected: " + clientAddress);
-                    }
-                }
-
-                @Override
-                public void onMessage(WebSocket conn, String message) {
-                    handleMessage(conn, message);
-                }
-
-                @Override
-                public void onMessage(WebSocket conn, ByteBuffer message) {
-                    try {
-                        String stringMessage = new String(message.array(), "UTF-8");
-                        handleMessage(conn, stringMessage);
-                    } catch (Exception e) {
-                        System.err.println("Error decoding binary message: " + e.getMessage());
-                    }
-                }
+            if (meetingLanes == null) {
+                meetingLanes = new MeetingLanes(laneCount, "WebSocketServer-Lane");
+                meetingLanes.setWaitHistogram(metrics.getLaneWait());
+            }
 
-                @Override
-                public void onError(WebSocket conn, Exception ex) {
-                    if (conn != null) {
-                        String clientAddress = conn.getRemoteSocketAddress() != null ?
-                                conn.getRemoteSocketAddress().toString() : "unknown";
-                        System.err.println("WebSocket error from " + clientAddress + ": " + ex.getMessage());
-                    } else {
-                        System.err.println("WebSocket server error: " + ex.getMessage());
-                        if (ex instanceof BindException) {
-                            System.err.println("Failed to bind to port " + getPort() + " - address already in use");
-                            isRunning = false;
-                        }
-                    }
-                }
+            transport = RelayTransport.create(transportName, new InetSocketAddress(bindAddress, port), decoderCount,
+                    newTransportListener());
 
-                @Override
-                public void onStart() {
-                    actualPort = getPort();
-                    isRunning = true;
-                    System.out.println("\n" + "=".repeat(60));
-                    System.out.println("✅ WebSocket server started successfully!");
-                    System.out.println("   Port: " + actualPort);
-                    System.out.println("   Address: " + getAddress().getHostString());
-                    System.out.println("   URL: ws://" + getAddress().getHostString() + ":" + actualPort);
-                    System.out.println("   Max clients: Unlimited");
-                    System.out.println("=".repeat(60) + "\n");
-                }
-            };
-
-            // Configure server
-            webSocketServer.setReuseAddr(true);
-            webSocketServer.setTcpNoDelay(true);
-            webSocketServer.setConnectionLostTimeout(30);
-            webSocketServer.setMaxPendingConnections(200); // Increased for multiple devices
+            livenessWheel.start();
+            admission.start();
+            presence.start();
+            startOutboundPump();
+            startBandwidthEstimation();
+            startOverloadControl();
 
             // Start server in background thread
             executorService.submit(() -> {
                 try {
-                    webSocketServer.start();
+                    transport.start();
                 } catch (Exception e) {
                     System.err.println("Failed to start WebSocket server thread on port " + port + ": " + e.getMessage());
                     isRunning = false;
@@ -344,221 +729,1610 @@ public class SimpleNativeWebSocketServer {
             System.err.println("Failed to start server on port " + port + ": " + e.getMessage());
 
             // Clean up if server was created but not started
-            if (webSocketServer != null) {
+            if (transport != null) {
                 try {
-                    webSocketServer.stop();
+                    transport.stop(0);
                 } catch (Exception ex) {
                     // Ignore
                 }
-                webSocketServer = null;
+                transport = null;
             }
 
             return false;
         }
     }
 
-    private void handleMessage(WebSocket conn, String message) {
-        try {
-            String clientAddress = conn.getRemoteSocketAddress() != null ?
-                    conn.getRemoteSocketAddress().toString() : "unknown";
-
-            // Update heartbeat for this client
-            ClientInfo info = clients.get(conn);
-            if (info != null) {
-                info.updateHeartbeat();
+    /**
+     * Callbacks from the transport into the relay.
+     */
+    private RelayTransport.Listener newTransportListener() {
+        return new RelayTransport.Listener() {
+            @Override
+            public void onHandshake(ClientHandshake request, Map<String, String> responseHeaders) {
+                // Confirm binary media frames to clients that asked for them
+                if (BinaryMediaFrame.HANDSHAKE_VALUE.equals(request.getFieldValue(BinaryMediaFrame.HANDSHAKE_HEADER))) {
+                    responseHeaders.put(BinaryMediaFrame.HANDSHAKE_HEADER, BinaryMediaFrame.HANDSHAKE_VALUE);
+                }
+                if (PresenceState.HANDSHAKE_VALUE.equals(request.getFieldValue(PresenceState.HANDSHAKE_HEADER))) {
+                    responseHeaders.put(PresenceState.HANDSHAKE_HEADER, PresenceState.HANDSHAKE_VALUE);
+                }
+                if (MeetingJournal.HANDSHAKE_VALUE.equals(request.getFieldValue(MeetingJournal.HANDSHAKE_HEADER))) {
+                    responseHeaders.put(MeetingJournal.HANDSHAKE_HEADER, MeetingJournal.HANDSHAKE_VALUE);
+                }
             }
 
-            System.out.println("Received from " + clientAddress + ": " + message);
+            @Override
+            public void onOpen(WebSocket conn, ClientHandshake handshake) {
+                String clientIp = conn.getRemoteSocketAddress().getAddress().getHostAddress();
+                AdmissionControl.Decision decision = admission.offer(conn, clientIp, () -> openClient(conn, handshake));
+                if (decision != AdmissionControl.Decision.ADMITTED) {
+                    System.out.println("Connection from " + clientIp + " " + decision.name().toLowerCase() +
+                            " by admission control (" + admission.getQueuedCount() + " waiting)");
+                }
+            }
 
-            String[] parts = message.split("\\|", -1); // -1 to keep empty strings
-            if (parts.length >= 4) {
-                String type = parts[0];
-                String meetingId = parts[1];
-                String username = parts[2];
-                String content = parts[3];
+            @Override
+            public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+                String clientAddress = conn.getRemoteSocketAddress() != null ?
+                        conn.getRemoteSocketAddress().toString() : "unknown";
+                if (admission.cancel(conn)) {
+                    System.out.println("Client disconnected while waiting for admission: " + clientAddress);
+                }
+                ClientInfo info = clients.remove(conn);
 
                 if (info != null) {
-                    info.username = username;
-                    info.meetingId = meetingId;
-                }
+                    String username = info.username;
+                    String meetingId = info.meetingId;
+                    String deviceId = info.deviceId;
 
-                if (!meetingId.equals("global") && !meetingId.isEmpty()) {
-                    addToMeeting(conn, meetingId);
-                }
+                    System.out.println("Client disconnected: " + username + " from " + clientAddress +
+                            " (Code: " + code + ", Reason: " + reason + ")");
 
-                switch (type) {
-                    case "CHAT":
-                    case "CHAT_MESSAGE":
-                        broadcastToMeeting(meetingId, message, conn);
-                        System.out.println("Broadcasted CHAT to meeting " + meetingId + ": " + content);
-                        break;
+                    if (info.liveness != null) {
+                        info.liveness.cancel();
+                    }
 
-                    case "VIDEO_STATUS":
-                        broadcastToMeeting(meetingId, message, conn);
-                        System.out.println("Broadcasted VIDEO_STATUS to meeting " + meetingId + ": " + content);
-                        break;
+                    if (info.outbound != null) {
+                        info.outbound.clear();
+                        backloggedQueues.remove(info.outbound);
+                    }
 
-                    case "VIDEO_FRAME":
-                        broadcastToMeeting(meetingId, message, conn);
-                        if (content.length() > 100) {
-                            System.out.println("Broadcasted VIDEO_FRAME to meeting " + meetingId +
-                                    " (size: " + content.length() + " chars)");
+                    // Every room the client is in, not only its current meeting
+                    List<String> joined = rooms.close(info.session);
+                    if (meetingId != null && !meetingId.equals("global")) {
+                        // On the meeting's lane, after the messages this client already sent
+                        runOnLane(meetingId, () -> {
+                            if (info.resumed) {
+                                // Its session lives on in the connection that resumed it
+                                removeFromMeeting(info, meetingId);
+                                return;
+                            }
+                            detachSession(info, meetingId);
+                            removeFromMeeting(info, meetingId);
+                            forgetPublisher(meetingId, username);
+                            broadcastToMeeting(meetingId,
+                                    String.format("USER_LEFT|%s|%s|left the meeting|%s",
+                                            meetingId, username, deviceId), null);
+                        });
+                    }
+                    for (String other : joined) {
+                        if (!other.equals(meetingId)) {
+                            runOnLane(other, () -> {
+                                removeFromMeeting(info, other);
+                                forgetPublisher(other, username);
+                            });
                         }
-                        break;
+                    }
 
-                    case "USER_JOINED":
-                        broadcastToMeeting(meetingId, message, conn);
-                        System.out.println("Broadcasted USER_JOINED to meeting " + meetingId + ": " + username);
-                        break;
+                    // A reconnected or resumed client keeps its Device-ID; its device stays while that connection is open
+                    presence.disconnected(conn, username, deviceId);
+                    if (!presence.isConnected(deviceId)) {
+                        registeredDevices.remove(deviceId);
+                    }
+                } else {
+                    System.out.println("Unknown client disconnected: " + clientAddress);
+                }
+            }
 
-                    case "USER_LEFT":
-                        broadcastToMeeting(meetingId, message, conn);
-                        System.out.println("Broadcasted USER_LEFT to meeting " + meetingId + ": " + username);
-                        removeFromMeeting(conn, meetingId);
-                        break;
+            @Override
+            public void onMessage(WebSocket conn, String message) {
+                dispatchMessage(conn, message);
+            }
 
-                    case "MEETING_CREATED":
-                        broadcastToMeeting(meetingId, message, conn);
-                        System.out.println("Broadcasted MEETING_CREATED to meeting " + meetingId + ": " + username);
-                        break;
+            @Override
+            public void onMessage(WebSocket conn, ByteBuffer message) {
+                try {
+                    dispatchBinaryMessage(conn, message);
+                } catch (Exception e) {
+                    System.err.println("Error decoding binary message: " + e.getMessage());
+                }
+            }
 
-                    case "AUDIO_STATUS":
-                        broadcastToMeeting(meetingId, message, conn);
-                        System.out.println("Broadcasted AUDIO_STATUS to meeting " + meetingId + ": " + content);
-                        break;
+            @Override
+            public void onPong(WebSocket conn) {
+                ClientInfo info = clients.get(conn);
+                if (info != null) {
+                    info.updateHeartbeat();
+                    info.bandwidth.pongReceived(System.currentTimeMillis());
+                }
+            }
 
-                    case "AUDIO_CONTROL":
-                        broadcastToMeeting(meetingId, message, conn);
-                        System.out.println("Broadcasted AUDIO_CONTROL to meeting " + meetingId + ": " + content);
-                        break;
+            @Override
+            public void onError(WebSocket conn, Exception ex) {
+                if (conn != null) {
+                    String clientAddress = conn.getRemoteSocketAddress() != null ?
+                            conn.getRemoteSocketAddress().toString() : "unknown";
+                    System.err.println("WebSocket error from " + clientAddress + ": " + ex.getMessage());
+                } else {
+                    System.err.println("WebSocket server error: " + ex.getMessage());
+                    if (ex instanceof BindException) {
+                        System.err.println("Failed to bind to port " + getPort() + " - address already in use");
+                        isRunning = false;
+                    }
+                }
+            }
 
-                    case "VIDEO_CONTROL":
-                        broadcastToMeeting(meetingId, message, conn);
-                        System.out.println("Broadcasted VIDEO_CONTROL to meeting " + meetingId + ": " + content);
-                        break;
+            @Override
+            public void onStart() {
+                actualPort = transport.getPort();
+                isRunning = true;
+                System.out.println("\n" + "=".repeat(60));
+                System.out.println("✅ WebSocket server started successfully!");
+                System.out.println("   Port: " + actualPort);
+                System.out.println("   Address: " + transport.getAddress().getHostString());
+                System.out.println("   URL: ws://" + transport.getAddress().getHostString() + ":" + actualPort);
+                System.out.println("   Max clients: Unlimited");
+                System.out.println("   Transport: " + transport.describe());
+                System.out.println("   Meeting lanes: " + meetingLanes.getLaneCount());
+                System.out.println("=".repeat(60) + "\n");
+
+                startCluster();
+                startMetricsEndpoint();
+            }
+        };
+    }
 
-                    case "FILE_SHARE":
-                        broadcastToMeeting(meetingId, message, conn);
-                        System.out.println("Broadcasted FILE_SHARE to meeting " + meetingId + ": " +
-                                content.substring(0, Math.min(50, content.length())) + "...");
-                        break;
+    /**
+     * Run the relay on a transport that is already set up, without binding a
+     * port or starting the meeting lanes, so messages are handled on the calling
+     * thread. The JMH benchmarks reach it reflectively to drive the relay with
+     * mock connections.
+     * @return The callbacks the transport should deliver its events to
+     */
+    private RelayTransport.Listener attachTransport(RelayTransport transport) {
+        this.transport = transport;
+        this.isRunning = true;
+        return newTransportListener();
+    }
 
-                    case "WEBRTC_SIGNAL":
-                        broadcastToMeeting(meetingId, message, conn);
-                        System.out.println("Forwarded WEBRTC_SIGNAL in meeting " + meetingId);
-                        break;
+    /**
+     * Open an admitted connection for the relay: register the client, greet it
+     * and queue its presence announcement. Runs on a transport thread, or on the
+     * admission thread if the connection had to wait.
+     */
+    private void openClient(WebSocket conn, ClientHandshake handshake) {
+        if (!conn.isOpen()) {
+            return;
+        }
+        String clientAddress = conn.getRemoteSocketAddress().toString();
+        String clientIp = conn.getRemoteSocketAddress().getAddress().getHostAddress();
 
-                    case "PING":
-                        conn.send("PONG|" + meetingId + "|Server|" + System.currentTimeMillis() + "|" + getActiveClientsCount());
-                        break;
+        // Extract device info from handshake if available
+        String deviceId = handshake.getFieldValue("Device-ID");
+        String deviceName = handshake.getFieldValue("Device-Name");
 
-                    case "HEARTBEAT":
-                        // Just update heartbeat, already done above
-                        conn.send("HEARTBEAT_ACK|" + meetingId + "|Server|" + System.currentTimeMillis());
-                        break;
+        System.out.println("New client connected: " + clientAddress +
+                " (Device: " + (deviceName != null ? deviceName : "Unknown") + ")");
 
-                    case "GET_DEVICES":
-                    case "GET_DEVICE_LIST":
-                        sendConnectedDevicesList(conn);
-                        break;
+        ClientInfo clientInfo = new ClientInfo(
+                deviceName != null ? deviceName : "Unknown",
+                "global",
+                clientIp
+        );
 
-                    case "DEVICE_INFO":
-                        if (parts.length >= 5) {
-                            String deviceType = parts[4];
-                            if (info != null) {
-                                info.deviceType = deviceType;
-                            }
-                            broadcast(String.format(
+        if (deviceId != null && !deviceId.isEmpty()) {
+            clientInfo.deviceId = deviceId;
+            registeredDevices.add(deviceId);
+        }
+
+        clientInfo.binaryMediaFrames = BinaryMediaFrame.HANDSHAKE_VALUE.equals(
+                handshake.getFieldValue(BinaryMediaFrame.HANDSHAKE_HEADER));
+        clientInfo.presenceDeltas = PresenceState.HANDSHAKE_VALUE.equals(
+                handshake.getFieldValue(PresenceState.HANDSHAKE_HEADER));
+        clientInfo.resumable = MeetingJournal.HANDSHAKE_VALUE.equals(
+                handshake.getFieldValue(MeetingJournal.HANDSHAKE_HEADER));
+        if (clientInfo.resumable) {
+            clientInfo.resumeToken = newResumeToken();
+        }
+        clientInfo.outbound = new OutboundQueue((frame, view) -> writeFrame(conn, frame, view),
+                OutboundQueue.DEFAULT_MAX_BYTES_IN_FLIGHT, mediaInFlightBytes, maxQueuedBytes, maxQueuedBulkBytes);
+        clientInfo.outbound.setDeflate(transport.usesDeflate(conn));
+        clientInfo.liveness = livenessWheel.register(conn);
+        clientInfo.conn = conn;
+        clientInfo.session = rooms.register(clientInfo);
+
+        clients.put(conn, clientInfo);
+        if (!conn.isOpen()) {
+            // Closed while waiting for admission, possibly before onClose could see it
+            clients.remove(conn);
+            rooms.close(clientInfo.session);
+            clientInfo.liveness.cancel();
+            return;
+        }
+
+        // Send welcome message with server info
+        String welcomeMsg = String.format(
+                "CONNECTED|global|Server|Welcome to Zoom WebSocket Server|%d|%s|%s",
+                getPort(),
+                clientInfo.deviceId,
+                getActiveClientsCount()
+        );
+        sendControl(conn, clientInfo, welcomeMsg);
+        if (clientInfo.resumeToken != null) {
+            sendControl(conn, clientInfo, "RESUME_TOKEN|global|Server|" + clientInfo.resumeToken);
+        }
+
+        System.out.println("Sent welcome to: " + clientAddress);
+
+        // Announced to everyone, and the device list sent, with the next presence batch
+        presence.connected(conn, clientInfo.username, clientInfo.deviceId, presenceEntry(clientInfo));
+    }
+
+    /**
+     * Hand a text message to the lane of its meeting. Messages outside a meeting
+     * go to a lane picked by connection, which keeps them in order per client.
+     */
+    private void dispatchMessage(WebSocket conn, String message) {
+        // Refreshed here rather than on the lane so a busy lane cannot time a client out
+        ClientInfo info = clients.get(conn);
+        if (info != null) {
+            info.updateHeartbeat();
+        } else if (admission.hold(conn, () -> dispatchMessage(conn, message))) {
+            return;
+        }
+
+        MeetingLanes lanes = meetingLanes;
+        if (lanes == null) {
+            handleMessage(conn, message);
+            return;
+        }
+
+        MessageHeader header = HEADER_PARSER.get();
+        if (header.parse(message) && !header.isGlobalOrEmpty()) {
+            lanes.submit(header.meetingIdHash(), () -> handleMessage(conn, message));
+        } else {
+            lanes.submit(System.identityHashCode(conn), () -> handleMessage(conn, message));
+        }
+    }
+
+    private void dispatchBinaryMessage(WebSocket conn, ByteBuffer message) {
+        BinaryMediaFrame frame = BinaryMediaFrame.parse(message);
+        if (frame == null && BinaryMediaFrame.isMediaFrame(message)) {
+            LOG.sampled(AsyncLog.Level.WARN, "MEDIA_FRAME", "Dropped malformed media frame from {}: {} bytes, flags {}",
+                    conn.getRemoteSocketAddress(), message.remaining(), message.get(message.position() + 3));
+            return;
+        }
+        if (frame == null) {
+            // Not a media frame, treat as a UTF-8 text message sent in a binary envelope
+            dispatchMessage(conn, StandardCharsets.UTF_8.decode(message).toString());
+            return;
+        }
+
+        ClientInfo info = clients.get(conn);
+        if (info != null) {
+            info.updateHeartbeat();
+        } else if (admission.hold(conn, () -> dispatchBinaryMessage(conn, message))) {
+            return;
+        }
+
+        MeetingLanes lanes = meetingLanes;
+        if (lanes == null) {
+            handleMediaFrame(conn, frame);
+        } else {
+            lanes.submit(frame.getMeetingId(), () -> handleMediaFrame(conn, frame));
+        }
+    }
+
+    private void runOnLane(String meetingId, Runnable work) {
+        MeetingLanes lanes = meetingLanes;
+        if (lanes == null) {
+            work.run();
+        } else {
+            lanes.submit(meetingId, work);
+        }
+    }
+
+    private void handleMessage(WebSocket conn, String message) {
+        try {
+            ClientInfo info = clients.get(conn);
+
+            // Only the header is parsed; the content (possibly a whole frame) is never split
+            MessageHeader header = HEADER_PARSER.get();
+            if (header.parse(message)) {
+                String type = header.type();
+                String meetingId = header.meetingId();
+                String username = header.username();
+
+                LOG.sampled(AsyncLog.Level.DEBUG, type, "Received {} from {}: {}", type, info, message);
+
+                if (!meetingId.equals("global") && !meetingId.isEmpty() && !isLocalMeeting(meetingId)) {
+                    metrics.recordIn(type, null, message.length());
+                    redirectToOwner(conn, info, meetingId);
+                    return;
+                }
+
+                if (info != null) {
+                    setUsername(info, username);
+                    // Control messages sent on "global" (PING, GET_DEVICE_LIST) leave the client in its meeting
+                    if (!header.isGlobalOrEmpty()) {
+                        info.meetingId = meetingId;
+                    }
+                }
+
+                String stream = MediaTrace.streamOf(type);
+                if (stream != null) {
+                    MediaTrace trace = TRACE_PARSER.get();
+                    if (trace.parse(message, header.contentStart())) {
+                        traceUplink(info, stream, trace.sequence(), trace.captureMs());
+                    }
+                }
+
+                if (info != null && !meetingId.equals("global") && !meetingId.isEmpty()) {
+                    addToMeeting(info, meetingId);
+                }
+                // Per meeting only once the meeting has a room here (see RelayMetrics)
+                metrics.recordIn(type, meetingId, message.length());
+
+                switch (type) {
+                    case "CHAT":
+                    case "CHAT_MESSAGE":
+                        broadcastToMeeting(meetingId, message, conn);
+                        LOG.debug("Broadcasted CHAT to meeting {} from {}", meetingId, username);
+                        break;
+
+                    case "VIDEO_STATUS":
+                        broadcastToMeeting(meetingId, message, conn);
+                        LOG.debug("Broadcasted VIDEO_STATUS to meeting {} from {}", meetingId, username);
+                        break;
+
+                    case "VIDEO_FRAME":
+                        if (info != null && shedVideo(info, SimulcastLayers.LOW)) {
+                            break;
+                        }
+                        broadcastToMeeting(meetingId, message, conn);
+                        LOG.sampled(AsyncLog.Level.DEBUG, type, "Broadcasted {} to meeting {} from {}",
+                                type, meetingId, username);
+                        break;
+
+                    case "USER_JOINED":
+                        broadcastToMeeting(meetingId, message, conn);
+                        LOG.debug("Broadcasted USER_JOINED to meeting {} from {}", meetingId, username);
+                        break;
+
+                    case "USER_LEFT":
+                        broadcastToMeeting(meetingId, message, conn);
+                        LOG.debug("Broadcasted USER_LEFT to meeting {} from {}", meetingId, username);
+                        removeFromMeeting(conn, meetingId);
+                        forgetPublisher(meetingId, username);
+                        break;
+
+                    case "MEETING_CREATED":
+                        broadcastToMeeting(meetingId, message, conn);
+                        LOG.debug("Broadcasted MEETING_CREATED to meeting {} from {}", meetingId, username);
+                        break;
+
+                    case "AUDIO_STATUS":
+                        // AUDIO_STATUS|meeting|user|muted their audio or unmuted their audio|...
+                        if (info != null) {
+                            String status = header.content();
+                            if (status.startsWith("unmuted")) {
+                                info.speaking = true;
+                            } else if (status.startsWith("muted")) {
+                                info.speaking = false;
+                            }
+                        }
+                        broadcastToMeeting(meetingId, message, conn);
+                        LOG.debug("Broadcasted AUDIO_STATUS to meeting {} from {}", meetingId, username);
+                        break;
+
+                    case "AUDIO_CONTROL":
+                        broadcastToMeeting(meetingId, message, conn);
+                        LOG.debug("Broadcasted AUDIO_CONTROL to meeting {} from {}", meetingId, username);
+                        break;
+
+                    case "VIDEO_CONTROL":
+                        broadcastToMeeting(meetingId, message, conn);
+                        LOG.debug("Broadcasted VIDEO_CONTROL to meeting {} from {}", meetingId, username);
+                        break;
+
+                    case "FILE_SHARE":
+                        broadcastToMeeting(meetingId, message, conn);
+                        LOG.debug("Broadcasted FILE_SHARE to meeting {} from {}", meetingId, username);
+                        break;
+
+                    case "FILE_TRANSFER":
+                        relayBulk(meetingId, message, conn);
+                        break;
+
+                    case "WEBRTC_SIGNAL":
+                        broadcastToMeeting(meetingId, message, conn);
+                        LOG.debug("Forwarded WEBRTC_SIGNAL in meeting {}", meetingId);
+                        break;
+
+                    case "PING":
+                        // Relay clock and the client's own send time echoed back, for its clock offset estimate
+                        conn.send("PONG|" + meetingId + "|Server|" + System.currentTimeMillis() + "|" +
+                                getActiveClientsCount() + "|" + MediaTrace.monotonicMillis() + "|" + header.content());
+                        break;
+
+                    case "HEARTBEAT":
+                        // Heartbeat was refreshed when the message was dispatched
+                        sendControl(conn, info, "HEARTBEAT_ACK|" + meetingId + "|Server|" + System.currentTimeMillis());
+                        break;
+
+                    case "GET_DEVICES":
+                    case "GET_DEVICE_LIST":
+                        sendConnectedDevicesList(conn);
+                        break;
+
+                    case "SUBSCRIBE":
+                    case "UNSUBSCRIBE":
+                        if (info != null) {
+                            updateSubscriptions(conn, info, type.equals("SUBSCRIBE"), header.content(), meetingId);
+                        }
+                        break;
+
+                    case "DEVICE_INFO":
+                        String deviceType = header.field(4);
+                        if (deviceType != null) {
+                            if (info != null) {
+                                info.deviceType = deviceType;
+                                presence.updated(info.username, info.deviceId, presenceEntry(info));
+                            }
+                            broadcastTo(String.format(
                                     "DEVICE_INFO_UPDATE|global|%s|%s|%s",
                                     username, deviceType, info != null ? info.deviceId : ""
-                            ));
+                            ), LEGACY_PRESENCE);
+                        }
+                        break;
+
+                    case "RESUME":
+                        if (info != null) {
+                            resumeSession(conn, info, meetingId, header.content());
+                        }
+                        break;
+
+                    case "VIDEO_VIEW":
+                        // VIDEO_VIEW|meeting|user|tileHeight[|publisher]
+                        if (info != null) {
+                            try {
+                                info.simulcast.request(Integer.parseInt(header.content().trim()), header.field(4));
+                                simulcastViews.increment();
+                            } catch (NumberFormatException e) {
+                                System.err.println("Invalid VIDEO_VIEW from " + username + ": " + message);
+                            }
+                        }
+                        break;
+
+                    case "RECORDING":
+                        // RECORDING|meeting|user|START or STOP; participants see it to show an indicator
+                        String action = header.content().trim();
+                        if (!mayRecord(info, meetingId)) {
+                            sendControl(conn, info, "RECORDING|" + meetingId + "|Server|DENIED");
+                            System.out.println("Refused RECORDING " + action + " of meeting " + meetingId
+                                    + " from " + username + ": not its host");
+                        } else if (action.equalsIgnoreCase("START")) {
+                            if (recordingTap.startRecording(meetingId)) {
+                                System.out.println("Recording meeting " + meetingId + " (requested by " + username + ")");
+                                broadcastToMeeting(meetingId, message, null);
+                            } else {
+                                sendControl(conn, info, "RECORDING|" + meetingId + "|Server|UNAVAILABLE");
+                            }
+                        } else if (action.equalsIgnoreCase("STOP")) {
+                            recordingTap.stopRecording(meetingId);
+                            System.out.println("Stopped recording meeting " + meetingId + " (requested by " + username + ")");
+                            broadcastToMeeting(meetingId, message, null);
                         }
                         break;
 
-                    default:
-                        broadcastToMeeting(meetingId, message, conn);
-                        System.out.println("Broadcasted unknown type " + type + " to meeting " + meetingId);
-                        break;
+                    case "PRESENCE_SYNC":
+                        // The client missed a delta; it applies deltas again from this snapshot on
+                        presenceResyncs.increment();
+                        sendPresenceSnapshot(conn, info);
+                        break;
+
+                    default:
+                        broadcastToMeeting(meetingId, message, conn);
+                        LOG.debug("Broadcasted unknown type {} to meeting {}", type, meetingId);
+                        break;
+                }
+            } else if (message.equalsIgnoreCase("GET_DEVICE_LIST")) {
+                sendConnectedDevicesList(conn);
+            } else {
+                LOG.debug("Simple message format, broadcasting to all: {}", message);
+                broadcast("CHAT|global|System|" + message);
+            }
+
+        } catch (Exception e) {
+            System.err.println("Error handling message: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private void handleMediaFrame(WebSocket conn, BinaryMediaFrame frame) {
+        ClientInfo info = clients.get(conn);
+        if (info != null) {
+            setUsername(info, frame.getSenderId());
+        }
+
+        String meetingId = frame.getMeetingId();
+        if (meetingId.isEmpty() || meetingId.equals("global") || !isLocalMeeting(meetingId)) {
+            metrics.recordIn(frame.typeName(), null, frame.getPayloadLength());
+            if (!meetingId.isEmpty() && !meetingId.equals("global")) {
+                redirectToOwner(conn, info, meetingId);
+            }
+            return;
+        }
+
+        if (info != null) {
+            addToMeeting(info, meetingId);
+        }
+        metrics.recordIn(frame.typeName(), meetingId, frame.getPayloadLength());
+        if (frame.getLayer() == SimulcastLayers.LOW) {
+            // Every layer has its own sequence numbers; the lowest is always sent
+            traceUplink(info, MediaTrace.STREAM_VIDEO, frame.getSequence(), frame.getCaptureMs());
+        }
+        if (info != null && shedVideo(info, frame.getLayer())) {
+            return;
+        }
+        broadcastMediaFrame(meetingId, frame, conn);
+    }
+
+    /**
+     * Stamp the arrival of a traced message: count gaps in the sender's
+     * sequence numbers and record its capture-to-relay latency.
+     */
+    private void traceUplink(ClientInfo info, String stream, int sequence, long captureMs) {
+        if (info == null || sequence == 0) {
+            return;
+        }
+        MediaTraceStats.Stream sequences = MediaTrace.STREAM_VIDEO.equals(stream) ? info.videoTrace : info.chatTrace;
+        long lateBefore = sequences.getLate();
+        int missing = sequences.observe(sequence);
+        if (missing > 0) {
+            uplinkLost.add(missing);
+        } else if (sequences.getLate() > lateBefore) {
+            uplinkLate.increment();
+        }
+        if (captureMs != MediaTrace.NO_CAPTURE) {
+            metrics.recordUplink(Math.max(0, MediaTrace.monotonicMillis() - captureMs) * 1_000_000L);
+        }
+    }
+
+    // ---- metrics ----
+
+    private void startMetricsEndpoint() {
+        if (metricsPort <= 0 || metricsServer != null) {
+            return;
+        }
+        MetricsHttpServer server = new MetricsHttpServer(metricsPort, this::scrapeMetrics);
+        try {
+            server.start();
+            metricsServer = server;
+        } catch (IOException e) {
+            System.err.println("Failed to start metrics endpoint on port " + metricsPort + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Current metrics in the Prometheus text format.
+     */
+    public String scrapeMetrics() {
+        StringBuilder out = new StringBuilder(8192);
+
+        RelayMetrics.writeGauge(out, "zoom_relay_clients", "Connected clients", clients.size());
+        RelayMetrics.writeGauge(out, "zoom_relay_meetings", "Meetings with at least one client", rooms.getRoomCount());
+        RelayMetrics.writeGauge(out, "zoom_relay_room_sessions",
+                "Clients holding a room table handle, including closed ones still leaving rooms",
+                rooms.getSessionCount());
+
+        metrics.writeTo(out);
+        MessageCompressor.getInstance().writeTo(out);
+
+        // Outbound queues, summed over connections, plus the deepest single connection
+        long[] queued = new long[MessageClass.values().length];
+        long bytesInFlight = 0;
+        long deepest = 0;
+        long droppedVideo = 0;
+        long[] overflowed = new long[MessageClass.values().length];
+        for (ClientInfo info : clients.values()) {
+            OutboundQueue queue = info.outbound;
+            if (queue == null) {
+                continue;
+            }
+            long depth = 0;
+            for (MessageClass cls : MessageClass.values()) {
+                int count = queue.getQueuedCount(cls);
+                queued[cls.ordinal()] += count;
+                overflowed[cls.ordinal()] += queue.getOverflowedFrames(cls);
+                depth += count;
+            }
+            deepest = Math.max(deepest, depth);
+            bytesInFlight += queue.getBytesInFlight();
+            droppedVideo += queue.getDroppedVideoFrames();
+        }
+        RelayMetrics.header(out, "zoom_relay_outbound_queued", "Frames waiting in outbound queues", "gauge");
+        for (MessageClass cls : MessageClass.values()) {
+            RelayMetrics.sample(out, "zoom_relay_outbound_queued", "class=\"" + cls + "\"", queued[cls.ordinal()]);
+        }
+        RelayMetrics.writeGauge(out, "zoom_relay_outbound_queue_max_depth",
+                "Frames waiting on the most backlogged connection", deepest);
+        RelayMetrics.writeGauge(out, "zoom_relay_outbound_bytes_in_flight",
+                "Bytes handed to sockets and not yet written", bytesInFlight);
+        RelayMetrics.writeCounter(out, "zoom_relay_video_frames_dropped_total",
+                "Stale video frames replaced in outbound queues (connected clients)", droppedVideo);
+        RelayMetrics.header(out, "zoom_relay_outbound_overflow_total",
+                "Frames refused by full outbound queues (connected clients)", "counter");
+        for (MessageClass cls : MessageClass.values()) {
+            if (cls.isDroppable()) {
+                continue;
+            }
+            RelayMetrics.sample(out, "zoom_relay_outbound_overflow_total", "class=\"" + cls + "\"",
+                    overflowed[cls.ordinal()]);
+        }
+        RelayMetrics.writeCounter(out, "zoom_relay_slow_consumer_closes_total",
+                "Connections closed because their control or chat queue filled up", slowConsumerCloses.sum());
+        RelayMetrics.writeCounter(out, "zoom_relay_file_transfers_aborted_total",
+                "FILE_TRANSFERs stopped for a recipient whose bulk queue filled up", fileTransfersAborted.sum());
+
+        MeetingLanes lanes = meetingLanes;
+        if (lanes != null) {
+            RelayMetrics.header(out, "zoom_relay_lane_queue_depth", "Messages waiting per meeting lane", "gauge");
+            for (int i = 0; i < lanes.getLaneCount(); i++) {
+                RelayMetrics.sample(out, "zoom_relay_lane_queue_depth", "lane=\"" + i + "\"",
+                        lanes.getLane(i).getQueueDepth());
+            }
+        }
+
+        RelayMetrics.writeCounter(out, "zoom_relay_heartbeat_expirations_total",
+                "Connections closed for missing heartbeats", livenessWheel.getExpiredCount());
+        RelayMetrics.writeCounter(out, "zoom_relay_idle_pings_total",
+                "Pings sent to quiet connections", livenessWheel.getPingCount());
+        RelayMetrics.writeCounter(out, "zoom_relay_frame_cache_hits_total",
+                "Cached video frames pushed to joining clients", lastFrameCache.getHits());
+        RelayMetrics.writeCounter(out, "zoom_relay_frame_cache_misses_total",
+                "Joins with no cached video frame", lastFrameCache.getMisses());
+        RelayMetrics.writeCounter(out, "zoom_relay_subscription_skips_total",
+                "Deliveries skipped for unsubscribed message types", subscriptionSkips.sum());
+        RelayMetrics.writeCounter(out, "zoom_relay_admission_admitted_total",
+                "Connections admitted by the handshake token buckets", admission.getAdmittedCount());
+        RelayMetrics.writeCounter(out, "zoom_relay_admission_queued_total",
+                "Connections that had to wait for a token", admission.getQueuedTotal());
+        RelayMetrics.writeCounter(out, "zoom_relay_admission_rejected_total",
+                "Connections closed because the admission queue was full", admission.getRejectedCount());
+        RelayMetrics.writeCounter(out, "zoom_relay_admission_expired_total",
+                "Connections closed after waiting too long for admission", admission.getExpiredCount());
+        RelayMetrics.writeGauge(out, "zoom_relay_admission_waiting",
+                "Connections waiting for admission", admission.getQueuedCount());
+        RelayMetrics.writeCounter(out, "zoom_relay_presence_batches_total",
+                "Presence updates published", presence.getBatchCount());
+        RelayMetrics.writeCounter(out, "zoom_relay_presence_snapshots_total",
+                "Presence updates sent as a full device list", presence.getSnapshotCount());
+        RelayMetrics.writeCounter(out, "zoom_relay_presence_events_total",
+                "Device connects and disconnects recorded", presence.getEventCount());
+        RelayMetrics.writeCounter(out, "zoom_relay_presence_coalesced_total",
+                "Connects and disconnects that cancelled out or were merged", presence.getCoalescedCount());
+        RelayMetrics.writeGauge(out, "zoom_relay_presence_version",
+                "Current version of the delta-based presence protocol", presenceVersion.get());
+        RelayMetrics.writeCounter(out, "zoom_relay_presence_deltas_total",
+                "PRESENCE_DELTA updates published", presenceDeltas.sum());
+        RelayMetrics.writeCounter(out, "zoom_relay_presence_resyncs_total",
+                "PRESENCE_SYNC requests from clients that missed a delta", presenceResyncs.sum());
+        RelayMetrics.writeGauge(out, "zoom_relay_resume_journal_meetings",
+                "Meetings with a message journal", journal.getMeetingCount());
+        RelayMetrics.writeGauge(out, "zoom_relay_resume_journal_bytes",
+                "Size of the journaled messages", journal.getBytes());
+        RelayMetrics.writeCounter(out, "zoom_relay_resume_journal_appended_total",
+                "Messages journaled for session resumption", journal.getAppendedCount());
+        RelayMetrics.writeCounter(out, "zoom_relay_resume_journal_evicted_total",
+                "Journaled messages dropped for size or age", journal.getEvictedCount());
+        RelayMetrics.writeGauge(out, "zoom_relay_resume_detached_sessions",
+                "Dropped sessions that can still be resumed", detachedSessions.size());
+        RelayMetrics.writeCounter(out, "zoom_relay_resume_total",
+                "Sessions resumed by replaying the missed messages", resumes.sum());
+        RelayMetrics.writeCounter(out, "zoom_relay_resume_replayed_total",
+                "Messages replayed to resumed sessions", resumeReplayed.sum());
+        RelayMetrics.writeCounter(out, "zoom_relay_resume_snapshots_total",
+                "Resume requests answered with a meeting snapshot", resumeSnapshots.sum());
+        long simulcastSwitches = 0;
+        long decimated = 0;
+        long backoffs = 0;
+        List<Long> estimates = new ArrayList<>();
+        long maxRtt = 0;
+        long maxQueueDelay = 0;
+        for (ClientInfo info : clients.values()) {
+            simulcastSwitches += info.simulcast.getSwitchCount();
+            BandwidthEstimator bandwidth = info.bandwidth;
+            decimated += bandwidth.getDecimatedFrames();
+            backoffs += bandwidth.getBackoffCount();
+            long estimate = bandwidth.getEstimateBytesPerSecond();
+            if (estimate != BandwidthEstimator.UNKNOWN) {
+                estimates.add(estimate);
+            }
+            maxRtt = Math.max(maxRtt, bandwidth.getRttMs());
+            maxQueueDelay = Math.max(maxQueueDelay, bandwidth.getQueueDelayMs());
+        }
+        Collections.sort(estimates);
+        RelayMetrics.writeGauge(out, "zoom_relay_bandwidth_limited_clients",
+                "Connections with a known downstream capacity (backlogged recently)", estimates.size());
+        RelayMetrics.writeGauge(out, "zoom_relay_bandwidth_estimate_min_bytes_per_second",
+                "Smallest downstream bandwidth estimate", estimates.isEmpty() ? 0 : estimates.get(0));
+        RelayMetrics.writeGauge(out, "zoom_relay_bandwidth_estimate_median_bytes_per_second",
+                "Median downstream bandwidth estimate", estimates.isEmpty() ? 0 : estimates.get(estimates.size() / 2));
+        RelayMetrics.writeGauge(out, "zoom_relay_bandwidth_rtt_max_ms",
+                "Largest smoothed ping round trip", maxRtt);
+        RelayMetrics.writeGauge(out, "zoom_relay_bandwidth_queue_delay_max_ms",
+                "Largest ping round trip above the connection's smallest one", maxQueueDelay);
+        RelayMetrics.writeCounter(out, "zoom_relay_bandwidth_backoffs_total",
+                "Estimates backed off for queueing delay (connected clients)", backoffs);
+        RelayMetrics.writeCounter(out, "zoom_relay_bandwidth_published_total",
+                "BANDWIDTH updates sent to clients", bandwidthPublished.sum());
+        RelayMetrics.writeCounter(out, "zoom_relay_video_frames_decimated_total",
+                "Video frames skipped for exceeding a client's bandwidth estimate (connected clients)", decimated);
+        RelayMetrics.writeCounter(out, "zoom_relay_simulcast_switches_total",
+                "Simulcast layer changes of subscribers (connected clients)", simulcastSwitches);
+        RelayMetrics.writeCounter(out, "zoom_relay_simulcast_skipped_total",
+                "Simulcast frames not forwarded because the subscriber gets another layer", simulcastSkips.sum());
+        RelayMetrics.writeCounter(out, "zoom_relay_simulcast_views_total",
+                "VIDEO_VIEW tile size updates from subscribers", simulcastViews.sum());
+        RelayMetrics.writeGauge(out, "zoom_relay_overload_level",
+                "Load shedding step: 0 none, 1 video decimated, 2 speakers' video only, 3 file transfers paused",
+                overload.getLevel().ordinal());
+        RelayMetrics.writeCounter(out, "zoom_relay_overload_transitions_total",
+                "Changes of the load shedding step", overload.getTransitionCount());
+        RelayMetrics.header(out, "zoom_relay_overload_seconds_total", "Time spent at each load shedding step", "counter");
+        for (OverloadController.Level level : OverloadController.Level.values()) {
+            out.append("zoom_relay_overload_seconds_total{level=\"").append(level.name().toLowerCase())
+                    .append("\"} ").append(overload.getTimeAtLevelMs(level) / 1000.0).append('\n');
+        }
+        RelayMetrics.writeGauge(out, "zoom_relay_event_loop_lag_ms",
+                "Oldest task waiting on a meeting lane, or the overload sampler running late",
+                overload.getLastLagMs());
+        RelayMetrics.writeGauge(out, "zoom_relay_heap_occupancy",
+                "Heap in use after the last collection, as a share of the limit", overload.getLastHeapOccupancy());
+        RelayMetrics.writeGauge(out, "zoom_relay_outbound_backlog_bytes",
+                "Bytes waiting in outbound queues", overload.getLastOutboundBytes());
+        RelayMetrics.writeCounter(out, "zoom_relay_overload_video_shed_total",
+                "Video frames dropped before fan-out while overloaded", overload.getVideoShedCount());
+        RelayMetrics.writeCounter(out, "zoom_relay_overload_bulk_parked_total",
+                "FILE_TRANSFER chunks held while bulk relaying was paused", bulkParked.sum());
+        RelayMetrics.writeGauge(out, "zoom_relay_overload_bulk_parked_bytes",
+                "FILE_TRANSFER bytes currently held", parkedBulkBytes.get());
+        RelayMetrics.writeCounter(out, "zoom_relay_overload_bulk_dropped_total",
+                "FILE_TRANSFER chunks dropped because too much was held or the meeting ended", bulkDropped.sum());
+        RelayMetrics.writeCounter(out, "zoom_relay_overload_file_transfers_failed_total",
+                "FILE_TRANSFERs stopped because their chunks did not fit in the parked bytes limit",
+                bulkTransfersFailed.sum());
+        if (recordingTap.isEnabled()) {
+            RelayMetrics.writeGauge(out, "zoom_relay_recording_meetings",
+                    "Meetings being recorded on request", recordingTap.getRecordedMeetingCount());
+            RelayMetrics.writeGauge(out, "zoom_relay_recording_queued_bytes",
+                    "Frames waiting for the recording writer", recordingTap.getQueuedBytes());
+            RelayMetrics.writeCounter(out, "zoom_relay_recording_records_total",
+                    "Messages appended to recording segments", recordingTap.getRecordCount());
+            RelayMetrics.writeCounter(out, "zoom_relay_recording_bytes_total",
+                    "Bytes appended to recording segments", recordingTap.getBytesWritten());
+            RelayMetrics.writeCounter(out, "zoom_relay_recording_segments_total",
+                    "Recording segment files started", recordingTap.getSegmentCount());
+            RelayMetrics.writeCounter(out, "zoom_relay_recording_dropped_total",
+                    "Messages not recorded because the writer fell behind or failed", recordingTap.getDroppedCount());
+            RelayMetrics.writeCounter(out, "zoom_relay_recording_write_errors_total",
+                    "Failed writes to recording segments", recordingTap.getWriteErrorCount());
+            RelayMetrics.writeGauge(out, "zoom_relay_recording_disk_bytes",
+                    "Bytes all recordings take on disk", recordingTap.getDiskBytes());
+            RelayMetrics.writeCounter(out, "zoom_relay_recording_segments_deleted_total",
+                    "Oldest recording segments deleted to stay under zoom.recording.maxTotalBytes",
+                    recordingTap.getDeletedSegmentCount());
+        }
+        RelayMetrics.writeCounter(out, "zoom_relay_media_uplink_lost_total",
+                "Traced messages missing from senders' sequence numbers", uplinkLost.sum());
+        RelayMetrics.writeCounter(out, "zoom_relay_media_uplink_late_total",
+                "Traced messages that arrived after a later one from the same sender", uplinkLate.sum());
+        RelayMetrics.writeCounter(out, "zoom_relay_redirects_total",
+                "Clients redirected to another relay node", redirects.sum());
+        RelayMetrics.writeCounter(out, "zoom_relay_log_dropped_total",
+                "Log events dropped because the log ring was full", LOG.getDroppedCount());
+
+        return out.toString();
+    }
+
+    /**
+     * Serve {@link #scrapeMetrics()} over HTTP. Must be called before {@link #start()}.
+     */
+    public void setMetricsPort(int metricsPort) {
+        this.metricsPort = metricsPort;
+    }
+
+    public RelayMetrics getMetrics() {
+        return metrics;
+    }
+
+    // ---- cluster ----
+
+    private void startCluster() {
+        if (clusterPort <= 0 || cluster != null) {
+            return;
+        }
+        String wsUrl = "ws://" + clusterHost + ":" + actualPort;
+        RelayCluster node = new RelayCluster(clusterHost, clusterPort, wsUrl, clusterSeeds, clusterSecret,
+                this::rebalanceMeetings);
+        try {
+            node.start();
+            cluster = node;
+        } catch (IOException e) {
+            System.err.println("Failed to start cluster link on port " + clusterPort + ": " + e.getMessage());
+        }
+    }
+
+    private boolean isLocalMeeting(String meetingId) {
+        RelayCluster node = cluster;
+        return node == null || node.isLocal(meetingId);
+    }
+
+    /**
+     * Tell a client which node owns the meeting. The client reconnects there and
+     * sends its meeting messages again.
+     */
+    private void redirectToOwner(WebSocket conn, ClientInfo info, String meetingId) {
+        RelayCluster node = cluster;
+        String url = node != null ? node.urlForMeeting(meetingId) : null;
+        if (url == null || (info != null && meetingId.equals(info.redirectedMeeting))) {
+            return;
+        }
+        if (info != null) {
+            info.redirectedMeeting = meetingId;
+        }
+        redirects.increment();
+        LOG.info("Redirecting {} for meeting {} to {}", info, meetingId, url);
+        sendControl(conn, info, "REDIRECT|" + meetingId + "|Server|" + url);
+    }
+
+    /**
+     * Hand off the meetings this node no longer owns after a node joined or left.
+     */
+    private void rebalanceMeetings(HashRing previous, HashRing current) {
+        RelayCluster node = cluster;
+        if (node == null) {
+            return;
+        }
+        for (String meetingId : rooms.getMeetingIds()) {
+            if (!node.getSelfId().equals(current.ownerOf(meetingId))) {
+                runOnLane(meetingId, () -> handOffMeeting(meetingId));
+            }
+        }
+    }
+
+    private void handOffMeeting(String meetingId) {
+        // The ring may have changed again since the hand-off was queued
+        if (isLocalMeeting(meetingId)) {
+            return;
+        }
+        List<ClientInfo> room = rooms.removeRoom(meetingId);
+        lastFrameCache.removeMeeting(meetingId);
+        meetingHosts.remove(meetingId);
+        metrics.removeMeeting(meetingId);
+        if (room == null) {
+            return;
+        }
+
+        System.out.println("Meeting " + meetingId + " moved to " + cluster.ownerOf(meetingId) +
+                ", redirecting " + room.size() + " clients");
+        for (ClientInfo info : room) {
+            info.redirectedMeeting = null;
+            info.meetingId = "global";
+            if (info.conn.isOpen()) {
+                redirectToOwner(info.conn, info, meetingId);
+            }
+        }
+    }
+
+    private void handOffAllMeetings(RelayCluster node) {
+        HashRing remaining = node.getRingWithoutSelf();
+        if (remaining.size() == 0) {
+            return;
+        }
+        for (String meetingId : rooms.getMeetingIds()) {
+            RoomTable.Room room = rooms.room(meetingId);
+            String url = node.urlOf(remaining.ownerOf(meetingId));
+            if (room == null || url == null) {
+                continue;
+            }
+            for (int member : room.members()) {
+                ClientInfo info = rooms.member(room, member);
+                if (info != null && info.conn.isOpen()) {
+                    redirects.increment();
+                    sendControl(info.conn, info, "REDIRECT|" + meetingId + "|Server|" + url);
+                }
+            }
+        }
+    }
+
+    private static List<String> parseSeeds(String seeds) {
+        List<String> result = new ArrayList<>();
+        for (String seed : seeds.split(",")) {
+            if (!seed.trim().isEmpty()) {
+                result.add(seed.trim());
+            }
+        }
+        return result;
+    }
+
+    private void sendConnectedDevicesList(WebSocket conn) {
+        sendControl(conn, clients.get(conn), buildDeviceList());
+        if (LOG.isEnabled(AsyncLog.Level.DEBUG)) {
+            LOG.debug("Sent device list to client: {} devices", clients.size());
+        }
+    }
+
+    private String buildDeviceList() {
+        return "DEVICE_LIST|global|Server|" + buildDeviceEntries();
+    }
+
+    /**
+     * Every connected device, {@code username,deviceId,ip,deviceType,connectTime} separated by ';'.
+     */
+    private String buildDeviceEntries() {
+        StringBuilder deviceList = new StringBuilder();
+        int count = 0;
+
+        for (ClientInfo info : clients.values()) {
+            if (count > 0) {
+                deviceList.append(";");
+            }
+            deviceList.append(info.username)
+                    .append(",")
+                    .append(info.deviceId)
+                    .append(",")
+                    .append(info.ipAddress)
+                    .append(",")
+                    .append(info.deviceType)
+                    .append(",")
+                    .append(info.connectTime);
+            count++;
+        }
+        return deviceList.toString();
+    }
+
+    private static String presenceEntry(ClientInfo info) {
+        return PresenceState.Device.encode(info.username, info.deviceId, info.ipAddress, info.deviceType,
+                info.connectTime);
+    }
+
+    /**
+     * Record a client's username; a change is published as a presence update.
+     */
+    private void setUsername(ClientInfo info, String username) {
+        if (!username.equals(info.username)) {
+            info.username = username;
+            presence.updated(username, info.deviceId, presenceEntry(info));
+        }
+    }
+
+    private void sendPresenceSnapshot(WebSocket conn, ClientInfo info) {
+        // Read the version first: deltas published meanwhile are already in the list and re-apply harmlessly
+        long version = presenceVersion.get();
+        SharedFrame snapshot = SharedFrame.text(PresenceState.snapshotMessage(version, buildDeviceEntries()));
+        sendShared(conn, info, MessageClass.CONTROL, null, snapshot);
+        metrics.recordOut("PRESENCE_SNAPSHOT", null, 1, snapshot.size());
+    }
+
+    /**
+     * Send one presence batch (see {@link PresenceBatcher}).
+     *
+     * Clients on the delta protocol get the batch as one PRESENCE_DELTA with
+     * the next version, and newcomers a PRESENCE_SNAPSHOT at that version.
+     * Older clients get DEVICE_CONNECTED/DEVICE_DISCONNECTED messages and the
+     * newcomers share one encoded device list; a large batch becomes a single
+     * DEVICE_LIST for all of them, which they apply as a replacement.
+     */
+    private void publishPresence(List<PresenceBatcher.Event> events, List<WebSocket> newcomers, boolean snapshot) {
+        if (transport == null || !isRunning) {
+            return;
+        }
+        Set<WebSocket> joined = newcomers.isEmpty() ? Collections.emptySet() : new HashSet<>(newcomers);
+
+        StringBuilder ops = new StringBuilder();
+        for (PresenceBatcher.Event event : events) {
+            if (!event.isConnected()) {
+                PresenceState.appendRemoved(ops, event.getUsername(), event.getDeviceId());
+            } else if (event.isUpdated()) {
+                PresenceState.appendUpdated(ops, event.getEntry());
+            } else {
+                PresenceState.appendAdded(ops, event.getEntry());
+            }
+        }
+        if (ops.length() > 0) {
+            long version = presenceVersion.incrementAndGet();
+            presenceDeltas.increment();
+            // Newcomers are covered by the snapshot below
+            broadcastTo(PresenceState.deltaMessage(version, ops),
+                    (conn, info) -> info.presenceDeltas && !joined.contains(conn));
+        }
+
+        if (snapshot) {
+            broadcastTo(buildDeviceList(), LEGACY_PRESENCE);
+        } else {
+            for (PresenceBatcher.Event event : events) {
+                if (event.isUpdated()) {
+                    continue;
+                }
+                if (event.isConnected()) {
+                    broadcastTo(String.format("DEVICE_CONNECTED|global|Server|New device connected: %s|%s",
+                            event.getUsername(), event.getDeviceId()), LEGACY_PRESENCE);
+                } else {
+                    broadcastTo(String.format("DEVICE_DISCONNECTED|global|Server|Device disconnected: %s|%s",
+                            event.getUsername(), event.getDeviceId()), LEGACY_PRESENCE);
+                }
+            }
+        }
+
+        if (!newcomers.isEmpty()) {
+            SharedFrame deviceList = null;
+            SharedFrame presenceSnapshot = null;
+            int sent = 0;
+            int snapshots = 0;
+            for (WebSocket conn : newcomers) {
+                ClientInfo info = clients.get(conn);
+                if (info == null || !conn.isOpen()) {
+                    continue;
+                }
+                if (info.presenceDeltas) {
+                    if (presenceSnapshot == null) {
+                        presenceSnapshot = SharedFrame.text(
+                                PresenceState.snapshotMessage(presenceVersion.get(), buildDeviceEntries()));
+                    }
+                    sendShared(conn, info, MessageClass.CONTROL, null, presenceSnapshot);
+                    snapshots++;
+                } else if (!snapshot) {
+                    // After a large batch the DEVICE_LIST above already reached them
+                    if (deviceList == null) {
+                        deviceList = SharedFrame.text(buildDeviceList());
+                    }
+                    sendShared(conn, info, MessageClass.CONTROL, null, deviceList);
+                    sent++;
+                }
+            }
+            if (deviceList != null) {
+                metrics.recordOut("DEVICE_LIST", null, sent, deviceList.size());
+            }
+            if (presenceSnapshot != null) {
+                metrics.recordOut("PRESENCE_SNAPSHOT", null, snapshots, presenceSnapshot.size());
+            }
+        }
+    }
+
+    private String newResumeToken() {
+        byte[] bytes = new byte[16];
+        tokenRandom.nextBytes(bytes);
+        StringBuilder token = new StringBuilder(32);
+        for (byte b : bytes) {
+            token.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return token.toString();
+    }
+
+    /**
+     * Keep what a dropped resumable client needs to resume. Runs on the
+     * meeting's lane before the client is removed from the room.
+     */
+    private void detachSession(ClientInfo info, String meetingId) {
+        if (info.resumeToken == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastDetachedPrune > 1000) {
+            lastDetachedPrune = now;
+            Iterator<DetachedSession> it = detachedSessions.values().iterator();
+            while (it.hasNext()) {
+                if (now - it.next().detachedAt > resumeGraceMs) {
+                    it.remove();
+                }
+            }
+        }
+        detachedSessions.put(info.resumeToken, new DetachedSession(
+                info.username, meetingId, journal.epochOf(meetingId), info.joinedSequence));
+    }
+
+    /**
+     * Handle RESUME|meeting|user|token,lastSeq from a client that reconnected:
+     * send the journaled messages after lastSeq, or a meeting snapshot if they
+     * are gone. Runs on the meeting's lane after the client was added to the
+     * room, so nothing is relayed between the replay and live messages.
+     */
+    private void resumeSession(WebSocket conn, ClientInfo info, String meetingId, String request) {
+        int comma = request.indexOf(',');
+        String token = comma < 0 ? request : request.substring(0, comma);
+        long lastSequence = -1;
+        if (comma >= 0) {
+            try {
+                lastSequence = Long.parseLong(request.substring(comma + 1));
+            } catch (NumberFormatException e) {
+                // Replay from when the session joined
+            }
+        }
+
+        DetachedSession session = detachedSessions.remove(token);
+        boolean takeover = false;
+        if (session == null) {
+            // The old connection may be half-open and not noticed as closed yet
+            for (Map.Entry<WebSocket, ClientInfo> entry : clients.entrySet()) {
+                ClientInfo old = entry.getValue();
+                if (old != info && token.equals(old.resumeToken) && meetingId.equals(old.meetingId)) {
+                    old.resumed = true;
+                    session = new DetachedSession(old.username, old.meetingId, journal.epochOf(old.meetingId),
+                            old.joinedSequence);
+                    entry.getKey().close(1000, "Session resumed on another connection");
+                    takeover = true;
+                    break;
                 }
-            } else if (message.equalsIgnoreCase("GET_DEVICE_LIST")) {
-                sendConnectedDevicesList(conn);
-            } else {
-                System.out.println("Simple message format, broadcasting to all: " + message);
-                broadcast("CHAT|global|System|" + message);
             }
+        }
 
-        } catch (Exception e) {
-            System.err.println("Error handling message: " + e.getMessage());
-            e.printStackTrace();
+        List<MeetingJournal.Entry> missed = new ArrayList<>();
+        boolean replayed = session != null && session.meetingId.equals(meetingId) &&
+                journal.replay(meetingId, session.epoch, Math.max(lastSequence, session.joinedSequence),
+                        session.username, missed);
+        if (!replayed) {
+            resumeSnapshots.increment();
+            sendMeetingSnapshot(conn, info, meetingId);
+            System.out.println("Could not resume session of " + info + " in meeting " + meetingId +
+                    (session == null ? " (unknown or expired token)" : " (missed messages no longer journaled)"));
+            return;
+        }
+
+        int sent = 0;
+        for (MeetingJournal.Entry entry : missed) {
+            if (!Subscriptions.accepts(info.subscriptions, Subscriptions.bitOf(entry.getType()))) {
+                continue;
+            }
+            sendShared(conn, info, entry.getMessageClass(), entry.getSender(), entry.getFrame());
+            sent++;
+        }
+        sendControl(conn, info, "RESUMED|" + meetingId + "|Server|" + sent + "|" + journal.lastSequenceOf(meetingId));
+        resumes.increment();
+        resumeReplayed.add(sent);
+        System.out.println("Resumed session of " + info + " in meeting " + meetingId + ", replayed " + sent +
+                " missed message(s)");
+
+        if (!takeover) {
+            // The others saw this client leave when its connection dropped
+            broadcastToMeeting(meetingId, String.format("USER_JOINED|%s|%s|rejoined the meeting|%s",
+                    meetingId, info.username, info.deviceId), conn);
         }
     }
 
-    private void sendConnectedDevicesList(WebSocket conn) {
-        StringBuilder deviceList = new StringBuilder("DEVICE_LIST|global|Server|");
-        int count = 0;
+    /**
+     * MEETING_SNAPSHOT|meeting|Server|lastSeq|user;user;... for a client whose
+     * missed messages cannot be replayed; it has to re-sync the meeting itself.
+     */
+    private void sendMeetingSnapshot(WebSocket conn, ClientInfo info, String meetingId) {
+        StringBuilder participants = new StringBuilder();
+        RoomTable.Room room = rooms.room(meetingId);
+        if (room != null) {
+            for (int member : room.members()) {
+                ClientInfo memberInfo = rooms.member(room, member);
+                if (memberInfo != null) {
+                    if (participants.length() > 0) {
+                        participants.append(';');
+                    }
+                    participants.append(memberInfo.username);
+                }
+            }
+        }
+        sendControl(conn, info, "MEETING_SNAPSHOT|" + meetingId + "|Server|" + journal.lastSequenceOf(meetingId) + "|"
+                + participants);
+    }
 
-        for (ClientInfo info : clients.values()) {
-            if (count > 0) {
-                deviceList.append(";");
+    // Package-private for the room benchmarks
+    void addToMeeting(WebSocket conn, String meetingId) {
+        ClientInfo info = clients.get(conn);
+        if (info != null) {
+            addToMeeting(info, meetingId);
+        }
+    }
+
+    private void addToMeeting(ClientInfo info, String meetingId) {
+        info.meetingId = meetingId;
+        // Already a member for every message after the first; a closed client joins nothing
+        if (rooms.join(info.session, meetingId)) {
+            journal.open(meetingId);
+            info.joinedSequence = journal.lastSequenceOf(meetingId);
+            metrics.openMeeting(meetingId);
+            RoomTable.Room room = rooms.room(meetingId);
+            if (room != null && room.size() == 1) {
+                // This join created the room
+                meetingHosts.put(meetingId, info);
+            }
+            LOG.debug("Added {} to meeting {}", info, meetingId);
+            pushCachedFrames(info.conn, info, meetingId);
+        }
+    }
+
+    /**
+     * Send a newly admitted client the latest frame of every publisher in the
+     * meeting, so its video tiles fill in before the next frames arrive.
+     */
+    private void pushCachedFrames(WebSocket conn, ClientInfo info, String meetingId) {
+        if (info != null && !Subscriptions.accepts(info.subscriptions, VIDEO_FRAME_BIT)) {
+            return;
+        }
+        String self = info != null ? info.username : null;
+        boolean binaryClient = info != null && info.binaryMediaFrames;
+
+        int pushed = 0;
+        for (LastFrameCache.Entry entry : lastFrameCache.framesFor(meetingId, self)) {
+            SharedFrame frame = entry.frameFor(binaryClient);
+            if (frame == null) {
+                frame = lastFrameCache.textFrameFor(entry);
+            }
+            if (frame != null) {
+                try {
+                    sendShared(conn, info, MessageClass.VIDEO, entry.getPublisher(), frame);
+                    pushed++;
+                } catch (Exception e) {
+                    System.err.println("Error sending cached frame in meeting " + meetingId + ": " + e.getMessage());
+                }
             }
-            deviceList.append(info.username)
-                    .append(",")
-                    .append(info.deviceId)
-                    .append(",")
-                    .append(info.ipAddress)
-                    .append(",")
-                    .append(info.deviceType)
-                    .append(",")
-                    .append(info.connectTime);
-            count++;
         }
 
-        conn.send(deviceList.toString());
-        System.out.println("Sent device list to client: " + count + " devices");
+        if (pushed > 0) {
+            LOG.debug("Pushed {} cached video frames to {} in meeting {}", pushed, info, meetingId);
+        }
     }
 
-    private void addToMeeting(WebSocket conn, String meetingId) {
-        meetingRooms.computeIfAbsent(meetingId, k -> Collections.synchronizedSet(new HashSet<>())).add(conn);
+    /**
+     * Apply a SUBSCRIBE or UNSUBSCRIBE request. A client that turns video back on
+     * gets the cached frames of the meeting right away.
+     */
+    private void updateSubscriptions(WebSocket conn, ClientInfo info, boolean subscribe, String typeList,
+                                     String meetingId) {
+        long change = Subscriptions.parse(typeList);
+        long before = info.subscriptions;
+        info.subscriptions = subscribe ? before | change : before & ~change;
+
+        System.out.println("Subscriptions of " + info + " now " + Subscriptions.describe(info.subscriptions));
+
+        boolean videoResumed = !Subscriptions.accepts(before, VIDEO_FRAME_BIT) &&
+                Subscriptions.accepts(info.subscriptions, VIDEO_FRAME_BIT);
+        if (videoResumed && !meetingId.equals("global") && !meetingId.isEmpty()) {
+            pushCachedFrames(conn, info, meetingId);
+        }
+    }
 
+    // Package-private for the room benchmarks
+    void removeFromMeeting(WebSocket conn, String meetingId) {
         ClientInfo info = clients.get(conn);
         if (info != null) {
-            info.meetingId = meetingId;
+            removeFromMeeting(info, meetingId);
         }
-
-        System.out.println("Added " + conn.getRemoteSocketAddress() + " to meeting " + meetingId);
     }
 
-    private void removeFromMeeting(WebSocket conn, String meetingId) {
-        Set<WebSocket> meetingClients = meetingRooms.get(meetingId);
-        if (meetingClients != null) {
-            meetingClients.remove(conn);
-            System.out.println("Removed " + conn.getRemoteSocketAddress() + " from meeting " + meetingId);
+    /**
+     * Whether a client may start or stop recording a meeting it is in: the
+     * session that created the room, or once that one left, the member who
+     * has been in the room longest. The session is compared, not the username
+     * in the message header, which any client can set to anything.
+     */
+    private boolean mayRecord(ClientInfo info, String meetingId) {
+        RoomTable.Room room = rooms.room(meetingId);
+        if (info == null || room == null || rooms.member(room, info.session.getHandle()) != info) {
+            return false;
+        }
+        ClientInfo host = meetingHosts.get(meetingId);
+        if (host != null) {
+            return host == info;
+        }
+        int[] members = room.members();
+        return members.length > 0 && rooms.member(room, members[0]) == info;
+    }
 
-            if (meetingClients.isEmpty()) {
-                meetingRooms.remove(meetingId);
-                System.out.println("Meeting room " + meetingId + " is now empty and removed");
+    private void removeFromMeeting(ClientInfo info, String meetingId) {
+        int remaining = rooms.leave(info.session, meetingId);
+        if (remaining >= 0) {
+            meetingHosts.remove(meetingId, info);
+            LOG.debug("Removed {} from meeting {}", info, meetingId);
+
+            if (remaining == 0) {
+                lastFrameCache.removeMeeting(meetingId);
+                journal.remove(meetingId);
+                recordingTap.meetingEnded(meetingId);
+                meetingHosts.remove(meetingId);
+                discardParkedBulk(meetingId);
+                metrics.removeMeeting(meetingId);
+                LOG.debug("Meeting room {} is now empty and removed", meetingId);
             }
         }
     }
 
     private void broadcastToMeeting(String meetingId, String message, WebSocket exclude) {
-        Set<WebSocket> meetingClients = meetingRooms.get(meetingId);
-        if (meetingClients != null && !meetingClients.isEmpty()) {
+        RoomTable.Room room = rooms.room(meetingId);
+        if (room != null && room.size() > 0) {
+            String type = MessageClass.typeOf(message);
+            MessageClass messageClass = MessageClass.forType(type);
+            long typeBit = Subscriptions.bitOf(type);
+            String publisher = messageClass == MessageClass.VIDEO ? senderOf(message) : null;
+            String fileId = messageClass == MessageClass.BULK ? fieldOf(message, 4) : null;
+
+            long encodeStart = System.nanoTime();
+            SharedFrame frame = SharedFrame.text(message);
+            long queueStart = System.nanoTime();
+
+            if (messageClass == MessageClass.VIDEO) {
+                lastFrameCache.putText(meetingId, publisher, frame);
+            }
+            if (messageClass == MessageClass.VIDEO || messageClass == MessageClass.CHAT) {
+                recordingTap.append(meetingId, frame);
+            }
+            // Resumable clients get the numbered form, so they can ask for what they miss
+            MeetingJournal.Entry journaled = messageClass != MessageClass.VIDEO && MeetingJournal.isJournaled(type)
+                    ? journal.append(meetingId, type, senderOf(message), messageClass, message)
+                    : null;
+
             int sentCount = 0;
-            for (WebSocket client : meetingClients) {
+            for (int member : room.members()) {
+                ClientInfo info = rooms.member(room, member);
+                WebSocket client = info != null ? info.conn : null;
                 if (client != null && client.isOpen() && client != exclude) {
+                    if (!Subscriptions.accepts(info.subscriptions, typeBit)) {
+                        subscriptionSkips.increment();
+                        subscriptionSkippedBytes.add(frame.size());
+                        continue;
+                    }
+                    if (fileId != null && !info.abortedFiles.isEmpty() && info.abortedFiles.contains(fileId)) {
+                        if (!"DATA".equals(fieldOf(message, 3))) {
+                            info.abortedFiles.remove(fileId);
+                        }
+                        continue;
+                    }
                     try {
-                        client.send(message);
-                        sentCount++;
+                        if (sendShared(client, info, messageClass, publisher,
+                                journaled != null && info.resumable ? journaled.getFrame() : frame)) {
+                            sentCount++;
+                        } else if (fileId != null) {
+                            abortFileTransfer(meetingId, message, fileId, info, exclude);
+                        }
                     } catch (Exception e) {
                         System.err.println("Error sending to client in meeting " + meetingId + ": " + e.getMessage());
                     }
                 }
             }
-            if (sentCount > 0 && !message.startsWith("VIDEO_FRAME")) {
-                System.out.println("Broadcast to meeting " + meetingId + ": sent to " + sentCount + " clients");
+            long queueTime = System.nanoTime() - queueStart;
+            fanOutStats.record(sentCount, frame.size(), queueStart - encodeStart, queueTime);
+            metrics.recordFanOut(queueStart - encodeStart + queueTime);
+            metrics.recordOut(type, meetingId, sentCount, frame.size());
+
+            if (sentCount > 0 && messageClass != MessageClass.VIDEO && LOG.isEnabled(AsyncLog.Level.DEBUG)) {
+                LOG.debug("Broadcast to meeting {}: sent to {} clients", meetingId, sentCount);
+            }
+        }
+    }
+
+    /**
+     * Relay a binary media frame as-is to clients that negotiated binary frames.
+     * Older clients get the text form. Each form is encoded at most once per frame.
+     * Of a simulcast stream each client only gets the layer chosen for it, and
+     * frames beyond a client's estimated bandwidth are skipped.
+     */
+    private void broadcastMediaFrame(String meetingId, BinaryMediaFrame frame, WebSocket exclude) {
+        RoomTable.Room room = rooms.room(meetingId);
+        if (room == null || room.size() == 0) {
+            return;
+        }
+
+        long encodeStart = System.nanoTime();
+        SharedFrame binaryFrame = SharedFrame.binary(frame.getFrame());
+        SharedFrame textFrame = null;
+        long queueStart = System.nanoTime();
+        long textEncodeTime = 0;
+        boolean simulcast = frame.isSimulcast();
+        long now = System.currentTimeMillis();
+        if (frame.getLayer() == frame.getTopLayer()) {
+            // Recordings keep the best layer
+            recordingTap.append(meetingId, binaryFrame);
+        }
+        SimulcastLayers.Rates rates = null;
+        if (simulcast) {
+            ClientInfo publisher = exclude != null ? clients.get(exclude) : null;
+            if (publisher != null) {
+                rates = publisher.layerRates;
+                rates.record(frame.getLayer(), binaryFrame.size(), now);
+            }
+        }
+
+        int sentCount = 0;
+        for (int member : room.members()) {
+            ClientInfo info = rooms.member(room, member);
+            WebSocket client = info != null ? info.conn : null;
+            if (client == null || !client.isOpen() || client == exclude) {
+                continue;
+            }
+            if (!Subscriptions.accepts(info.subscriptions, VIDEO_FRAME_BIT)) {
+                subscriptionSkips.increment();
+                subscriptionSkippedBytes.add(binaryFrame.size());
+                continue;
+            }
+            if (simulcast && !acceptsLayer(info, frame, rates, now)) {
+                simulcastSkips.increment();
+                continue;
+            }
+            if (!info.bandwidth.allowVideo(binaryFrame.size(), now)) {
+                continue;
+            }
+            try {
+                if (info.binaryMediaFrames) {
+                    sendShared(client, info, MessageClass.VIDEO, frame.getSenderId(), binaryFrame);
+                } else {
+                    if (textFrame == null) {
+                        long textStart = System.nanoTime();
+                        textFrame = SharedFrame.text(frame.toText());
+                        textEncodeTime = System.nanoTime() - textStart;
+                    }
+                    sendShared(client, info, MessageClass.VIDEO, frame.getSenderId(), textFrame);
+                }
+                sentCount++;
+            } catch (Exception e) {
+                System.err.println("Error sending media frame in meeting " + meetingId + ": " + e.getMessage());
+            }
+        }
+        long fanOutTime = System.nanoTime() - encodeStart;
+        fanOutStats.record(sentCount, binaryFrame.size(), queueStart - encodeStart + textEncodeTime,
+                fanOutTime - (queueStart - encodeStart) - textEncodeTime);
+        metrics.recordFanOut(fanOutTime);
+        metrics.recordOut(frame.typeName(), meetingId, sentCount, binaryFrame.size());
+
+        if (frame.getLayer() == SimulcastLayers.LOW) {
+            // Joining clients get the smallest layer; the next frame brings their own
+            lastFrameCache.putBinary(meetingId, frame.getSenderId(), binaryFrame, textFrame);
+        }
+    }
+
+    /**
+     * Drop what the relay keeps about a publisher that left a meeting.
+     */
+    private void forgetPublisher(String meetingId, String publisher) {
+        lastFrameCache.removePublisher(meetingId, publisher);
+        RoomTable.Room room = rooms.room(meetingId);
+        if (room != null) {
+            for (int member : room.members()) {
+                ClientInfo info = rooms.member(room, member);
+                if (info != null) {
+                    info.simulcast.removePublisher(publisher);
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether a client gets this layer of a simulcast frame, given the tile
+     * size it asked for and its estimated bandwidth.
+     */
+    private boolean acceptsLayer(ClientInfo info, BinaryMediaFrame frame, SimulcastLayers.Rates rates, long now) {
+        if (info == null) {
+            return frame.getLayer() == frame.getTopLayer();
+        }
+        return info.simulcast.accepts(frame.getSenderId(), frame, rates, info.bandwidth.getVideoBudget(), now);
+    }
+
+    /**
+     * Send a relay message of the control class, behind whatever the client's
+     * queue already holds. Only PONG skips the queue, so its timing stays honest.
+     */
+    private boolean sendControl(WebSocket client, ClientInfo info, String message) {
+        return sendShared(client, info, MessageClass.CONTROL, null, SharedFrame.text(message));
+    }
+
+    /**
+     * Queue a pre-encoded frame on a connection's outbound queue. The queue hands
+     * it to the socket once the connection has room (see {@link OutboundQueue}).
+     */
+    private boolean sendShared(WebSocket client, ClientInfo info, MessageClass messageClass, String publisher,
+                               SharedFrame frame) {
+        if (info == null || info.outbound == null) {
+            writeFrame(client, frame, frame.newView());
+            return true;
+        }
+        switch (info.outbound.offer(messageClass, publisher, frame)) {
+            case QUEUED:
+                backloggedQueues.add(info.outbound);
+                return true;
+            case OVERFLOW:
+                backloggedQueues.add(info.outbound);
+                // A full bulk queue costs the client that file (see abortFileTransfer), not the connection
+                if (messageClass != MessageClass.BULK) {
+                    closeSlowConsumer(client, info, messageClass);
+                }
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Stop relaying a file to a recipient whose bulk queue is full. Both ends
+     * get a FILE_TRANSFER ERROR for it, so the recipient drops the partial file
+     * rather than keep one with chunks missing. Runs on the meeting's lane.
+     */
+    private void abortFileTransfer(String meetingId, String message, String fileId, ClientInfo recipient,
+                                   WebSocket sender) {
+        if (!recipient.abortedFiles.add(fileId)) {
+            return;
+        }
+        fileTransfersAborted.increment();
+        String error = "FILE_TRANSFER|" + meetingId + "|" + senderOf(message) + "|ERROR|" + fileId + "|"
+                + fieldOf(message, 5) + "|";
+        sendShared(recipient.conn, recipient, MessageClass.CONTROL, null,
+                SharedFrame.text(error + "Relay stopped the transfer: connection too slow"));
+        ClientInfo senderInfo = sender != null ? clients.get(sender) : null;
+        if (senderInfo != null && sender.isOpen()) {
+            sendShared(sender, senderInfo, MessageClass.CONTROL, null,
+                    SharedFrame.text(error + "Not delivered to " + recipient.username + ": connection too slow"));
+        }
+        System.out.println("Aborted FILE_TRANSFER " + fileId + " to " + recipient + " in meeting " + meetingId
+                + ": " + recipient.outbound.getQueuedBytes(MessageClass.BULK) + " bytes of file data waiting");
+    }
+
+    /**
+     * Close a connection whose queue of messages that may not be dropped is
+     * full: it would otherwise miss some of them. Resumable clients reconnect
+     * and catch up from the journal.
+     */
+    private void closeSlowConsumer(WebSocket client, ClientInfo info, MessageClass messageClass) {
+        if (info.slowConsumer) {
+            return;
+        }
+        info.slowConsumer = true;
+        slowConsumerCloses.increment();
+        System.out.println("Closing slow consumer " + info + ": " + info.outbound.getQueuedBytes(messageClass)
+                + " bytes of " + messageClass + " waiting");
+        client.close(AdmissionControl.CLOSE_TRY_AGAIN_LATER, "Slow consumer");
+    }
+
+    /**
+     * Put an encoded frame on the wire. The transport queues the shared bytes
+     * as they are, skipping the per-recipient frame building done by {@code send()}.
+     */
+    private void writeFrame(WebSocket client, SharedFrame frame, ByteBuffer view) {
+        RelayTransport current = transport;
+        if (current != null) {
+            current.write(client, view);
+        } else {
+            frame.sendUnshared(client);
+            view.position(view.limit());
+        }
+    }
+
+    // Sender field of a TYPE|MEETING|USER|... message, read without splitting the payload
+    private static String senderOf(String message) {
+        int first = message.indexOf('|');
+        int second = first < 0 ? -1 : message.indexOf('|', first + 1);
+        if (second < 0) {
+            return "";
+        }
+        int third = message.indexOf('|', second + 1);
+        return third < 0 ? message.substring(second + 1) : message.substring(second + 1, third);
+    }
+
+    // Field of a TYPE|MEETING|USER|... message by position, or null if it has fewer fields
+    private static String fieldOf(String message, int index) {
+        int start = 0;
+        for (int i = 0; i < index; i++) {
+            start = message.indexOf('|', start) + 1;
+            if (start == 0) {
+                return null;
             }
         }
+        int end = message.indexOf('|', start);
+        return end < 0 ? message.substring(start) : message.substring(start, end);
     }
 
     public void broadcastToMeeting(String meetingId, String message) {
@@ -566,29 +2340,69 @@ public class SimpleNativeWebSocketServer {
     }
 
     public void broadcast(String message) {
-        if (webSocketServer != null && isRunning) {
+        broadcastTo(message, ALL_CLIENTS);
+    }
+
+    /**
+     * Recipients of a global broadcast.
+     */
+    private interface BroadcastFilter {
+        boolean accepts(WebSocket conn, ClientInfo info);
+    }
+
+    private static final BroadcastFilter ALL_CLIENTS = (conn, info) -> true;
+    private static final BroadcastFilter LEGACY_PRESENCE = (conn, info) -> !info.presenceDeltas;
+
+    private void broadcastTo(String message, BroadcastFilter recipients) {
+        if (transport != null && isRunning) {
+            String type = MessageClass.typeOf(message);
+            long typeBit = Subscriptions.bitOf(type);
+            long encodeStart = System.nanoTime();
+            SharedFrame frame = SharedFrame.text(message);
+            long queueStart = System.nanoTime();
+
             int sentCount = 0;
-            for (WebSocket client : clients.keySet()) {
-                if (client != null && client.isOpen()) {
+            for (Map.Entry<WebSocket, ClientInfo> entry : clients.entrySet()) {
+                WebSocket client = entry.getKey();
+                ClientInfo info = entry.getValue();
+                if (!recipients.accepts(client, info)) {
+                    continue;
+                }
+                if (!Subscriptions.accepts(info.subscriptions, typeBit)) {
+                    subscriptionSkips.increment();
+                    subscriptionSkippedBytes.add(frame.size());
+                    continue;
+                }
+                if (client.isOpen()) {
                     try {
-                        client.send(message);
+                        sendShared(client, info, MessageClass.CONTROL, null, frame);
                         sentCount++;
                     } catch (Exception e) {
                         System.err.println("Error broadcasting to client: " + e.getMessage());
                     }
                 }
             }
-            if (!message.startsWith("VIDEO_FRAME")) {
-                System.out.println("Global broadcast: sent to " + sentCount + " clients");
+            long queueTime = System.nanoTime() - queueStart;
+            fanOutStats.record(sentCount, frame.size(), queueStart - encodeStart, queueTime);
+            metrics.recordFanOut(queueStart - encodeStart + queueTime);
+            metrics.recordOut(type, null, sentCount, frame.size());
+
+            if (LOG.isEnabled(AsyncLog.Level.DEBUG)) {
+                LOG.debug("Global broadcast: sent to {} clients", sentCount);
             }
         }
     }
 
     public void stop() {
-        if (webSocketServer != null && isRunning) {
+        if (transport != null && isRunning) {
             try {
                 System.out.println("Stopping WebSocket server...");
 
+                // In a cluster, point clients at the nodes taking over their meetings
+                if (cluster != null) {
+                    handOffAllMeetings(cluster);
+                }
+
                 // Notify all clients
                 broadcast("SYSTEM|global|Server|Server is shutting down");
 
@@ -600,15 +2414,46 @@ public class SimpleNativeWebSocketServer {
                 }
 
                 // Clear collections
+                livenessWheel.stop();
+                admission.stop();
+                presence.stop();
+                recordingTap.closeAll();
+                meetingHosts.clear();
+                parkedBulk.clear();
+                parkedBulkBytes.set(0);
+                failedBulk.clear();
+                lastFrameCache.clear();
                 clients.clear();
-                meetingRooms.clear();
+                rooms.clear();
+                detachedSessions.clear();
                 registeredDevices.clear();
 
                 // Stop server
-                webSocketServer.stop(5000);
+                transport.stop(5000);
                 isRunning = false;
                 actualPort = -1;
 
+                if (cluster != null) {
+                    cluster.stop();
+                    cluster = null;
+                }
+
+                if (metricsServer != null) {
+                    metricsServer.stop();
+                    metricsServer = null;
+                }
+
+                // Let the lanes finish what they have queued
+                MeetingLanes lanes = meetingLanes;
+                if (lanes != null) {
+                    LOG.info("Meeting lanes at shutdown: {}", lanes);
+                    lanes.shutdown(2000);
+                    meetingLanes = null;
+                }
+
+                stopSchedulers();
+                backloggedQueues.clear();
+
                 // Shutdown executor
                 if (executorService != null) {
                     executorService.shutdown();
@@ -628,11 +2473,29 @@ public class SimpleNativeWebSocketServer {
                 System.err.println("Error stopping server: " + e.getMessage());
                 e.printStackTrace();
             } finally {
-                webSocketServer = null;
+                transport = null;
             }
         }
     }
 
+    /**
+     * Stop the periodic tasks; start() schedules them again.
+     */
+    private synchronized void stopSchedulers() {
+        if (outboundPump != null) {
+            outboundPump.shutdownNow();
+            outboundPump = null;
+        }
+        if (bandwidthSampler != null) {
+            bandwidthSampler.shutdownNow();
+            bandwidthSampler = null;
+        }
+        if (overloadSampler != null) {
+            overloadSampler.shutdownNow();
+            overloadSampler = null;
+        }
+    }
+
     public boolean isRunning() {
         return isRunning;
     }
@@ -661,12 +2524,166 @@ public class SimpleNativeWebSocketServer {
         return deviceNames;
     }
 
+    /**
+     * Per-broadcast encode and queueing cost.
+     */
+    public FanOutStats getFanOutStats() {
+        return fanOutStats;
+    }
+
+    /**
+     * Video frames replaced in each client's outbound queue because the client
+     * could not keep up, keyed by device id.
+     */
+    public Map<String, Long> getDroppedVideoFramesByClient() {
+        Map<String, Long> dropped = new HashMap<>();
+        for (ClientInfo info : clients.values()) {
+            if (info.outbound != null) {
+                dropped.put(info.deviceId, info.outbound.getDroppedVideoFrames());
+            }
+        }
+        return dropped;
+    }
+
+    /**
+     * Control, chat and file frames refused by each connected client's full
+     * outbound queue, by device id.
+     */
+    public Map<String, Long> getOverflowedFramesByClient() {
+        Map<String, Long> overflowed = new HashMap<>();
+        for (ClientInfo info : clients.values()) {
+            OutboundQueue queue = info.outbound;
+            if (queue != null) {
+                long total = 0;
+                for (MessageClass cls : MessageClass.values()) {
+                    total += queue.getOverflowedFrames(cls);
+                }
+                overflowed.put(info.deviceId, total);
+            }
+        }
+        return overflowed;
+    }
+
+    public RecordingTap getRecordingTap() {
+        return recordingTap;
+    }
+
+    /**
+     * Downstream bandwidth estimator of each connected client, by device id.
+     */
+    public Map<String, BandwidthEstimator> getBandwidthEstimates() {
+        Map<String, BandwidthEstimator> estimates = new HashMap<>();
+        for (ClientInfo info : clients.values()) {
+            estimates.put(info.deviceId, info.bandwidth);
+        }
+        return estimates;
+    }
+
+    /**
+     * Run as one node of a relay cluster. Must be called before {@link #start()}.
+     * @param clusterPort Port of the inter-node link
+     * @param seeds       Link addresses ({@code host:port}) of other nodes
+     */
+    public void enableCluster(int clusterPort, List<String> seeds) {
+        this.clusterPort = clusterPort;
+        this.clusterSeeds = seeds;
+    }
+
+    /**
+     * Address advertised to other nodes and to redirected clients.
+     */
+    public void setClusterHost(String clusterHost) {
+        this.clusterHost = clusterHost;
+    }
+
+    /**
+     * Cluster membership and meeting placement, or null when not clustered.
+     */
+    public RelayCluster getCluster() {
+        return cluster;
+    }
+
+    public long getRedirectCount() {
+        return redirects.sum();
+    }
+
+    /**
+     * Deliveries skipped because the recipient unsubscribed from the message type.
+     */
+    public long getSubscriptionSkips() {
+        return subscriptionSkips.sum();
+    }
+
+    /**
+     * Bytes not sent because of unsubscribed message types.
+     */
+    public long getSubscriptionSkippedBytes() {
+        return subscriptionSkippedBytes.sum();
+    }
+
+    /**
+     * Last video frame per publisher, with hit, miss and eviction counters.
+     */
+    public LastFrameCache getLastFrameCache() {
+        return lastFrameCache;
+    }
+
+    /**
+     * Idle pings and heartbeat expirations.
+     */
+    public LivenessWheel getLivenessWheel() {
+        return livenessWheel;
+    }
+
+    /**
+     * Per-meeting execution lanes, with queue depth and service time per lane.
+     * Null while the server is stopped.
+     */
+    public MeetingLanes getMeetingLanes() {
+        return meetingLanes;
+    }
+
+    public int getLaneCount() {
+        return laneCount;
+    }
+
+    /**
+     * Set the number of meeting lanes. Takes effect the next time the server starts.
+     */
+    public void setLaneCount(int laneCount) {
+        this.laneCount = Math.max(1, laneCount);
+    }
+
+    public int getDecoderCount() {
+        return decoderCount;
+    }
+
+    /**
+     * Set the number of socket I/O threads (decoder threads for Java-WebSocket,
+     * selector threads for NIO). Takes effect the next time the server starts.
+     */
+    public void setDecoderCount(int decoderCount) {
+        this.decoderCount = Math.max(1, decoderCount);
+    }
+
+    public String getTransportName() {
+        return transportName;
+    }
+
+    /**
+     * Pick the socket engine ({@link RelayTransport#JAVA_WEBSOCKET} or
+     * {@link RelayTransport#NIO}). Takes effect the next time the server starts.
+     */
+    public void setTransportName(String transportName) {
+        this.transportName = transportName;
+    }
+
     public int getMeetingCount() {
-        return meetingRooms.size();
+        return rooms.getRoomCount();
     }
 
     public Set<String> getActiveMeetings() {
-        return new HashSet<>(meetingRooms.keySet());
+        return rooms.getMeetingIds();
     }
 
     public String getBindAddress() {
@@ -705,6 +2722,7 @@ public class SimpleNativeWebSocketServer {
     public static synchronized void resetInstance() {
         if (instance != null) {
             instance.stop();
+            instance.stopSchedulers();
             instance = null;
         }
     }
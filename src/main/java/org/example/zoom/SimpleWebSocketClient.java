@@ -1,14 +1,28 @@
 package org.example.zoom.websocket;
 
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import org.java_websocket.WebSocketImpl;
 import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.drafts.Draft_6455;
 import org.java_websocket.handshake.ServerHandshake;
 
 public class SimpleWebSocketClient {
 
+    private static final AsyncLog LOG = AsyncLog.getInstance();
+
     private WebSocketClient webSocketClient;
     private String serverUrl;
     private Consumer<String> messageHandler;
@@ -16,6 +30,50 @@ public class SimpleWebSocketClient {
     private ConnectionListener connectionListener;
     private boolean isConnecting = false;
 
+    // Outgoing messages wait here and go out control first, bulk last (see ClientSendQueue)
+    private volatile ClientSendQueue sendQueue;
+    private WebSocketClient sendQueueOwner;
+
+    // Binary media frames (see BinaryMediaFrame)
+    private Consumer<BinaryMediaFrame> mediaFrameHandler;
+    private volatile boolean binaryFramesSupported = false;
+    private final AtomicInteger videoSequence = new AtomicInteger();
+    // Simulcast (see SimulcastLayers): sequence numbers per layer sent, and the layer last received per publisher
+    private final AtomicInteger[] layerSequences = {new AtomicInteger(), new AtomicInteger(), new AtomicInteger()};
+    private final Map<String, Integer> receivedLayers = new ConcurrentHashMap<>();
+    // The relay's estimate of our downstream bandwidth (see BandwidthEstimator), -1 while unknown
+    private volatile long downstreamKbps = -1;
+    private volatile long downstreamRttMs = -1;
+
+    // Media tracing (see MediaTrace): sequence numbers per stream, a clock offset to the
+    // relay kept fresh by PINGs, and the latency and loss of what other senders send us
+    private final AtomicInteger chatSequence = new AtomicInteger();
+    private final ClockOffset clockOffset = new ClockOffset();
+    private final MediaTraceStats mediaTrace = new MediaTraceStats();
+    private final MessageHeader receiveHeader = new MessageHeader();
+    private final MediaTrace receiveTrace = new MediaTrace();
+    private ScheduledExecutorService clockSync;
+    private static final long CLOCK_SYNC_INTERVAL_MS = 5000;
+    private static final int CLOCK_SYNC_BURST = 3;
+
+    // Cluster redirects (REDIRECT|meetingId|Server|ws://owner), bounded to avoid bouncing between nodes
+    private static final int MAX_REDIRECTS = 3;
+    private static final long REDIRECT_WINDOW_MS = 10000;
+    private long redirectWindowStart;
+    private int redirectCount;
+
+    // Session resumption (see MeetingJournal): the token of the current session and the last
+    // numbered message of the meeting, presented to the relay after an unplanned reconnect
+    private volatile boolean resumeSupported = false;
+    private volatile String resumeToken;
+    private volatile String resumeMeetingId;
+    private volatile long lastEventSequence;
+    private final MessageHeader eventHeader = new MessageHeader();
+
+    // Message types this client asked the server not to send; re-applied after every (re)connect
+    private final Set<String> unsubscribedTypes = new LinkedHashSet<>();
+    private volatile String subscriptionMeetingId = "global";
+
     // Store custom headers
     private Map<String, String> customHeaders = new HashMap<>();
 
@@ -51,7 +109,18 @@ public class SimpleWebSocketClient {
             isConnecting = true;
             URI serverUri = new URI(serverUrl);
 
-            webSocketClient = new WebSocketClient(serverUri, customHeaders) {
+            // Advertise binary media frame support; the server answers with the same header
+            Map<String, String> handshakeHeaders = new HashMap<>(customHeaders);
+            handshakeHeaders.put(BinaryMediaFrame.HANDSHAKE_HEADER, BinaryMediaFrame.HANDSHAKE_VALUE);
+            handshakeHeaders.put(MeetingJournal.HANDSHAKE_HEADER, MeetingJournal.HANDSHAKE_VALUE);
+            binaryFramesSupported = false;
+
+            // permessage-deflate for chat and control messages; media goes out uncompressed
+            Draft_6455 draft = MessageCompressor.getInstance().isEnabled()
+                    ? new Draft_6455(new SelectiveDeflateExtension())
+                    : new Draft_6455();
+
+            webSocketClient = new WebSocketClient(serverUri, draft, handshakeHeaders) {
                 @Override
                 public void onOpen(ServerHandshake handshakedata) {
                     System.out.println("=== WEBSOCKET CONNECTION ESTABLISHED ===");
@@ -64,8 +133,24 @@ public class SimpleWebSocketClient {
                         System.out.println("Custom headers sent: " + customHeaders.keySet());
                     }
 
+                    binaryFramesSupported = BinaryMediaFrame.HANDSHAKE_VALUE.equals(
+                            handshakedata.getFieldValue(BinaryMediaFrame.HANDSHAKE_HEADER));
+                    System.out.println("Binary media frames: " + (binaryFramesSupported ? "enabled" : "text fallback"));
+                    System.out.println("Compression: " + (handshakedata.getFieldValue("Sec-WebSocket-Extensions")
+                            .contains(MessageCompressor.EXTENSION_NAME) ? "permessage-deflate" : "off"));
+
+                    resumeSupported = MeetingJournal.HANDSHAKE_VALUE.equals(
+                            handshakedata.getFieldValue(MeetingJournal.HANDSHAKE_HEADER));
+
+                    startSendQueue(this);
+                    // A new connection has its own estimate
+                    downstreamKbps = -1;
+                    downstreamRttMs = -1;
                     isConnecting = false;
 
+                    // First, so the relay replays the gap before relaying anything new for the meeting
+                    resumeSession();
+
                     if (connectionListener != null) {
                         connectionListener.onConnected();
                     }
@@ -78,12 +163,38 @@ public class SimpleWebSocketClient {
 
                     // Test message to verify connection
                     send("TEST|global|server|Connection test");
+
+                    String unsubscribed = getUnsubscribedTypeList();
+                    if (!unsubscribed.isEmpty()) {
+                        send("UNSUBSCRIBE|" + subscriptionMeetingId + "|" + subscriptionUser() + "|" + unsubscribed);
+                    }
+
+                    startClockSync();
                 }
 
                 @Override
                 public void onMessage(String message) {
-                    System.out.println("=== WEBSOCKET MESSAGE RECEIVED ===");
-                    System.out.println("Raw message: " + message);
+                    if (LOG.isEnabled(AsyncLog.Level.DEBUG)) {
+                        String type = MessageClass.typeOf(message);
+                        LOG.sampled(AsyncLog.Level.DEBUG, type, "Received {} from {}: {}", type, serverUrl, message);
+                    }
+
+                    if (message.startsWith("REDIRECT|")) {
+                        followRedirect(message);
+                    } else if (message.startsWith("PONG|")) {
+                        onPong(message);
+                    } else {
+                        if (message.startsWith("EVENT|")) {
+                            message = unwrapEvent(message);
+                        } else if (message.startsWith("RESUME")) {
+                            onResumeMessage(message);
+                        } else if (message.startsWith("MEETING_SNAPSHOT|")) {
+                            onMeetingSnapshot(message);
+                        } else if (message.startsWith("BANDWIDTH|")) {
+                            onBandwidth(message);
+                        }
+                        message = traceReceived(message);
+                    }
 
                     if (messageHandler != null) {
                         try {
@@ -96,6 +207,28 @@ public class SimpleWebSocketClient {
                     }
                 }
 
+                @Override
+                public void onMessage(ByteBuffer bytes) {
+                    BinaryMediaFrame frame = BinaryMediaFrame.parse(bytes);
+                    if (frame == null) {
+                        onMessage(StandardCharsets.UTF_8.decode(bytes).toString());
+                        return;
+                    }
+                    mediaTrace.record(frame.getSenderId(), receivedStream(frame), frame.getSequence(),
+                            frame.getCaptureMs(), clockOffset.toRelayClock(MediaTrace.monotonicMillis()));
+
+                    try {
+                        if (mediaFrameHandler != null) {
+                            mediaFrameHandler.accept(frame);
+                        } else if (messageHandler != null) {
+                            // No binary consumer registered, hand over the legacy text form
+                            messageHandler.accept(frame.toText(false));
+                        }
+                    } catch (Exception e) {
+                        System.err.println("Error in media frame handler: " + e.getMessage());
+                    }
+                }
+
                 @Override
                 public void onClose(int code, String reason, boolean remote) {
                     System.out.println("=== WEBSOCKET CONNECTION CLOSED ===");
@@ -105,6 +238,8 @@ public class SimpleWebSocketClient {
                     System.out.println("Remote: " + remote);
 
                     isConnecting = false;
+                    stopClockSync();
+                    stopSendQueue(this);
 
                     if (connectionListener != null) {
                         connectionListener.onDisconnected();
@@ -140,8 +275,61 @@ public class SimpleWebSocketClient {
         }
     }
 
+    /**
+     * Reconnect to the relay node that owns the meeting, keeping the handshake
+     * headers. The meeting is joined there by the next message sent for it.
+     */
+    private synchronized void followRedirect(String message) {
+        MessageHeader header = new MessageHeader();
+        if (!header.parse(message)) {
+            return;
+        }
+        String target = header.content();
+        if (target.isEmpty() || target.equals(serverUrl)) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        if (now - redirectWindowStart > REDIRECT_WINDOW_MS) {
+            redirectWindowStart = now;
+            redirectCount = 0;
+        }
+        if (++redirectCount > MAX_REDIRECTS) {
+            System.err.println("Too many redirects, staying on " + serverUrl);
+            return;
+        }
+
+        System.out.println("Meeting " + header.meetingId() + " is served by " + target + ", reconnecting");
+        WebSocketClient previous = webSocketClient;
+        Thread redirectThread = new Thread(() -> {
+            if (previous != null) {
+                try {
+                    previous.closeBlocking();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            serverUrl = target;
+            clockOffset.reset();
+            // The other node does not know this session
+            clearResumeState();
+            webSocketClient = null;
+            isConnecting = false;
+            connect();
+        }, "WebSocketClient-Redirect");
+        redirectThread.setDaemon(true);
+        redirectThread.start();
+    }
+
     public void disconnect() {
         System.out.println("Disconnecting WebSocket from: " + serverUrl);
+        closeConnection();
+        customHeaders.clear(); // Clear headers on disconnect
+        // Leaving on purpose, so there is no session to resume
+        clearResumeState();
+    }
+
+    private void closeConnection() {
         if (webSocketClient != null) {
             if (webSocketClient.isOpen()) {
                 webSocketClient.close();
@@ -149,19 +337,331 @@ public class SimpleWebSocketClient {
             webSocketClient = null;
         }
         isConnecting = false;
-        customHeaders.clear(); // Clear headers on disconnect
+        stopClockSync();
+        stopSendQueue(null);
+    }
+
+    // ---- outbound scheduling ----
+
+    private synchronized void startSendQueue(WebSocketClient client) {
+        stopSendQueue(null);
+        ClientSendQueue queue = new ClientSendQueue(message -> {
+            if (message instanceof ByteBuffer) {
+                client.send((ByteBuffer) message);
+            } else {
+                client.send((String) message);
+            }
+        }, () -> ClientSendQueue.bufferedBytes(((WebSocketImpl) client.getConnection()).outQueue));
+        queue.start();
+        sendQueue = queue;
+        sendQueueOwner = client;
+    }
+
+    /**
+     * @param owner Stop only the queue of this connection, or null for any; an old
+     *              connection closing late must not stop its successor's queue
+     */
+    private synchronized void stopSendQueue(WebSocketClient owner) {
+        if (sendQueue != null && (owner == null || owner == sendQueueOwner)) {
+            sendQueue.stop();
+            sendQueue = null;
+            sendQueueOwner = null;
+        }
+    }
+
+    /**
+     * Queue a message behind the ones of its class and ahead of lower classes.
+     */
+    private void enqueue(MessageClass messageClass, Object message) {
+        ClientSendQueue queue = sendQueue;
+        if (queue == null || !queue.offer(messageClass, message)) {
+            System.err.println("Cannot send message - send queue stopped for: " + serverUrl);
+        }
+    }
+
+    /**
+     * Messages waiting to be sent, per class.
+     */
+    public int getQueuedCount(MessageClass messageClass) {
+        ClientSendQueue queue = sendQueue;
+        return queue != null ? queue.getQueuedCount(messageClass) : 0;
+    }
+
+    // ---- session resumption ----
+
+    /**
+     * After a reconnect, ask the relay for the meeting messages missed while
+     * the connection was down. It answers with the missed EVENTs and RESUMED,
+     * or with MEETING_SNAPSHOT if they are no longer journaled.
+     */
+    private void resumeSession() {
+        String token = resumeToken;
+        String meetingId = resumeMeetingId;
+        if (!resumeSupported || token == null || meetingId == null) {
+            return;
+        }
+        System.out.println("Resuming session in meeting " + meetingId + " after message " + lastEventSequence);
+        send("RESUME|" + meetingId + "|" + subscriptionUser() + "|" + token + "," + lastEventSequence);
+    }
+
+    /**
+     * EVENT|meeting|Server|seq|original message: note the sequence number and
+     * hand on the original.
+     */
+    private String unwrapEvent(String message) {
+        MessageHeader header = eventHeader;
+        if (!header.parse(message)) {
+            return message;
+        }
+        int originalStart = header.contentStart() + header.contentLength() + 1;
+        if (originalStart > message.length()) {
+            return message;
+        }
+        try {
+            lastEventSequence = Long.parseLong(header.content());
+            resumeMeetingId = header.meetingId();
+        } catch (NumberFormatException e) {
+            System.err.println("Ignoring sequence of malformed event: " + e.getMessage());
+        }
+        return message.substring(originalStart);
+    }
+
+    /**
+     * RESUME_TOKEN|global|Server|token, or RESUMED|meeting|Server|replayed|lastSeq.
+     */
+    private void onResumeMessage(String message) {
+        MessageHeader header = eventHeader;
+        if (!header.parse(message)) {
+            return;
+        }
+        if (header.isType("RESUME_TOKEN")) {
+            resumeToken = header.content();
+        } else if (header.isType("RESUMED")) {
+            System.out.println("Session resumed, " + header.content() + " missed message(s) replayed");
+        }
+    }
+
+    /**
+     * MEETING_SNAPSHOT|meeting|Server|lastSeq|participants: the gap could not
+     * be replayed; numbering continues from the snapshot.
+     */
+    private void onMeetingSnapshot(String message) {
+        MessageHeader header = eventHeader;
+        if (!header.parse(message)) {
+            return;
+        }
+        try {
+            lastEventSequence = Long.parseLong(header.content());
+            resumeMeetingId = header.meetingId();
+        } catch (NumberFormatException e) {
+            System.err.println("Ignoring malformed meeting snapshot: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Follow joins and leaves, so a reconnect resumes the meeting the user is in.
+     */
+    private void trackMeeting(String message) {
+        if (message.startsWith("USER_JOINED|")) {
+            int start = "USER_JOINED|".length();
+            int end = message.indexOf('|', start);
+            String meetingId = end < 0 ? message.substring(start) : message.substring(start, end);
+            if (!meetingId.equals("global") && !meetingId.equals(resumeMeetingId)) {
+                resumeMeetingId = meetingId;
+                lastEventSequence = 0;
+            }
+        } else if (message.startsWith("USER_LEFT|")) {
+            // Nothing to resume in a meeting that was left
+            resumeMeetingId = null;
+        }
+    }
+
+    private void clearResumeState() {
+        resumeToken = null;
+        resumeMeetingId = null;
+        lastEventSequence = 0;
+    }
+
+    /**
+     * Whether the relay numbers meeting messages for this connection, so a
+     * reconnect can pick up where it left off.
+     */
+    public boolean isResumeSupported() {
+        return resumeSupported && isConnected();
+    }
+
+    public long getLastEventSequence() {
+        return lastEventSequence;
+    }
+
+    // ---- media tracing ----
+
+    /**
+     * Ping the relay a few times right away and then every few seconds, so the
+     * clock offset is known before the first frame and follows any drift.
+     */
+    private synchronized void startClockSync() {
+        stopClockSync();
+        clockSync = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "WebSocketClient-ClockSync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < CLOCK_SYNC_BURST; i++) {
+            clockSync.schedule(this::sendClockPing, i * 250L, TimeUnit.MILLISECONDS);
+        }
+        clockSync.scheduleAtFixedRate(this::sendClockPing, CLOCK_SYNC_INTERVAL_MS, CLOCK_SYNC_INTERVAL_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void stopClockSync() {
+        if (clockSync != null) {
+            clockSync.shutdownNow();
+            clockSync = null;
+        }
+    }
+
+    private void sendClockPing() {
+        WebSocketClient client = webSocketClient;
+        // Straight to the socket: queuing it here would count as round trip time
+        if (client != null && client.isOpen()) {
+            try {
+                client.send("PING|global|" + subscriptionUser() + "|" + MediaTrace.monotonicMillis());
+            } catch (Exception e) {
+                System.err.println("Failed to send clock sync ping: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * PONG|meeting|Server|wallClock|clients|relayClock|echoedSendTime; older
+     * servers leave out the last two fields.
+     */
+    private void onPong(String message) {
+        long receivedMs = MediaTrace.monotonicMillis();
+        MessageHeader header = new MessageHeader();
+        if (!header.parse(message)) {
+            return;
+        }
+        String relayClock = header.field(5);
+        String echoed = header.field(6);
+        if (relayClock == null || echoed == null) {
+            return;
+        }
+        try {
+            clockOffset.addSample(Long.parseLong(echoed), Long.parseLong(relayClock), receivedMs);
+        } catch (NumberFormatException e) {
+            // A PING that was not ours, e.g. sent by the application with other content
+        }
+    }
+
+    /**
+     * Record the trace stamp of a received message and strip it, so message
+     * handlers see the message as it was before tracing.
+     */
+    private String traceReceived(String message) {
+        MessageHeader header = receiveHeader;
+        if (!header.parse(message)) {
+            return message;
+        }
+        String stream = MediaTrace.streamOf(header.type());
+        if (stream == null || !receiveTrace.parse(message, header.contentStart())) {
+            return message;
+        }
+        mediaTrace.record(header.username(), stream, receiveTrace.sequence(), receiveTrace.captureMs(),
+                clockOffset.toRelayClock(MediaTrace.monotonicMillis()));
+        return receiveTrace.strip(message, header.contentStart());
+    }
+
+    /**
+     * Stamp an outgoing VIDEO_FRAME or CHAT message with the next sequence
+     * number of its stream and the capture time on the relay clock.
+     */
+    private String traceOutgoing(String message) {
+        MessageHeader header = new MessageHeader();
+        if (!header.parse(message)) {
+            return message;
+        }
+        String stream = MediaTrace.streamOf(header.type());
+        if (stream == null || (header.contentStart() < message.length() &&
+                message.charAt(header.contentStart()) == MediaTrace.MARK)) {
+            return message;
+        }
+        AtomicInteger sequence = MediaTrace.STREAM_VIDEO.equals(stream) ? videoSequence : chatSequence;
+        return MediaTrace.insert(message, header.contentStart(), sequence.incrementAndGet(),
+                clockOffset.toRelayClock(MediaTrace.monotonicMillis()));
+    }
+
+    /**
+     * Trace stream of a received video frame. Each simulcast layer is numbered
+     * on its own, so the stream starts over when the relay switches layers.
+     */
+    private String receivedStream(BinaryMediaFrame frame) {
+        if (!frame.isSimulcast()) {
+            return MediaTrace.STREAM_VIDEO;
+        }
+        String stream = SimulcastLayers.streamOf(frame.getLayer());
+        Integer previous = receivedLayers.put(frame.getSenderId(), frame.getLayer());
+        if (previous != null && previous != frame.getLayer()) {
+            mediaTrace.resetStream(frame.getSenderId(), stream);
+        }
+        return stream;
+    }
+
+    /**
+     * BANDWIDTH|global|Server|estimateKbps|rttMs: the relay's view of our downstream.
+     */
+    private void onBandwidth(String message) {
+        MessageHeader header = eventHeader;
+        if (!header.parse(message)) {
+            return;
+        }
+        try {
+            downstreamKbps = Long.parseLong(header.content());
+            String rtt = header.field(4);
+            downstreamRttMs = rtt != null ? Long.parseLong(rtt) : -1;
+        } catch (NumberFormatException e) {
+            System.err.println("Ignoring malformed bandwidth estimate: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Downstream bandwidth the relay estimates for this connection, in kbit/s,
+     * or -1 if it has not seen the connection fall behind.
+     */
+    public long getDownstreamKbps() {
+        return downstreamKbps;
+    }
+
+    /**
+     * Ping round trip the relay measures for this connection, or -1.
+     */
+    public long getDownstreamRttMs() {
+        return downstreamRttMs;
+    }
+
+    /**
+     * Latency and loss of the traced messages received from each sender.
+     */
+    public MediaTraceStats getMediaTrace() {
+        return mediaTrace;
+    }
+
+    public ClockOffset getClockOffset() {
+        return clockOffset;
     }
 
     public void send(String message) {
         if (isConnected()) {
             try {
-                System.out.println("=== WEBSOCKET SENDING MESSAGE ===");
-                System.out.println("To: " + serverUrl);
-                System.out.println("Message: " + message);
-
-                webSocketClient.send(message);
+                trackMeeting(message);
+                message = traceOutgoing(message);
+                enqueue(MessageClass.forMessage(message), message);
 
-                System.out.println("Message sent successfully");
+                if (LOG.isEnabled(AsyncLog.Level.DEBUG)) {
+                    String type = MessageClass.typeOf(message);
+                    LOG.sampled(AsyncLog.Level.DEBUG, type, "Sent {} to {}: {}", type, serverUrl, message);
+                }
             } catch (Exception e) {
                 System.err.println("Failed to send WebSocket message: " + e.getMessage());
                 e.printStackTrace();
@@ -177,14 +677,6 @@ public class SimpleWebSocketClient {
         if (isConnected()) {
             // Format: TYPE|MEETING_ID|USERNAME|CONTENT
             String message = type + "|" + meetingId + "|" + username + "|" + content;
-
-            System.out.println("=== SENDING FORMATTED WEBSOCKET MESSAGE ===");
-            System.out.println("Type: " + type);
-            System.out.println("Meeting ID: " + meetingId);
-            System.out.println("Username: " + username);
-            System.out.println("Content length: " + (content != null ? content.length() : 0));
-            System.out.println("Full message: " + message);
-
             send(message);
         } else {
             System.err.println("Cannot send formatted message - WebSocket not connected");
@@ -201,6 +693,135 @@ public class SimpleWebSocketClient {
         }
     }
 
+    /**
+     * Send an encoded video frame. Uses a binary WebSocket message when the server
+     * negotiated binary media frames, otherwise falls back to the Base64 text format.
+     * @param jpeg Encoded frame bytes
+     */
+    public void sendVideoFrame(String meetingId, String username, byte[] jpeg) {
+        sendVideoFrame(meetingId, username, jpeg, MediaTrace.monotonicMillis());
+    }
+
+    /**
+     * @param capturedAt When the frame was grabbed, from {@link MediaTrace#monotonicMillis()}
+     */
+    public void sendVideoFrame(String meetingId, String username, byte[] jpeg, long capturedAt) {
+        if (!isConnected()) {
+            System.err.println("Cannot send video frame - WebSocket not connected to: " + serverUrl);
+            return;
+        }
+
+        try {
+            int sequence = videoSequence.incrementAndGet();
+            long captureMs = clockOffset.toRelayClock(capturedAt);
+            if (binaryFramesSupported) {
+                enqueue(MessageClass.VIDEO, BinaryMediaFrame.encodeVideoFrame(
+                        meetingId, username, sequence, captureMs, jpeg));
+            } else {
+                enqueue(MessageClass.VIDEO, "VIDEO_FRAME|" + meetingId + "|" + username + "|" +
+                        MediaTrace.stamp(sequence, captureMs) + Base64.getEncoder().encodeToString(jpeg));
+            }
+        } catch (Exception e) {
+            System.err.println("Failed to send video frame: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Send one layer of a simulcast video frame (see {@link SimulcastLayers}).
+     * Without binary frames the relay cannot pick layers, so only the top
+     * layer is sent, as a plain text frame.
+     * @param layer Layer of this frame
+     * @param topLayer Highest layer sent of this stream
+     */
+    public void sendVideoFrame(String meetingId, String username, byte[] jpeg, long capturedAt,
+                               int layer, int topLayer) {
+        if (!binaryFramesSupported) {
+            if (layer == topLayer) {
+                sendVideoFrame(meetingId, username, jpeg, capturedAt);
+            }
+            return;
+        }
+        if (!isConnected()) {
+            System.err.println("Cannot send video frame - WebSocket not connected to: " + serverUrl);
+            return;
+        }
+
+        try {
+            int sequence = layerSequences[layer].incrementAndGet();
+            ClientSendQueue queue = sendQueue;
+            ByteBuffer frame = BinaryMediaFrame.encodeVideoFrame(meetingId, username, sequence,
+                    clockOffset.toRelayClock(capturedAt), layer, topLayer, jpeg);
+            if (queue == null || !queue.offerVideo(layer, frame)) {
+                System.err.println("Cannot send message - send queue stopped for: " + serverUrl);
+            }
+        } catch (Exception e) {
+            System.err.println("Failed to send video frame: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Tell the relay how tall video is shown, so it forwards the simulcast
+     * layer that fits (see {@link SimulcastLayers}).
+     * @param publisher The participant the tile shows, or null for every tile
+     */
+    public void requestVideoView(String meetingId, int tileHeight, String publisher) {
+        if (isConnected()) {
+            send("VIDEO_VIEW|" + meetingId + "|" + subscriptionUser() + "|" + tileHeight +
+                    (publisher != null ? "|" + publisher : ""));
+        }
+    }
+
+    /**
+     * Ask the server to send these message types again (see {@link Subscriptions}).
+     * @param meetingId Meeting the client is in, or null; resuming VIDEO_FRAME in a
+     *                  meeting makes the server push the latest frames right away
+     */
+    public void subscribe(String meetingId, String... types) {
+        synchronized (unsubscribedTypes) {
+            for (String type : types) {
+                unsubscribedTypes.remove(type);
+                if ("VIDEO_FRAME".equals(type)) {
+                    // Frames skipped while unsubscribed are not losses
+                    mediaTrace.resetStream(MediaTrace.STREAM_VIDEO);
+                    for (int layer = 0; layer < SimulcastLayers.COUNT; layer++) {
+                        mediaTrace.resetStream(SimulcastLayers.streamOf(layer));
+                    }
+                }
+            }
+        }
+        subscriptionMeetingId = meetingId != null ? meetingId : "global";
+        if (isConnected()) {
+            send("SUBSCRIBE|" + subscriptionMeetingId + "|" + subscriptionUser() + "|" + String.join(",", types));
+        }
+    }
+
+    /**
+     * Ask the server to stop sending these message types, e.g. VIDEO_FRAME for a
+     * connection that does not render video.
+     * @param meetingId Meeting the client is in, or null
+     */
+    public void unsubscribe(String meetingId, String... types) {
+        synchronized (unsubscribedTypes) {
+            for (String type : types) {
+                unsubscribedTypes.add(type);
+            }
+        }
+        subscriptionMeetingId = meetingId != null ? meetingId : "global";
+        if (isConnected()) {
+            send("UNSUBSCRIBE|" + subscriptionMeetingId + "|" + subscriptionUser() + "|" + String.join(",", types));
+        }
+    }
+
+    private String getUnsubscribedTypeList() {
+        synchronized (unsubscribedTypes) {
+            return String.join(",", unsubscribedTypes);
+        }
+    }
+
+    private String subscriptionUser() {
+        return currentUser != null ? currentUser : "client";
+    }
+
     public boolean isConnected() {
         return webSocketClient != null && webSocketClient.isOpen() && !isConnecting;
     }
@@ -210,6 +831,17 @@ public class SimpleWebSocketClient {
         this.messageHandler = messageHandler;
     }
 
+    /**
+     * Receive binary media frames directly instead of as legacy text messages.
+     */
+    public void setMediaFrameHandler(Consumer<BinaryMediaFrame> mediaFrameHandler) {
+        this.mediaFrameHandler = mediaFrameHandler;
+    }
+
+    public boolean isBinaryFramesSupported() {
+        return binaryFramesSupported && isConnected();
+    }
+
     public void setCurrentUser(String username) {
         System.out.println("Setting current WebSocket user: " + username);
         this.currentUser = username;
@@ -238,7 +870,8 @@ public class SimpleWebSocketClient {
 
     public void reconnect() {
         System.out.println("Reconnecting WebSocket...");
-        disconnect();
+        // Headers and the resume token are kept, so the relay can replay what was missed
+        closeConnection();
         try {
             Thread.sleep(1000); // Wait a bit before reconnecting
         } catch (InterruptedException e) {
@@ -0,0 +1,224 @@
+package org.example.zoom.websocket;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Simulcast: a publisher sends every camera frame in up to three layers and
+ * the relay forwards exactly one layer of each publisher to each subscriber.
+ *
+ * Layers are the video qualities of the meeting window: 0 = 160x120 at 5 fps,
+ * 1 = 320x240 at 10 fps, 2 = 640x480 at 15 fps. A publisher sends layer 0 up
+ * to the quality it is set to, as binary frames carrying the layer and the top
+ * layer (see {@link BinaryMediaFrame#FLAG_SIMULCAST}).
+ *
+ * Subscribers say how large they show a publisher:
+ * <pre>
+ *   VIDEO_VIEW|meeting|username|tileHeight              (every publisher)
+ *   VIDEO_VIEW|meeting|username|tileHeight|publisher    (one publisher, e.g. the spotlight)
+ * </pre>
+ * The relay forwards the smallest layer at least as tall as the tile, never
+ * above the publisher's top layer, and lowered while the layer does not fit
+ * the subscriber's share of its estimated downstream bandwidth (see
+ * {@link BandwidthEstimator}). The relay measures what each layer of each
+ * publisher takes ({@link Rates}).
+ *
+ * Every frame is a complete JPEG, so a subscriber can switch layers at any
+ * frame. Switching down happens at once; switching back up waits until the
+ * connection has kept up for a while, so a subscriber does not flip between
+ * layers on every small hiccup.
+ */
+public final class SimulcastLayers {
+
+    public static final int COUNT = 3;
+    public static final int LOW = 0;
+    public static final int MEDIUM = 1;
+    public static final int HIGH = 2;
+
+    private static final int[] HEIGHTS = {120, 240, 480};
+
+    // Lower the capacity layer at most this often while layers do not fit
+    private static final long DOWN_SWITCH_INTERVAL_MS = 1000;
+    // Raise it again after this long, if the next layer fits with room to spare
+    private static final long UP_SWITCH_DELAY_MS = 5000;
+    private static final double UP_SWITCH_HEADROOM = 0.85;
+    // Layer rates are measured over windows of this length
+    private static final long RATE_WINDOW_MS = 1000;
+    private static final double RATE_GAIN = 0.5;
+
+    private SimulcastLayers() {
+    }
+
+    public static int height(int layer) {
+        return HEIGHTS[clamp(layer)];
+    }
+
+    /**
+     * Smallest layer at least as tall as a tile, or the highest if none is.
+     */
+    public static int forTileHeight(int tileHeight) {
+        for (int layer = LOW; layer < HIGH; layer++) {
+            if (HEIGHTS[layer] >= tileHeight) {
+                return layer;
+            }
+        }
+        return HIGH;
+    }
+
+    /**
+     * Trace stream of a layer; layers are numbered separately (see {@link MediaTrace}).
+     */
+    public static String streamOf(int layer) {
+        return MediaTrace.STREAM_VIDEO + "/" + clamp(layer);
+    }
+
+    private static int clamp(int layer) {
+        return Math.max(LOW, Math.min(HIGH, layer));
+    }
+
+    /**
+     * Bytes per second each layer of one publisher takes.
+     */
+    public static final class Rates {
+        private final long[] windowBytes = new long[COUNT];
+        private final double[] bytesPerSecond = new double[COUNT];
+        private long windowStart = -1;
+
+        public synchronized void record(int layer, int bytes, long nowMs) {
+            if (windowStart < 0) {
+                windowStart = nowMs;
+            }
+            long elapsed = nowMs - windowStart;
+            if (elapsed >= RATE_WINDOW_MS) {
+                for (int i = 0; i < COUNT; i++) {
+                    double rate = windowBytes[i] * 1000.0 / elapsed;
+                    bytesPerSecond[i] = bytesPerSecond[i] == 0 ? rate
+                            : bytesPerSecond[i] + RATE_GAIN * (rate - bytesPerSecond[i]);
+                    windowBytes[i] = 0;
+                }
+                windowStart = nowMs;
+            }
+            windowBytes[clamp(layer)] += bytes;
+        }
+
+        /**
+         * Measured rate of a layer, or 0 before the first full window.
+         */
+        public synchronized long bytesPerSecond(int layer) {
+            return Math.round(bytesPerSecond[clamp(layer)]);
+        }
+    }
+
+    /**
+     * Highest layer of one publisher that currently fits a subscriber.
+     */
+    private static final class Capacity {
+        int layer = HIGH;
+        long lastChange;
+    }
+
+    /**
+     * Layer choice of one subscriber.
+     */
+    public static final class Subscriber {
+        private volatile int requested = HIGH;
+        private final Map<String, Integer> requestedByPublisher = new ConcurrentHashMap<>();
+        private final Map<String, Integer> forwarded = new ConcurrentHashMap<>();
+        private final Map<String, Capacity> capacities = new ConcurrentHashMap<>();
+
+        private long switches;
+
+        /**
+         * Set the tile size from a VIDEO_VIEW request.
+         * @param publisher The publisher the tile shows, or null for all of them
+         */
+        public void request(int tileHeight, String publisher) {
+            int layer = forTileHeight(tileHeight);
+            if (publisher == null || publisher.isEmpty()) {
+                requested = layer;
+            } else {
+                requestedByPublisher.put(publisher, layer);
+            }
+        }
+
+        /**
+         * Whether to forward a frame, i.e. whether it is the layer chosen for
+         * this subscriber. Frames that are not simulcast are always forwarded.
+         * @param rates Layer rates of the publisher
+         * @param videoBudget The subscriber's video bandwidth in bytes per second,
+         *                    or {@link BandwidthEstimator#UNKNOWN} if not capped
+         */
+        public synchronized boolean accepts(String publisher, BinaryMediaFrame frame, Rates rates,
+                                            long videoBudget, long nowMs) {
+            if (!frame.isSimulcast()) {
+                return true;
+            }
+            int capacity = updateCapacity(publisher, rates, videoBudget, nowMs);
+            int layer = Math.min(choose(publisher, frame.getTopLayer()), capacity);
+            Integer previous = forwarded.put(publisher, layer);
+            if (previous != null && previous != layer) {
+                switches++;
+            }
+            return frame.getLayer() == layer;
+        }
+
+        private int choose(String publisher, int topLayer) {
+            Integer perPublisher = requestedByPublisher.get(publisher);
+            int wanted = perPublisher != null ? perPublisher : requested;
+            return Math.min(wanted, topLayer);
+        }
+
+        /**
+         * Move the capacity layer of a publisher towards the highest layer that
+         * fits the subscriber's share of the budget: down one layer at a time,
+         * up only after a while and with room to spare.
+         */
+        private int updateCapacity(String publisher, Rates rates, long videoBudget, long nowMs) {
+            Capacity capacity = capacities.computeIfAbsent(publisher, key -> new Capacity());
+            if (videoBudget == BandwidthEstimator.UNKNOWN || rates == null) {
+                capacity.layer = HIGH;
+                return capacity.layer;
+            }
+            // Every publisher being forwarded gets an equal share
+            double share = (double) videoBudget / Math.max(1, forwarded.size());
+            if (capacity.layer > LOW && rates.bytesPerSecond(capacity.layer) > share) {
+                if (nowMs - capacity.lastChange >= DOWN_SWITCH_INTERVAL_MS) {
+                    capacity.layer--;
+                    capacity.lastChange = nowMs;
+                }
+            } else if (capacity.layer < HIGH &&
+                    rates.bytesPerSecond(capacity.layer + 1) <= share * UP_SWITCH_HEADROOM &&
+                    nowMs - capacity.lastChange >= UP_SWITCH_DELAY_MS) {
+                capacity.layer++;
+                capacity.lastChange = nowMs;
+            }
+            return capacity.layer;
+        }
+
+        /**
+         * Layer currently forwarded of a publisher, or -1 if none yet.
+         */
+        public int getForwardedLayer(String publisher) {
+            Integer layer = forwarded.get(publisher);
+            return layer != null ? layer : -1;
+        }
+
+        public void removePublisher(String publisher) {
+            requestedByPublisher.remove(publisher);
+            forwarded.remove(publisher);
+            capacities.remove(publisher);
+        }
+
+        /**
+         * Highest layer of a publisher that fits the subscriber's bandwidth.
+         */
+        public int getCapacityLayer(String publisher) {
+            Capacity capacity = capacities.get(publisher);
+            return capacity != null ? capacity.layer : HIGH;
+        }
+
+        public synchronized long getSwitchCount() {
+            return switches;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package org.example.zoom.websocket;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Message-type subscriptions of a connection, kept as a 64-bit mask.
+ *
+ * Every well-known message type ({@link MessageHeader#KNOWN_TYPES}) has its own
+ * bit; all other types share the last one. The relay resolves a broadcast's bit
+ * once and skips a recipient with a single bit test, so a connection that does
+ * not render video never receives or decodes VIDEO_FRAME traffic.
+ *
+ * Clients change their mask with control messages whose content is a
+ * comma-separated list of types, or {@code *} for all of them:
+ * <pre>
+ *   SUBSCRIBE|meetingId|username|VIDEO_FRAME,CHAT
+ *   UNSUBSCRIBE|meetingId|username|VIDEO_FRAME
+ * </pre>
+ * Types needed to keep the connection working (server notices, keep-alive
+ * replies, redirects, meeting end) are always delivered.
+ */
+public final class Subscriptions {
+
+    public static final long ALL = -1L;
+    public static final long OTHER = 1L << 63;
+
+    private static final Map<String, Long> BITS = new HashMap<>();
+
+    static {
+        String[] types = MessageHeader.KNOWN_TYPES;
+        for (int i = 0; i < types.length && i < 63; i++) {
+            BITS.put(types[i], 1L << i);
+        }
+    }
+
+    public static final long ALWAYS_DELIVERED = bitOf("SYSTEM") | bitOf("CONNECTED") | bitOf("REDIRECT") |
+            bitOf("HEARTBEAT_ACK") | bitOf("PONG") | bitOf("MEETING_ENDED");
+
+    private Subscriptions() {
+    }
+
+    /**
+     * The bit of a message type. Types without a bit of their own map to {@link #OTHER}.
+     */
+    public static long bitOf(String type) {
+        Long bit = BITS.get(type);
+        return bit != null ? bit : OTHER;
+    }
+
+    /**
+     * Mask of a comma-separated type list; {@code *} selects every type.
+     */
+    public static long parse(String typeList) {
+        long mask = 0;
+        for (String type : typeList.split(",")) {
+            String trimmed = type.trim();
+            if (trimmed.equals("*")) {
+                return ALL;
+            }
+            if (!trimmed.isEmpty()) {
+                mask |= bitOf(trimmed);
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Whether a connection with the given mask takes messages with the given bit.
+     */
+    public static boolean accepts(long mask, long bit) {
+        return ((mask | ALWAYS_DELIVERED) & bit) != 0;
+    }
+
+    /**
+     * Type names selected by a mask, for logging.
+     */
+    public static List<String> describe(long mask) {
+        List<String> names = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : BITS.entrySet()) {
+            if ((mask & entry.getValue()) != 0) {
+                names.add(entry.getKey());
+            }
+        }
+        if ((mask & OTHER) != 0) {
+            names.add("OTHER");
+        }
+        return names;
+    }
+}
@@ -0,0 +1,121 @@
+package org.example.zoom.websocket;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+
+/**
+ * One synthetic client of {@link LoadGenerator}: a bare WebSocket connection
+ * with no threads of its own. All state is owned by the {@link SyntheticClientLoop}
+ * that drives it, so nothing here is synchronized.
+ */
+final class SyntheticClient {
+
+    enum State { CONNECTING, HANDSHAKE, OPEN, CLOSED }
+
+    static final byte OPCODE_CONTINUATION = 0x0;
+    static final byte OPCODE_TEXT = 0x1;
+    static final byte OPCODE_BINARY = 0x2;
+    static final byte OPCODE_CLOSE = 0x8;
+    static final byte OPCODE_PING = 0x9;
+    static final byte OPCODE_PONG = 0xA;
+
+    private static final int INITIAL_READ_BUFFER = 64 * 1024;
+
+    final int id;
+    final String username;
+    final String meetingId;
+    final boolean videoPublisher;
+
+    SocketChannel channel;
+    SelectionKey key;
+    State state = State.CONNECTING;
+
+    ByteBuffer in = ByteBuffer.allocate(INITIAL_READ_BUFFER);
+    final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+    long outBytes;
+
+    // A fragmented message being reassembled
+    ByteArrayOutputStream fragments;
+    byte fragmentOpcode;
+
+    boolean joined;
+    int videoSequence;
+    int chatSequence;
+
+    // Next send times (System.nanoTime()), and the earliest of them for the loop's timer queue
+    long nextVideo = Long.MAX_VALUE;
+    long nextChat = Long.MAX_VALUE;
+    long nextHeartbeat = Long.MAX_VALUE;
+    long nextDue = Long.MAX_VALUE;
+
+    SyntheticClient(int id, String meetingId, boolean videoPublisher) {
+        this.id = id;
+        this.username = "load-" + id;
+        this.meetingId = meetingId;
+        this.videoPublisher = videoPublisher;
+    }
+
+    void updateNextDue() {
+        nextDue = Math.min(nextVideo, Math.min(nextChat, nextHeartbeat));
+    }
+
+    /**
+     * Make room for a frame of {@code size} bytes, keeping what is buffered.
+     * The buffer is in read mode.
+     */
+    void ensureCapacity(int size) {
+        if (in.capacity() < size) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(size, in.capacity() * 2));
+            larger.put(in);
+            larger.flip();
+            in = larger;
+        }
+    }
+
+    // ---- client frames ----
+
+    static ByteBuffer textFrame(String message) {
+        return frame(OPCODE_TEXT, ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * A final client frame around the remaining bytes of the payload. Client
+     * frames must be masked; the all-zero key is a valid key that leaves the
+     * payload as it is, so nothing has to be XORed.
+     */
+    static ByteBuffer frame(byte opcode, ByteBuffer payload) {
+        int length = payload.remaining();
+        int header = length < 126 ? 2 : length <= 0xFFFF ? 4 : 10;
+        ByteBuffer frame = ByteBuffer.allocate(header + 4 + length);
+        frame.put((byte) (0x80 | opcode));
+        if (length < 126) {
+            frame.put((byte) (0x80 | length));
+        } else if (length <= 0xFFFF) {
+            frame.put((byte) (0x80 | 126));
+            frame.putShort((short) length);
+        } else {
+            frame.put((byte) (0x80 | 127));
+            frame.putLong(length);
+        }
+        frame.putInt(0);
+        frame.put(payload.duplicate());
+        frame.flip();
+        return frame;
+    }
+
+    static ByteBuffer closeFrame(int code) {
+        ByteBuffer payload = ByteBuffer.allocate(2);
+        payload.putShort((short) code);
+        payload.flip();
+        return frame(OPCODE_CLOSE, payload);
+    }
+
+    @Override
+    public String toString() {
+        return username + "@" + meetingId;
+    }
+}
@@ -0,0 +1,567 @@
+package org.example.zoom.websocket;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Selector thread of {@link LoadGenerator}. Drives a share of the synthetic
+ * clients: connects them, runs the client side of the handshake, decodes the
+ * relay's frames and publishes each client's traffic on schedule. Sending from
+ * the same thread that owns the socket keeps thousands of clients down to a
+ * handful of threads.
+ */
+final class SyntheticClientLoop extends Thread {
+
+    private static final byte[] CONNECTED = "CONNECTED|".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] VIDEO_FRAME = "VIDEO_FRAME|".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CHAT = "CHAT|".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEARTBEAT_ACK = "HEARTBEAT_ACK|".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CHAT_STAMP = "lg:".getBytes(StandardCharsets.US_ASCII);
+
+    // A publisher whose socket backs up this far skips frames instead of queueing more
+    private static final long MAX_CLIENT_BACKLOG = 4 * 1024 * 1024;
+    private static final int MAX_MESSAGE_BYTES = 16 * 1024 * 1024;
+
+    private final LoadGenerator generator;
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<SyntheticClient> toConnect = new ConcurrentLinkedQueue<>();
+    private final List<SyntheticClient> clients = new ArrayList<>();
+    private final PriorityQueue<SyntheticClient> timers =
+            new PriorityQueue<>(Comparator.comparingLong(c -> c.nextDue));
+    private volatile boolean running = true;
+    private boolean publishing;
+
+    SyntheticClientLoop(LoadGenerator generator, int index) throws IOException {
+        super("LoadGenerator-IO-" + index);
+        setDaemon(true);
+        this.generator = generator;
+        this.selector = Selector.open();
+    }
+
+    void connect(SyntheticClient client) {
+        toConnect.add(client);
+        selector.wakeup();
+    }
+
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                long timeoutMs = 100;
+                SyntheticClient next = timers.peek();
+                if (next != null) {
+                    timeoutMs = Math.max(1, Math.min(timeoutMs, (next.nextDue - System.nanoTime()) / 1_000_000));
+                }
+                selector.select(timeoutMs);
+                openNewConnections();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    SyntheticClient client = (SyntheticClient) key.attachment();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isConnectable()) {
+                            finishConnect(client);
+                        } else {
+                            if (key.isReadable()) {
+                                read(client);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                flush(client);
+                            }
+                        }
+                    } catch (IOException e) {
+                        close(client, -1);
+                    }
+                }
+
+                publishDue();
+            }
+        } catch (Exception e) {
+            System.err.println("Load generator I/O thread failed: " + e.getMessage());
+        } finally {
+            for (SyntheticClient client : clients) {
+                if (client.state == SyntheticClient.State.OPEN) {
+                    try {
+                        client.channel.write(SyntheticClient.closeFrame(1000));
+                    } catch (IOException e) {
+                        // Closing anyway
+                    }
+                }
+                close(client, 1000);
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+    // ---- connection ----
+
+    private void openNewConnections() {
+        SyntheticClient client;
+        while ((client = toConnect.poll()) != null) {
+            clients.add(client);
+            try {
+                SocketChannel channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                client.channel = channel;
+                InetSocketAddress address = generator.getServerAddress();
+                if (channel.connect(address)) {
+                    client.key = channel.register(selector, SelectionKey.OP_READ, client);
+                    sendHandshake(client);
+                } else {
+                    client.key = channel.register(selector, SelectionKey.OP_CONNECT, client);
+                }
+            } catch (IOException e) {
+                generator.onConnectFailed(client, e);
+                close(client, -1);
+            }
+        }
+    }
+
+    private void finishConnect(SyntheticClient client) throws IOException {
+        try {
+            client.channel.finishConnect();
+        } catch (IOException e) {
+            generator.onConnectFailed(client, e);
+            throw e;
+        }
+        client.key.interestOps(SelectionKey.OP_READ);
+        sendHandshake(client);
+    }
+
+    private void sendHandshake(SyntheticClient client) throws IOException {
+        byte[] key = new byte[16];
+        ThreadLocalRandom.current().nextBytes(key);
+        InetSocketAddress address = generator.getServerAddress();
+        StringBuilder request = new StringBuilder(256)
+                .append("GET ").append(generator.getPath()).append(" HTTP/1.1\r\n")
+                .append("Host: ").append(address.getHostString()).append(':').append(address.getPort()).append("\r\n")
+                .append("Upgrade: websocket\r\n")
+                .append("Connection: Upgrade\r\n")
+                .append("Sec-WebSocket-Key: ").append(Base64.getEncoder().encodeToString(key)).append("\r\n")
+                .append("Sec-WebSocket-Version: 13\r\n")
+                .append("Device-ID: ").append(client.username).append("\r\n")
+                .append("Device-Name: ").append(client.username).append("\r\n");
+        if (generator.isBinaryMedia()) {
+            request.append(BinaryMediaFrame.HANDSHAKE_HEADER).append(": ")
+                    .append(BinaryMediaFrame.HANDSHAKE_VALUE).append("\r\n");
+        }
+        if (generator.usesPresenceDeltas()) {
+            request.append(PresenceState.HANDSHAKE_HEADER).append(": ")
+                    .append(PresenceState.HANDSHAKE_VALUE).append("\r\n");
+        }
+        request.append("\r\n");
+        client.state = SyntheticClient.State.HANDSHAKE;
+        send(client, ByteBuffer.wrap(request.toString().getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    private void close(SyntheticClient client, int code) {
+        if (client.state == SyntheticClient.State.CLOSED) {
+            return;
+        }
+        boolean wasOpen = client.state == SyntheticClient.State.OPEN;
+        client.state = SyntheticClient.State.CLOSED;
+        client.out.clear();
+        client.outBytes = 0;
+        if (client.key != null) {
+            client.key.cancel();
+        }
+        if (client.channel != null) {
+            try {
+                client.channel.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+        generator.onClosed(client, wasOpen, code);
+    }
+
+    // ---- reading ----
+
+    private void read(SyntheticClient client) throws IOException {
+        int read = client.channel.read(client.in);
+        if (read < 0) {
+            close(client, -1);
+            return;
+        }
+        client.in.flip();
+        try {
+            if (client.state == SyntheticClient.State.HANDSHAKE && !readHandshakeResponse(client)) {
+                return;
+            }
+            while (client.state == SyntheticClient.State.OPEN && readFrame(client)) {
+                // Every complete frame in the buffer
+            }
+        } finally {
+            if (client.state != SyntheticClient.State.CLOSED) {
+                client.in.compact();
+            }
+        }
+    }
+
+    private boolean readHandshakeResponse(SyntheticClient client) {
+        ByteBuffer in = client.in;
+        int end = -1;
+        for (int i = in.position(); i + 3 < in.limit(); i++) {
+            if (in.get(i) == '\r' && in.get(i + 1) == '\n' && in.get(i + 2) == '\r' && in.get(i + 3) == '\n') {
+                end = i + 4;
+                break;
+            }
+        }
+        if (end < 0) {
+            return false;
+        }
+        byte[] head = new byte[end - in.position()];
+        in.get(head);
+        String response = new String(head, StandardCharsets.US_ASCII);
+        if (!response.startsWith("HTTP/1.1 101")) {
+            generator.onConnectFailed(client, new IOException(response.split("\r\n", 2)[0]));
+            close(client, -1);
+            return false;
+        }
+        client.state = SyntheticClient.State.OPEN;
+        generator.onOpen(client);
+        return true;
+    }
+
+    /**
+     * Decode one frame if it is complete. The buffer is in read mode.
+     */
+    private boolean readFrame(SyntheticClient client) throws IOException {
+        ByteBuffer in = client.in;
+        int start = in.position();
+        if (in.remaining() < 2) {
+            return false;
+        }
+        int b0 = in.get(start) & 0xFF;
+        int b1 = in.get(start + 1) & 0xFF;
+        boolean fin = (b0 & 0x80) != 0;
+        byte opcode = (byte) (b0 & 0x0F);
+        boolean masked = (b1 & 0x80) != 0;
+        long length = b1 & 0x7F;
+        int header = 2;
+        if (length == 126) {
+            if (in.remaining() < 4) {
+                return false;
+            }
+            length = in.getShort(start + 2) & 0xFFFF;
+            header = 4;
+        } else if (length == 127) {
+            if (in.remaining() < 10) {
+                return false;
+            }
+            length = in.getLong(start + 2);
+            header = 10;
+        }
+        if (masked) {
+            header += 4;
+        }
+        if (length > MAX_MESSAGE_BYTES) {
+            throw new IOException("Frame of " + length + " bytes");
+        }
+        int total = header + (int) length;
+        if (in.remaining() < total) {
+            client.ensureCapacity(total);
+            return false;
+        }
+
+        ByteBuffer payload = in.slice(start + header, (int) length);
+        if (masked) {
+            byte[] key = new byte[4];
+            in.get(start + header - 4, key);
+            byte[] data = new byte[(int) length];
+            payload.get(data);
+            for (int i = 0; i < data.length; i++) {
+                data[i] ^= key[i & 3];
+            }
+            payload = ByteBuffer.wrap(data);
+        }
+        in.position(start + total);
+
+        switch (opcode) {
+            case SyntheticClient.OPCODE_TEXT:
+            case SyntheticClient.OPCODE_BINARY:
+                if (fin) {
+                    onMessage(client, opcode, payload);
+                } else {
+                    client.fragments = new ByteArrayOutputStream();
+                    client.fragmentOpcode = opcode;
+                    append(client.fragments, payload);
+                }
+                break;
+            case SyntheticClient.OPCODE_CONTINUATION:
+                if (client.fragments != null) {
+                    append(client.fragments, payload);
+                    if (fin) {
+                        ByteBuffer message = ByteBuffer.wrap(client.fragments.toByteArray());
+                        client.fragments = null;
+                        onMessage(client, client.fragmentOpcode, message);
+                    }
+                }
+                break;
+            case SyntheticClient.OPCODE_PING:
+                send(client, SyntheticClient.frame(SyntheticClient.OPCODE_PONG, payload));
+                break;
+            case SyntheticClient.OPCODE_CLOSE:
+                int code = payload.remaining() >= 2 ? payload.getShort(payload.position()) & 0xFFFF : 1005;
+                try {
+                    client.channel.write(SyntheticClient.closeFrame(code));
+                } catch (IOException e) {
+                    // Closing anyway
+                }
+                close(client, code);
+                return false;
+            default:
+                // Pong and anything else
+                break;
+        }
+        return true;
+    }
+
+    private static void append(ByteArrayOutputStream out, ByteBuffer payload) {
+        byte[] data = new byte[payload.remaining()];
+        payload.get(data);
+        out.write(data, 0, data.length);
+    }
+
+    private void onMessage(SyntheticClient client, byte opcode, ByteBuffer payload) throws IOException {
+        long now = System.nanoTime();
+        int size = payload.remaining();
+        if (opcode == SyntheticClient.OPCODE_BINARY) {
+            BinaryMediaFrame frame = BinaryMediaFrame.parse(payload);
+            if (frame != null && frame.getPayloadLength() >= 8) {
+                generator.onVideoDelivered(frame.getPayload().getLong(), now, size);
+            } else {
+                generator.onOtherDelivered(size);
+            }
+            return;
+        }
+
+        if (startsWith(payload, VIDEO_FRAME)) {
+            long stamp = videoStampOfText(payload);
+            if (stamp != 0) {
+                generator.onVideoDelivered(stamp, now, size);
+                return;
+            }
+        } else if (startsWith(payload, CHAT)) {
+            long stamp = chatStampOfText(payload);
+            if (stamp != 0) {
+                generator.onChatDelivered(stamp, now, size);
+                return;
+            }
+        } else if (startsWith(payload, HEARTBEAT_ACK)) {
+            generator.onHeartbeatAck();
+            return;
+        } else if (startsWith(payload, CONNECTED) && !client.joined) {
+            client.joined = true;
+            send(client, SyntheticClient.textFrame(
+                    "USER_JOINED|" + client.meetingId + "|" + client.username + "|joined the meeting"));
+            generator.onJoined(client);
+            return;
+        }
+        generator.onOtherDelivered(size);
+    }
+
+    private static boolean startsWith(ByteBuffer payload, byte[] prefix) {
+        if (payload.remaining() < prefix.length) {
+            return false;
+        }
+        int start = payload.position();
+        for (int i = 0; i < prefix.length; i++) {
+            if (payload.get(start + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Start of the fourth field of a TYPE|MEETING|USER|CONTENT message, or -1
+    private static int contentStart(ByteBuffer payload) {
+        int fields = 0;
+        for (int i = payload.position(); i < payload.limit(); i++) {
+            if (payload.get(i) == '|' && ++fields == 3) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Send time of a text video frame: the first 16 bytes of the Base64 image
+     * are the stamp written by {@link LoadGenerator#videoPayload}.
+     */
+    private static long videoStampOfText(ByteBuffer payload) {
+        int start = contentStart(payload);
+        if (start < 0 || payload.limit() - start < 24) {
+            return 0;
+        }
+        byte[] base64 = new byte[24];
+        payload.get(start, base64);
+        try {
+            return ByteBuffer.wrap(Base64.getDecoder().decode(base64)).getLong();
+        } catch (IllegalArgumentException e) {
+            return 0;
+        }
+    }
+
+    private static long chatStampOfText(ByteBuffer payload) {
+        int start = contentStart(payload);
+        if (start < 0 || payload.limit() - start <= CHAT_STAMP.length) {
+            return 0;
+        }
+        for (int i = 0; i < CHAT_STAMP.length; i++) {
+            if (payload.get(start + i) != CHAT_STAMP[i]) {
+                return 0;
+            }
+        }
+        long stamp = 0;
+        for (int i = start + CHAT_STAMP.length; i < payload.limit(); i++) {
+            byte b = payload.get(i);
+            if (b < '0' || b > '9') {
+                break;
+            }
+            stamp = stamp * 10 + (b - '0');
+        }
+        return stamp;
+    }
+
+    // ---- writing ----
+
+    private void send(SyntheticClient client, ByteBuffer frame) throws IOException {
+        if (client.state == SyntheticClient.State.CLOSED) {
+            return;
+        }
+        if (client.out.isEmpty()) {
+            client.channel.write(frame);
+            if (!frame.hasRemaining()) {
+                return;
+            }
+            client.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+        client.out.add(frame);
+        client.outBytes += frame.remaining();
+    }
+
+    private void flush(SyntheticClient client) throws IOException {
+        while (!client.out.isEmpty()) {
+            ByteBuffer frame = client.out.peek();
+            int before = frame.remaining();
+            client.channel.write(frame);
+            client.outBytes -= before - frame.remaining();
+            if (frame.hasRemaining()) {
+                return;
+            }
+            client.out.poll();
+        }
+        client.key.interestOps(SelectionKey.OP_READ);
+    }
+
+    // ---- publishing ----
+
+    private void publishDue() {
+        long now = System.nanoTime();
+        if (!publishing) {
+            long start = generator.getPublishStart();
+            if (start == 0 || now < start) {
+                return;
+            }
+            publishing = true;
+            scheduleAll(now);
+        }
+
+        long end = generator.getPublishEnd();
+        while (!timers.isEmpty() && timers.peek().nextDue <= now) {
+            SyntheticClient client = timers.poll();
+            if (client.state != SyntheticClient.State.OPEN || now >= end) {
+                continue;
+            }
+            try {
+                publish(client, now);
+            } catch (IOException e) {
+                close(client, -1);
+                continue;
+            }
+            client.updateNextDue();
+            timers.add(client);
+        }
+    }
+
+    // Spread each client's first send over one interval so clients do not publish in lockstep
+    private void scheduleAll(long now) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (SyntheticClient client : clients) {
+            if (client.state != SyntheticClient.State.OPEN || !client.joined) {
+                continue;
+            }
+            if (client.videoPublisher && generator.getVideoIntervalNanos() > 0) {
+                client.nextVideo = now + random.nextLong(generator.getVideoIntervalNanos());
+            }
+            if (generator.getChatIntervalNanos() > 0) {
+                client.nextChat = now + random.nextLong(generator.getChatIntervalNanos());
+            }
+            if (generator.getHeartbeatIntervalNanos() > 0) {
+                client.nextHeartbeat = now + random.nextLong(generator.getHeartbeatIntervalNanos());
+            }
+            client.updateNextDue();
+            if (client.nextDue != Long.MAX_VALUE) {
+                timers.add(client);
+            }
+        }
+    }
+
+    private void publish(SyntheticClient client, long now) throws IOException {
+        if (client.nextVideo <= now) {
+            if (client.outBytes < MAX_CLIENT_BACKLOG) {
+                send(client, generator.videoFrame(client, now));
+            } else {
+                generator.onPublisherBackedUp();
+            }
+            client.nextVideo = next(client.nextVideo, generator.getVideoIntervalNanos(), now);
+        }
+        if (client.nextChat <= now) {
+            send(client, generator.chatFrame(client, now));
+            client.nextChat = next(client.nextChat, generator.getChatIntervalNanos(), now);
+        }
+        if (client.nextHeartbeat <= now) {
+            send(client, SyntheticClient.textFrame("HEARTBEAT|" + client.meetingId + "|" + client.username + "|" +
+                    System.currentTimeMillis()));
+            generator.onHeartbeatSent();
+            client.nextHeartbeat = next(client.nextHeartbeat, generator.getHeartbeatIntervalNanos(), now);
+        }
+    }
+
+    // Keep the rate, but do not burst to catch up after falling more than one interval behind
+    private static long next(long due, long interval, long now) {
+        long next = due + interval;
+        return next > now ? next : now + interval;
+    }
+}
@@ -495,12 +495,12 @@ public class VideoControlsController implements Initializable {
                 HelloApplication.isVideoOn()) {
 
             try {
-                // Convert Image to Base64 for transmission
-                String base64Image = convertImageToBase64(frame);
+                // Encode to JPEG; HelloApplication picks binary or Base64 text transport
+                byte[] jpegImage = convertImageToJpeg(frame);
 
-                if (base64Image != null && !base64Image.isEmpty()) {
+                if (jpegImage != null && jpegImage.length > 0) {
                     // Send via WebSocket
-                    HelloApplication.sendWebSocketMessage("VIDEO_FRAME", meetingId, username, base64Image);
+                    HelloApplication.sendVideoFrame(meetingId, username, jpegImage);
 
                     // Optional: Limit frequency of sending full frames
                     // In a real app, you'd use video compression
@@ -511,7 +511,7 @@ public class VideoControlsController implements Initializable {
         }
     }
 
-    private String convertImageToBase64(Image image) {
+    private byte[] convertImageToJpeg(Image image) {
         try {
             // Convert to BufferedImage
             java.awt.image.BufferedImage bufferedImage =
@@ -522,13 +522,10 @@ public class VideoControlsController implements Initializable {
             // Compress to JPEG to reduce size
             java.io.ByteArrayOutputStream baos = new java.io.ByteArrayOutputStream();
             javax.imageio.ImageIO.write(bufferedImage, "jpg", baos);
-            byte[] imageBytes = baos.toByteArray();
-
-            // Convert to Base64
-            return java.util.Base64.getEncoder().encodeToString(imageBytes);
+            return baos.toByteArray();
 
         } catch (Exception e) {
-            System.err.println("❌ Error converting image to Base64: " + e.getMessage());
+            System.err.println("❌ Error converting image to JPEG: " + e.getMessage());
             return null;
         }
     }
@@ -0,0 +1,105 @@
+package org.example.zoom.websocket;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Feeds {@link BandwidthEstimator} synthetic drain samples and ping round
+ * trips, on a clock of its own, the way the relay's sampler would.
+ */
+class BandwidthEstimatorTest {
+
+    private static final long SAMPLE_MS = 250;
+
+    private final BandwidthEstimator estimator = new BandwidthEstimator();
+    private long now = 1_000_000;
+    private long written;
+
+    // One sampling period in which the socket wrote bytesPerSecond's worth
+    private void drain(long bytesPerSecond, boolean limited) {
+        now += SAMPLE_MS;
+        written += bytesPerSecond * SAMPLE_MS / 1000;
+        estimator.sample(written, limited, now);
+    }
+
+    // A ping sent now whose pong comes back rttMs later, with bytesPerSecond written meanwhile
+    private void ping(long rttMs, long bytesPerSecond) {
+        estimator.pingSent(written, now);
+        now += rttMs;
+        written += bytesPerSecond * rttMs / 1000;
+        estimator.pongReceived(now);
+    }
+
+    @Test
+    void unknownUntilTheConnectionFallsBehind() {
+        estimator.sample(written, false, now);
+        for (int i = 0; i < 20; i++) {
+            drain(500_000, false);
+        }
+        assertFalse(estimator.isCapacityKnown());
+        assertEquals(BandwidthEstimator.UNKNOWN, estimator.getEstimateBytesPerSecond());
+        assertTrue(estimator.allowVideo(1_000_000, now));
+    }
+
+    @Test
+    void convergesToTheRateOfALimitedLink() {
+        estimator.sample(written, true, now);
+        for (int i = 0; i < 10; i++) {
+            drain(200_000, true);
+        }
+        assertEquals(200_000, estimator.getEstimateBytesPerSecond(), 2_000);
+
+        // The link slows down; the estimate follows within a few samples
+        for (int i = 0; i < 10; i++) {
+            drain(50_000, true);
+        }
+        assertEquals(50_000, estimator.getEstimateBytesPerSecond(), 1_000);
+        assertEquals(0, estimator.getBackoffCount());
+    }
+
+    @Test
+    void backsOffWhenTheRoundTripInflates() {
+        estimator.sample(written, true, now);
+        for (int i = 0; i < 10; i++) {
+            drain(100_000, true);
+            ping(40, 100_000);
+        }
+        long before = estimator.getEstimateBytesPerSecond();
+        assertEquals(0, estimator.getBackoffCount());
+
+        // Data piles up past the queue: pongs come back late and only 60 KB/s is delivered
+        for (int i = 0; i < 10; i++) {
+            ping(600, 60_000);
+        }
+        assertTrue(estimator.getBackoffCount() > 0);
+        assertTrue(estimator.getEstimateBytesPerSecond() < before);
+        // Held well below the delivery rate, not just following it, so the backlog drains
+        assertTrue(estimator.getEstimateBytesPerSecond() < 60_000 * 0.9);
+        assertTrue(estimator.getQueueDelayMs() > 150);
+    }
+
+    @Test
+    void forgetsTheCapacityAfterThirtySecondsWithoutBacklog() {
+        estimator.sample(written, true, now);
+        for (int i = 0; i < 4; i++) {
+            drain(100_000, true);
+        }
+        assertTrue(estimator.isCapacityKnown());
+
+        // 29 s keeping up: still capped, and only probing a little above what flows
+        for (long elapsed = 0; elapsed < 29_000; elapsed += SAMPLE_MS) {
+            drain(80_000, false);
+        }
+        assertTrue(estimator.isCapacityKnown());
+        assertTrue(estimator.getEstimateBytesPerSecond() <= 80_000 * 1.5);
+
+        for (long elapsed = 0; elapsed < 2_000; elapsed += SAMPLE_MS) {
+            drain(80_000, false);
+        }
+        assertFalse(estimator.isCapacityKnown());
+        assertEquals(BandwidthEstimator.UNKNOWN, estimator.getVideoBudget());
+    }
+}
@@ -0,0 +1,55 @@
+package org.example.zoom.websocket;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Parses simulcast video frames as the relay receives them, including headers
+ * no well-behaved publisher sends.
+ */
+class BinaryMediaFrameTest {
+
+    private static final byte[] JPEG = {(byte) 0xFF, (byte) 0xD8, 1, 2, 3, (byte) 0xFF, (byte) 0xD9};
+
+    private static ByteBuffer frame(int layer, int topLayer) {
+        return BinaryMediaFrame.encode(BinaryMediaFrame.TYPE_VIDEO_FRAME,
+                BinaryMediaFrame.simulcastFlags(layer, topLayer), "123456", "alice", 7, 1_000L, JPEG);
+    }
+
+    @Test
+    void parsesEveryLayerUpToTheTop() {
+        for (int layer = SimulcastLayers.LOW; layer <= SimulcastLayers.HIGH; layer++) {
+            BinaryMediaFrame parsed = BinaryMediaFrame.parse(frame(layer, SimulcastLayers.HIGH));
+            assertTrue(parsed != null);
+            assertTrue(parsed.isSimulcast());
+            assertEquals(layer, parsed.getLayer());
+            assertEquals(SimulcastLayers.HIGH, parsed.getTopLayer());
+            assertEquals(JPEG.length, parsed.getPayloadLength());
+        }
+    }
+
+    @Test
+    void rejectsALayerBeyondTheLayersTheRelayKnows() {
+        // Two bits hold the layer, so 3 fits the header but indexes past per-layer arrays
+        ByteBuffer malformed = frame(SimulcastLayers.COUNT, SimulcastLayers.COUNT);
+        assertTrue(BinaryMediaFrame.isMediaFrame(malformed));
+        assertEquals(null, BinaryMediaFrame.parse(malformed));
+    }
+
+    @Test
+    void rejectsALayerAboveItsTopLayer() {
+        assertEquals(null, BinaryMediaFrame.parse(frame(SimulcastLayers.HIGH, SimulcastLayers.LOW)));
+    }
+
+    @Test
+    void leavesTheBufferPositionAlone() {
+        ByteBuffer malformed = frame(SimulcastLayers.COUNT, SimulcastLayers.COUNT);
+        int position = malformed.position();
+        BinaryMediaFrame.parse(malformed);
+        assertEquals(position, malformed.position());
+    }
+}
@@ -0,0 +1,99 @@
+package org.example.zoom.websocket;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.java_websocket.WebSocket;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs {@link PresenceBatcher} batches through the delta encoding the relay
+ * publishes and into a client's {@link PresenceState}, flushing by hand
+ * instead of on the presence thread.
+ */
+class PresenceBatcherTest {
+
+    private static final String DEVICE = "3f2a9c1e";
+    private static final String ENTRY = PresenceState.Device.encode("alice", DEVICE, "10.0.0.7", "desktop", 1L);
+
+    private final PresenceState roster = new PresenceState();
+    private long version;
+    private final PresenceBatcher batcher = new PresenceBatcher(250, 8, (events, newcomers, snapshot) -> {
+        StringBuilder ops = new StringBuilder();
+        for (PresenceBatcher.Event event : events) {
+            if (!event.isConnected()) {
+                PresenceState.appendRemoved(ops, event.getUsername(), event.getDeviceId());
+            } else if (event.isUpdated()) {
+                PresenceState.appendUpdated(ops, event.getEntry());
+            } else {
+                PresenceState.appendAdded(ops, event.getEntry());
+            }
+        }
+        roster.applyDelta(++version, ops.toString(), new ArrayList<>());
+    });
+
+    PresenceBatcherTest() {
+        roster.applySnapshot(0, "");
+    }
+
+    private static WebSocket connection() {
+        return (WebSocket) Proxy.newProxyInstance(WebSocket.class.getClassLoader(), new Class<?>[]{WebSocket.class},
+                (proxy, method, args) -> method.getName().equals("equals") ? proxy == args[0]
+                        : method.getName().equals("hashCode") ? System.identityHashCode(proxy) : null);
+    }
+
+    private boolean listed() {
+        List<PresenceState.Device> devices = roster.getDevices();
+        return devices.size() == 1 && devices.get(0).getDeviceId().equals(DEVICE);
+    }
+
+    @Test
+    void reconnectThenOldSocketClosesKeepsTheDevice() {
+        WebSocket old = connection();
+        WebSocket reconnected = connection();
+        batcher.connected(old, "alice", DEVICE, ENTRY);
+        batcher.flush();
+        assertTrue(listed());
+
+        batcher.connected(reconnected, "alice", DEVICE, ENTRY);
+        batcher.flush();
+        // The old socket is only noticed as closed after the client reconnected
+        batcher.disconnected(old, "alice", DEVICE);
+        batcher.flush();
+        assertTrue(listed());
+        assertTrue(batcher.isConnected(DEVICE));
+
+        batcher.disconnected(reconnected, "alice", DEVICE);
+        batcher.flush();
+        assertEquals(0, roster.size());
+        assertFalse(batcher.isConnected(DEVICE));
+    }
+
+    @Test
+    void reconnectAndOldCloseWithinOneIntervalKeepTheDevice() {
+        WebSocket old = connection();
+        WebSocket reconnected = connection();
+        batcher.connected(old, "alice", DEVICE, ENTRY);
+        batcher.flush();
+
+        batcher.connected(reconnected, "alice", DEVICE, ENTRY);
+        batcher.disconnected(old, "alice", DEVICE);
+        batcher.flush();
+        assertTrue(listed());
+    }
+
+    @Test
+    void lastConnectionClosingRemovesTheDevice() {
+        WebSocket conn = connection();
+        batcher.connected(conn, "alice", DEVICE, ENTRY);
+        batcher.flush();
+        batcher.disconnected(conn, "alice", DEVICE);
+        batcher.flush();
+        assertEquals(0, roster.size());
+    }
+}